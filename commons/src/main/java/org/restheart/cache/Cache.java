@@ -17,6 +17,7 @@
  */
 package org.restheart.cache;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -37,5 +38,13 @@ public interface Cache<K,V> {
     
     public void invalidate(K key);
     
+    /**
+     * invalidates all the entries; the default implementation invalidates
+     * the keys of asMap() one by one
+     */
+    public default void invalidateAll() {
+        List.copyOf(asMap().keySet()).forEach(this::invalidate);
+    }
+    
     public Map<K, Optional<V>> asMap();
 }
\ No newline at end of file
@@ -75,6 +75,11 @@ public class GuavaLoadingCache<K, V> implements org.restheart.cache.LoadingCache
         wrapped.invalidate(key);
     }
 
+    @Override
+    public void invalidateAll() {
+        wrapped.invalidateAll();
+    }
+
     @Override
     public Map<K, Optional<V>> asMap() {
         return wrapped.asMap();
@@ -23,6 +23,7 @@ import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.PathTemplateMatch;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
@@ -63,6 +64,7 @@ public class BsonRequest extends Request<BsonValue> {
     private BsonValue content;
 
     private Path filePath;
+    private InputStream fileInputStream;
 
     private int page = 1;
     private int pagesize = 100;
@@ -91,6 +93,12 @@ public class BsonRequest extends Request<BsonValue> {
 
     private boolean noProps = false;
 
+    private boolean stream = false;
+
+    private String keyset = null;
+
+    private String cursor = null;
+
     private boolean inError = false;
 
     private Account authenticatedAccount = null;
@@ -156,6 +164,16 @@ public class BsonRequest extends Request<BsonValue> {
 
         this.noProps = exchange.getQueryParameters().get(NO_PROPS_KEY) != null;
 
+        this.stream = exchange.getQueryParameters().get(STREAM_QPARAM_KEY) != null;
+
+        this.keyset = exchange.getQueryParameters().containsKey(KEYSET_QPARAM_KEY)
+                ? exchange.getQueryParameters().get(KEYSET_QPARAM_KEY).getFirst()
+                : null;
+
+        this.cursor = exchange.getQueryParameters().containsKey(CURSOR_QPARAM_KEY)
+                ? exchange.getQueryParameters().get(CURSOR_QPARAM_KEY).getFirst()
+                : null;
+
         var _jsonMode = exchange.getQueryParameters().containsKey(JSON_MODE_QPARAM_KEY)
                 ? exchange.getQueryParameters().get(JSON_MODE_QPARAM_KEY).getFirst().toUpperCase()
                 : null;
@@ -844,12 +862,12 @@ public class BsonRequest extends Request<BsonValue> {
                 BsonArray _filters = new BsonArray();
 
                 filter.stream().forEach((String f) -> {
-                    _filters.add(BsonDocument.parse(f));
+                    _filters.add(ParsedQueryCache.getInstance().getDocument(f, false));
                 });
 
                 filterQuery.put("$and", _filters);
             } else if (filter.size() == 1) {
-                filterQuery.putAll(BsonDocument.parse(filter.getFirst()));  // this can throw JsonParseException for invalid filter parameters
+                filterQuery.putAll(ParsedQueryCache.getInstance().getDocument(filter.getFirst(), false));  // this can throw JsonParseException for invalid filter parameters
             } else {
                 return filterQuery;
             }
@@ -869,24 +887,7 @@ public class BsonRequest extends Request<BsonValue> {
             sort.put("_id", new BsonInt32(-1));
         } else {
             sortBy.stream().forEach((s) -> {
-
-                String _s = s.trim(); // the + sign is decoded into a space, in case remove it
-
-                // manage the case where sort_by is a json object
-                try {
-                    BsonDocument _sort = BsonDocument.parse(_s);
-
-                    sort.putAll(_sort);
-                } catch (JsonParseException e) {
-                    // sort_by is just a string, i.e. a property name
-                    if (_s.startsWith("-")) {
-                        sort.put(_s.substring(1), new BsonInt32(-1));
-                    } else if (_s.startsWith("+")) {
-                        sort.put(_s.substring(1), new BsonInt32(11));
-                    } else {
-                        sort.put(_s, new BsonInt32(1));
-                    }
-                }
+                sort.putAll(ParsedQueryCache.getInstance().getSortDocument(s));
             });
         }
 
@@ -904,24 +905,8 @@ public class BsonRequest extends Request<BsonValue> {
             return null;
         } else {
             hint.stream().forEach((s) -> {
-
-                String _s = s.trim(); // the + sign is decoded into a space, in case remove it
-
-                // manage the case where hint is a json object
-                try {
-                    BsonDocument _hint = BsonDocument.parse(_s);
-
-                    ret.putAll(_hint);
-                } catch (JsonParseException e) {
-                    // ret is just a string, i.e. an index name
-                    if (_s.startsWith("-")) {
-                        ret.put(_s.substring(1), new BsonInt32(-1));
-                    } else if (_s.startsWith("+")) {
-                        ret.put(_s.substring(1), new BsonInt32(11));
-                    } else {
-                        ret.put(_s, new BsonInt32(1));
-                    }
-                }
+                // either a json object or an index name
+                ret.putAll(ParsedQueryCache.getInstance().getSortDocument(s));
             });
         }
 
@@ -939,7 +924,7 @@ public class BsonRequest extends Request<BsonValue> {
             return null;
         } else {
             keys.stream().forEach((String f) -> {
-                projection.putAll(BsonDocument.parse(f));  // this can throw JsonParseException for invalid keys parameters
+                projection.putAll(ParsedQueryCache.getInstance().getDocument(f, false));  // this can throw JsonParseException for invalid keys parameters
             });
         }
 
@@ -1131,6 +1116,21 @@ public class BsonRequest extends Request<BsonValue> {
         this.filePath = filePath;
     }
 
+    /**
+     * @return the stream of the file being uploaded, read from the request
+     * while it is received; null if the file has been stored at filePath
+     */
+    public InputStream getFileInputStream() {
+        return fileInputStream;
+    }
+
+    /**
+     * @param fileInputStream the fileInputStream to set
+     */
+    public void setFileInputStream(InputStream fileInputStream) {
+        this.fileInputStream = fileInputStream;
+    }
+
     /**
      * @return keys
      */
@@ -1283,6 +1283,71 @@ public class BsonRequest extends Request<BsonValue> {
         this.noProps = noProps;
     }
 
+    /**
+     * @return true if the stream query parameter is specified, i.e. the
+     * documents should be written to the response as they are read from the
+     * db cursor
+     */
+    public boolean isStream() {
+        return stream;
+    }
+
+    /**
+     * @param stream the stream to set
+     */
+    public void setStream(boolean stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @return true if the keyset query parameter is specified, i.e. the
+     * pages are selected with a range query on the sort keys rather than
+     * skipping the documents of the previous pages
+     */
+    public boolean isKeyset() {
+        return keyset != null;
+    }
+
+    /**
+     * @return the keyset token, i.e. the encoded sort key values of the last
+     * document of the previous page; empty for the first page, null if the
+     * keyset query parameter is not specified
+     */
+    public String getKeyset() {
+        return keyset;
+    }
+
+    /**
+     * @param keyset the keyset token to set
+     */
+    public void setKeyset(String keyset) {
+        this.keyset = keyset;
+    }
+
+    /**
+     * @return true if the cursor query parameter is specified, i.e. the
+     * following pages of the aggregation results are read resuming the
+     * server-side cursor rather than executing the aggregation again
+     */
+    public boolean isCursor() {
+        return cursor != null;
+    }
+
+    /**
+     * @return the cursor token returned with the previous page; empty for
+     * the first page, null if the cursor query parameter is not specified
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @param cursor the cursor token to set
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     /**
      * @return the inError
      */
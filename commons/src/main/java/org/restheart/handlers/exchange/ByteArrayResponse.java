@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
-import static org.restheart.handlers.exchange.AbstractExchange.MAX_BUFFERS;
 import org.restheart.utils.BuffersUtils;
 import org.slf4j.LoggerFactory;
 
@@ -60,13 +59,12 @@ public class ByteArrayResponse extends ProxableResponse<byte[]> {
         if (content == null) {
             setRawContent(null);
         } else {
-            PooledByteBuffer[] dest;
-            if (isContentAvailable()) {
-                dest = getRawContent();
-            } else {
-                dest = new PooledByteBuffer[MAX_BUFFERS];
-                setRawContent(dest);
-            }
+            PooledByteBuffer[] dest = BuffersUtils.ensureCapacity(
+                    isContentAvailable() ? getRawContent() : null,
+                    content.length,
+                    wrapped);
+
+            setRawContent(dest);
 
             BuffersUtils.transfer(
                     ByteBuffer.wrap(content),
@@ -119,6 +119,21 @@ public interface ExchangeKeys {
      */
     public static final String JSON_MODE_QPARAM_KEY = "jsonMode";
 
+    /**
+     *
+     */
+    public static final String STREAM_QPARAM_KEY = "stream";
+
+    /**
+     *
+     */
+    public static final String KEYSET_QPARAM_KEY = "keyset";
+
+    /**
+     *
+     */
+    public static final String CURSOR_QPARAM_KEY = "cursor";
+
     // matadata
 
     /**
@@ -649,6 +664,11 @@ public interface ExchangeKeys {
          */
         RANDOM,
 
+        /**
+         *
+         */
+        ADAPTIVE,
+
         /**
          *
          */
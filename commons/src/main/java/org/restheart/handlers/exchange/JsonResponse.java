@@ -80,16 +80,17 @@ public class JsonResponse extends ProxableResponse<JsonElement> {
         if (content == null) {
             setRawContent(null);
         } else {
-            PooledByteBuffer[] dest;
-            if (isContentAvailable()) {
-                dest = getRawContent();
-            } else {
-                dest = new PooledByteBuffer[MAX_BUFFERS];
-                setRawContent(dest);
-            }
+            var data = content.toString().getBytes();
+
+            PooledByteBuffer[] dest = BuffersUtils.ensureCapacity(
+                    isContentAvailable() ? getRawContent() : null,
+                    data.length,
+                    wrapped);
+
+            setRawContent(dest);
 
             BuffersUtils.transfer(
-                    ByteBuffer.wrap(content.toString().getBytes()),
+                    ByteBuffer.wrap(data),
                     dest,
                     wrapped);
         }
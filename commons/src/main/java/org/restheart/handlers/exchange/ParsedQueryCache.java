@@ -0,0 +1,159 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.handlers.exchange;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.json.JsonParseException;
+import org.restheart.cache.Cache;
+import org.restheart.cache.CacheFactory;
+
+/**
+ * Cache of the parsed json query parameters (filter, sort, keys, hint).
+ *
+ * Clients tend to send the same query strings over and over; this avoids
+ * parsing them at every request and, for the sort and hint parameters,
+ * when they are just field names.
+ *
+ * The cached documents are immutable RawBsonDocuments; the getters return
+ * mutable copies.
+ *
+ * The filter and keys parameters are looked up by BsonRequestInitializer,
+ * to validate them, and again by the BsonRequest getters: only the former
+ * lookup is recorded in the hits and misses counters, so that they count
+ * one lookup per parameter and request.
+ */
+public class ParsedQueryCache {
+    private static final long MAX_CACHE_SIZE = 1_000;
+    private static final long TTL = 10 * 60 * 1000;
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    /**
+     *
+     * @return
+     */
+    public static ParsedQueryCache getInstance() {
+        return ParsedQueryCacheSingletonHolder.INSTANCE;
+    }
+
+    private final Cache<String, RawBsonDocument> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ParsedQueryCache() {
+        this.cache = CacheFactory.createLocalCache(MAX_CACHE_SIZE,
+                Cache.EXPIRE_POLICY.AFTER_READ,
+                TTL);
+    }
+
+    /**
+     *
+     * @param json the json object
+     * @return a copy of the parsed document
+     * @throws JsonParseException if json is not valid
+     * @throws org.bson.BsonInvalidOperationException if json is not an object
+     */
+    public BsonDocument getDocument(String json) throws JsonParseException {
+        return getDocument(json, true);
+    }
+
+    /**
+     *
+     * @param json the json object
+     * @param record true to record the lookup in the hits and misses counters
+     * @return a copy of the parsed document
+     * @throws JsonParseException if json is not valid
+     * @throws org.bson.BsonInvalidOperationException if json is not an object
+     */
+    BsonDocument getDocument(String json, boolean record)
+            throws JsonParseException {
+        Optional<RawBsonDocument> cached = cache.get(json);
+
+        if (cached != null && cached.isPresent()) {
+            if (record) {
+                hits.increment();
+            }
+
+            return cached.get().decode(CODEC);
+        }
+
+        if (record) {
+            misses.increment();
+        }
+
+        BsonDocument parsed = BsonDocument.parse(json);
+
+        cache.put(json, new RawBsonDocument(parsed, CODEC));
+
+        return parsed;
+    }
+
+    /**
+     * parses a sort or hint expression that is either a json object or a
+     * field name, optionally prefixed with - (descending) or + (ascending)
+     *
+     * @param expression
+     * @return a copy of the parsed document
+     */
+    public BsonDocument getSortDocument(String expression) {
+        String _s = expression.trim(); // the + sign is decoded into a space, in case remove it
+
+        // manage the case where the expression is a json object
+        if (_s.startsWith("{")) {
+            try {
+                return getDocument(_s);
+            } catch (JsonParseException e) {
+                // not a json object, use it as a field name
+            }
+        }
+
+        if (_s.startsWith("-")) {
+            return new BsonDocument(_s.substring(1), new BsonInt32(-1));
+        } else if (_s.startsWith("+")) {
+            return new BsonDocument(_s.substring(1), new BsonInt32(11));
+        } else {
+            return new BsonDocument(_s, new BsonInt32(1));
+        }
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private static class ParsedQueryCacheSingletonHolder {
+        private static final ParsedQueryCache INSTANCE = new ParsedQueryCache();
+
+        private ParsedQueryCacheSingletonHolder() {
+        }
+    }
+}
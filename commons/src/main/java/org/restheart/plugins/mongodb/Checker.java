@@ -18,6 +18,7 @@
 package org.restheart.plugins.mongodb;
 
 import io.undertow.server.HttpServerExchange;
+import java.util.List;
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.restheart.handlers.exchange.RequestContext;
@@ -112,6 +113,28 @@ public interface Checker extends Plugin {
         return check(exchange, context, contentToCheck, args);
     }
 
+    /**
+     * Checks the documents of a bulk request. The default implementation
+     * applies check() to each document and fails at the first failing one;
+     * checkers can override it to check the documents at once.
+     *
+     * @param exchange the server exchange
+     * @param context the request context
+     * @param contentsToCheck the documents to check
+     * @param args the args sepcified in the collection metadata via args property
+     * @param confArgs the args specified in the configuration file via args property
+     * @return true if check completes successfully for all the documents
+     */
+    default boolean checkAll(
+            HttpServerExchange exchange,
+            RequestContext context,
+            List<BsonDocument> contentsToCheck,
+            BsonValue args,
+            BsonValue confArgs) {
+        return contentsToCheck.stream().allMatch(contentToCheck
+                -> check(exchange, context, contentToCheck, args, confArgs));
+    }
+
     /**
      * Specify when the checker should be performed: with BEFORE_WRITE the
      * checkers gets the request data (that may use the dot notation and update
@@ -20,8 +20,11 @@ package org.restheart.utils;
 import io.undertow.connector.PooledByteBuffer;
 import io.undertow.server.HttpServerExchange;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import static org.restheart.handlers.exchange.AbstractExchange.MAX_BUFFERS;
 import static org.restheart.handlers.exchange.AbstractExchange.MAX_CONTENT_SIZE;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,20 +50,22 @@ public class BuffersUtils {
             return null;
         }
 
-        ByteBuffer dst = ByteBuffer.allocate(MAX_CONTENT_SIZE);
+        long size = remaining(srcs);
+
+        if (size > MAX_CONTENT_SIZE) {
+            LOGGER.error("Request content exceeeded {} bytes limit",
+                    MAX_CONTENT_SIZE);
+            throw new IOException("Request content exceeeded "
+                    + MAX_CONTENT_SIZE + " bytes limit");
+        }
+
+        ByteBuffer dst = ByteBuffer.allocate((int) size);
 
         for (int i = 0; i < srcs.length; i++) {
             PooledByteBuffer src = srcs[i];
             if (src != null) {
                 final ByteBuffer srcBuffer = src.getBuffer();
 
-                if (srcBuffer.remaining() > dst.remaining()) {
-                    LOGGER.error("Request content exceeeded {} bytes limit",
-                            MAX_CONTENT_SIZE);
-                    throw new IOException("Request content exceeeded "
-                            + MAX_CONTENT_SIZE + " bytes limit");
-                }
-
                 if (srcBuffer.hasRemaining()) {
                     Buffers.copy(dst, srcBuffer);
 
@@ -73,6 +78,35 @@ public class BuffersUtils {
         return dst.flip();
     }
 
+    /**
+     * @param srcs
+     * @return the number of bytes available in srcs
+     */
+    public static long remaining(final PooledByteBuffer[] srcs) {
+        long size = 0;
+
+        if (srcs != null) {
+            for (PooledByteBuffer src : srcs) {
+                if (src != null) {
+                    size += src.getBuffer().remaining();
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns an InputStream that reads the content of the buffers without
+     * copying it; the position of the buffers is not modified.
+     *
+     * @param srcs
+     * @return the InputStream
+     */
+    public static InputStream toInputStream(final PooledByteBuffer[] srcs) {
+        return new PooledByteBuffersInputStream(srcs);
+    }
+
     public static byte[] toByteArray(final PooledByteBuffer[] srcs)
             throws IOException {
         ByteBuffer content = toByteBuffer(srcs);
@@ -156,6 +190,38 @@ public class BuffersUtils {
         }
     }
 
+    /**
+     * makes sure that the pooled buffers array can hold size bytes, up to
+     * MAX_BUFFERS buffers. Buffers are allocated lazily by append() and
+     * transfer(), this only grows the array that references them.
+     *
+     * @param dest the pooled buffers, can be null
+     * @param size the number of bytes to hold
+     * @param exchange
+     * @return dest if it is large enough, otherwise a larger copy of it
+     */
+    public static PooledByteBuffer[] ensureCapacity(
+            final PooledByteBuffer[] dest,
+            final long size,
+            HttpServerExchange exchange) {
+        int bufferSize = exchange.getConnection()
+                .getByteBufferPool()
+                .getBufferSize();
+
+        int needed = (int) Math.min(MAX_BUFFERS,
+                Math.max(1, (size + bufferSize - 1) / bufferSize));
+
+        if (dest == null) {
+            return new PooledByteBuffer[needed];
+        } else if (dest.length >= needed) {
+            return dest;
+        } else {
+            // grow geometrically to limit the copies
+            return Arrays.copyOf(dest, Math.min(MAX_BUFFERS,
+                    Math.max(needed, dest.length * 2)));
+        }
+    }
+
     /**
      * append the src data to the pooled buffers
      *
@@ -234,4 +300,59 @@ public class BuffersUtils {
 
         return copied;
     }
+
+    private static class PooledByteBuffersInputStream extends InputStream {
+        private final ByteBuffer[] buffers;
+        private int idx = 0;
+
+        PooledByteBuffersInputStream(final PooledByteBuffer[] srcs) {
+            this.buffers = srcs == null
+                    ? new ByteBuffer[0]
+                    : Arrays.stream(srcs)
+                            .filter(src -> src != null)
+                            .map(src -> src.getBuffer().duplicate())
+                            .toArray(ByteBuffer[]::new);
+        }
+
+        private ByteBuffer current() {
+            while (idx < buffers.length && !buffers[idx].hasRemaining()) {
+                idx++;
+            }
+
+            return idx < buffers.length ? buffers[idx] : null;
+        }
+
+        @Override
+        public int read() {
+            var current = current();
+
+            return current == null ? -1 : current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            var current = current();
+
+            if (current == null) {
+                return -1;
+            }
+
+            int read = Math.min(len, current.remaining());
+
+            current.get(b, off, read);
+
+            return read;
+        }
+
+        @Override
+        public int available() {
+            var current = current();
+
+            return current == null ? 0 : current.remaining();
+        }
+    }
 }
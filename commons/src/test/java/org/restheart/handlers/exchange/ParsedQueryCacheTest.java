@@ -0,0 +1,88 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.handlers.exchange;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.json.JsonParseException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import org.junit.Test;
+
+public class ParsedQueryCacheTest {
+
+    @Test
+    public void testGetDocument() {
+        var cache = ParsedQueryCache.getInstance();
+        var json = "{'a':{'$gt':1},'b':[1,2]}";
+
+        long hits = cache.hits();
+        long misses = cache.misses();
+
+        var first = cache.getDocument(json);
+        var second = cache.getDocument(json);
+
+        assertEquals(BsonDocument.parse(json), first);
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        assertEquals(misses + 1, cache.misses());
+        assertEquals(hits + 1, cache.hits());
+    }
+
+    @Test
+    public void testUnrecordedLookup() {
+        var cache = ParsedQueryCache.getInstance();
+        var json = "{'f':1}";
+
+        // as BsonRequestInitializer then the BsonRequest getters
+        cache.getDocument(json);
+
+        long hits = cache.hits();
+        long misses = cache.misses();
+
+        assertEquals(BsonDocument.parse(json), cache.getDocument(json, false));
+        assertEquals(misses, cache.misses());
+        assertEquals(hits, cache.hits());
+    }
+
+    @Test
+    public void testReturnedDocumentsAreCopies() {
+        var cache = ParsedQueryCache.getInstance();
+        var json = "{'c':{'d':1}}";
+
+        cache.getDocument(json).getDocument("c").put("e", new BsonInt32(2));
+
+        assertEquals(BsonDocument.parse(json), cache.getDocument(json));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testInvalidDocument() {
+        ParsedQueryCache.getInstance().getDocument("{'a':");
+    }
+
+    @Test
+    public void testGetSortDocument() {
+        var cache = ParsedQueryCache.getInstance();
+
+        assertEquals(BsonDocument.parse("{'a':1}"), cache.getSortDocument("a"));
+        assertEquals(BsonDocument.parse("{'a':-1}"), cache.getSortDocument(" -a"));
+        assertEquals(BsonDocument.parse("{'a':1,'b':-1}"),
+                cache.getSortDocument("{'a':1,'b':-1}"));
+        assertEquals(BsonDocument.parse("{'{a':1}"), cache.getSortDocument("{a"));
+    }
+}
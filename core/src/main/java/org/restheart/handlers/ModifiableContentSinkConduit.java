@@ -26,14 +26,12 @@ import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import org.restheart.handlers.exchange.AbstractExchange;
-import static org.restheart.handlers.exchange.AbstractExchange.MAX_BUFFERS;
 import org.restheart.handlers.exchange.ByteArrayResponse;
 import org.restheart.handlers.exchange.ProxableResponse;
 import org.restheart.plugins.InterceptPoint;
 import org.restheart.plugins.PluginsRegistryImpl;
 import org.restheart.utils.BuffersUtils;
 import org.restheart.utils.HttpStatus;
-import static org.restheart.utils.PluginUtils.interceptPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.IoUtils;
@@ -54,9 +52,13 @@ public class ModifiableContentSinkConduit
 
     static final Logger LOGGER = LoggerFactory.getLogger(ModifiableContentSinkConduit.class);
 
+    private static final Method RESET_FIXED_LENGTH = resetFixedLengthMethod();
+
     //private ByteBuffer data = null;
     private final HttpServerExchange exchange;
 
+    private long buffered = 0;
+
     /**
      * Construct a new instance.
      *
@@ -78,17 +80,29 @@ public class ModifiableContentSinkConduit
      * @return
      */
     private void resetBufferPool(HttpServerExchange exchange) {
-        var buffers = new PooledByteBuffer[MAX_BUFFERS];
+        var buffers = new PooledByteBuffer[1];
         exchange.putAttachment(ProxableResponse.BUFFERED_RESPONSE_DATA,
                 buffers);
     }
 
+    /**
+     * the buffers array grows as the content is written, up to MAX_BUFFERS
+     */
     @Override
     public int write(ByteBuffer src) throws IOException {
-        return BuffersUtils.append(src,
-                (PooledByteBuffer[]) exchange
-                        .getAttachment(ProxableResponse.BUFFERED_RESPONSE_DATA),
+        var buffers = BuffersUtils.ensureCapacity(
+                exchange.getAttachment(ProxableResponse.BUFFERED_RESPONSE_DATA),
+                buffered + src.remaining(),
                 exchange);
+
+        exchange.putAttachment(ProxableResponse.BUFFERED_RESPONSE_DATA,
+                buffers);
+
+        var written = BuffersUtils.append(src, buffers, exchange);
+
+        buffered += written;
+
+        return written;
     }
 
     @Override
@@ -149,88 +163,84 @@ public class ModifiableContentSinkConduit
     private void executeResponseInterceptor(HttpServerExchange exchange) {
         var resp = ByteArrayResponse.wrap(exchange);
 
-        PluginsRegistryImpl.getInstance()
-                .getInterceptors()
-                .stream()
-                .filter(ri -> ri.isEnabled())
-                .map(ri -> ri.getInstance())
-                .filter(ri -> ri.resolve(exchange))
-                .filter(ri -> interceptPoint(ri) == InterceptPoint.RESPONSE)
-                .forEachOrdered(ri -> {
-                    LOGGER.debug("Executing response interceptor {} for {}",
-                            ri.getClass().getSimpleName(),
-                            exchange.getRequestPath());
-
-                    try {
-                        ri.handle(exchange);
-                    }
-                    catch (Exception ex) {
-                        LOGGER.error("Error executing response interceptor {} for {}",
-                                ri.getClass().getSimpleName(),
-                                exchange.getRequestPath(),
-                                ex);
-                        AbstractExchange.setInError(exchange);
-                        // set error message
-                        ByteArrayResponse response = ByteArrayResponse
-                                .wrap(exchange);
-
-                        // dump bufferd content
-                        BuffersUtils.dump("content buffer "
-                                + exchange.getRequestPath(),
-                                resp.getRawContent());
-
-                        response.endExchangeWithMessage(
-                                HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                "Error executing response interceptor "
-                                + ri.getClass().getSimpleName(),
-                                ex);
-                    }
-                });
+        for (var ri : PluginsRegistryImpl.getInstance()
+                .getInterceptors(InterceptPoint.RESPONSE)) {
+            if (!ri.resolve(exchange)) {
+                continue;
+            }
+
+            LOGGER.debug("Executing response interceptor {} for {}",
+                    ri.getClass().getSimpleName(),
+                    exchange.getRequestPath());
+
+            try {
+                ri.handle(exchange);
+            }
+            catch (Exception ex) {
+                LOGGER.error("Error executing response interceptor {} for {}",
+                        ri.getClass().getSimpleName(),
+                        exchange.getRequestPath(),
+                        ex);
+                AbstractExchange.setInError(exchange);
+                // set error message
+                ByteArrayResponse response = ByteArrayResponse
+                        .wrap(exchange);
+
+                // dump bufferd content
+                BuffersUtils.dump("content buffer "
+                        + exchange.getRequestPath(),
+                        resp.getRawContent());
+
+                response.endExchangeWithMessage(
+                        HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                        "Error executing response interceptor "
+                        + ri.getClass().getSimpleName(),
+                        ex);
+            }
+        }
     }
 
     private void executeResponseAsyncInterceptor(HttpServerExchange exchange) {
         var resp = ByteArrayResponse.wrap(exchange);
 
-        PluginsRegistryImpl.getInstance()
-                .getInterceptors()
-                .stream()
-                .filter(ri -> ri.isEnabled())
-                .map(ri -> ri.getInstance())
-                .filter(ri -> ri.resolve(exchange))
-                .filter(ri -> interceptPoint(ri) == InterceptPoint.RESPONSE_ASYNC)
-                .forEachOrdered(ri -> {
-                    exchange.getConnection().getWorker().execute(() -> {
-
-                        LOGGER.debug("Executing response interceptor {} for {}",
-                                ri.getClass().getSimpleName(),
-                                exchange.getRequestPath());
-
-                        try {
-                            ri.handle(exchange);
-                        }
-                        catch (Exception ex) {
-                            LOGGER.error("Error executing response interceptor {} for {}",
-                                    ri.getClass().getSimpleName(),
-                                    exchange.getRequestPath(),
-                                    ex);
-                            AbstractExchange.setInError(exchange);
-                            // set error message
-                            ByteArrayResponse response = ByteArrayResponse
-                                    .wrap(exchange);
-
-                            // dump bufferd content
-                            BuffersUtils.dump("content buffer "
-                                    + exchange.getRequestPath(),
-                                    resp.getRawContent());
-
-                            response.endExchangeWithMessage(
-                                    HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                    "Error executing response interceptor "
-                                    + ri.getClass().getSimpleName(),
-                                    ex);
-                        }
-                    });
-                });
+        for (var ri : PluginsRegistryImpl.getInstance()
+                .getInterceptors(InterceptPoint.RESPONSE_ASYNC)) {
+            if (!ri.resolve(exchange)) {
+                continue;
+            }
+
+            exchange.getConnection().getWorker().execute(() -> {
+
+                LOGGER.debug("Executing response interceptor {} for {}",
+                        ri.getClass().getSimpleName(),
+                        exchange.getRequestPath());
+
+                try {
+                    ri.handle(exchange);
+                }
+                catch (Exception ex) {
+                    LOGGER.error("Error executing response interceptor {} for {}",
+                            ri.getClass().getSimpleName(),
+                            exchange.getRequestPath(),
+                            ex);
+                    AbstractExchange.setInError(exchange);
+                    // set error message
+                    ByteArrayResponse response = ByteArrayResponse
+                            .wrap(exchange);
+
+                    // dump bufferd content
+                    BuffersUtils.dump("content buffer "
+                            + exchange.getRequestPath(),
+                            resp.getRawContent());
+
+                    response.endExchangeWithMessage(
+                            HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                            "Error executing response interceptor "
+                            + ri.getClass().getSimpleName(),
+                            ex);
+                }
+            });
+        }
     }
 
     private void updateContentLenght(HttpServerExchange exchange, PooledByteBuffer[] dests) {
@@ -246,22 +256,12 @@ public class ModifiableContentSinkConduit
 
         // need also to update lenght of ServerFixedLengthStreamSinkConduit
         if (next instanceof ServerFixedLengthStreamSinkConduit) {
-            Method m;
-
-            try {
-                m = ServerFixedLengthStreamSinkConduit.class.getDeclaredMethod(
-                        "reset",
-                        long.class,
-                        HttpServerExchange.class);
-                m.setAccessible(true);
-            }
-            catch (NoSuchMethodException | SecurityException ex) {
-                LOGGER.error("could not find ServerFixedLengthStreamSinkConduit.reset method", ex);
-                throw new RuntimeException("could not find ServerFixedLengthStreamSinkConduit.reset method", ex);
+            if (RESET_FIXED_LENGTH == null) {
+                throw new RuntimeException("could not find ServerFixedLengthStreamSinkConduit.reset method");
             }
 
             try {
-                m.invoke(next, length, exchange);
+                RESET_FIXED_LENGTH.invoke(next, length, exchange);
             }
             catch (Throwable ex) {
                 LOGGER.error("could not access BUFFERED_REQUEST_DATA field", ex);
@@ -271,4 +271,19 @@ public class ModifiableContentSinkConduit
             LOGGER.warn("updateContentLenght() next is {}", next.getClass().getSimpleName());
         }
     }
+
+    private static Method resetFixedLengthMethod() {
+        try {
+            var m = ServerFixedLengthStreamSinkConduit.class.getDeclaredMethod(
+                    "reset",
+                    long.class,
+                    HttpServerExchange.class);
+            m.setAccessible(true);
+            return m;
+        }
+        catch (NoSuchMethodException | SecurityException ex) {
+            LOGGER.error("could not find ServerFixedLengthStreamSinkConduit.reset method", ex);
+            return null;
+        }
+    }
 }
@@ -26,8 +26,6 @@ import org.restheart.handlers.exchange.ByteArrayResponse;
 import org.restheart.plugins.InterceptPoint;
 import org.restheart.plugins.PluginsRegistryImpl;
 import org.restheart.utils.HttpStatus;
-import static org.restheart.utils.PluginUtils.interceptPoint;
-import static org.restheart.utils.PluginUtils.requiresContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.channels.StreamSourceChannel;
@@ -69,82 +67,72 @@ public class ResponseInterceptorsStreamSinkConduit
 
     private void executeResponseInterceptor(HttpServerExchange exchange) {
         AbstractExchange.setResponseInterceptorsExecuted(exchange);
-        PluginsRegistryImpl.getInstance()
-                .getInterceptors()
-                .stream()
-                .filter(i -> interceptPoint(
-                i.getInstance()) == InterceptPoint.RESPONSE)
-                .filter(ri -> ri.isEnabled())
-                .map(ri -> ri.getInstance())
-                .filter(ri -> ri.resolve(exchange))
-                // this conduit does not provide access to response content
-                .filter(ri -> !requiresContent(ri))
-                .forEachOrdered(ri -> {
-                    LOGGER.debug("Executing response interceptor {} for {}",
-                            ri.getClass().getSimpleName(),
-                            exchange.getRequestPath());
-
-                    try {
-                        ri.handle(exchange);
-                    }
-                    catch (Exception ex) {
-                        LOGGER.error("Error executing response interceptor {} for {}",
-                                ri.getClass().getSimpleName(),
-                                exchange.getRequestPath(),
-                                ex);
-                        AbstractExchange.setInError(exchange);
-                        // set error message
-                        ByteArrayResponse response = ByteArrayResponse
-                                .wrap(exchange);
-
-                        response.endExchangeWithMessage(
-                                HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                "Error executing response interceptor "
-                                + ri.getClass().getSimpleName(),
-                                ex);
-                    }
-                });
+        for (var ri : PluginsRegistryImpl.getInstance()
+                .getInterceptors(InterceptPoint.RESPONSE, false)) {
+            if (!ri.resolve(exchange)) {
+                continue;
+            }
+
+            LOGGER.debug("Executing response interceptor {} for {}",
+                    ri.getClass().getSimpleName(),
+                    exchange.getRequestPath());
+
+            try {
+                ri.handle(exchange);
+            }
+            catch (Exception ex) {
+                LOGGER.error("Error executing response interceptor {} for {}",
+                        ri.getClass().getSimpleName(),
+                        exchange.getRequestPath(),
+                        ex);
+                AbstractExchange.setInError(exchange);
+                // set error message
+                ByteArrayResponse response = ByteArrayResponse
+                        .wrap(exchange);
+
+                response.endExchangeWithMessage(
+                        HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                        "Error executing response interceptor "
+                        + ri.getClass().getSimpleName(),
+                        ex);
+            }
+        }
     }
 
     private void executeAsyncResponseInterceptor(HttpServerExchange exchange) {
         AbstractExchange.setResponseInterceptorsExecuted(exchange);
-        PluginsRegistryImpl.getInstance()
-                .getInterceptors()
-                .stream()
-                .filter(i -> interceptPoint(
-                i.getInstance()) == InterceptPoint.RESPONSE_ASYNC)
-                .filter(ri -> ri.isEnabled())
-                .map(ri -> ri.getInstance())
-                .filter(ri -> ri.resolve(exchange))
-                // this conduit does not provide access to response content
-                .filter(ri -> !requiresContent(ri))
-                .forEachOrdered(ri -> {
-                    exchange.getConnection().getWorker().execute(() -> {
-                        LOGGER.debug("Executing async response interceptor {} for {}",
-                                ri.getClass().getSimpleName(),
-                                exchange.getRequestPath());
-
-                        try {
-                            ri.handle(exchange);
-                        }
-                        catch (Exception ex) {
-                            LOGGER.error("Error executing response interceptor {} for {}",
-                                    ri.getClass().getSimpleName(),
-                                    exchange.getRequestPath(),
-                                    ex);
-                            AbstractExchange.setInError(exchange);
-                            // set error message
-                            ByteArrayResponse response = ByteArrayResponse
-                                    .wrap(exchange);
-
-                            response.endExchangeWithMessage(
-                                    HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                    "Error executing response interceptor "
-                                    + ri.getClass().getSimpleName(),
-                                    ex);
-                        }
-                    });
-                });
+        for (var ri : PluginsRegistryImpl.getInstance()
+                .getInterceptors(InterceptPoint.RESPONSE_ASYNC, false)) {
+            if (!ri.resolve(exchange)) {
+                continue;
+            }
+
+            exchange.getConnection().getWorker().execute(() -> {
+                LOGGER.debug("Executing async response interceptor {} for {}",
+                        ri.getClass().getSimpleName(),
+                        exchange.getRequestPath());
+
+                try {
+                    ri.handle(exchange);
+                }
+                catch (Exception ex) {
+                    LOGGER.error("Error executing response interceptor {} for {}",
+                            ri.getClass().getSimpleName(),
+                            exchange.getRequestPath(),
+                            ex);
+                    AbstractExchange.setInError(exchange);
+                    // set error message
+                    ByteArrayResponse response = ByteArrayResponse
+                            .wrap(exchange);
+
+                    response.endExchangeWithMessage(
+                            HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                            "Error executing response interceptor "
+                            + ri.getClass().getSimpleName(),
+                            ex);
+                }
+            });
+        }
 
     }
 
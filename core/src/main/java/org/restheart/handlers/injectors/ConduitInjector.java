@@ -27,9 +27,8 @@ import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.ResponseInterceptorsStreamSinkConduit;
 import org.restheart.handlers.exchange.ByteArrayResponse;
 import org.restheart.plugins.InterceptPoint;
+import org.restheart.plugins.Interceptor;
 import org.restheart.plugins.PluginsRegistryImpl;
-import static org.restheart.utils.PluginUtils.interceptPoint;
-import static org.restheart.utils.PluginUtils.requiresContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -91,14 +90,14 @@ public class ConduitInjector extends PipelinedHandler {
                 MDC.setContextMap(mdcCtx);
             }
 
-            if (PluginsRegistryImpl.getInstance()
-                    .getInterceptors()
-                    .stream()
-                    .filter(ri -> ri.isEnabled())
-                    .map(ri -> ri.getInstance())
-                    .filter(ri -> interceptPoint(ri) == InterceptPoint.RESPONSE)
-                    .filter(ri -> ri.resolve(cexchange))
-                    .anyMatch(ri -> requiresContent(ri))) {
+            var registry = PluginsRegistryImpl.getInstance();
+
+            if (registry.getInterceptors(InterceptPoint.RESPONSE).length == 0
+                    && registry.getInterceptors(InterceptPoint.RESPONSE_ASYNC).length == 0) {
+                // nothing to execute, write directly to the underlying conduit
+                return factory.create();
+            } else if (anyResolves(registry.getInterceptors(InterceptPoint.RESPONSE, true),
+                    cexchange)) {
                 var mcsc = new ModifiableContentSinkConduit(factory.create(),
                         cexchange);
                 cexchange.putAttachment(MCSC_KEY, mcsc);
@@ -114,6 +113,28 @@ public class ConduitInjector extends PipelinedHandler {
         next(exchange);
     }
 
+    private static boolean requiresContent(HttpServerExchange exchange) {
+        for (var ip : InterceptPoint.values()) {
+            if (anyResolves(PluginsRegistryImpl.getInstance()
+                    .getInterceptors(ip, true), exchange)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean anyResolves(Interceptor[] interceptors,
+            HttpServerExchange exchange) {
+        for (var ri : interceptors) {
+            if (ri.resolve(exchange)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * if the ModificableContentSinkConduit is set, set the Accept-Encoding
      * header to identity this is required to avoid response interceptors
@@ -123,13 +144,7 @@ public class ConduitInjector extends PipelinedHandler {
      */
     private static void forceIdentityEncodingForInterceptors(
             HttpServerExchange exchange) {
-        if (PluginsRegistryImpl.getInstance()
-                .getInterceptors()
-                .stream()
-                .filter(ri -> ri.isEnabled())
-                .map(ri -> ri.getInstance())
-                .filter(ri -> ri.resolve(exchange))
-                .anyMatch(ri -> requiresContent(ri))) {
+        if (requiresContent(exchange)) {
             var _before = exchange.getRequestHeaders()
                     .get(Headers.ACCEPT_ENCODING);
 
@@ -18,8 +18,12 @@
 package org.restheart.plugins;
 
 import io.undertow.predicate.Predicate;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.restheart.ConfigurationException;
 import org.restheart.plugins.mongodb.Checker;
 import org.restheart.plugins.mongodb.GlobalChecker;
@@ -31,6 +35,8 @@ import org.restheart.plugins.security.AuthMechanism;
 import org.restheart.plugins.security.Authenticator;
 import org.restheart.plugins.security.Authorizer;
 import org.restheart.plugins.security.TokenManager;
+import static org.restheart.utils.PluginUtils.interceptPoint;
+import static org.restheart.utils.PluginUtils.requiresContent;
 
 /**
  *
@@ -51,6 +57,15 @@ public class PluginsRegistryImpl implements PluginsRegistry {
 
     private Set<PluginRecord<Interceptor>> interceptors;
 
+    // enabled interceptors by intercept point, in registration order
+    private volatile Map<InterceptPoint, Interceptor[]> interceptorsChains;
+
+    // enabled interceptors that require content by intercept point
+    private Map<InterceptPoint, Interceptor[]> contentInterceptorsChains;
+
+    // enabled interceptors that don't require content by intercept point
+    private Map<InterceptPoint, Interceptor[]> noContentInterceptorsChains;
+
     private final Set<Predicate> globalSecurityPredicates
             = new LinkedHashSet<>();
     
@@ -183,6 +198,74 @@ public class PluginsRegistryImpl implements PluginsRegistry {
         return this.interceptors;
     }
 
+    /**
+     * The enabled interceptors of an intercept point, in registration order.
+     *
+     * The chains are resolved once, so that executing the interceptors is a
+     * loop over the relevant ones; the returned array must not be modified.
+     *
+     * @param interceptPoint
+     * @return the enabled interceptors of the intercept point
+     */
+    public Interceptor[] getInterceptors(InterceptPoint interceptPoint) {
+        return interceptorsChains().get(interceptPoint);
+    }
+
+    /**
+     * The enabled interceptors of an intercept point that require or don't
+     * require the content, in registration order; the returned array must not
+     * be modified.
+     *
+     * @param interceptPoint
+     * @param requiresContent
+     * @return the enabled interceptors of the intercept point
+     */
+    public Interceptor[] getInterceptors(InterceptPoint interceptPoint,
+            boolean requiresContent) {
+        interceptorsChains();
+
+        return requiresContent
+                ? contentInterceptorsChains.get(interceptPoint)
+                : noContentInterceptorsChains.get(interceptPoint);
+    }
+
+    private Map<InterceptPoint, Interceptor[]> interceptorsChains() {
+        if (this.interceptorsChains == null) {
+            synchronized (this) {
+                if (this.interceptorsChains == null) {
+                    var all = new EnumMap<InterceptPoint, Interceptor[]>(InterceptPoint.class);
+                    var content = new EnumMap<InterceptPoint, Interceptor[]>(InterceptPoint.class);
+                    var noContent = new EnumMap<InterceptPoint, Interceptor[]>(InterceptPoint.class);
+
+                    var enabled = getInterceptors().stream()
+                            .filter(ri -> ri.isEnabled())
+                            .map(ri -> ri.getInstance())
+                            .collect(Collectors.toList());
+
+                    for (var ip : InterceptPoint.values()) {
+                        all.put(ip, enabled.stream()
+                                .filter(ri -> interceptPoint(ri) == ip)
+                                .toArray(Interceptor[]::new));
+
+                        content.put(ip, Arrays.stream(all.get(ip))
+                                .filter(ri -> requiresContent(ri))
+                                .toArray(Interceptor[]::new));
+
+                        noContent.put(ip, Arrays.stream(all.get(ip))
+                                .filter(ri -> !requiresContent(ri))
+                                .toArray(Interceptor[]::new));
+                    }
+
+                    this.contentInterceptorsChains = content;
+                    this.noContentInterceptorsChains = noContent;
+                    this.interceptorsChains = all;
+                }
+            }
+        }
+
+        return this.interceptorsChains;
+    }
+
     /**
      * @return the services
      */
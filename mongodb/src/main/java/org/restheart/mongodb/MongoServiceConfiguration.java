@@ -71,6 +71,7 @@ public class MongoServiceConfiguration {
     private final Map<String, Map<String, Object>> pluginsArgs;
     private final boolean localCacheEnabled;
     private final long localCacheTtl;
+    private final boolean localCacheWatchChanges;
     private final boolean schemaCacheEnabled;
     private final long schemaCacheTtl;
     private final int requestsLimit;
@@ -80,6 +81,8 @@ public class MongoServiceConfiguration {
     private final int[] eagerLinearSliceHeights;
     private final int eagerRndSliceMinWidht;
     private final int eagerRndMaxCursors;
+    private final int eagerAdaptiveMaxCursors;
+    private final long eagerAdaptiveHalfLife;
     private final ETAG_CHECK_POLICY dbEtagCheckPolicy;
     private final ETAG_CHECK_POLICY collEtagCheckPolicy;
     private final ETAG_CHECK_POLICY docEtagCheckPolicy;
@@ -87,6 +90,15 @@ public class MongoServiceConfiguration {
     private final long queryTimeLimit;
     private final long aggregationTimeLimit;
     private final boolean aggregationCheckOperators;
+    private final long aggregationCacheMaxSize;
+    private final int bulkBatchSize;
+    private final int bulkMaxConcurrentBatches;
+    private final boolean gridFsCacheEnabled;
+    private final String gridFsCacheDir;
+    private final long gridFsCacheMaxSize;
+    private final long gridFsCacheMaxFileSize;
+    private final long countCacheTtl;
+    private final boolean countEstimated;
     private final int cursorBatchSize;
     private final int defaultPagesize;
     private final int maxPagesize;
@@ -245,9 +257,22 @@ public class MongoServiceConfiguration {
         queryTimeLimit = getAsLongOrDefault(conf, QUERY_TIME_LIMIT_KEY, (long) 0);
         aggregationTimeLimit = getAsLongOrDefault(conf, AGGREGATION_TIME_LIMIT_KEY, (long) 0);
         aggregationCheckOperators = getAsBooleanOrDefault(conf, AGGREGATION_CHECK_OPERATORS, true);
+        aggregationCacheMaxSize = getAsLongOrDefault(conf, AGGREGATION_CACHE_MAX_SIZE_KEY, (long) 64 * 1024 * 1024);
+
+        bulkBatchSize = getAsIntegerOrDefault(conf, BULK_BATCH_SIZE_KEY, 1000);
+        bulkMaxConcurrentBatches = getAsIntegerOrDefault(conf, BULK_MAX_CONCURRENT_BATCHES_KEY, 4);
+
+        gridFsCacheEnabled = getAsBooleanOrDefault(conf, GRIDFS_CACHE_ENABLED_KEY, false);
+        gridFsCacheDir = getAsStringOrDefault(conf, GRIDFS_CACHE_DIR_KEY, null);
+        gridFsCacheMaxSize = getAsLongOrDefault(conf, GRIDFS_CACHE_MAX_SIZE_KEY, (long) 256 * 1024 * 1024);
+        gridFsCacheMaxFileSize = getAsLongOrDefault(conf, GRIDFS_CACHE_MAX_FILE_SIZE_KEY, (long) 16 * 1024 * 1024);
+
+        countCacheTtl = getAsLongOrDefault(conf, COUNT_CACHE_TTL_KEY, (long) 10_000);
+        countEstimated = getAsBooleanOrDefault(conf, COUNT_ESTIMATED_KEY, false);
 
         localCacheEnabled = getAsBooleanOrDefault(conf, LOCAL_CACHE_ENABLED_KEY, true);
         localCacheTtl = getAsLongOrDefault(conf, LOCAL_CACHE_TTL_KEY, (long) 1000);
+        localCacheWatchChanges = getAsBooleanOrDefault(conf, LOCAL_CACHE_WATCH_CHANGES_KEY, false);
 
         schemaCacheEnabled = getAsBooleanOrDefault(conf, SCHEMA_CACHE_ENABLED_KEY, true);
         schemaCacheTtl = getAsLongOrDefault(conf, SCHEMA_CACHE_TTL_KEY, (long) 1000);
@@ -258,6 +283,8 @@ public class MongoServiceConfiguration {
         eagerLinearSliceHeights = getAsArrayOfInts(conf, EAGER_LINEAR_HEIGHTS, new int[]{4, 2, 1});
         eagerRndSliceMinWidht = getAsIntegerOrDefault(conf, EAGER_RND_SLICE_MIN_WIDHT, 1000);
         eagerRndMaxCursors = getAsIntegerOrDefault(conf, EAGER_RND_MAX_CURSORS, 50);
+        eagerAdaptiveMaxCursors = getAsIntegerOrDefault(conf, EAGER_ADAPTIVE_MAX_CURSORS, 10);
+        eagerAdaptiveHalfLife = getAsLongOrDefault(conf, EAGER_ADAPTIVE_HALF_LIFE, (long) 60 * 1000);
 
         Map<String, Object> etagCheckPolicies = getAsMap(conf, ETAG_CHECK_POLICY_KEY, null);
 
@@ -352,6 +379,7 @@ public class MongoServiceConfiguration {
                 + ", pluginsArgs=" + getPluginsArgs()
                 + ", localCacheEnabled=" + localCacheEnabled
                 + ", localCacheTtl=" + localCacheTtl
+                + ", localCacheWatchChanges=" + localCacheWatchChanges
                 + ", schemaCacheEnabled=" + schemaCacheEnabled
                 + ", schemaCacheTtl=" + schemaCacheTtl
                 + ", requestsLimit=" + requestsLimit
@@ -362,6 +390,8 @@ public class MongoServiceConfiguration {
                 + ", eagerLinearSliceHeights=" + Arrays.toString(eagerLinearSliceHeights)
                 + ", eagerRndSliceMinWidht=" + eagerRndSliceMinWidht
                 + ", eagerRndMaxCursors=" + eagerRndMaxCursors
+                + ", eagerAdaptiveMaxCursors=" + eagerAdaptiveMaxCursors
+                + ", eagerAdaptiveHalfLife=" + eagerAdaptiveHalfLife
                 + ", dbEtagCheckPolicy=" + dbEtagCheckPolicy
                 + ", collEtagCheckPolicy=" + collEtagCheckPolicy
                 + ", docEtagCheckPolicy=" + docEtagCheckPolicy
@@ -369,6 +399,15 @@ public class MongoServiceConfiguration {
                 + ", queryTimeLimit=" + queryTimeLimit
                 + ", aggregationTimeLimit=" + aggregationTimeLimit
                 + ", aggregationCheckOperators=" + aggregationCheckOperators
+                + ", aggregationCacheMaxSize=" + aggregationCacheMaxSize
+                + ", bulkBatchSize=" + bulkBatchSize
+                + ", bulkMaxConcurrentBatches=" + bulkMaxConcurrentBatches
+                + ", gridFsCacheEnabled=" + gridFsCacheEnabled
+                + ", gridFsCacheDir=" + gridFsCacheDir
+                + ", gridFsCacheMaxSize=" + gridFsCacheMaxSize
+                + ", gridFsCacheMaxFileSize=" + gridFsCacheMaxFileSize
+                + ", countCacheTtl=" + countCacheTtl
+                + ", countEstimated=" + countEstimated
                 + ", cursorBatchSize=" + cursorBatchSize
                 + ", defaultPagesize=" + defaultPagesize
                 + ", maxPagesize=" + maxPagesize
@@ -744,6 +783,13 @@ public class MongoServiceConfiguration {
         return localCacheTtl;
     }
 
+    /**
+     * @return the localCacheWatchChanges
+     */
+    public boolean isLocalCacheWatchChanges() {
+        return localCacheWatchChanges;
+    }
+
     /**
      * @return the requestsLimit
      */
@@ -772,6 +818,70 @@ public class MongoServiceConfiguration {
         return aggregationCheckOperators;
     }
 
+    /**
+     * @return the aggregationCacheMaxSize
+     */
+    public long getAggregationCacheMaxSize() {
+        return aggregationCacheMaxSize;
+    }
+
+    /**
+     * @return the bulkBatchSize
+     */
+    public int getBulkBatchSize() {
+        return bulkBatchSize;
+    }
+
+    /**
+     * @return the bulkMaxConcurrentBatches
+     */
+    public int getBulkMaxConcurrentBatches() {
+        return bulkMaxConcurrentBatches;
+    }
+
+    /**
+     * @return the gridFsCacheEnabled
+     */
+    public boolean isGridFsCacheEnabled() {
+        return gridFsCacheEnabled;
+    }
+
+    /**
+     * @return the gridFsCacheDir
+     */
+    public String getGridFsCacheDir() {
+        return gridFsCacheDir;
+    }
+
+    /**
+     * @return the gridFsCacheMaxSize
+     */
+    public long getGridFsCacheMaxSize() {
+        return gridFsCacheMaxSize;
+    }
+
+    /**
+     * @return the gridFsCacheMaxFileSize
+     */
+    public long getGridFsCacheMaxFileSize() {
+        return gridFsCacheMaxFileSize;
+    }
+
+    /**
+     * @return the countCacheTtl
+     */
+    public long getCountCacheTtl() {
+        return countCacheTtl;
+    }
+
+    /**
+     * @return true if the number of documents of a collection, without
+     * filter, is estimated from the collection metadata
+     */
+    public boolean isCountEstimated() {
+        return countEstimated;
+    }
+
     /**
      * @return the eagerLinearSliceWidht
      */
@@ -807,6 +917,20 @@ public class MongoServiceConfiguration {
         return eagerRndMaxCursors;
     }
 
+    /**
+     * @return the eagerAdaptiveMaxCursors
+     */
+    public int getEagerAdaptiveMaxCursors() {
+        return eagerAdaptiveMaxCursors;
+    }
+
+    /**
+     * @return the eagerAdaptiveHalfLife
+     */
+    public long getEagerAdaptiveHalfLife() {
+        return eagerAdaptiveHalfLife;
+    }
+
     /**
      * @return the eagerPoolSize
      */
@@ -90,6 +90,11 @@ public interface MongoServiceConfigurationKeys {
      */
     public static final String LOCAL_CACHE_TTL_KEY = "local-cache-ttl";
 
+    /**
+     * the key for the local-cache-watch-changes property.
+     */
+    public static final String LOCAL_CACHE_WATCH_CHANGES_KEY = "local-cache-watch-changes";
+
     /**
      * the key for the schema-cache-enabled property.
      */
@@ -115,6 +120,51 @@ public interface MongoServiceConfigurationKeys {
      */
     public static final String AGGREGATION_TIME_LIMIT_KEY = "aggregation-time-limit";
 
+    /**
+     * the key for the aggregation-cache-max-size property
+     */
+    public static final String AGGREGATION_CACHE_MAX_SIZE_KEY = "aggregation-cache-max-size";
+
+    /**
+     * the key for the bulk-batch-size property
+     */
+    public static final String BULK_BATCH_SIZE_KEY = "bulk-batch-size";
+
+    /**
+     * the key for the bulk-max-concurrent-batches property
+     */
+    public static final String BULK_MAX_CONCURRENT_BATCHES_KEY = "bulk-max-concurrent-batches";
+
+    /**
+     * the key for the gridfs-cache-enabled property
+     */
+    public static final String GRIDFS_CACHE_ENABLED_KEY = "gridfs-cache-enabled";
+
+    /**
+     * the key for the gridfs-cache-dir property
+     */
+    public static final String GRIDFS_CACHE_DIR_KEY = "gridfs-cache-dir";
+
+    /**
+     * the key for the gridfs-cache-max-size property
+     */
+    public static final String GRIDFS_CACHE_MAX_SIZE_KEY = "gridfs-cache-max-size";
+
+    /**
+     * the key for the gridfs-cache-max-file-size property
+     */
+    public static final String GRIDFS_CACHE_MAX_FILE_SIZE_KEY = "gridfs-cache-max-file-size";
+
+    /**
+     * the key for the count-cache-ttl property
+     */
+    public static final String COUNT_CACHE_TTL_KEY = "count-cache-ttl";
+
+    /**
+     * the key for the count-estimated property
+     */
+    public static final String COUNT_ESTIMATED_KEY = "count-estimated";
+
     /**
      * The key for enabling check that aggregation variables contains operators.
      */
@@ -192,6 +242,16 @@ public interface MongoServiceConfigurationKeys {
      */
     public static final String EAGER_RND_MAX_CURSORS = "eager-cursor-allocation-random-max-cursors";
 
+    /**
+     * the key for the eager-cursor-allocation-adaptive-max-cursors property.
+     */
+    public static final String EAGER_ADAPTIVE_MAX_CURSORS = "eager-cursor-allocation-adaptive-max-cursors";
+
+    /**
+     * the key for the eager-cursor-allocation-adaptive-half-life property.
+     */
+    public static final String EAGER_ADAPTIVE_HALF_LIFE = "eager-cursor-allocation-adaptive-half-life";
+
 
     /**
      * the key for the etag-check-policy property.
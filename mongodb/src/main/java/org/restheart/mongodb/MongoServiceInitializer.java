@@ -24,6 +24,7 @@ import org.restheart.ConfigurationException;
 import static org.restheart.mongodb.MongoServiceConfigurationKeys.PLUGINS_ARGS_KEY;
 import org.restheart.mongodb.db.MongoDBClientSingleton;
 import org.restheart.mongodb.handlers.injectors.LocalCachesSingleton;
+import org.restheart.mongodb.handlers.injectors.LocalCachesWatcher;
 import org.restheart.plugins.ConfigurationScope;
 import org.restheart.plugins.InitPoint;
 import org.restheart.plugins.Initializer;
@@ -85,6 +86,16 @@ public class MongoServiceInitializer implements Initializer {
                 LOGGER.warn("MongoDB is a standalone instance, use a replica set in production");
             }
 
+            var conf = MongoServiceConfiguration.get();
+
+            if (conf.isLocalCacheEnabled() && conf.isLocalCacheWatchChanges()) {
+                if (mclient.isReplicaSet()) {
+                    LocalCachesWatcher.start(mclient.getClient());
+                } else {
+                    LOGGER.warn("Cannot watch the changes of the db and collection properties, MongoDB is not a replica set");
+                }
+            }
+
         } catch (Throwable t) {
             throw new ConfigurationException("\"Error connecting to MongoDB.");
         }
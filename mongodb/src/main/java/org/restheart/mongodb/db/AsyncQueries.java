@@ -0,0 +1,140 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Executes independent queries of a request concurrently, so that the request
+ * waits for the slowest query rather than for the sum of them.
+ *
+ * The queries run in a dedicated thread pool; when all its threads are busy
+ * a query runs in the calling thread, i.e. the queries of the request are
+ * executed serially. Queries in a client session must not be executed
+ * concurrently, since ClientSession is not thread safe.
+ */
+public class AsyncQueries {
+    private static final int MAX_THREADS = 4 * Runtime.getRuntime()
+            .availableProcessors();
+
+    private static final ThreadPoolExecutor EXECUTOR
+            = new ThreadPoolExecutor(
+                    0, MAX_THREADS,
+                    1, TimeUnit.MINUTES,
+                    new SynchronousQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("async-query-%d")
+                            .build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * starts the query
+     *
+     * @param <T>
+     * @param query
+     * @return the future result of the query
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> query) {
+        return CompletableFuture.supplyAsync(query, EXECUTOR);
+    }
+
+    /**
+     * waits for the result of the query
+     *
+     * @param <T>
+     * @param query the future result of the query
+     * @return the result
+     * @throws RuntimeException the exception thrown by the query, e.g. a
+     * MongoException
+     */
+    public static <T> T get(CompletableFuture<T> query) {
+        try {
+            return query.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            } else if (ce.getCause() instanceof Error) {
+                throw (Error) ce.getCause();
+            } else {
+                throw ce;
+            }
+        }
+    }
+
+    /**
+     * executes the query for each item concurrently, e.g. to read the
+     * properties of the collections of a page
+     *
+     * @param <T>
+     * @param <R>
+     * @param items
+     * @param query
+     * @return the results of the queries, in the order of the items
+     * @throws RuntimeException the exception thrown by a query
+     */
+    public static <T, R> List<R> map(List<T> items, Function<T, R> query) {
+        return map(items, query, item -> false);
+    }
+
+    /**
+     * executes the query for each item concurrently, except for the items
+     * whose query does not hit the db, e.g. the ones cached in memory, that
+     * are executed in the calling thread to avoid the hand-off to the pool
+     *
+     * @param <T>
+     * @param <R>
+     * @param items
+     * @param query
+     * @param local true for the items whose query does not hit the db
+     * @return the results of the queries, in the order of the items
+     * @throws RuntimeException the exception thrown by a query
+     */
+    public static <T, R> List<R> map(List<T> items,
+            Function<T, R> query,
+            Predicate<T> local) {
+        if (items.stream().filter(local.negate()).count() < 2) {
+            return items.stream()
+                    .map(query)
+                    .collect(Collectors.toList());
+        }
+
+        var results = items.stream()
+                .map(item -> local.test(item)
+                        ? CompletableFuture.completedFuture(query.apply(item))
+                        : supply(() -> query.apply(item)))
+                .collect(Collectors.toList());
+
+        return results.stream()
+                .map(AsyncQueries::get)
+                .collect(Collectors.toList());
+    }
+
+    private AsyncQueries() {
+    }
+}
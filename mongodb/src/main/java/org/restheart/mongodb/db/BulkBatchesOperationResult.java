@@ -0,0 +1,126 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import java.util.List;
+import org.bson.BsonDocument;
+import org.restheart.handlers.exchange.OperationResult;
+
+/**
+ * The aggregated result of a bulk write executed in batches
+ */
+public class BulkBatchesOperationResult extends OperationResult {
+    private final long documents;
+    private final int batches;
+    private final long inserted;
+    private final long matched;
+    private final long modified;
+    private final long deleted;
+    private final long errorsCount;
+    private final List<BsonDocument> errors;
+
+    /**
+     *
+     * @param httpCode
+     * @param etag
+     * @param documents the number of documents read
+     * @param batches the number of batches
+     * @param inserted
+     * @param matched
+     * @param modified
+     * @param deleted
+     * @param errorsCount the number of errors
+     * @param errors the reported errors, can be less than errorsCount
+     */
+    public BulkBatchesOperationResult(int httpCode, Object etag,
+            long documents,
+            int batches,
+            long inserted,
+            long matched,
+            long modified,
+            long deleted,
+            long errorsCount,
+            List<BsonDocument> errors) {
+        super(httpCode, etag);
+
+        this.documents = documents;
+        this.batches = batches;
+        this.inserted = inserted;
+        this.matched = matched;
+        this.modified = modified;
+        this.deleted = deleted;
+        this.errorsCount = errorsCount;
+        this.errors = errors;
+    }
+
+    /**
+     * @return the number of documents read
+     */
+    public long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return the number of batches
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of inserted documents
+     */
+    public long getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return the number of matched documents
+     */
+    public long getMatched() {
+        return matched;
+    }
+
+    /**
+     * @return the number of modified documents
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * @return the number of deleted documents
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the number of errors
+     */
+    public long getErrorsCount() {
+        return errorsCount;
+    }
+
+    /**
+     * @return the reported errors
+     */
+    public List<BsonDocument> getErrors() {
+        return errors;
+    }
+}
@@ -63,6 +63,10 @@ class CollectionDAO {
                             .getCursorBatchSize()
                     : DEFAULT_CURSOR_BATCH_SIZE;
 
+    private static final boolean COUNT_ESTIMATED = MongoServiceConfiguration
+            .get() != null
+            && MongoServiceConfiguration.get().isCountEstimated();
+
     private static final Logger LOGGER = LoggerFactory.getLogger(CollectionDAO.class);
     private static final BsonDocument FIELDS_TO_RETURN;
 
@@ -132,6 +136,12 @@ class CollectionDAO {
      * Returns the number of documents in the given collection (taking into
      * account the filters in case).
      *
+     * Without filters and session, and if count-estimated is true, the number
+     * is estimated from the collection metadata rather than counting the
+     * documents, that would require scanning the whole collection. The
+     * estimate can be wrong after an unclean shutdown or, on sharded
+     * clusters, because of orphaned documents and chunk migrations.
+     *
      * @param cs the session id, can be null
      * @param coll the mongodb DBCollection object.
      * @param filters the filters to apply. it is a Deque collection of mongodb
@@ -143,6 +153,12 @@ class CollectionDAO {
             final ClientSession cs,
             final MongoCollection<BsonDocument> coll,
             final BsonDocument filters) {
+        if (COUNT_ESTIMATED
+                && cs == null
+                && (filters == null || filters.isEmpty())) {
+            return coll.estimatedDocumentCount();
+        }
+
         return cs == null
                 ? coll.countDocuments(filters)
                 : coll.countDocuments(cs, filters);
@@ -194,6 +210,51 @@ class CollectionDAO {
 
         ArrayList<BsonDocument> ret = new ArrayList<>();
 
+        try (CollectionDataCursor cursor = getCollectionDataCursor(cs,
+                coll,
+                page,
+                pagesize,
+                sortBy,
+                filters,
+                hint,
+                keys,
+                eager)) {
+            cursor.forEachRemaining(ret::add);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns a cursor positioned at the first document of the requested page
+     * that returns at most pagesize documents. It allows to iterate the
+     * collection data without retaining the whole page in memory.
+     *
+     * The returned cursor must be closed after use.
+     *
+     * @param cs the client session
+     * @param coll
+     * @param page
+     * @param pagesize
+     * @param sortBy
+     * @param filters
+     * @param hint
+     * @param keys
+     * @param eager
+     * @return the CollectionDataCursor
+     * @throws JsonParseException
+     */
+    CollectionDataCursor getCollectionDataCursor(
+            final ClientSession cs,
+            final MongoCollection<BsonDocument> coll,
+            final int page,
+            final int pagesize,
+            final BsonDocument sortBy,
+            final BsonDocument filters,
+            final BsonDocument hint,
+            final BsonDocument keys,
+            final EAGER_CURSOR_ALLOCATION_POLICY eager)
+            throws JsonParseException {
         int toskip = pagesize * (page - 1);
 
         SkippedFindIterable _cursor = null;
@@ -206,8 +267,8 @@ class CollectionDAO {
                             coll,
                             sortBy,
                             filters,
-                            hint,
                             keys,
+                            hint,
                             toskip,
                             0),
                     eager);
@@ -215,16 +276,13 @@ class CollectionDAO {
 
         // in case there is not cursor in the pool to reuse
         FindIterable<BsonDocument> cursor;
+        MongoCursor<BsonDocument> mc;
 
         if (_cursor == null) {
             cursor = getFindIterable(cs, coll, sortBy, filters, hint, keys);
             cursor.skip(toskip).limit(pagesize);
 
-            MongoCursor<BsonDocument> mc = cursor.iterator();
-
-            while (mc.hasNext()) {
-                ret.add(mc.next());
-            }
+            mc = cursor.iterator();
         } else {
             int alreadySkipped;
 
@@ -243,7 +301,7 @@ class CollectionDAO {
                     alreadySkipped,
                     toskip);
 
-            MongoCursor<BsonDocument> mc = cursor.iterator();
+            mc = cursor.iterator();
 
             while (toskip > alreadySkipped && mc.hasNext()) {
                 mc.next();
@@ -255,19 +313,15 @@ class CollectionDAO {
                         toskip - cursorSkips,
                         System.currentTimeMillis() - startSkipping);
             }
-
-            for (int cont = pagesize; cont > 0 && mc.hasNext(); cont--) {
-                ret.add(mc.next());
-            }
         }
 
         // the pool is populated here because, skipping with cursor.next() is heavy operation
         // and we want to minimize the chances that pool cursors are allocated in parallel
         CursorPool.getInstance().populateCache(
-                new CursorPoolEntryKey(cs, coll, sortBy, filters, hint, keys, toskip, 0),
+                new CursorPoolEntryKey(cs, coll, sortBy, filters, keys, hint, toskip, 0),
                 eager);
 
-        return ret;
+        return new CollectionDataCursor(mc, pagesize);
     }
 
     /**
@@ -313,9 +367,14 @@ class CollectionDAO {
             final ClientSession cs,
             final String dbName,
             final String collName) {
-        MongoCursor<String> dbCollections = cs == null
-                ? client.getDatabase(dbName).listCollectionNames().iterator()
-                : client.getDatabase(dbName).listCollectionNames(cs).iterator();
+        if (cs == null) {
+            return NamespaceCatalog.getInstance()
+                    .collectionExists(dbName, collName);
+        }
+
+        MongoCursor<String> dbCollections = client.getDatabase(dbName)
+                .listCollectionNames(cs)
+                .iterator();
 
         while (dbCollections.hasNext()) {
             String dbCollection = dbCollections.next();
@@ -379,6 +438,14 @@ class CollectionDAO {
             }
         }
 
+        // the collection properties are stored in the _properties collection
+        if (cs == null) {
+            NamespaceCatalog.getInstance().collectionCreated(dbName, collName);
+            NamespaceCatalog.getInstance().collectionCreated(dbName, META_COLLNAME);
+        } else {
+            NamespaceCatalog.getInstance().invalidate(dbName);
+        }
+
         ObjectId newEtag = new ObjectId();
 
         final BsonDocument content = DAOUtils.validContent(properties);
@@ -558,6 +625,12 @@ class CollectionDAO {
             mcoll.deleteOne(cs, query);
         }
 
+        if (cs == null) {
+            NamespaceCatalog.getInstance().collectionDropped(dbName, collName);
+        } else {
+            NamespaceCatalog.getInstance().invalidate(dbName);
+        }
+
         return new OperationResult(HttpStatus.SC_NO_CONTENT);
     }
 }
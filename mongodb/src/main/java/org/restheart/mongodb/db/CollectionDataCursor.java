@@ -0,0 +1,67 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.client.MongoCursor;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.bson.BsonDocument;
+
+/**
+ * Iterates over a page of collection data reading the documents from an
+ * already positioned MongoCursor; it returns at most pagesize documents.
+ *
+ * The cursor must be closed after use.
+ */
+public class CollectionDataCursor implements Iterator<BsonDocument>,
+        AutoCloseable {
+    private final MongoCursor<BsonDocument> cursor;
+    private int remaining;
+
+    /**
+     *
+     * @param cursor the MongoCursor positioned at the first document of the
+     * page
+     * @param pagesize the max number of documents to return
+     */
+    public CollectionDataCursor(MongoCursor<BsonDocument> cursor,
+            int pagesize) {
+        this.cursor = cursor;
+        this.remaining = pagesize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0 && cursor.hasNext();
+    }
+
+    @Override
+    public BsonDocument next() {
+        if (remaining <= 0) {
+            throw new NoSuchElementException();
+        }
+
+        remaining--;
+        return cursor.next();
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
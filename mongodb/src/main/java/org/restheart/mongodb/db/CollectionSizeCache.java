@@ -0,0 +1,184 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mongodb.client.MongoCollection;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import org.bson.BsonDocument;
+import org.restheart.cache.Cache;
+import org.restheart.cache.CacheFactory;
+import org.restheart.cache.LoadingCache;
+import org.restheart.mongodb.MongoServiceConfiguration;
+
+/**
+ * Caches the number of documents of the collections by collection and filter,
+ * so that requests with count=true don't count the documents every time.
+ *
+ * The counts expire after count-cache-ttl milliseconds and are invalidated
+ * when the collection is written via RESTHeart.
+ */
+public class CollectionSizeCache {
+    private static final String SEPARATOR = "_@_@_";
+    private static final long MAX_CACHE_SIZE = 1_000;
+
+    /**
+     *
+     * @return
+     */
+    public static CollectionSizeCache getInstance() {
+        return CollectionSizeCacheSingletonHolder.INSTANCE;
+    }
+
+    private final BiFunction<MongoCollection<BsonDocument>, BsonDocument, Long> counter;
+    private final LoadingCache<Key, Long> sizes;
+
+    private CollectionSizeCache() {
+        this(MongoServiceConfiguration.get() == null
+                ? 0
+                : MongoServiceConfiguration.get().getCountCacheTtl(),
+                new CollectionDAO(MongoDBClientSingleton.getInstance()
+                        .getClient()));
+    }
+
+    private CollectionSizeCache(long ttl, CollectionDAO collectionDAO) {
+        this(ttl, (coll, filters)
+                -> collectionDAO.getCollectionSize(null, coll, filters));
+    }
+
+    CollectionSizeCache(long ttl,
+            BiFunction<MongoCollection<BsonDocument>, BsonDocument, Long> counter) {
+        this.counter = counter;
+
+        if (ttl > 0) {
+            this.sizes = CacheFactory.createLocalLoadingCache(
+                    MAX_CACHE_SIZE,
+                    Cache.EXPIRE_POLICY.AFTER_WRITE,
+                    ttl,
+                    key -> counter.apply(key.coll, key.filters));
+        } else {
+            this.sizes = null;
+        }
+    }
+
+    /**
+     *
+     * @param coll
+     * @param filters
+     * @return the number of documents in the collection matching the filters
+     */
+    public long get(MongoCollection<BsonDocument> coll,
+            BsonDocument filters) {
+        if (sizes == null) {
+            return counter.apply(coll, filters);
+        }
+
+        Optional<Long> size;
+
+        try {
+            size = sizes.getLoading(new Key(coll, filters));
+        } catch (UncheckedExecutionException uee) {
+            // e.g. MongoException for an invalid filter
+            if (uee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) uee.getCause();
+            } else {
+                throw uee;
+            }
+        }
+
+        return size != null && size.isPresent()
+                ? size.get()
+                : counter.apply(coll, filters);
+    }
+
+    /**
+     * removes the counts of the collection
+     *
+     * @param dbName
+     * @param collName
+     */
+    public void invalidate(String dbName, String collName) {
+        if (sizes == null) {
+            return;
+        }
+
+        var prefix = dbName + SEPARATOR + collName + SEPARATOR;
+
+        sizes.asMap().keySet().stream()
+                .filter(k -> k.id.startsWith(prefix))
+                .forEach(k -> sizes.invalidate(k));
+    }
+
+    /**
+     * removes the counts of all the collections of the db
+     *
+     * @param dbName
+     */
+    public void invalidateDb(String dbName) {
+        if (sizes == null) {
+            return;
+        }
+
+        var prefix = dbName + SEPARATOR;
+
+        sizes.asMap().keySet().stream()
+                .filter(k -> k.id.startsWith(prefix))
+                .forEach(k -> sizes.invalidate(k));
+    }
+
+    /**
+     * the key is the namespace and the filters, the collection is only used
+     * to count the documents
+     */
+    private static class Key {
+        private final String id;
+        private final MongoCollection<BsonDocument> coll;
+        private final BsonDocument filters;
+
+        Key(MongoCollection<BsonDocument> coll, BsonDocument filters) {
+            var ns = coll.getNamespace();
+
+            this.filters = filters == null
+                    ? new BsonDocument()
+                    : filters.clone();
+            this.id = ns.getDatabaseName() + SEPARATOR
+                    + ns.getCollectionName() + SEPARATOR
+                    + this.filters.toJson();
+            this.coll = coll;
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && id.equals(((Key) obj).id);
+        }
+    }
+
+    private static class CollectionSizeCacheSingletonHolder {
+        private static final CollectionSizeCache INSTANCE
+                = new CollectionSizeCache();
+
+        private CollectionSizeCacheSingletonHolder() {
+        }
+    }
+}
@@ -17,19 +17,22 @@
  */
 package org.restheart.mongodb.db;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.client.FindIterable;
 import static java.lang.Thread.MIN_PRIORITY;
-import java.util.Comparator;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.bson.BsonDocument;
 import static org.fusesource.jansi.Ansi.Color.GREEN;
@@ -38,9 +41,9 @@ import static org.fusesource.jansi.Ansi.Color.YELLOW;
 import static org.fusesource.jansi.Ansi.ansi;
 import org.restheart.cache.Cache;
 import org.restheart.cache.CacheFactory;
-import org.restheart.cache.LoadingCache;
 import org.restheart.handlers.exchange.ExchangeKeys.EAGER_CURSOR_ALLOCATION_POLICY;
 import org.restheart.mongodb.MongoServiceConfiguration;
+import org.restheart.mongodb.handlers.metrics.SharedMetricRegistryProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +70,8 @@ public class CursorPool {
     private static final long TTL = 8 * 60 * 1000;
     private static final long POOL_SIZE
             = MongoServiceConfiguration.get().getEagerPoolSize();
+    // up to 2 running populations and 1 waiting, the others are rejected
+    // and counted, see populate()
     private static final ThreadPoolExecutor POOL_POPULATOR
             = new ThreadPoolExecutor(
                     1, 2,
@@ -104,27 +109,64 @@ public class CursorPool {
     private final int SKIP_SLICE_RND_MAX_CURSORS
             = MongoServiceConfiguration.get().getEagerRndMaxCursors();
 
+    private final int SKIP_SLICE_ADAPTIVE_MAX_CURSORS
+            = MongoServiceConfiguration.get().getEagerAdaptiveMaxCursors();
+
+    private final long SKIP_SLICE_ADAPTIVE_HALF_LIFE
+            = MongoServiceConfiguration.get().getEagerAdaptiveHalfLife();
+
+    private static final int SKIP_SLICE_ADAPTIVE_MAX_SLICES = 64;
+
     private final Cache<CursorPoolEntryKey, FindIterable<BsonDocument>> cache;
-    private final LoadingCache<CursorPoolEntryKey, Long> collSizes;
+
+    /**
+     * the skips requested for each query shape, used by the ADAPTIVE policy
+     */
+    private final Cache<QueryShape, SkipsHistogram> histograms;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter wasted;
+    private final Meter allocated;
+    private final Meter rejected;
+
+    /**
+     * index of the cached cursors: query shape -&gt; skips -&gt; keys.
+     *
+     * Entries are added and removed via index.compute(), i.e. holding the
+     * lock of the query shape; lookups are lock free and a cursor is reserved
+     * by get() atomically removing its key from the concurrent set.
+     */
+    private final ConcurrentHashMap<QueryShape, ConcurrentSkipListMap<Integer, Set<CursorPoolEntryKey>>> index
+            = new ConcurrentHashMap<>();
 
     private CursorPool(DatabaseImpl dbsDAO) {
         this.dbsDAO = dbsDAO;
 
+        MetricRegistry registry = new SharedMetricRegistryProxy().registry();
+
+        hits = registry.meter("CURSOR_POOL.HITS");
+        misses = registry.meter("CURSOR_POOL.MISSES");
+        wasted = registry.meter("CURSOR_POOL.WASTED");
+        allocated = registry.meter("CURSOR_POOL.ALLOCATED");
+        rejected = registry.meter("CURSOR_POOL.REJECTED");
+
+        // the index is kept in sync when cursors expire or are evicted;
+        // a cursor still in the index when removed was never used
         cache = CacheFactory.createLocalCache(
                 POOL_SIZE,
                 Cache.EXPIRE_POLICY.AFTER_READ,
-                TTL);
+                TTL,
+                entry -> {
+                    if (removeFromIndex(entry.getKey())) {
+                        wasted.mark();
+                    }
+                });
 
-        collSizes = CacheFactory.createLocalLoadingCache(100,
-                org.restheart.cache.Cache.EXPIRE_POLICY.AFTER_WRITE,
-                60 * 1000,
-                (CursorPoolEntryKey key) -> {
-                    return dbsDAO.getCollectionSize(
-                            key.getSession(),
-                            key.getCollection(),
-                            key.getFilter());
-                }
-        );
+        histograms = CacheFactory.createLocalCache(
+                1000,
+                Cache.EXPIRE_POLICY.AFTER_READ,
+                TTL);
 
         if (LOGGER.isDebugEnabled()) {
             // print stats every 1 minute
@@ -147,7 +189,7 @@ public class CursorPool {
      * @param allocationPolicy
      * @return
      */
-    public synchronized SkippedFindIterable get(
+    public SkippedFindIterable get(
             CursorPoolEntryKey key,
             EAGER_CURSOR_ALLOCATION_POLICY allocationPolicy) {
         if (key.getSkipped() < SKIP_SLICE_LINEAR_WIDTH) {
@@ -158,43 +200,57 @@ public class CursorPool {
             return null;
         }
 
-        // return the dbcursor with the closest skips to the request
-        Optional<CursorPoolEntryKey> _bestKey = cache.asMap().keySet().stream()
-                .filter(cursorsPoolFilterGte(key))
-                .sorted(Comparator.comparingInt(CursorPoolEntryKey::getSkipped).reversed())
-                .findFirst();
-
-        SkippedFindIterable ret;
-
-        if (_bestKey.isPresent()) {
-            Optional<FindIterable<BsonDocument>> _dbcur
-                    = cache.get(_bestKey.get());
-
-            if (_dbcur != null && _dbcur.isPresent()) {
-                ret = new SkippedFindIterable(
-                        _dbcur.get(),
-                        _bestKey.get().getSkipped());
-                cache.invalidate(_bestKey.get());
-
-                LOGGER.debug("{} cursor in pool. id {}, saving {} skips",
-                        ansi().fg(GREEN).bold().a("found").reset().toString(),
-                        _bestKey.get().getCursorId(),
-                        key.getSkipped(),
-                        _bestKey.get().getSkipped());
-            } else {
-                ret = null;
+        var shape = new QueryShape(key);
 
-                LOGGER.debug("{} cursor in pool.",
-                        ansi().fg(RED).bold().a("no").reset().toString());
-            }
-        } else {
-            ret = null;
+        if (allocationPolicy == EAGER_CURSOR_ALLOCATION_POLICY.ADAPTIVE) {
+            getHistogram(shape).record(key.getSkipped(),
+                    System.currentTimeMillis());
+        }
+
+        var skips = index.get(shape);
+
+        if (skips != null) {
+            // the dbcursor with the closest skips to the request is the floor
+            var entry = skips.floorEntry(key.getSkipped());
+
+            while (entry != null && isCloseEnough(entry.getKey(), key)) {
+                for (var candidate : entry.getValue()) {
+                    // removing it from the index, the candidate is reserved
+                    if (!entry.getValue().remove(candidate)) {
+                        continue;
+                    }
+
+                    removeFromIndex(candidate);
+
+                    Optional<FindIterable<BsonDocument>> _dbcur
+                            = cache.get(candidate);
+
+                    cache.invalidate(candidate);
 
-            LOGGER.debug(ansi().fg(RED).bold().a("no").reset().toString()
-                    + " cursor in pool.");
+                    if (_dbcur != null && _dbcur.isPresent()) {
+                        hits.mark();
+
+                        LOGGER.debug("{} cursor in pool. id {}, saving {} skips",
+                                ansi().fg(GREEN).bold().a("found").reset().toString(),
+                                candidate.getCursorId(),
+                                candidate.getSkipped());
+
+                        return new SkippedFindIterable(
+                                _dbcur.get(),
+                                candidate.getSkipped());
+                    }
+                }
+
+                entry = skips.lowerEntry(entry.getKey());
+            }
         }
 
-        return ret;
+        misses.mark();
+
+        LOGGER.debug(ansi().fg(RED).bold().a("no").reset().toString()
+                + " cursor in pool.");
+
+        return null;
     }
 
     void populateCache(
@@ -204,159 +260,242 @@ public class CursorPool {
             populateCacheLinear(key);
         } else if (allocationPolicy == EAGER_CURSOR_ALLOCATION_POLICY.RANDOM) {
             populateCacheRandom(key);
+        } else if (allocationPolicy == EAGER_CURSOR_ALLOCATION_POLICY.ADAPTIVE) {
+            populateCacheAdaptive(key);
         }
     }
 
-    private void populateCacheLinear(CursorPoolEntryKey key) {
-        if (key.getSkipped() < SKIP_SLICE_LINEAR_WIDTH) {
-            return;
-        }
+    /**
+     * pre-allocates the cursors of the query shape where the requests are
+     * more frequent, according to its skips histogram; the number of
+     * cursors for each query shape is limited to SKIP_SLICE_ADAPTIVE_MAX_CURSORS
+     */
+    private void populateCacheAdaptive(CursorPoolEntryKey key) {
+        var shape = new QueryShape(key);
 
-        int firstSlice = key.getSkipped() / SKIP_SLICE_LINEAR_WIDTH;
+        populate("adaptive", () -> {
+            var allocation = getHistogram(shape).allocation(
+                    SKIP_SLICE_ADAPTIVE_MAX_CURSORS,
+                    System.currentTimeMillis());
 
-        try {
-            POOL_POPULATOR.submit(() -> {
-                int slice = firstSlice;
+            for (var entry : allocation.entrySet()) {
+                int sliceSkips = entry.getKey();
 
-                for (int tohave : SKIP_SLICES_HEIGHTS) {
-                    int sliceSkips
-                            = slice * SKIP_SLICE_LINEAR_WIDTH
-                            - SKIP_SLICE_LINEAR_DELTA;
+                long tocreate = entry.getValue()
+                        - getSliceHeight(shape, sliceSkips);
 
-                    CursorPoolEntryKey sliceKey
-                            = new CursorPoolEntryKey(
+                for (long cont = tocreate; cont > 0
+                        && getShapeSize(shape) < SKIP_SLICE_ADAPTIVE_MAX_CURSORS;
+                        cont--) {
+                    FindIterable<BsonDocument> cursor = dbsDAO
+                            .getFindIterable(
                                     key.getSession(),
                                     key.getCollection(),
                                     key.getSort(),
                                     key.getFilter(),
-                                    key.getKeys(),
                                     key.getHint(),
-                                    sliceSkips,
-                                    -1);
+                                    key.getKeys())
+                            .skip(sliceSkips);
+
+                    cursor.iterator(); // this forces the actual skipping
+
+                    CursorPoolEntryKey newkey = new CursorPoolEntryKey(
+                            key.getSession(),
+                            key.getCollection(),
+                            key.getSort(),
+                            key.getFilter(),
+                            key.getKeys(),
+                            key.getHint(),
+                            sliceSkips,
+                            System.nanoTime());
+
+                    put(newkey, cursor);
+
+                    LOGGER.debug("{} cursor in pool (adaptive): {}",
+                            ansi().fg(YELLOW).bold().a("new").reset()
+                                    .toString(),
+                            newkey);
+                }
+            }
+        });
+    }
 
-                    long existing = getSliceHeight(sliceKey);
+    private SkipsHistogram getHistogram(QueryShape shape) {
+        return histograms.asMap().computeIfAbsent(shape,
+                s -> Optional.of(new SkipsHistogram(
+                        SKIP_SLICE_LINEAR_WIDTH,
+                        SKIP_SLICE_ADAPTIVE_HALF_LIFE,
+                        SKIP_SLICE_ADAPTIVE_MAX_SLICES,
+                        System.currentTimeMillis())))
+                .get();
+    }
 
-                    long tocreate = tohave - existing;
+    private void populateCacheLinear(CursorPoolEntryKey key) {
+        if (key.getSkipped() < SKIP_SLICE_LINEAR_WIDTH) {
+            return;
+        }
 
-                    for (long cont = tocreate; cont > 0; cont--) {
-                        // create the first cursor
-                        FindIterable<BsonDocument> cursor = dbsDAO
-                                .getFindIterable(
-                                        key.getSession(),
-                                        key.getCollection(),
-                                        key.getSort(),
-                                        key.getFilter(),
-                                        key.getHint(),
-                                        key.getKeys());
+        int firstSlice = key.getSkipped() / SKIP_SLICE_LINEAR_WIDTH;
 
-                        cursor
-                                .skip(sliceSkips);
+        populate("linear", () -> {
+            int slice = firstSlice;
 
-                        // TODO check after refactoring
-                        cursor.iterator(); // this forces the actual skipping
+            for (int tohave : SKIP_SLICES_HEIGHTS) {
+                int sliceSkips
+                        = slice * SKIP_SLICE_LINEAR_WIDTH
+                        - SKIP_SLICE_LINEAR_DELTA;
 
-                        CursorPoolEntryKey newkey = new CursorPoolEntryKey(
+                CursorPoolEntryKey sliceKey
+                        = new CursorPoolEntryKey(
                                 key.getSession(),
                                 key.getCollection(),
                                 key.getSort(),
                                 key.getFilter(),
-                                key.getHint(),
                                 key.getKeys(),
+                                key.getHint(),
                                 sliceSkips,
-                                System.nanoTime());
+                                -1);
 
-                        cache.put(newkey, cursor);
+                long existing = getSliceHeight(sliceKey);
 
-                        LOGGER.debug("{} cursor in pool: {}",
-                                ansi().fg(YELLOW).bold().a("new").reset()
-                                        .toString(),
-                                newkey);
-                    }
+                long tocreate = tohave - existing;
 
-                    slice++;
-                }
-            });
-        } catch (RejectedExecutionException rej) {
-            // this happens if the thread executor (whose pool size is 1)
-            // is already creating a cursor
-            LOGGER.trace("creation of new cursor pool {}",
-                    ansi().fg(RED).bold().a("rejected").reset().toString());
-        }
-    }
+                for (long cont = tocreate; cont > 0; cont--) {
+                    // create the first cursor
+                    FindIterable<BsonDocument> cursor = dbsDAO
+                            .getFindIterable(
+                                    key.getSession(),
+                                    key.getCollection(),
+                                    key.getSort(),
+                                    key.getFilter(),
+                                    key.getHint(),
+                                    key.getKeys());
 
-    private void populateCacheRandom(CursorPoolEntryKey key) {
-        try {
-            POOL_POPULATOR.submit(() -> {
-                Long size = collSizes.getLoading(key).get();
-
-                int sliceWidht;
-                int slices;
-                int totalSlices = size.intValue() / SKIP_SLICE_RND_MIN_WIDTH
-                        + 1;
-
-                if (totalSlices <= SKIP_SLICE_RND_MAX_CURSORS) {
-                    slices = totalSlices;
-                    sliceWidht = SKIP_SLICE_RND_MIN_WIDTH;
-                } else {
-                    slices = SKIP_SLICE_RND_MAX_CURSORS;
-                    sliceWidht = size.intValue() / slices;
-                }
+                    cursor
+                            .skip(sliceSkips);
 
-                for (int slice = 1; slice < slices; slice++) {
-                    int sliceSkips = slice * sliceWidht;
+                    // TODO check after refactoring
+                    cursor.iterator(); // this forces the actual skipping
 
-                    CursorPoolEntryKey sliceKey = new CursorPoolEntryKey(key);
+                    CursorPoolEntryKey newkey = new CursorPoolEntryKey(
+                            key.getSession(),
+                            key.getCollection(),
+                            key.getSort(),
+                            key.getFilter(),
+                            key.getKeys(),
+                            key.getHint(),
+                            sliceSkips,
+                            System.nanoTime());
+
+                    put(newkey, cursor);
 
                     LOGGER.debug("{} cursor in pool: {}",
                             ansi().fg(YELLOW).bold().a("new").reset()
                                     .toString(),
-                            sliceKey);
+                            newkey);
+                }
 
-                    long existing = getSliceHeight(sliceKey);
+                slice++;
+            }
+        });
+    }
+
+    private void populateCacheRandom(CursorPoolEntryKey key) {
+        populate("random", () -> {
+            // cached by CollectionSizeCache
+            long size = dbsDAO.getCollectionSize(
+                    key.getSession(),
+                    key.getCollection(),
+                    key.getFilter());
+
+            int sliceWidht;
+            int slices;
+            int totalSlices = (int) size / SKIP_SLICE_RND_MIN_WIDTH
+                    + 1;
+
+            if (totalSlices <= SKIP_SLICE_RND_MAX_CURSORS) {
+                slices = totalSlices;
+                sliceWidht = SKIP_SLICE_RND_MIN_WIDTH;
+            } else {
+                slices = SKIP_SLICE_RND_MAX_CURSORS;
+                sliceWidht = (int) size / slices;
+            }
 
-                    if (existing == 0) {
-                        FindIterable<BsonDocument> cursor = dbsDAO
-                                .getFindIterable(
-                                        key.getSession(),
-                                        key.getCollection(),
-                                        key.getSort(),
-                                        key.getFilter(),
-                                        key.getHint(),
-                                        key.getKeys())
-                                .skip(sliceSkips);
+            for (int slice = 1; slice < slices; slice++) {
+                int sliceSkips = slice * sliceWidht;
 
-                        // TODO check after refactoring
-                        cursor.iterator(); // this forces the actual skipping
+                CursorPoolEntryKey sliceKey = new CursorPoolEntryKey(key);
 
-                        CursorPoolEntryKey newkey = new CursorPoolEntryKey(
-                                key.getSession(),
-                                key.getCollection(),
-                                key.getSort(),
-                                key.getFilter(),
-                                key.getHint(),
-                                key.getKeys(),
-                                sliceSkips,
-                                System.nanoTime());
-                        cache.put(newkey, cursor);
+                LOGGER.debug("{} cursor in pool: {}",
+                        ansi().fg(YELLOW).bold().a("new").reset()
+                                .toString(),
+                        sliceKey);
 
-                        LOGGER.debug("{} cursor in pool (copied): {}",
-                                ansi().fg(YELLOW).bold().a("new").reset()
-                                        .toString(),
-                                sliceKey);
-                    }
+                long existing = getSliceHeight(sliceKey);
+
+                if (existing == 0) {
+                    FindIterable<BsonDocument> cursor = dbsDAO
+                            .getFindIterable(
+                                    key.getSession(),
+                                    key.getCollection(),
+                                    key.getSort(),
+                                    key.getFilter(),
+                                    key.getHint(),
+                                    key.getKeys())
+                            .skip(sliceSkips);
+
+                    // TODO check after refactoring
+                    cursor.iterator(); // this forces the actual skipping
+
+                    CursorPoolEntryKey newkey = new CursorPoolEntryKey(
+                            key.getSession(),
+                            key.getCollection(),
+                            key.getSort(),
+                            key.getFilter(),
+                            key.getKeys(),
+                            key.getHint(),
+                            sliceSkips,
+                            System.nanoTime());
+                    put(newkey, cursor);
+
+                    LOGGER.debug("{} cursor in pool (copied): {}",
+                            ansi().fg(YELLOW).bold().a("new").reset()
+                                    .toString(),
+                            sliceKey);
+                }
+            }
+        });
+
+    }
+
+    /**
+     * executes the task in the pool populator, if one of its threads is
+     * available or its queue is empty; otherwise the task is discarded and
+     * counted by the CURSOR_POOL.REJECTED meter
+     *
+     * @param policy the eager allocation policy, for logging
+     * @param task
+     */
+    private void populate(String policy, Runnable task) {
+        try {
+            POOL_POPULATOR.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOGGER.warn("Error populating the cursor pool ({})",
+                            policy, t);
                 }
             });
         } catch (RejectedExecutionException rej) {
-            LOGGER.debug("populate cursor pool {}",
+            rejected.mark();
+
+            LOGGER.debug("populate cursor pool ({}) {}", policy,
                     ansi().fg(RED).bold().a("rejected").reset().toString());
         }
-
     }
 
     private long getSliceHeight(CursorPoolEntryKey key) {
-        long ret = cache.asMap().keySet().stream()
-                .filter(cursorsPoolFilterEq(key))
-                .count();
+        long ret = getSliceHeight(new QueryShape(key), key.getSkipped());
 
         LOGGER.trace(
                 "cursor in pool with skips {} are {}",
@@ -366,38 +505,74 @@ public class CursorPool {
         return ret;
     }
 
-    private Predicate<? super CursorPoolEntryKey> cursorsPoolFilterEq(
-            CursorPoolEntryKey requestCursor) {
-        return poolCursor
-                -> Objects.equals(poolCursor.getCollection()
-                        .getNamespace(),
-                        requestCursor.getCollection().getNamespace())
-                && Objects.equals(poolCursor.getFilter(),
-                        requestCursor.getFilter())
-                && Objects.equals(poolCursor.getSort(),
-                        requestCursor.getSort())
-                && Objects.equals(poolCursor.getKeys(),
-                        requestCursor.getKeys())
-                && poolCursor.getSkipped() == requestCursor.getSkipped();
+    private long getSliceHeight(QueryShape shape, int skipped) {
+        var skips = index.get(shape);
+        var keys = skips == null ? null : skips.get(skipped);
+
+        return keys == null ? 0 : keys.size();
     }
 
-    private Predicate<? super CursorPoolEntryKey> cursorsPoolFilterGte(
+    private long getShapeSize(QueryShape shape) {
+        var skips = index.get(shape);
+
+        return skips == null
+                ? 0
+                : skips.values().stream().mapToLong(Set::size).sum();
+    }
+
+    /**
+     * the cursor in the pool is used only if it requires to be iterated less
+     * than MIN_SKIP_DISTANCE_PERCENTAGE * REQUESTED_SKIPS times
+     */
+    private boolean isCloseEnough(int poolSkips,
             CursorPoolEntryKey requestCursor) {
-        return poolCursor
-                -> Objects.equals(poolCursor.getCollection().getNamespace(),
-                        requestCursor.getCollection().getNamespace())
-                && Objects.equals(poolCursor.getFilter(),
-                        requestCursor.getFilter())
-                && Objects.equals(poolCursor.getSort(),
-                        requestCursor.getSort())
-                && Objects.equals(poolCursor.getKeys(),
-                        requestCursor.getKeys())
-                && poolCursor.getSkipped() <= requestCursor.getSkipped()
-                && requestCursor.getSkipped() - poolCursor.getSkipped()
+        return poolSkips <= requestCursor.getSkipped()
+                && requestCursor.getSkipped() - poolSkips
                 <= MIN_SKIP_DISTANCE_PERCENTAGE
                 * requestCursor.getSkipped();
     }
 
+    private void put(CursorPoolEntryKey key,
+            FindIterable<BsonDocument> cursor) {
+        cache.put(key, cursor);
+        allocated.mark();
+
+        index.compute(new QueryShape(key), (shape, skips) -> {
+            var _skips = skips == null
+                    ? new ConcurrentSkipListMap<Integer, Set<CursorPoolEntryKey>>()
+                    : skips;
+
+            _skips.computeIfAbsent(key.getSkipped(),
+                    s -> ConcurrentHashMap.newKeySet())
+                    .add(key);
+
+            return _skips;
+        });
+    }
+
+    /**
+     * @return true if the key was in the index
+     */
+    private boolean removeFromIndex(CursorPoolEntryKey key) {
+        var removed = new boolean[1];
+
+        index.computeIfPresent(new QueryShape(key), (shape, skips) -> {
+            var keys = skips.get(key.getSkipped());
+
+            if (keys != null) {
+                removed[0] = keys.remove(key);
+
+                if (keys.isEmpty()) {
+                    skips.remove(key.getSkipped());
+                }
+            }
+
+            return skips.isEmpty() ? null : skips;
+        });
+
+        return removed[0];
+    }
+
     private TreeMap<String, Long> getCacheSizes() {
         return new TreeMap<>(cache.asMap()
                 .keySet()
@@ -407,6 +582,48 @@ public class CursorPool {
                         Collectors.counting())));
     }
 
+    /**
+     * the cursors with the same query shape differ only by the number of
+     * skipped documents and can be used interchangeably
+     */
+    private static final class QueryShape {
+        private final Object namespace;
+        private final BsonDocument filter;
+        private final BsonDocument sort;
+        private final BsonDocument keys;
+        private final int hash;
+
+        QueryShape(CursorPoolEntryKey key) {
+            this.namespace = key.getCollection().getNamespace();
+            this.filter = key.getFilter();
+            this.sort = key.getSort();
+            this.keys = key.getKeys();
+            this.hash = Objects.hash(namespace, filter, sort, keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof QueryShape)) {
+                return false;
+            }
+
+            var other = (QueryShape) obj;
+
+            return Objects.equals(namespace, other.namespace)
+                    && Objects.equals(filter, other.filter)
+                    && Objects.equals(sort, other.sort)
+                    && Objects.equals(keys, other.keys);
+        }
+    }
+
     private static class DBCursorPoolSingletonHolder {
 
         private static final CursorPool INSTANCE
@@ -18,6 +18,7 @@
 package org.restheart.mongodb.db;
 
 import com.mongodb.MongoCommandException;
+import com.mongodb.WriteError;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoCollection;
@@ -36,6 +37,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.bson.BsonArray;
 import org.bson.BsonBoolean;
@@ -71,6 +73,41 @@ public class DAOUtils {
      */
     public static final int DUPLICATE_KEY_ERROR = 11000;
 
+    /**
+     * MongoDB 4.2 and later report the key pattern of the violated index;
+     * with older servers any duplicate key error is assumed to be on _id
+     *
+     * @param mce
+     * @return true if mce is a duplicate key error on the _id index
+     */
+    public static boolean isDuplicateIdError(MongoCommandException mce) {
+        return isDuplicateIdError(mce.getErrorCode(), mce.getResponse());
+    }
+
+    /**
+     * the key pattern of the violated index is looked up in the details of
+     * the write error; if missing, any duplicate key error is assumed to be
+     * on _id
+     *
+     * @param we
+     * @return true if we is a duplicate key error on the _id index
+     */
+    public static boolean isDuplicateIdError(WriteError we) {
+        return isDuplicateIdError(we.getCode(), we.getDetails());
+    }
+
+    private static boolean isDuplicateIdError(int code, BsonDocument info) {
+        if (code != DUPLICATE_KEY_ERROR) {
+            return false;
+        }
+
+        var keyPattern = info == null ? null : info.get("keyPattern");
+
+        return keyPattern == null
+                || !keyPattern.isDocument()
+                || keyPattern.asDocument().keySet().equals(Set.of("_id"));
+    }
+
     /**
      *
      */
@@ -107,6 +144,18 @@ public class DAOUtils {
     public final static FindOneAndReplaceOptions FOR_AFTER_NOT_UPSERT_OPS = new FindOneAndReplaceOptions()
             .upsert(false).returnDocument(ReturnDocument.AFTER);
 
+    /**
+     *
+     */
+    public final static FindOneAndUpdateOptions FOU_BEFORE_UPSERT_OPS = new FindOneAndUpdateOptions()
+            .upsert(true).returnDocument(ReturnDocument.BEFORE);
+
+    /**
+     *
+     */
+    public final static FindOneAndReplaceOptions FOR_BEFORE_UPSERT_OPS = new FindOneAndReplaceOptions()
+            .upsert(true).returnDocument(ReturnDocument.BEFORE);
+
     /**
      *
      */
@@ -405,11 +454,34 @@ public class DAOUtils {
             final BsonArray documents,
             final BsonDocument filter,
             final BsonDocument shardKeys) {
+        return bulkUpsertDocuments(cs,
+                coll,
+                documents,
+                filter,
+                shardKeys,
+                new ObjectId());
+    }
+
+    /**
+     *
+     * @param cs the client session
+     * @param coll
+     * @param documents
+     * @param filter
+     * @param shardKeys
+     * @param newEtag the etag of the documents
+     * @return
+     */
+    public static BulkOperationResult bulkUpsertDocuments(
+            final ClientSession cs,
+            final MongoCollection<BsonDocument> coll,
+            final BsonArray documents,
+            final BsonDocument filter,
+            final BsonDocument shardKeys,
+            final ObjectId newEtag) {
         Objects.requireNonNull(coll);
         Objects.requireNonNull(documents);
 
-        ObjectId newEtag = new ObjectId();
-
         List<WriteModel<BsonDocument>> wm = getBulkWriteModel(
                 coll,
                 documents,
@@ -122,6 +122,31 @@ public interface Database {
             final BsonDocument keys,
             final EAGER_CURSOR_ALLOCATION_POLICY cursorAllocationPolicy);
 
+    /**
+     *
+     * @param cs the client session
+     * @param collection
+     * @param page
+     * @param pagesize
+     * @param sortBy
+     * @param filter
+     * @param hint
+     * @param keys
+     * @param cursorAllocationPolicy
+     * @return a cursor over the requested page of Collection Data; it must be
+     * closed after use
+     */
+    CollectionDataCursor getCollectionDataCursor(
+            final ClientSession cs,
+            final MongoCollection<BsonDocument> collection,
+            final int page,
+            final int pagesize,
+            final BsonDocument sortBy,
+            final BsonDocument filter,
+            final BsonDocument hint,
+            final BsonDocument keys,
+            final EAGER_CURSOR_ALLOCATION_POLICY cursorAllocationPolicy);
+
     /**
      *
      * @param cs the client session
@@ -26,6 +26,7 @@ import static com.mongodb.client.model.Filters.eq;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.bson.BsonDocument;
 import org.bson.BsonObjectId;
@@ -92,9 +93,7 @@ public class DatabaseImpl implements Database {
             final String dbName) {
         // at least one collection exists for an existing db
         return cs == null
-                ? client.getDatabase(dbName)
-                        .listCollectionNames()
-                        .first() != null
+                ? NamespaceCatalog.getInstance().dbExists(dbName)
                 : client.getDatabase(dbName)
                         .listCollectionNames(cs)
                         .first() != null;
@@ -137,14 +136,14 @@ public class DatabaseImpl implements Database {
     public List<String> getCollectionNames(
             final ClientSession cs,
             final String dbName) {
-        MongoDatabase db = getDatabase(dbName);
-
-        List<String> _colls = new ArrayList<>();
+        List<String> _colls;
 
         if (cs == null) {
-            db.listCollectionNames().into(_colls);
+            _colls = NamespaceCatalog.getInstance().collectionNames(dbName);
         } else {
-            db.listCollectionNames(cs).into(_colls);
+            _colls = getDatabase(dbName)
+                    .listCollectionNames(cs)
+                    .into(new ArrayList<>());
         }
 
         // filter out reserved dbs
@@ -248,36 +247,41 @@ public class DatabaseImpl implements Database {
                         ? _colls.size()
                         : (page - 1) * pagesize + pagesize);
 
-        List<BsonDocument> data = new ArrayList<>();
-
-        _colls.stream().map(
-                (collName) -> {
-                    BsonDocument properties
+        Function<String, BsonDocument> collData = collName -> {
+            BsonDocument properties
                     = new BsonDocument("_id", new BsonString(collName));
 
-                    BsonDocument collProperties;
+            BsonDocument collProperties;
 
-                    if (LocalCachesSingleton.isEnabled()) {
-                        collProperties = LocalCachesSingleton.getInstance()
-                                .getCollectionProperties(dbName, collName);
-                    } else {
-                        collProperties = collectionDAO.getCollectionProps(
-                                cs,
-                                dbName,
-                                collName);
-                    }
+            if (LocalCachesSingleton.isEnabled()) {
+                collProperties = LocalCachesSingleton.getInstance()
+                        .getCollectionProperties(dbName, collName);
+            } else {
+                collProperties = collectionDAO.getCollectionProps(
+                        cs,
+                        dbName,
+                        collName);
+            }
 
-                    if (collProperties != null) {
-                        properties.putAll(collProperties);
-                    }
+            if (collProperties != null) {
+                properties.putAll(collProperties);
+            }
 
-                    return properties;
-                }
-        ).forEach((item) -> {
-            data.add(item);
-        });
+            return properties;
+        };
 
-        return data;
+        // the properties of the collections are read concurrently, unless
+        // in a client session, that cannot be used by concurrent threads,
+        // or cached
+        return cs == null
+                ? AsyncQueries.map(_colls, collData, collName
+                        -> LocalCachesSingleton.isEnabled()
+                        && LocalCachesSingleton.getInstance()
+                                .isCollectionPropertiesCached(dbName,
+                                        collName))
+                : _colls.stream()
+                        .map(collData)
+                        .collect(Collectors.toList());
     }
 
     /**
@@ -381,43 +385,30 @@ public class DatabaseImpl implements Database {
             final MongoCollection<BsonDocument> mcoll,
             final BsonDocument dcontent,
             final ObjectId newEtag) {
-        if (patching) {
-            OperationResult ret = DAOUtils.updateDocument(
-                    cs,
-                    mcoll,
-                    DB_META_DOCID,
-                    null,
-                    null,
-                    dcontent,
-                    false);
-            return new OperationResult(ret.getHttpCode() > 0
-                    ? ret.getHttpCode()
-                    : HttpStatus.SC_OK, newEtag);
-        } else if (updating) {
-            OperationResult ret = DAOUtils.updateDocument(
-                    cs,
-                    mcoll,
-                    DB_META_DOCID,
-                    null,
-                    null,
-                    dcontent,
-                    true);
-            return new OperationResult(ret.getHttpCode() > 0
-                    ? ret.getHttpCode()
-                    : HttpStatus.SC_OK, newEtag);
+        OperationResult ret = DAOUtils.updateDocument(
+                cs,
+                mcoll,
+                DB_META_DOCID,
+                null,
+                null,
+                dcontent,
+                updating && !patching);
+
+        // the db properties are stored in the _properties collection
+        var dbName = mcoll.getNamespace().getDatabaseName();
+
+        if (cs == null) {
+            NamespaceCatalog.getInstance()
+                    .collectionCreated(dbName, META_COLLNAME);
         } else {
-            OperationResult ret = DAOUtils.updateDocument(
-                    cs,
-                    mcoll,
-                    DB_META_DOCID,
-                    null,
-                    null,
-                    dcontent,
-                    false);
-            return new OperationResult(ret.getHttpCode() > 0
-                    ? ret.getHttpCode()
-                    : HttpStatus.SC_CREATED, newEtag);
+            NamespaceCatalog.getInstance().invalidate(dbName);
         }
+
+        return new OperationResult(ret.getHttpCode() > 0
+                ? ret.getHttpCode()
+                : updating || patching
+                        ? HttpStatus.SC_OK
+                        : HttpStatus.SC_CREATED, newEtag);
     }
 
     /**
@@ -468,6 +459,8 @@ public class DatabaseImpl implements Database {
             mdb.drop(cs);
         }
 
+        NamespaceCatalog.getInstance().invalidate(dbName);
+
         return new OperationResult(HttpStatus.SC_NO_CONTENT);
     }
 
@@ -575,7 +568,10 @@ public class DatabaseImpl implements Database {
             final ClientSession cs,
             final MongoCollection<BsonDocument> coll,
             final BsonDocument filters) {
-        return collectionDAO.getCollectionSize(cs, coll, filters);
+        // counts in a session must reflect its writes, thus are not cached
+        return cs == null
+                ? CollectionSizeCache.getInstance().get(coll, filters)
+                : collectionDAO.getCollectionSize(cs, coll, filters);
     }
 
     /**
@@ -614,6 +610,42 @@ public class DatabaseImpl implements Database {
                 cursorAllocationPolicy);
     }
 
+    /**
+     *
+     * @param cs the client session
+     * @param coll
+     * @param page
+     * @param pagesize
+     * @param sortBy
+     * @param filter
+     * @param hint
+     * @param keys
+     * @param cursorAllocationPolicy
+     * @return
+     */
+    @Override
+    public CollectionDataCursor getCollectionDataCursor(
+            final ClientSession cs,
+            final MongoCollection<BsonDocument> coll,
+            final int page,
+            final int pagesize,
+            final BsonDocument sortBy,
+            final BsonDocument filter,
+            final BsonDocument hint,
+            final BsonDocument keys,
+            final EAGER_CURSOR_ALLOCATION_POLICY cursorAllocationPolicy) {
+        return collectionDAO.getCollectionDataCursor(
+                cs,
+                coll,
+                page,
+                pagesize,
+                sortBy,
+                filter,
+                hint,
+                keys,
+                cursorAllocationPolicy);
+    }
+
     /**
      *
      * @param cs the client session
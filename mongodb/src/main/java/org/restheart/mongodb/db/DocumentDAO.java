@@ -18,6 +18,7 @@
 package org.restheart.mongodb.db;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
@@ -26,6 +27,7 @@ import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.DeleteManyModel;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
 import com.mongodb.client.model.UpdateManyModel;
 import com.mongodb.client.model.WriteModel;
 import java.util.ArrayList;
@@ -41,6 +43,7 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.restheart.handlers.exchange.OperationResult;
+import org.restheart.mongodb.utils.ResponseHelper;
 import org.restheart.utils.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -126,6 +129,19 @@ public class DocumentDAO implements DocumentRepository {
 
         content.put("_etag", new BsonObjectId(newEtag));
 
+        if (checkEtag) {
+            return conditionalUpsert(
+                    cs,
+                    mcoll,
+                    documentId,
+                    filter,
+                    shardKeys,
+                    content,
+                    newEtag,
+                    requestEtag,
+                    !patching);
+        }
+
         OperationResult updateResult = DAOUtils.updateDocument(
                 cs,
                 mcoll,
@@ -143,17 +159,6 @@ public class DocumentDAO implements DocumentRepository {
                         updateResult.getHttpCode() > 0
                         ? updateResult.getHttpCode()
                         : HttpStatus.SC_CREATED, newEtag, null, updateResult.getNewData());
-            } else if (checkEtag) {
-                // check the old etag (in case restore the old document version)
-                return optimisticCheckEtag(
-                        cs,
-                        mcoll,
-                        shardKeys,
-                        oldDocument,
-                        newEtag,
-                        requestEtag,
-                        HttpStatus.SC_OK,
-                        false);
             } else {
                 var query = eq("_id", documentId);
                 BsonDocument newDocument = cs == null
@@ -164,17 +169,6 @@ public class DocumentDAO implements DocumentRepository {
                         ? updateResult.getHttpCode()
                         : HttpStatus.SC_OK, newEtag, oldDocument, newDocument);
             }
-        } else if (oldDocument != null && checkEtag) { // upsertDocument
-            // check the old etag (in case restore the old document)
-            return optimisticCheckEtag(
-                    cs,
-                    mcoll,
-                    shardKeys,
-                    oldDocument,
-                    newEtag,
-                    requestEtag,
-                    HttpStatus.SC_OK,
-                    false);
         } else if (oldDocument != null) {  // insert
             BsonDocument newDocument = mcoll.find(
                     eq("_id", documentId)).first();
@@ -234,6 +228,19 @@ public class DocumentDAO implements DocumentRepository {
             documentId = Optional.empty(); // key _id is not present
         }
 
+        if (checkEtag && !(documentId instanceof Optional)) {
+            return conditionalUpsert(
+                    cs,
+                    mcoll,
+                    documentId,
+                    filter,
+                    shardKeys,
+                    content,
+                    newEtag,
+                    requestEtag,
+                    true);
+        }
+
         // new document since the id is missing ()
         OperationResult updateResult = DAOUtils.updateDocument(
                 cs,
@@ -255,17 +262,6 @@ public class DocumentDAO implements DocumentRepository {
                     newEtag,
                     null,
                     newDocument);
-        } else if (checkEtag) {  // upsertDocument
-            // check the old etag (in case restore the old document version)
-            return optimisticCheckEtag(
-                    cs,
-                    mcoll,
-                    shardKeys,
-                    oldDocument,
-                    newEtag,
-                    requestEtag,
-                    HttpStatus.SC_OK,
-                    false);
         } else {
             return new OperationResult(updateResult.getHttpCode() > 0
                     ? updateResult.getHttpCode()
@@ -292,13 +288,42 @@ public class DocumentDAO implements DocumentRepository {
             final BsonArray documents,
             final BsonDocument filter,
             final BsonDocument shardKeys) {
+        return bulkUpsertDocumentsPost(cs,
+                dbName,
+                collName,
+                documents,
+                filter,
+                shardKeys,
+                new ObjectId());
+    }
+
+    /**
+     *
+     * @param cs the client session
+     * @param dbName
+     * @param collName
+     * @param documents
+     * @param filter
+     * @param shardKeys
+     * @param etag the etag of the documents
+     * @return
+     */
+    @Override
+    public BulkOperationResult bulkUpsertDocumentsPost(
+            final ClientSession cs,
+            final String dbName,
+            final String collName,
+            final BsonArray documents,
+            final BsonDocument filter,
+            final BsonDocument shardKeys,
+            final ObjectId etag) {
         Objects.requireNonNull(documents);
 
         MongoDatabase mdb = client.getDatabase(dbName);
         MongoCollection<BsonDocument> mcoll
                 = mdb.getCollection(collName, BsonDocument.class);
 
-        BsonObjectId newEtag = new BsonObjectId(new ObjectId());
+        BsonObjectId newEtag = new BsonObjectId(etag);
 
         documents
                 .stream()
@@ -314,7 +339,8 @@ public class DocumentDAO implements DocumentRepository {
                 mcoll,
                 documents,
                 filter,
-                shardKeys);
+                shardKeys,
+                etag);
     }
 
     /**
@@ -344,24 +370,29 @@ public class DocumentDAO implements DocumentRepository {
         MongoCollection<BsonDocument> mcoll
                 = mdb.getCollection(collName, BsonDocument.class);
 
+        Bson query = getIdFilter(documentId, filter, shardedKeys);
+
+        if (checkEtag) {
+            query = and(query, etagFilter(requestEtag));
+        }
+
         BsonDocument oldDocument = cs == null
-                ? mcoll.findOneAndDelete(
-                        getIdFilter(documentId, filter, shardedKeys))
-                : mcoll.findOneAndDelete(cs,
-                        getIdFilter(documentId, filter, shardedKeys));
+                ? mcoll.findOneAndDelete(query)
+                : mcoll.findOneAndDelete(cs, query);
 
         if (oldDocument == null) {
-            return new OperationResult(HttpStatus.SC_NOT_FOUND);
+            return checkEtag
+                    ? failedEtagCheck(
+                            cs,
+                            mcoll,
+                            documentId,
+                            shardedKeys,
+                            requestEtag,
+                            HttpStatus.SC_NOT_FOUND)
+                    : new OperationResult(HttpStatus.SC_NOT_FOUND);
         } else if (checkEtag) {
-            // check the old etag (in case restore the old document version)
-            return optimisticCheckEtag(
-                    cs,
-                    mcoll,
-                    null,
-                    oldDocument,
-                    null,
-                    requestEtag,
-                    HttpStatus.SC_NO_CONTENT, true);
+            return new OperationResult(
+                    HttpStatus.SC_NO_CONTENT, null, oldDocument, null);
         } else {
             return new OperationResult(HttpStatus.SC_NO_CONTENT);
         }
@@ -467,93 +498,145 @@ public class DocumentDAO implements DocumentRepository {
         return new BulkOperationResult(HttpStatus.SC_OK, null, result);
     }
 
-    private OperationResult optimisticCheckEtag(
+    /**
+     * writes the document only if its _etag matches the request etag; the
+     * check and the write are a single atomic operation, the document is
+     * looked up again only if the write did not happen to tell the reason
+     */
+    private OperationResult conditionalUpsert(
             final ClientSession cs,
             final MongoCollection<BsonDocument> coll,
+            final Object documentId,
+            final BsonDocument filter,
             final BsonDocument shardKeys,
-            final BsonDocument oldDocument,
+            final BsonDocument content,
             final Object newEtag,
             final String requestEtag,
-            final int httpStatusIfOk,
-            final boolean deleting
-    ) {
-
-        BsonValue oldEtag = oldDocument.get("_etag");
-
-        if (oldEtag != null && requestEtag == null) {
-            // oopps, we need to restore old document
-            // they call it optimistic lock strategy
-            if (deleting) {
-                DAOUtils.updateDocument(
-                        cs,
-                        coll,
-                        oldDocument.get("_id"),
-                        null,
-                        shardKeys,
-                        oldDocument,
-                        true);
+            final boolean replace) {
+        var query = and(
+                getIdFilter(documentId, filter, shardKeys),
+                etagFilter(requestEtag));
+
+        BsonDocument oldDocument;
+
+        try {
+            if (replace) {
+                oldDocument = cs == null
+                        ? coll.findOneAndReplace(query,
+                                DAOUtils.getReplaceDocument(content),
+                                DAOUtils.FOR_BEFORE_UPSERT_OPS)
+                        : coll.findOneAndReplace(cs, query,
+                                DAOUtils.getReplaceDocument(content),
+                                DAOUtils.FOR_BEFORE_UPSERT_OPS);
             } else {
-                DAOUtils.restoreDocument(
+                oldDocument = cs == null
+                        ? coll.findOneAndUpdate(query,
+                                DAOUtils.getUpdateDocument(content),
+                                DAOUtils.FOU_BEFORE_UPSERT_OPS)
+                        : coll.findOneAndUpdate(cs, query,
+                                DAOUtils.getUpdateDocument(content),
+                                DAOUtils.FOU_BEFORE_UPSERT_OPS);
+            }
+        } catch (IllegalArgumentException iae) {
+            return new OperationResult(HttpStatus.SC_BAD_REQUEST);
+        } catch (MongoCommandException mce) {
+            if (DAOUtils.isDuplicateIdError(mce)) {
+                // the upsert failed since the document exists
+                // but does not match the etag or the filter
+                return failedEtagCheck(
                         cs,
                         coll,
-                        oldDocument.get("_id"),
+                        documentId,
                         shardKeys,
-                        oldDocument,
-                        newEtag,
-                        "_etag");
+                        requestEtag,
+                        ResponseHelper.getHttpStatusFromErrorCode(
+                                mce.getErrorCode()));
+            } else if (mce.getErrorCode() == DAOUtils.DUPLICATE_KEY_ERROR) {
+                return new OperationResult(HttpStatus.SC_CONFLICT);
+            } else {
+                throw mce;
             }
-
-            return new OperationResult(
-                    HttpStatus.SC_CONFLICT, oldEtag, oldDocument, null);
         }
 
-        BsonValue _requestEtag;
+        var idQuery = eq("_id", documentId);
 
-        if (ObjectId.isValid(requestEtag)) {
-            _requestEtag = new BsonObjectId(new ObjectId(requestEtag));
-        } else {
-            // restheart generates ObjectId etags, but here we support
-            // strings as well
-            _requestEtag = new BsonString(requestEtag);
+        BsonDocument newDocument = cs == null
+                ? coll.find(idQuery).first()
+                : coll.find(cs, idQuery).first();
+
+        return new OperationResult(oldDocument == null
+                ? HttpStatus.SC_CREATED
+                : HttpStatus.SC_OK,
+                newEtag,
+                oldDocument,
+                newDocument);
+    }
+
+    /**
+     * looks up the document after a conditional write did not happen
+     *
+     * @return 404 if the document does not exist, 409 if the request etag is
+     * missing, 412 if it does not match the document _etag, otherwise (the
+     * document did not match the filter) httpStatusIfMatching
+     */
+    private OperationResult failedEtagCheck(
+            final ClientSession cs,
+            final MongoCollection<BsonDocument> coll,
+            final Object documentId,
+            final BsonDocument shardKeys,
+            final String requestEtag,
+            final int httpStatusIfMatching) {
+        Bson query = eq("_id", documentId);
+
+        if (shardKeys != null) {
+            query = and(query, shardKeys);
         }
 
-        if (Objects.equals(_requestEtag, oldEtag)) {
-            var query = eq("_id", oldDocument.get("_id"));
+        BsonDocument document = cs == null
+                ? coll.find(query).first()
+                : coll.find(cs, query).first();
 
-            BsonDocument newDocument = cs == null
-                    ? coll.find(query).first()
-                    : coll.find(cs, query).first();
+        if (document == null) {
+            return new OperationResult(HttpStatus.SC_NOT_FOUND);
+        }
 
-            return new OperationResult(
-                    httpStatusIfOk, newEtag, oldDocument, newDocument);
-        } else {
-            // oopps, we need to restore old document
-            // they call it optimistic lock strategy
-            if (deleting) {
-                DAOUtils.updateDocument(
-                        cs,
-                        coll,
-                        oldDocument.get("_id"),
-                        shardKeys,
-                        null,
-                        oldDocument,
-                        true);
-            } else {
-                DAOUtils.restoreDocument(
-                        cs,
-                        coll,
-                        oldDocument.get("_id"),
-                        shardKeys,
-                        oldDocument,
-                        newEtag,
-                        "_etag");
-            }
+        BsonValue oldEtag = document.get("_etag");
 
+        if (oldEtag != null && requestEtag == null) {
+            return new OperationResult(
+                    HttpStatus.SC_CONFLICT, oldEtag, document, null);
+        } else if (requestEtag != null
+                && !Objects.equals(etagValue(requestEtag), oldEtag)) {
             return new OperationResult(
                     HttpStatus.SC_PRECONDITION_FAILED,
                     oldEtag,
-                    oldDocument,
+                    document,
                     null);
+        } else {
+            return new OperationResult(
+                    httpStatusIfMatching, oldEtag, document, null);
+        }
+    }
+
+    /**
+     *
+     * @param requestEtag
+     * @return the condition on the _etag for a conditional write; if
+     * requestEtag is null, the document must not have the _etag
+     */
+    private Bson etagFilter(final String requestEtag) {
+        return requestEtag == null
+                ? exists("_etag", false)
+                : eq("_etag", etagValue(requestEtag));
+    }
+
+    private BsonValue etagValue(final String requestEtag) {
+        if (ObjectId.isValid(requestEtag)) {
+            return new BsonObjectId(new ObjectId(requestEtag));
+        } else {
+            // restheart generates ObjectId etags, but here we support
+            // strings as well
+            return new BsonString(requestEtag);
         }
     }
 }
@@ -21,6 +21,7 @@ import com.mongodb.client.ClientSession;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.restheart.handlers.exchange.OperationResult;
 
 /**
@@ -116,6 +117,26 @@ public interface DocumentRepository {
             final BsonDocument filter, 
             final BsonDocument shardKeys);
 
+    /**
+     * 
+     * @param cs the client session
+     * @param dbName
+     * @param collName
+     * @param documents
+     * @param filter
+     * @param shardKeys
+     * @param etag the etag of the documents
+     * @return 
+     */
+    BulkOperationResult bulkUpsertDocumentsPost(
+            final ClientSession cs,
+            final String dbName, 
+            final String collName,
+            final BsonArray documents,
+            final BsonDocument filter, 
+            final BsonDocument shardKeys,
+            final ObjectId etag);
+
     /**
      * 
      * @param cs the client session
@@ -20,11 +20,15 @@ package org.restheart.mongodb.db;
 import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoGridFSException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.set;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -85,6 +89,30 @@ public class GridFsDAO implements GridFsRepository {
             final BsonDocument metadata,
             final Path filePath)
             throws IOException, DuplicateKeyException {
+        try (InputStream sourceStream = new FileInputStream(filePath.toFile())) {
+            return createFile(db, dbName, bucketName, metadata, sourceStream);
+        }
+    }
+
+    /**
+     *
+     * @param db
+     * @param dbName
+     * @param bucketName
+     * @param metadata
+     * @param sourceStream
+     * @return the OperationResult
+     * @throws IOException
+     * @throws DuplicateKeyException
+     */
+    @Override
+    public OperationResult createFile(
+            final Database db,
+            final String dbName,
+            final String bucketName,
+            final BsonDocument metadata,
+            final InputStream sourceStream)
+            throws IOException, DuplicateKeyException {
 
         final String bucket = extractBucketName(bucketName);
 
@@ -98,36 +126,33 @@ public class GridFsDAO implements GridFsRepository {
         ObjectId etag = new ObjectId();
         metadata.put("_etag", new BsonObjectId(etag));
 
-        try (InputStream sourceStream = new FileInputStream(filePath.toFile())) {
+        if (metadata.get("_id") == null) {
+            GridFSUploadOptions options = new GridFSUploadOptions()
+                    .metadata(Document.parse(metadata.toJson()));
 
-            if (metadata.get("_id") == null) {
-                GridFSUploadOptions options = new GridFSUploadOptions()
-                        .metadata(Document.parse(metadata.toJson()));
-
-                ObjectId _id = gridFSBucket.uploadFromStream(
-                        filename,
-                        sourceStream,
-                        options);
-
-                return new OperationResult(SC_CREATED,
-                        new BsonObjectId(etag),
-                        new BsonObjectId(_id));
-            } else {
-                BsonValue _id = metadata.remove("_id");
-
-                GridFSUploadOptions options = new GridFSUploadOptions()
-                        .metadata(Document.parse(metadata.toJson()));
-
-                gridFSBucket.uploadFromStream(
-                        _id,
-                        filename,
-                        sourceStream,
-                        options);
-
-                return new OperationResult(SC_CREATED,
-                        new BsonObjectId(etag),
-                        _id);
-            }
+            ObjectId _id = gridFSBucket.uploadFromStream(
+                    filename,
+                    sourceStream,
+                    options);
+
+            return new OperationResult(SC_CREATED,
+                    new BsonObjectId(etag),
+                    new BsonObjectId(_id));
+        } else {
+            BsonValue _id = metadata.remove("_id");
+
+            GridFSUploadOptions options = new GridFSUploadOptions()
+                    .metadata(Document.parse(metadata.toJson()));
+
+            gridFSBucket.uploadFromStream(
+                    _id,
+                    filename,
+                    sourceStream,
+                    options);
+
+            return new OperationResult(SC_CREATED,
+                    new BsonObjectId(etag),
+                    _id);
         }
     }
 
@@ -153,33 +178,186 @@ public class GridFsDAO implements GridFsRepository {
             final BsonValue fileId,
             final String requestEtag,
             final boolean checkEtag) throws IOException {
+        try (InputStream sourceStream = new FileInputStream(filePath.toFile())) {
+            return upsertFile(db, dbName, bucketName, metadata, sourceStream,
+                    fileId, requestEtag, checkEtag);
+        }
+    }
 
-        OperationResult deletionResult = deleteFile(db, dbName, bucketName, fileId, requestEtag, checkEtag);
+    /**
+     *
+     * @param db
+     * @param dbName
+     * @param bucketName
+     * @param metadata
+     * @param sourceStream
+     * @param fileId
+     * @param requestEtag
+     * @param checkEtag
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public OperationResult upsertFile(final Database db,
+            final String dbName,
+            final String bucketName,
+            final BsonDocument metadata,
+            final InputStream sourceStream,
+            final BsonValue fileId,
+            final String requestEtag,
+            final boolean checkEtag) throws IOException {
 
-        //https://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html#sec9.7
-        final boolean deleteOperationWasSuccessful = deletionResult.getHttpCode() == SC_NO_CONTENT || deletionResult.getHttpCode() == SC_OK;
-        final boolean fileDidntExist = deletionResult.getHttpCode() == SC_NOT_FOUND;
-        final boolean fileExisted = !fileDidntExist;
+        final String bucket = extractBucketName(bucketName);
+
+        GridFSBucket gridFSBucket = GridFSBuckets.create(
+                db.getDatabase(dbName),
+                bucket);
+
+        GridFSFile oldFile = getFileForId(gridFSBucket, fileId);
+
+        if (oldFile == null) {
+            // nothing to replace, upload the file straight under its id
+            metadata.put("_id", fileId);
+
+            OperationResult creationResult = createFile(db, dbName,
+                    bucketName, metadata, sourceStream);
+
+            return new OperationResult(SC_CREATED, creationResult.getEtag(),
+                    fileId);
+        }
+
+        if (checkEtag) {
+            OperationResult etagCheck = checkEtag(oldFile, requestEtag);
+
+            if (etagCheck != null) {
+                return etagCheck;
+            }
+        }
+
+        // the new file is uploaded under a temporary id, so that the
+        // existing one is left untouched if the upload fails
+        BsonObjectId tmpId = new BsonObjectId();
+        metadata.put("_id", tmpId);
+
+        OperationResult creationResult;
+
+        try {
+            creationResult = createFile(db, dbName, bucketName, metadata,
+                    sourceStream);
+        } catch (IOException | RuntimeException ex) {
+            deleteQuietly(gridFSBucket, tmpId);
+            throw ex;
+        }
+
+        if (!replace(db.getDatabase(dbName), bucket, oldFile, tmpId)) {
+            // the file has been replaced or deleted meanwhile
+            deleteQuietly(gridFSBucket, tmpId);
+            return new OperationResult(SC_CONFLICT);
+        }
+
+        //https://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html#sec9.6
+        return new OperationResult(SC_OK, creationResult.getEtag(),
+                creationResult.getOldData(), creationResult.getNewData());
+    }
+
+    /**
+     * replaces oldFile with the file uploaded under tmpId.
+     *
+     * The files document of oldFile is removed only if it has not been
+     * replaced meanwhile (its uploadDate is unchanged), which also guards
+     * against concurrent replacements from other RESTHeart instances. Then
+     * the old chunks are removed, the new ones are moved to the file id and
+     * the files document with the file id is inserted last, so that readers
+     * never see it with missing or foreign chunks (they get a 404 until
+     * then). Once the old file is
+     * removed, the temporary one is never deleted: if a later step fails it
+     * is kept, and logged, so that its data can be recovered.
+     *
+     * GridFS chunks reference the id of their files document and are unique
+     * by (files_id, n), so the chunks of the new file can't be written
+     * under the file id while the old ones exist and must be moved to it.
+     *
+     * @param mdb
+     * @param bucket
+     * @param oldFile
+     * @param tmpId
+     * @return false if oldFile has been replaced or deleted meanwhile
+     */
+    private boolean replace(final MongoDatabase mdb,
+            final String bucket,
+            final GridFSFile oldFile,
+            final BsonValue tmpId) {
+        MongoCollection<BsonDocument> files = mdb.getCollection(
+                bucket.concat(".files"), BsonDocument.class);
+
+        MongoCollection<BsonDocument> chunks = mdb.getCollection(
+                bucket.concat(".chunks"), BsonDocument.class);
+
+        final BsonValue fileId = oldFile.getId();
+
+        BsonDocument file = files.find(eq("_id", tmpId)).first();
 
-        if (deleteOperationWasSuccessful || fileDidntExist) {
-            OperationResult creationResult = createFile(db, dbName, bucketName, metadata, filePath);
+        if (file == null) {
+            throw new MongoGridFSException("No file found with the id: "
+                    + tmpId);
+        }
+
+        if (files.findOneAndDelete(and(
+                eq("_id", fileId),
+                eq("uploadDate", oldFile.getUploadDate()))) == null) {
+            return false;
+        }
+
+        try {
+            chunks.deleteMany(eq("files_id", fileId));
+            chunks.updateMany(eq("files_id", tmpId), set("files_id", fileId));
+
+            file.put("_id", fileId);
+            files.insertOne(file);
+        } catch (RuntimeException re) {
+            LOGGER.error("Error replacing file {} in bucket {}, "
+                    + "the files document of the new file is kept with id {}",
+                    fileId, bucket, tmpId, re);
+            throw re;
+        }
 
-            //https://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html#sec9.5
-            final boolean creationOperationWasSuccessful = SC_CREATED == creationResult.getHttpCode() || SC_OK == creationResult.getHttpCode();
-            if (creationOperationWasSuccessful) {
+        files.deleteOne(eq("_id", tmpId));
 
-                //https://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html#sec9.6
-                if (fileExisted) {
-                    return new OperationResult(SC_OK, creationResult.getEtag(), creationResult.getOldData(), creationResult.getNewData());
-                } else {
-                    return new OperationResult(SC_CREATED, creationResult.getEtag(), creationResult.getNewId());
+        return true;
+    }
+
+    private void deleteQuietly(final GridFSBucket gridFSBucket,
+            final BsonValue fileId) {
+        try {
+            gridFSBucket.delete(fileId);
+        } catch (MongoGridFSException e) {
+            LOGGER.debug("Can't delete fileId '{}'", fileId, e);
+        }
+    }
+
+    /**
+     * @param file
+     * @param requestEtag
+     * @return the OperationResult of the failed check, null if the check
+     * succeeds
+     */
+    private OperationResult checkEtag(final GridFSFile file,
+            final String requestEtag) {
+        Document metadata = file.getMetadata();
+        if (metadata != null) {
+            Object oldEtag = metadata.get("_etag");
+
+            if (oldEtag != null) {
+                if (requestEtag == null) {
+                    return new OperationResult(SC_CONFLICT, oldEtag);
+                } else if (!Objects.equals(oldEtag.toString(), requestEtag)) {
+                    return new OperationResult(
+                            SC_PRECONDITION_FAILED, oldEtag);
                 }
-            } else {
-                return creationResult;
             }
-        } else {
-            return deletionResult;
         }
+
+        return null;
     }
 
     private String extractFilenameFromProperties(
@@ -237,18 +415,10 @@ public class GridFsDAO implements GridFsRepository {
             }
 
             if (checkEtag) {
-                Document metadata = file.getMetadata();
-                if (metadata != null) {
-                    Object oldEtag = metadata.get("_etag");
-
-                    if (oldEtag != null) {
-                        if (requestEtag == null) {
-                            return new OperationResult(SC_CONFLICT, oldEtag);
-                        } else if (!Objects.equals(oldEtag.toString(), requestEtag)) {
-                            return new OperationResult(
-                                    SC_PRECONDITION_FAILED, oldEtag);
-                        }
-                    }
+                OperationResult etagCheck = checkEtag(file, requestEtag);
+
+                if (etagCheck != null) {
+                    return etagCheck;
                 }
             }
 
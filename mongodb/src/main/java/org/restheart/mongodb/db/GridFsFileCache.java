@@ -0,0 +1,437 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.bson.BsonValue;
+import org.restheart.mongodb.MongoServiceConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local disk cache of the content of the GridFS files.
+ *
+ * Files up to gridfs-cache-max-file-size bytes are copied to the
+ * gridfs-cache-dir directory the first time they are downloaded, and then
+ * served from there, so that they can be sent with FileChannel.transferTo.
+ * The least recently used files are evicted when the total size exceeds
+ * gridfs-cache-max-size bytes.
+ *
+ * Along with the content, the entries keep the fs.files document; an entry is
+ * used without querying MongoDB for local-cache-ttl milliseconds, after that
+ * the file is looked up again and the entry is kept only if its length,
+ * uploadDate and _etag didn't change. Entries are invalidated when the file is updated or deleted via
+ * RESTHeart.
+ */
+public class GridFsFileCache {
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(GridFsFileCache.class);
+
+    private static final String PREFIX = "gridfs-";
+
+    /**
+     *
+     * @return
+     */
+    public static GridFsFileCache getInstance() {
+        return GridFsFileCacheSingletonHolder.INSTANCE;
+    }
+
+    private final Path dir;
+    private final long maxSize;
+    private final long maxFileSize;
+    private final long ttl;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, Entry> entries
+            = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    // per bucket, incremented at every invalidation, guarded by entries
+    private final HashMap<String, Long> generations = new HashMap<>();
+
+    private final ConcurrentHashMap<String, FutureTask<Entry>> loading
+            = new ConcurrentHashMap<>();
+
+    private GridFsFileCache() {
+        var conf = MongoServiceConfiguration.get();
+
+        Path _dir = null;
+
+        if (conf != null && conf.isGridFsCacheEnabled()) {
+            try {
+                _dir = init(conf.getGridFsCacheDir());
+            } catch (IOException ioe) {
+                LOGGER.error("Error initializing the GridFS cache directory, "
+                        + "GridFS cache disabled", ioe);
+            }
+        }
+
+        this.dir = _dir;
+        this.maxSize = conf == null ? 0 : conf.getGridFsCacheMaxSize();
+        this.maxFileSize = conf == null ? 0 : conf.getGridFsCacheMaxFileSize();
+        this.ttl = conf == null ? 0 : conf.getLocalCacheTtl();
+    }
+
+    GridFsFileCache(Path dir, long maxSize, long maxFileSize, long ttl) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.maxFileSize = maxFileSize;
+        this.ttl = ttl;
+    }
+
+    private static Path init(String dir) throws IOException {
+        if (dir == null) {
+            var tmp = Files.createTempDirectory("restheart-gridfs-cache");
+            tmp.toFile().deleteOnExit();
+            return tmp;
+        }
+
+        var path = Path.of(dir);
+
+        Files.createDirectories(path);
+
+        // remove the files left by a previous run
+        try (var files = Files.newDirectoryStream(path, PREFIX + "*")) {
+            for (var file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param bucket
+     * @param id
+     * @return the cached entry of the file, or null if the file is not cached
+     * or its entry needs to be checked against fs.files
+     */
+    public Entry get(String dbName, String bucket, BsonValue id) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key(dbName, bucket, id));
+        }
+
+        return entry != null && entry.isFresh(ttl, System.currentTimeMillis())
+                ? entry
+                : null;
+    }
+
+    /**
+     * returns the entry of the file, downloading it with gridFSBucket if it is
+     * not cached or is a different version
+     *
+     * @param dbName
+     * @param bucket
+     * @param file the current fs.files document
+     * @param gridFSBucket
+     * @return the entry of the file or null if the file is too big or cannot
+     * be cached
+     */
+    public Entry load(String dbName,
+            String bucket,
+            GridFSFile file,
+            GridFSBucket gridFSBucket) {
+        return load(dbName, bucket, file,
+                out -> gridFSBucket.downloadToStream(file.getId(), out));
+    }
+
+    Entry load(String dbName,
+            String bucket,
+            GridFSFile file,
+            Download download) {
+        if (!isEnabled() || file.getLength() > maxFileSize) {
+            return null;
+        }
+
+        var key = key(dbName, bucket, file.getId());
+
+        synchronized (entries) {
+            var entry = entries.get(key);
+
+            if (entry != null && entry.isSameVersion(file)) {
+                entry.checked(file, System.currentTimeMillis());
+                return entry;
+            }
+        }
+
+        var bucketKey = key(dbName, bucket, null);
+
+        var task = new FutureTask<>(() -> download(key, bucketKey, file,
+                download));
+        var running = loading.putIfAbsent(key, task);
+
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (ExecutionException ee) {
+            LOGGER.warn("Error caching GridFS file {} of bucket {}.{}",
+                    file.getId(), dbName, bucket, ee.getCause());
+            return null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * removes the file from the cache
+     *
+     * @param dbName
+     * @param bucket
+     * @param id
+     */
+    public void invalidate(String dbName, String bucket, BsonValue id) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            generations.merge(key(dbName, bucket, null), 1L, Long::sum);
+
+            var entry = entries.remove(key(dbName, bucket, id));
+
+            if (entry != null) {
+                size -= entry.getLength();
+                delete(entry);
+            }
+        }
+    }
+
+    /**
+     * removes all the files of the bucket from the cache
+     *
+     * @param dbName
+     * @param bucket
+     */
+    public void invalidateBucket(String dbName, String bucket) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        var prefix = key(dbName, bucket, null);
+
+        synchronized (entries) {
+            generations.merge(prefix, 1L, Long::sum);
+
+            for (var it = entries.entrySet().iterator(); it.hasNext();) {
+                var e = it.next();
+
+                if (e.getKey().startsWith(prefix)) {
+                    it.remove();
+                    size -= e.getValue().getLength();
+                    delete(e.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the total size of the cached files
+     */
+    public long size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private Entry download(String key,
+            String bucketKey,
+            GridFSFile file,
+            Download download)
+            throws IOException {
+        long startGeneration;
+
+        synchronized (entries) {
+            startGeneration = generations.getOrDefault(bucketKey, 0L);
+        }
+
+        var path = Files.createTempFile(dir, PREFIX, null);
+
+        try (var out = Files.newOutputStream(path)) {
+            download.to(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        var entry = new Entry(file, path, System.currentTimeMillis());
+
+        synchronized (entries) {
+            // a file of the bucket has been invalidated while downloading,
+            // the content might be stale
+            if (generations.getOrDefault(bucketKey, 0L) != startGeneration) {
+                delete(entry);
+                return null;
+            }
+
+            var replaced = entries.put(key, entry);
+
+            if (replaced != null) {
+                size -= replaced.getLength();
+                delete(replaced);
+            }
+
+            size += entry.getLength();
+
+            var lru = entries.entrySet().iterator();
+
+            while (size > maxSize && lru.hasNext()) {
+                var evicted = lru.next().getValue();
+
+                lru.remove();
+                size -= evicted.getLength();
+                delete(evicted);
+            }
+
+            return entries.containsKey(key) ? entry : null;
+        }
+    }
+
+    /**
+     * an open FileChannel keeps reading the content of a deleted file, thus
+     * the entry can be removed while it is being sent
+     */
+    private static void delete(Entry entry) {
+        try {
+            Files.deleteIfExists(entry.getPath());
+        } catch (IOException ioe) {
+            LOGGER.warn("Error deleting cached GridFS file {}",
+                    entry.getPath(), ioe);
+            entry.getPath().toFile().deleteOnExit();
+        }
+    }
+
+    private static String key(String dbName, String bucket, BsonValue id) {
+        return dbName + "/" + bucket + "/" + (id == null ? "" : id.toString());
+    }
+
+    @FunctionalInterface
+    interface Download {
+        void to(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A cached GridFS file
+     */
+    public static class Entry {
+        private volatile GridFSFile file;
+        private final Path path;
+        private volatile long checkedAt;
+
+        Entry(GridFSFile file, Path path, long checkedAt) {
+            this.file = file;
+            this.path = path;
+            this.checkedAt = checkedAt;
+        }
+
+        /**
+         * @return the fs.files document of the file
+         */
+        public GridFSFile getFile() {
+            return file;
+        }
+
+        /**
+         * @return the path of the cached content
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the length of the file
+         */
+        public long getLength() {
+            return file.getLength();
+        }
+
+        /**
+         * @return a channel to read the cached content
+         * @throws IOException
+         */
+        public FileChannel open() throws IOException {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        boolean isFresh(long ttl, long now) {
+            return ttl < 0 || now - checkedAt < ttl;
+        }
+
+        boolean isSameVersion(GridFSFile other) {
+            return file.getLength() == other.getLength()
+                    && Objects.equals(file.getUploadDate(),
+                            other.getUploadDate())
+                    && Objects.equals(etag(file), etag(other));
+        }
+
+        void checked(GridFSFile file, long now) {
+            this.file = file;
+            this.checkedAt = now;
+        }
+
+        private static Object etag(GridFSFile file) {
+            return file.getMetadata() == null
+                    ? null
+                    : file.getMetadata().get("_etag");
+        }
+    }
+
+    private static class GridFsFileCacheSingletonHolder {
+        private static final GridFsFileCache INSTANCE = new GridFsFileCache();
+
+        private GridFsFileCacheSingletonHolder() {
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.MongoClient;
+import static com.mongodb.client.model.Filters.eq;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.bson.BsonDocument;
+import org.restheart.cache.Cache;
+import org.restheart.cache.CacheFactory;
+import org.restheart.cache.LoadingCache;
+import org.restheart.mongodb.MongoServiceConfiguration;
+
+/**
+ * In memory catalog of the collections of each db, used to check if dbs and
+ * collections exist and to list the collections without querying MongoDB at
+ * every request.
+ *
+ * The collections of a db are listed once and then kept up to date when
+ * collections are created or dropped via RESTHeart; a collection missing from
+ * the catalog is looked up with a targeted query, so that collections created
+ * by other clients are found as well. The catalog of a db expires after the
+ * local-cache-ttl and is disabled if local-cache-enabled is false.
+ */
+public class NamespaceCatalog {
+    private static final long MAX_CACHE_SIZE = 1_000;
+
+    /**
+     *
+     * @return
+     */
+    public static NamespaceCatalog getInstance() {
+        return NamespaceCatalogSingletonHolder.INSTANCE;
+    }
+
+    private final MongoClient client;
+    private final LoadingCache<String, NavigableSet<String>> catalog;
+
+    private NamespaceCatalog() {
+        this.client = MongoDBClientSingleton.getInstance().getClient();
+
+        var conf = MongoServiceConfiguration.get();
+
+        if (conf != null && conf.isLocalCacheEnabled()) {
+            this.catalog = CacheFactory.createLocalLoadingCache(
+                    MAX_CACHE_SIZE,
+                    Cache.EXPIRE_POLICY.AFTER_WRITE,
+                    conf.getLocalCacheTtl(),
+                    this::load);
+        } else {
+            this.catalog = null;
+        }
+    }
+
+    /**
+     *
+     * @param dbName
+     * @return true if the db exists
+     */
+    public boolean dbExists(String dbName) {
+        var colls = get(dbName);
+
+        if (colls != null && !colls.isEmpty()) {
+            return true;
+        }
+
+        // at least one collection exists for an existing db
+        var exists = client.getDatabase(dbName)
+                .listCollectionNames()
+                .first() != null;
+
+        if (exists) {
+            invalidate(dbName);
+        }
+
+        return exists;
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @return true if the collection exists
+     */
+    public boolean collectionExists(String dbName, String collName) {
+        var colls = get(dbName);
+
+        if (colls != null && colls.contains(collName)) {
+            return true;
+        }
+
+        var exists = client.getDatabase(dbName)
+                .listCollections(BsonDocument.class)
+                .filter(eq("name", collName))
+                .first() != null;
+
+        if (exists && colls != null) {
+            colls.add(collName);
+        }
+
+        return exists;
+    }
+
+    /**
+     *
+     * @param dbName
+     * @return the names of the collections of the db, ordered
+     */
+    public List<String> collectionNames(String dbName) {
+        var colls = get(dbName);
+
+        return colls != null
+                ? new ArrayList<>(colls)
+                : new ArrayList<>(load(dbName));
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     */
+    public void collectionCreated(String dbName, String collName) {
+        var colls = cached(dbName);
+
+        if (colls != null) {
+            colls.add(collName);
+        }
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     */
+    public void collectionDropped(String dbName, String collName) {
+        var colls = cached(dbName);
+
+        if (colls != null) {
+            colls.remove(collName);
+        }
+    }
+
+    /**
+     * forgets the collections of the db, they will be listed again at next
+     * request
+     *
+     * @param dbName
+     */
+    public void invalidate(String dbName) {
+        if (catalog != null) {
+            catalog.invalidate(dbName);
+        }
+    }
+
+    /**
+     * forgets the collections of all the dbs
+     */
+    public void invalidateAll() {
+        if (catalog != null) {
+            catalog.invalidateAll();
+        }
+    }
+
+    private NavigableSet<String> get(String dbName) {
+        if (catalog == null) {
+            return null;
+        }
+
+        Optional<NavigableSet<String>> _colls = catalog.getLoading(dbName);
+
+        return _colls != null && _colls.isPresent()
+                ? _colls.get()
+                : null;
+    }
+
+    private NavigableSet<String> cached(String dbName) {
+        if (catalog == null) {
+            return null;
+        }
+
+        Optional<NavigableSet<String>> _colls = catalog.get(dbName);
+
+        return _colls != null && _colls.isPresent()
+                ? _colls.get()
+                : null;
+    }
+
+    private NavigableSet<String> load(String dbName) {
+        return client.getDatabase(dbName)
+                .listCollectionNames()
+                .into(new ConcurrentSkipListSet<>());
+    }
+
+    private static class NamespaceCatalogSingletonHolder {
+        private static final NamespaceCatalog INSTANCE = new NamespaceCatalog();
+
+        private NamespaceCatalogSingletonHolder() {
+        }
+    }
+}
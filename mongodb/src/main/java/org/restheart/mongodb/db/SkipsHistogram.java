@@ -0,0 +1,148 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exponentially decayed histogram of the skips requested for a query shape,
+ * used by the ADAPTIVE eager cursor allocation policy to pre-allocate the
+ * cursors where hits are likely.
+ *
+ * The skips are grouped in slices of fixed width; the weight of a slice
+ * halves every halfLife milliseconds, so that the histogram follows the
+ * changes of the paging patterns.
+ */
+class SkipsHistogram {
+    private static final double MIN_WEIGHT = 0.01;
+
+    private final int sliceWidth;
+    private final double halfLife;
+    private final int maxSlices;
+
+    private final Map<Integer, Slice> slices = new HashMap<>();
+    private long lastDecay;
+
+    /**
+     *
+     * @param sliceWidth the width of the slices
+     * @param halfLife the half life of the weights in milliseconds
+     * @param maxSlices the max number of slices, the lightest is dropped
+     * @param now the current time in milliseconds
+     */
+    SkipsHistogram(int sliceWidth, long halfLife, int maxSlices, long now) {
+        this.sliceWidth = sliceWidth;
+        this.halfLife = halfLife;
+        this.maxSlices = maxSlices;
+        this.lastDecay = now;
+    }
+
+    /**
+     * records a request
+     *
+     * @param skips the requested skips
+     * @param now the current time in milliseconds
+     */
+    synchronized void record(int skips, long now) {
+        decay(now);
+
+        var slice = slices.computeIfAbsent(skips / sliceWidth,
+                s -> new Slice(skips));
+
+        slice.weight += 1;
+        slice.minSkips = Math.min(slice.minSkips, skips);
+
+        if (slices.size() > maxSlices) {
+            slices.entrySet().stream()
+                    .min(Comparator.comparingDouble(e -> e.getValue().weight))
+                    .map(Map.Entry::getKey)
+                    .ifPresent(slices::remove);
+        }
+    }
+
+    /**
+     * distributes the cursors among the slices proportionally to their
+     * weights; the cursors of a slice are positioned at the smallest skips
+     * requested in it, so that they can serve all the requests of the slice
+     * that follow it
+     *
+     * @param budget the max number of cursors
+     * @param now the current time in milliseconds
+     * @return the number of cursors to pre-allocate by skips, heaviest
+     * slices first
+     */
+    synchronized Map<Integer, Integer> allocation(int budget, long now) {
+        decay(now);
+
+        var ret = new LinkedHashMap<Integer, Integer>();
+
+        double total = slices.values().stream()
+                .mapToDouble(s -> s.weight)
+                .sum();
+
+        if (total <= 0) {
+            return ret;
+        }
+
+        var sorted = new ArrayList<>(slices.values());
+        sorted.sort(Comparator.comparingDouble((Slice s) -> s.weight)
+                .reversed());
+
+        int remaining = budget;
+
+        for (var slice : sorted) {
+            int cursors = Math.min(remaining,
+                    (int) Math.round(budget * slice.weight / total));
+
+            if (cursors <= 0) {
+                break;
+            }
+
+            ret.merge(slice.minSkips, cursors, Integer::sum);
+            remaining -= cursors;
+        }
+
+        return ret;
+    }
+
+    private void decay(long now) {
+        if (now <= lastDecay) {
+            return;
+        }
+
+        double factor = Math.pow(0.5, (now - lastDecay) / halfLife);
+
+        slices.values().forEach(s -> s.weight *= factor);
+        slices.values().removeIf(s -> s.weight < MIN_WEIGHT);
+
+        lastDecay = now;
+    }
+
+    private static class Slice {
+        private double weight = 0;
+        private int minSkips;
+
+        Slice(int skips) {
+            this.minSkips = skips;
+        }
+    }
+}
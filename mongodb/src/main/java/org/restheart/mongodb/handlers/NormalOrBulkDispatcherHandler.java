@@ -21,15 +21,18 @@ import io.undertow.server.HttpServerExchange;
 import org.bson.BsonValue;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.mongodb.handlers.injectors.BodyInjector;
 
 /**
  * this handler dispatches request to normal or bulk post collection handlers
- * depending on the content to be an object or an array
+ * depending on the content to be an object or an array, or to the ndjson
+ * bulk handler if the Content-Type is application/x-ndjson
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class NormalOrBulkDispatcherHandler extends PipelinedHandler {
     private final PipelinedHandler nextNormal;
     private final PipelinedHandler nextBulk;
+    private final PipelinedHandler nextNdjson;
 
     /**
      * Creates a new instance of PostCollectionHandler
@@ -39,10 +42,24 @@ public class NormalOrBulkDispatcherHandler extends PipelinedHandler {
     public NormalOrBulkDispatcherHandler(
             PipelinedHandler nextNormal, 
             PipelinedHandler nextBulk) {
+        this(nextNormal, nextBulk, null);
+    }
+
+    /**
+     * Creates a new instance of PostCollectionHandler
+     * @param nextNormal next handler for normal requests
+     * @param nextBulk next handler for bulk requests
+     * @param nextNdjson next handler for ndjson bulk requests
+     */
+    public NormalOrBulkDispatcherHandler(
+            PipelinedHandler nextNormal, 
+            PipelinedHandler nextBulk,
+            PipelinedHandler nextNdjson) {
         super(null);
         
         this.nextNormal = nextNormal;
         this.nextBulk = nextBulk;
+        this.nextNdjson = nextNdjson;
     }
 
     /**
@@ -54,7 +71,9 @@ public class NormalOrBulkDispatcherHandler extends PipelinedHandler {
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         BsonValue content = BsonRequest.wrap(exchange).getContent();
 
-        if (content != null 
+        if (nextNdjson != null && BodyInjector.isNdjson(exchange)) {
+            nextNdjson.handleRequest(exchange);
+        } else if (content != null 
                 && content.isArray()) {
             nextBulk.handleRequest(exchange);
         } else {
@@ -29,6 +29,7 @@ import org.restheart.mongodb.handlers.aggregation.GetAggregationHandler;
 import org.restheart.mongodb.handlers.bulk.BulkDeleteDocumentsHandler;
 import org.restheart.mongodb.handlers.bulk.BulkPatchDocumentsHandler;
 import org.restheart.mongodb.handlers.bulk.BulkPostCollectionHandler;
+import org.restheart.mongodb.handlers.bulk.NdjsonBulkPostCollectionHandler;
 import org.restheart.mongodb.handlers.collection.DeleteCollectionHandler;
 import org.restheart.mongodb.handlers.collection.GetCollectionHandler;
 import org.restheart.mongodb.handlers.collection.PatchCollectionHandler;
@@ -328,6 +329,10 @@ public class RequestDispatcherHandler extends PipelinedHandler {
                                 new RequestTransformersExecutor(),
                                 new BeforeWriteCheckersExecutor(),
                                 new BulkPostCollectionHandler(),
+                                DEFAULT_RESP_TRANFORMERS),
+                        PipelinedHandler.pipe(
+                                new RequestTransformersExecutor(),
+                                new NdjsonBulkPostCollectionHandler(),
                                 DEFAULT_RESP_TRANFORMERS)
                 ));
 
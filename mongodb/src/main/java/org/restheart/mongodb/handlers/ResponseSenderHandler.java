@@ -60,6 +60,13 @@ public class ResponseSenderHandler extends PipelinedHandler {
         var response = BsonResponse.wrap(exchange);
         BsonValue responseContent = response.getContent();
 
+        if (responseContent == null && exchange.isResponseStarted()) {
+            // the content has been streamed by the handler
+            exchange.endExchange();
+            next(exchange);
+            return;
+        }
+
         if (response.getWarnings() != null
                 && !response.getWarnings().isEmpty()) {
             if (responseContent == null) {
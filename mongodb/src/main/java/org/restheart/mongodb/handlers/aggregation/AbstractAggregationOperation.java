@@ -39,6 +39,12 @@ public abstract class AbstractAggregationOperation {
      */
     public static final String TYPE_ELEMENT_NAME = "type";
 
+    /**
+     * the time to live in milliseconds of the cached results, caching is
+     * disabled if missing or 0
+     */
+    public static final String CACHE_TTL_ELEMENT_NAME = "cacheTtl";
+
     /**
      *
      * @param collProps
@@ -146,6 +152,7 @@ public abstract class AbstractAggregationOperation {
 
     private final TYPE type;
     private final String uri;
+    private final long cacheTtl;
 
     /**
      *
@@ -193,6 +200,20 @@ public abstract class AbstractAggregationOperation {
         }
 
         this.uri = _uri.asString().getValue();
+
+        BsonValue _cacheTtl = properties.get(CACHE_TTL_ELEMENT_NAME);
+
+        if (_cacheTtl == null) {
+            this.cacheTtl = 0;
+        } else if (_cacheTtl.isNumber()
+                && _cacheTtl.asNumber().longValue() >= 0) {
+            this.cacheTtl = _cacheTtl.asNumber().longValue();
+        } else {
+            throw new InvalidMetadataException("query has invalid '"
+                    + CACHE_TTL_ELEMENT_NAME
+                    + "' property, it must be a non negative number: "
+                    + _cacheTtl.toString());
+        }
     }
 
     /**
@@ -210,68 +231,11 @@ public abstract class AbstractAggregationOperation {
     }
 
     /**
-     * @param obj
-     * @param aVars RequestContext.getAggregationVars()
-     * @return the json object where the variables ({"_$var": "var") are
-     * replaced with the values defined in the avars URL query parameter
-     * @throws org.restheart.mongodb.handlers.metadata.InvalidMetadataException
-     * @throws org.restheart.mongodb.handlers.aggregation.QueryVariableNotBoundException
+     * @return the time to live in milliseconds of the cached results, 0 if
+     * the results are not cached
      */
-    protected BsonValue bindAggregationVariables(
-            BsonValue obj,
-            BsonDocument aVars)
-            throws InvalidMetadataException, QueryVariableNotBoundException {
-        if (obj == null) {
-            return null;
-        }
-        
-        if (obj.isDocument()) {
-            BsonDocument _obj = obj.asDocument();
-
-            if (_obj.size() == 1 && _obj.get("$var") != null) {
-                BsonValue varName = _obj.get("$var");
-
-                if (!(varName.isString())) {
-                    throw new InvalidMetadataException("wrong variable name "
-                            + varName.toString());
-                }
-
-                if (aVars == null
-                        || aVars.get(varName.asString().getValue()) == null) {
-                    throw new QueryVariableNotBoundException("variable "
-                            + varName.asString().getValue() + " not bound");
-                }
-
-                return aVars.get(varName.asString().getValue());
-            } else {
-                BsonDocument ret = new BsonDocument();
-
-                for (String key : _obj.keySet()) {
-                    ret.put(key,
-                            bindAggregationVariables(
-                                    _obj.get(key), aVars));
-                }
-
-                return ret;
-            }
-        } else if (obj.isArray()) {
-            BsonArray ret = new BsonArray();
-
-            for (BsonValue el : obj.asArray().getValues()) {
-                if (el.isDocument()) {
-                    ret.add(bindAggregationVariables(el, aVars));
-                } else if (el.isArray()) {
-                    ret.add(bindAggregationVariables(el, aVars));
-                } else {
-                    ret.add(el);
-                }
-            }
-
-            return ret;
-
-        } else {
-            return obj;
-        }
+    public long getCacheTtl() {
+        return cacheTtl;
     }
 
     /**
@@ -0,0 +1,237 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import com.mongodb.client.MongoCursor;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bson.BsonDocument;
+import org.restheart.cache.Cache;
+import org.restheart.cache.CacheFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the open MongoCursors of the aggregations requested with the cursor
+ * query parameter, so that the next page resumes the same cursor instead of
+ * executing the aggregation again.
+ *
+ * A cursor is identified by a random token and can only be resumed by the
+ * aggregation that opened it, with the same aggregation variables. It is
+ * taken out of the pool while a page is read and put back, with a new token,
+ * if more documents follow. When the token has been sent before knowing it,
+ * an exhausted cursor is closed and only its token is kept. Cursors not
+ * resumed within TTL milliseconds, that is less than the MongoDB idle cursor
+ * timeout, or exceeding MAX_POOL_SIZE are closed.
+ */
+public class AggregationCursorPool {
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(AggregationCursorPool.class);
+
+    private static final String SEPARATOR = "_@_@_";
+    private static final long MAX_POOL_SIZE = 1_000;
+    private static final long TTL = 5 * 60 * 1_000;
+
+    /**
+     *
+     * @return
+     */
+    public static AggregationCursorPool getInstance() {
+        return AggregationCursorPoolSingletonHolder.INSTANCE;
+    }
+
+    private final Cache<String, Entry> cursors;
+
+    private AggregationCursorPool() {
+        this(MAX_POOL_SIZE, TTL);
+    }
+
+    AggregationCursorPool(long maxSize, long ttl) {
+        this.cursors = CacheFactory.createLocalCache(maxSize,
+                Cache.EXPIRE_POLICY.AFTER_WRITE,
+                ttl,
+                this::removed);
+    }
+
+    /**
+     * adds the cursor to the pool
+     *
+     * @param dbName
+     * @param collName
+     * @param uri the uri of the aggregation
+     * @param avars the aggregation variables
+     * @param cursor the cursor positioned at the first document of the next
+     * page
+     * @return the token to resume the cursor
+     */
+    public String put(String dbName,
+            String collName,
+            String uri,
+            BsonDocument avars,
+            MongoCursor<BsonDocument> cursor) {
+        var token = newToken();
+
+        put(dbName, collName, uri, avars, token, cursor);
+
+        return token;
+    }
+
+    /**
+     * adds the cursor to the pool with a token obtained from newToken(), used
+     * when the token must be sent before the cursor can be put back
+     *
+     * @param dbName
+     * @param collName
+     * @param uri the uri of the aggregation
+     * @param avars the aggregation variables
+     * @param token
+     * @param cursor the cursor positioned at the first document of the next
+     * page
+     */
+    public void put(String dbName,
+            String collName,
+            String uri,
+            BsonDocument avars,
+            String token,
+            MongoCursor<BsonDocument> cursor) {
+        cursors.put(token, new Entry(key(dbName, collName, uri), avars,
+                cursor));
+    }
+
+    /**
+     * records that the cursor of an already sent token is exhausted; the
+     * cursor must be closed by the caller
+     *
+     * @param dbName
+     * @param collName
+     * @param uri the uri of the aggregation
+     * @param avars the aggregation variables
+     * @param token
+     */
+    public void putExhausted(String dbName,
+            String collName,
+            String uri,
+            BsonDocument avars,
+            String token) {
+        cursors.put(token, new Entry(key(dbName, collName, uri), avars,
+                null));
+    }
+
+    /**
+     * @return a new random cursor token
+     */
+    public static String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * takes the cursor out of the pool; the caller must either put it back or
+     * close it
+     *
+     * @param dbName
+     * @param collName
+     * @param uri the uri of the aggregation
+     * @param avars the aggregation variables
+     * @param token
+     * @return the cursor, Optional.empty() if the cursor is exhausted or null
+     * if the token does not identify a cursor of the aggregation with the
+     * same variables or the cursor has expired
+     */
+    public Optional<MongoCursor<BsonDocument>> take(String dbName,
+            String collName,
+            String uri,
+            BsonDocument avars,
+            String token) {
+        if (token == null) {
+            return null;
+        }
+
+        Optional<Entry> _entry = cursors.get(token);
+
+        if (_entry == null || !_entry.isPresent()) {
+            return null;
+        }
+
+        var entry = _entry.get();
+
+        if (!entry.key.equals(key(dbName, collName, uri))
+                || !entry.avars.equals(avars == null
+                        ? new BsonDocument()
+                        : avars)
+                || !entry.taken.compareAndSet(false, true)) {
+            return null;
+        }
+
+        cursors.invalidate(token);
+
+        return Optional.ofNullable(entry.cursor);
+    }
+
+    /**
+     * @return the number of pooled cursors
+     */
+    long size() {
+        cursors.cleanUp();
+        return cursors.asMap().size();
+    }
+
+    /**
+     * closes the cursors removed from the cache unless they have been taken
+     */
+    private void removed(Map.Entry<String, Optional<Entry>> removed) {
+        var _entry = removed.getValue();
+
+        if (_entry != null
+                && _entry.isPresent()
+                && _entry.get().cursor != null
+                && _entry.get().taken.compareAndSet(false, true)) {
+            try {
+                _entry.get().cursor.close();
+            } catch (RuntimeException re) {
+                LOGGER.debug("error closing expired aggregation cursor", re);
+            }
+        }
+    }
+
+    private static String key(String dbName, String collName, String uri) {
+        return dbName + SEPARATOR + collName + SEPARATOR + uri;
+    }
+
+    private static class Entry {
+        private final String key;
+        private final BsonDocument avars;
+        private final MongoCursor<BsonDocument> cursor;
+        private final AtomicBoolean taken = new AtomicBoolean(false);
+
+        Entry(String key, BsonDocument avars, MongoCursor<BsonDocument> cursor) {
+            this.key = key;
+            this.avars = avars == null ? new BsonDocument() : avars;
+            this.cursor = cursor;
+        }
+    }
+
+    private static class AggregationCursorPoolSingletonHolder {
+        private static final AggregationCursorPool INSTANCE
+                = new AggregationCursorPool();
+
+        private AggregationCursorPoolSingletonHolder() {
+        }
+    }
+}
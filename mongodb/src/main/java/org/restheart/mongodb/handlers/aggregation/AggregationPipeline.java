@@ -45,6 +45,7 @@ public class AggregationPipeline extends AbstractAggregationOperation {
     
     private final BsonArray stages;
     private final BsonBoolean allowDiskUse;
+    private final AggregationTemplate template;
 
     /**
      * @param properties the json properties object. It must include the
@@ -94,6 +95,8 @@ public class AggregationPipeline extends AbstractAggregationOperation {
         }
         
         this.stages = _stages.asArray();
+        this.template = new AggregationTemplate(
+                JsonUtils.unescapeKeys(stages));
         
         BsonValue _allowDiskUse = properties.get(ALLOW_DISK_USER_ELEMENT_NAME);
 
@@ -124,9 +127,7 @@ public class AggregationPipeline extends AbstractAggregationOperation {
      */
     public List<BsonDocument> getResolvedStagesAsList(BsonDocument avars)
             throws InvalidMetadataException, QueryVariableNotBoundException {
-        BsonArray replacedStages = bindAggregationVariables(
-                JsonUtils.unescapeKeys(stages), avars)
-                .asArray();
+        BsonArray replacedStages = template.bind(avars).asArray();
 
         List<BsonDocument> ret = new ArrayList<>();
 
@@ -0,0 +1,387 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import com.codahale.metrics.Gauge;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.restheart.mongodb.MongoServiceConfiguration;
+import org.restheart.mongodb.handlers.metrics.SharedMetricRegistryProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory cache of the results of the aggregations.
+ *
+ * Caching is enabled per aggregation with the cacheTtl property of its
+ * metadata; the results are cached by aggregation uri and bound variables,
+ * including the @page and @pagesize ones, and used for cacheTtl milliseconds.
+ * The least recently used results are evicted when their total size exceeds
+ * aggregation-cache-max-size bytes.
+ *
+ * The cached results of a collection are invalidated when it is written via
+ * RESTHeart. Writes made by other clients, or to the collections read by
+ * $lookup stages, are only reflected when the results expire.
+ *
+ * The hits and misses of each aggregation are exposed as the
+ * AGGREGATION_CACHE.{uri}.HITS and AGGREGATION_CACHE.{uri}.MISSES gauges of
+ * the collection metrics.
+ */
+public class AggregationResultCache {
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(AggregationResultCache.class);
+
+    private static final String SEPARATOR = "_@_@_";
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    // rough memory overhead of an entry and of each of its documents
+    private static final long ENTRY_OVERHEAD = 256;
+    private static final long DOCUMENT_OVERHEAD = 64;
+
+    /**
+     *
+     * @return
+     */
+    public static AggregationResultCache getInstance() {
+        return AggregationResultCacheSingletonHolder.INSTANCE;
+    }
+
+    private final long maxSize;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, Entry> entries
+            = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    // incremented at every invalidation of a collection, keyed by its
+    // namespace, or of a db, keyed by dbName + SEPARATOR; guarded by entries
+    private final HashMap<String, Long> generations = new HashMap<>();
+
+    private final ConcurrentHashMap<String, Counters> counters
+            = new ConcurrentHashMap<>();
+
+    private AggregationResultCache() {
+        var conf = MongoServiceConfiguration.get();
+
+        this.maxSize = conf == null ? 0 : conf.getAggregationCacheMaxSize();
+    }
+
+    AggregationResultCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @param aggregation
+     * @param avars the bound aggregation variables
+     * @return a copy of the cached results, or null if they are not cached or
+     * the aggregation does not enable caching
+     */
+    public List<BsonDocument> get(String dbName,
+            String collName,
+            AbstractAggregationOperation aggregation,
+            BsonDocument avars) {
+        if (maxSize <= 0 || aggregation.getCacheTtl() <= 0) {
+            return null;
+        }
+
+        var key = key(dbName, collName, aggregation, avars);
+
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key);
+
+            // the aggregation is a different object if the metadata changed
+            if (entry != null
+                    && (entry.aggregation != aggregation
+                    || entry.expires < System.currentTimeMillis())) {
+                remove(key);
+                entry = null;
+            }
+        }
+
+        var _counters = counters(dbName, collName, aggregation.getUri());
+
+        if (entry == null) {
+            _counters.misses.increment();
+            return null;
+        }
+
+        _counters.hits.increment();
+
+        var ret = new ArrayList<BsonDocument>(entry.data.size());
+
+        for (RawBsonDocument doc : entry.data) {
+            ret.add(doc.decode(CODEC));
+        }
+
+        return ret;
+    }
+
+    /**
+     * to be called before executing the aggregation and passed to put(), so
+     * that results racing with an invalidation of the collection are not
+     * cached
+     *
+     * @param dbName
+     * @param collName
+     * @return the current generation of the collection
+     */
+    public long generation(String dbName, String collName) {
+        synchronized (entries) {
+            return currentGeneration(dbName, collName);
+        }
+    }
+
+    // guarded by entries
+    private long currentGeneration(String dbName, String collName) {
+        return generations.getOrDefault(namespace(dbName, collName), 0L)
+                + generations.getOrDefault(dbName + SEPARATOR, 0L);
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @param aggregation
+     * @param avars the bound aggregation variables
+     * @param data the results of the aggregation
+     * @param generation the generation(dbName, collName) before executing
+     * the aggregation
+     */
+    public void put(String dbName,
+            String collName,
+            AbstractAggregationOperation aggregation,
+            BsonDocument avars,
+            List<BsonDocument> data,
+            long generation) {
+        if (maxSize <= 0 || aggregation.getCacheTtl() <= 0) {
+            return;
+        }
+
+        var key = key(dbName, collName, aggregation, avars);
+        var raw = new ArrayList<RawBsonDocument>(data.size());
+        long entrySize = ENTRY_OVERHEAD + 2 * key.length();
+
+        for (BsonDocument doc : data) {
+            var _doc = new RawBsonDocument(doc, CODEC);
+            raw.add(_doc);
+            entrySize += DOCUMENT_OVERHEAD + _doc.getByteBuffer().remaining();
+
+            if (entrySize > maxSize) {
+                LOGGER.debug("Results of aggregation {} too big to be cached",
+                        aggregation.getUri());
+                return;
+            }
+        }
+
+        var entry = new Entry(namespace(dbName, collName),
+                aggregation,
+                raw,
+                entrySize,
+                System.currentTimeMillis() + aggregation.getCacheTtl());
+
+        synchronized (entries) {
+            if (generation != currentGeneration(dbName, collName)) {
+                // invalidated while executing the aggregation
+                return;
+            }
+
+            remove(key);
+
+            entries.put(key, entry);
+            size += entry.size;
+
+            var it = entries.values().iterator();
+
+            while (size > maxSize && it.hasNext()) {
+                var eldest = it.next();
+                it.remove();
+                size -= eldest.size;
+            }
+        }
+    }
+
+    /**
+     * invalidates the cached results of the aggregations of a collection
+     *
+     * @param dbName
+     * @param collName
+     */
+    public void invalidate(String dbName, String collName) {
+        invalidateIf(namespace(dbName, collName), false);
+    }
+
+    /**
+     * invalidates the cached results of the aggregations of all the
+     * collections of a db
+     *
+     * @param dbName
+     */
+    public void invalidateDb(String dbName) {
+        invalidateIf(dbName + SEPARATOR, true);
+    }
+
+    private void invalidateIf(String namespace, boolean prefix) {
+        synchronized (entries) {
+            generations.merge(namespace, 1L, Long::sum);
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            var it = entries.values().iterator();
+
+            while (it.hasNext()) {
+                var entry = it.next();
+
+                if (prefix
+                        ? entry.namespace.startsWith(namespace)
+                        : entry.namespace.equals(namespace)) {
+                    it.remove();
+                    size -= entry.size;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the total size of the cached results
+     */
+    long size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @param uri
+     * @return the number of cache hits of the aggregation
+     */
+    public long hits(String dbName, String collName, String uri) {
+        var _counters = counters.get(namespace(dbName, collName)
+                + SEPARATOR + uri);
+
+        return _counters == null ? 0 : _counters.hits.sum();
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @param uri
+     * @return the number of cache misses of the aggregation
+     */
+    public long misses(String dbName, String collName, String uri) {
+        var _counters = counters.get(namespace(dbName, collName)
+                + SEPARATOR + uri);
+
+        return _counters == null ? 0 : _counters.misses.sum();
+    }
+
+    private Counters counters(String dbName, String collName, String uri) {
+        return counters.computeIfAbsent(
+                namespace(dbName, collName) + SEPARATOR + uri,
+                k -> {
+                    var _counters = new Counters();
+
+                    try {
+                        var registry = new SharedMetricRegistryProxy()
+                                .registry(dbName, collName);
+
+                        registry.gauge("AGGREGATION_CACHE." + uri + ".HITS",
+                                () -> (Gauge<Long>) _counters.hits::sum);
+                        registry.gauge("AGGREGATION_CACHE." + uri + ".MISSES",
+                                () -> (Gauge<Long>) _counters.misses::sum);
+                    } catch (IllegalArgumentException iae) {
+                        // a metric with the same name but a different type
+                        LOGGER.warn("Cannot register the cache metrics "
+                                + "of aggregation {}", uri, iae);
+                    }
+
+                    return _counters;
+                });
+    }
+
+    // guarded by entries
+    private void remove(String key) {
+        var old = entries.remove(key);
+
+        if (old != null) {
+            size -= old.size;
+        }
+    }
+
+    private static String namespace(String dbName, String collName) {
+        return dbName + SEPARATOR + collName;
+    }
+
+    private static String key(String dbName,
+            String collName,
+            AbstractAggregationOperation aggregation,
+            BsonDocument avars) {
+        return namespace(dbName, collName)
+                + SEPARATOR + aggregation.getUri()
+                + SEPARATOR + (avars == null ? "" : avars.toJson());
+    }
+
+    private static class Entry {
+        private final String namespace;
+        private final AbstractAggregationOperation aggregation;
+        private final List<RawBsonDocument> data;
+        private final long size;
+        private final long expires;
+
+        Entry(String namespace,
+                AbstractAggregationOperation aggregation,
+                List<RawBsonDocument> data,
+                long size,
+                long expires) {
+            this.namespace = namespace;
+            this.aggregation = aggregation;
+            this.data = data;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+
+    private static class Counters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+
+    private static class AggregationResultCacheSingletonHolder {
+        private static final AggregationResultCache INSTANCE
+                = new AggregationResultCache();
+
+        private AggregationResultCacheSingletonHolder() {
+        }
+    }
+}
@@ -18,14 +18,20 @@
 package org.restheart.mongodb.handlers.aggregation;
 
 import io.undertow.server.HttpServerExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 import org.bson.BsonDocument;
 import org.bson.BsonInt32;
+import org.bson.BsonString;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
 import org.restheart.mongodb.representation.AbstractRepresentationFactory;
 import org.restheart.mongodb.representation.Link;
 import org.restheart.mongodb.representation.Resource;
+import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.mongodb.utils.URLUtils;
 
 /**
@@ -34,6 +40,10 @@ import org.restheart.mongodb.utils.URLUtils;
  */
 public class AggregationResultRepresentationFactory
         extends AbstractRepresentationFactory {
+    /**
+     * the property with the token to resume the aggregation cursor
+     */
+    public static final String CURSOR_PROPERTY = "_cursor";
 
     /**
      *
@@ -54,6 +64,24 @@ public class AggregationResultRepresentationFactory
             List<BsonDocument> embeddedData,
             long size)
             throws IllegalQueryParamenterException {
+        return getRepresentation(exchange, embeddedData, size, null);
+    }
+
+    /**
+     *
+     * @param exchange
+     * @param embeddedData
+     * @param size
+     * @param nextCursor the token to resume the cursor for the next page,
+     * null if there are no more documents
+     * @return
+     * @throws IllegalQueryParamenterException
+     */
+    public Resource getRepresentation(HttpServerExchange exchange,
+            List<BsonDocument> embeddedData,
+            long size,
+            String nextCursor)
+            throws IllegalQueryParamenterException {
         var request = BsonRequest.wrap(exchange);
 
         final String requestPath = buildRequestPath(exchange);
@@ -69,6 +97,10 @@ public class AggregationResultRepresentationFactory
 
         addEmbeddedData(embeddedData, rep);
 
+        if (nextCursor != null) {
+            rep.addProperty(CURSOR_PROPERTY, new BsonString(nextCursor));
+        }
+
         if (request.isFullHalMode()) {
             addLinkTemplates(rep, requestPath);
         }
@@ -76,6 +108,45 @@ public class AggregationResultRepresentationFactory
         return rep;
     }
 
+    /**
+     * Writes the STANDARD representation of the aggregation results, i.e.
+     * the json array of the documents, to the output stream. Each document
+     * is encoded and written as soon as it is read from the data iterator, so
+     * that the results are never held in memory.
+     *
+     * @param exchange
+     * @param data
+     * @param os
+     * @return the number of written documents
+     * @throws IOException
+     */
+    public int writeStandardRepresentation(
+            HttpServerExchange exchange,
+            Iterator<BsonDocument> data,
+            OutputStream os)
+            throws IOException {
+        var request = BsonRequest.wrap(exchange);
+
+        int written = 0;
+
+        os.write('[');
+
+        while (data.hasNext()) {
+            if (written > 0) {
+                os.write(',');
+            }
+
+            os.write(JsonUtils.toJson(data.next(), request.getJsonMode())
+                    .getBytes(StandardCharsets.UTF_8));
+
+            written++;
+        }
+
+        os.write(']');
+
+        return written;
+    }
+
     private void addEmbeddedData(List<BsonDocument> embeddedData,
             final Resource rep)
             throws IllegalQueryParamenterException {
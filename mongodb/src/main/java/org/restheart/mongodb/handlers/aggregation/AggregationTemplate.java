@@ -0,0 +1,212 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+
+/**
+ * An aggregation stages array or query compiled once into a template that
+ * records the positions of the variable placeholders ({"$var": "name"}).
+ *
+ * Binding the variables only creates the documents and arrays on the path
+ * from the root to a placeholder; the subtrees without placeholders are
+ * shared by all the bound values. The shared documents are RawBsonDocuments,
+ * so they can't be modified; the shared arrays must not be modified.
+ */
+class AggregationTemplate {
+    private static final String VAR = "$var";
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private final Node root;
+
+    /**
+     *
+     * @param value the unescaped stages or query
+     */
+    AggregationTemplate(BsonValue value) {
+        this.root = compile(value);
+    }
+
+    /**
+     *
+     * @param aVars the aggregation variables
+     * @return the value with the placeholders replaced by the values of the
+     * variables
+     * @throws InvalidMetadataException if a placeholder has a wrong variable
+     * name
+     * @throws QueryVariableNotBoundException if a variable is not bound
+     */
+    BsonValue bind(BsonDocument aVars)
+            throws InvalidMetadataException, QueryVariableNotBoundException {
+        return root.bind(aVars);
+    }
+
+    /**
+     * @return true if the value does not have placeholders
+     */
+    boolean isConstant() {
+        return root instanceof Constant;
+    }
+
+    private static Node compile(BsonValue value) {
+        if (value == null) {
+            return new Constant(null);
+        }
+
+        if (value.isDocument()) {
+            BsonDocument doc = value.asDocument();
+
+            if (doc.size() == 1 && doc.get(VAR) != null) {
+                return new Variable(doc.get(VAR));
+            }
+
+            var keys = new ArrayList<String>(doc.size());
+            var nodes = new ArrayList<Node>(doc.size());
+            boolean constant = true;
+
+            for (var entry : doc.entrySet()) {
+                var node = compile(entry.getValue());
+                keys.add(entry.getKey());
+                nodes.add(node);
+                constant = constant && node instanceof Constant;
+            }
+
+            return constant
+                    ? new Constant(new RawBsonDocument(doc, CODEC))
+                    : new DocumentNode(keys, nodes);
+        } else if (value.isArray()) {
+            var nodes = new ArrayList<Node>(value.asArray().size());
+            boolean constant = true;
+
+            for (BsonValue element : value.asArray()) {
+                var node = compile(element);
+                nodes.add(node);
+                constant = constant && node instanceof Constant;
+            }
+
+            if (constant) {
+                // the documents of the array are immutable RawBsonDocuments
+                var ret = new BsonArray();
+                nodes.forEach(node -> ret.add(((Constant) node).value));
+                return new Constant(ret);
+            } else {
+                return new ArrayNode(nodes);
+            }
+        } else {
+            return new Constant(value);
+        }
+    }
+
+    private interface Node {
+        BsonValue bind(BsonDocument aVars)
+                throws InvalidMetadataException,
+                QueryVariableNotBoundException;
+    }
+
+    private static class Constant implements Node {
+        private final BsonValue value;
+
+        Constant(BsonValue value) {
+            this.value = value;
+        }
+
+        @Override
+        public BsonValue bind(BsonDocument aVars) {
+            return value;
+        }
+    }
+
+    private static class Variable implements Node {
+        private final BsonValue varName;
+
+        Variable(BsonValue varName) {
+            this.varName = varName;
+        }
+
+        @Override
+        public BsonValue bind(BsonDocument aVars)
+                throws InvalidMetadataException,
+                QueryVariableNotBoundException {
+            if (!(varName.isString())) {
+                throw new InvalidMetadataException("wrong variable name "
+                        + varName.toString());
+            }
+
+            var name = varName.asString().getValue();
+            var value = aVars == null ? null : aVars.get(name);
+
+            if (value == null) {
+                throw new QueryVariableNotBoundException("variable "
+                        + name + " not bound");
+            }
+
+            return value;
+        }
+    }
+
+    private static class DocumentNode implements Node {
+        private final String[] keys;
+        private final Node[] nodes;
+
+        DocumentNode(List<String> keys, List<Node> nodes) {
+            this.keys = keys.toArray(new String[keys.size()]);
+            this.nodes = nodes.toArray(new Node[nodes.size()]);
+        }
+
+        @Override
+        public BsonValue bind(BsonDocument aVars)
+                throws InvalidMetadataException,
+                QueryVariableNotBoundException {
+            var ret = new BsonDocument();
+
+            for (int idx = 0; idx < keys.length; idx++) {
+                ret.put(keys[idx], nodes[idx].bind(aVars));
+            }
+
+            return ret;
+        }
+    }
+
+    private static class ArrayNode implements Node {
+        private final Node[] nodes;
+
+        ArrayNode(List<Node> nodes) {
+            this.nodes = nodes.toArray(new Node[nodes.size()]);
+        }
+
+        @Override
+        public BsonValue bind(BsonDocument aVars)
+                throws InvalidMetadataException,
+                QueryVariableNotBoundException {
+            var ret = new BsonArray();
+
+            for (Node node : nodes) {
+                ret.add(node.bind(aVars));
+            }
+
+            return ret;
+        }
+    }
+}
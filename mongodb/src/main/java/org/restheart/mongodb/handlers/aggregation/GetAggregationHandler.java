@@ -18,31 +18,52 @@
 package org.restheart.mongodb.handlers.aggregation;
 
 import com.mongodb.MongoCommandException;
-import com.mongodb.client.AggregateIterable;
-import com.mongodb.client.MapReduceIterable;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import org.bson.BsonDocument;
 import org.bson.BsonInt32;
+import org.bson.json.JsonMode;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.handlers.exchange.ExchangeKeys.REPRESENTATION_FORMAT;
 import org.restheart.mongodb.MongoServiceConfiguration;
+import org.restheart.mongodb.db.CollectionDataCursor;
 import org.restheart.mongodb.db.DatabaseImpl;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
 import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+import org.restheart.mongodb.handlers.metadata.ResponseTransformersExecutor;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.representation.Resource;
 import org.restheart.mongodb.utils.ResponseHelper;
 import org.restheart.utils.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
 
 /**
  *
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class GetAggregationHandler extends PipelinedHandler {
+    /**
+     * the response header with the token to resume the aggregation cursor
+     */
+    public static final HttpString CURSOR_HEADER
+            = HttpString.tryFromString("Cursor-Token");
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(GetAggregationHandler.class);
+
     private final DatabaseImpl dbsDAO = new DatabaseImpl();
 
     /**
@@ -79,8 +100,7 @@ public class GetAggregationHandler extends PipelinedHandler {
         String queryUri = request.getAggregationOperation();
 
         List<AbstractAggregationOperation> aggregations
-                = AbstractAggregationOperation
-                        .getFromJson(request.getCollectionProps());
+                = CollectionDescriptor.of(request).getAggregations();
 
         Optional<AbstractAggregationOperation> _query
                 = aggregations.stream().filter(q
@@ -94,8 +114,6 @@ public class GetAggregationHandler extends PipelinedHandler {
             return;
         }
 
-        ArrayList<BsonDocument> data = new ArrayList<>();
-
         AbstractAggregationOperation query = _query.get();
 
         if (null == query.getType()) {
@@ -104,102 +122,180 @@ public class GetAggregationHandler extends PipelinedHandler {
                     HttpStatus.SC_INTERNAL_SERVER_ERROR, "unknown query type");
             next(exchange);
             return;
+        }
+
+        var avars = request.getAggreationVars() == null
+                ? new BsonDocument()
+                : request.getAggreationVars();
+
+        // a pooled cursor can be resumed only with the same variables,
+        // the paging ones excluded
+        var cursorVars = avars.clone();
+
+        // add @page, @pagesize, @limit and @skip to avars to allow handling 
+        // paging in the aggragation via default page and pagesize qparams
+        avars.put("@page", new BsonInt32(request.getPage()));
+        avars.put("@pagesize", new BsonInt32(request.getPagesize()));
+        avars.put("@limit", new BsonInt32(request.getPagesize()));
+        avars.put("@skip", new BsonInt32(request.getPagesize()
+                * (request.getPage() - 1)));
+
+        boolean cursorMode = request.isCursor();
+        boolean stream = request.isStream();
+
+        if (cursorMode && request.getPagesize() <= 0) {
+            response.addWarning("cursor parameter ignored, "
+                    + "it requires pagesize > 0");
+            cursorMode = false;
+        }
+
+        if (stream && !isStreamable(exchange)) {
+            response.addWarning("stream parameter ignored, "
+                    + "it requires the STANDARD representation format "
+                    + "and no response transformer");
+            stream = false;
+        }
+
+        if (!cursorMode && !stream) {
+            getAllResults(exchange, query, avars);
+            return;
+        }
+
+        MongoCursor<BsonDocument> cursor;
+
+        if (cursorMode && !request.getCursor().isEmpty()) {
+            // resume the cursor of the previous page
+            var _cursor = AggregationCursorPool.getInstance().take(
+                    request.getDBName(),
+                    request.getCollectionName(),
+                    queryUri,
+                    cursorVars,
+                    request.getCursor());
+
+            if (_cursor == null) {
+                ResponseHelper.endExchangeWithMessage(
+                        exchange,
+                        HttpStatus.SC_NOT_FOUND,
+                        "cursor does not exist or has expired");
+                next(exchange);
+                return;
+            } else if (!_cursor.isPresent()) {
+                // the previous page was the last one
+                sendRepresentation(exchange, new ArrayList<>(), null);
+                return;
+            }
+
+            cursor = _cursor.get();
         } else {
-            var avars = request.getAggreationVars() == null
-                    ? new BsonDocument()
-                    : request.getAggreationVars();
-
-            // add @page, @pagesize, @limit and @skip to avars to allow handling 
-            // paging in the aggragation via default page and pagesize qparams
-            avars.put("@page", new BsonInt32(request.getPage()));
-            avars.put("@pagesize", new BsonInt32(request.getPagesize()));
-            avars.put("@limit", new BsonInt32(request.getPagesize()));
-            avars.put("@skip", new BsonInt32(request.getPagesize()
-                    * (request.getPage() - 1)));
-
-            switch (query.getType()) {
-                case MAP_REDUCE:
-                    MapReduceIterable<BsonDocument> mrOutput;
-                    MapReduce mapReduce = (MapReduce) query;
-                    try {
-                        mrOutput = dbsDAO
-                                .getCollection(request.getDBName(),
-                                        request.getCollectionName())
-                                .mapReduce(
-                                        mapReduce.getResolvedMap(avars),
-                                        mapReduce.getResolvedReduce(avars))
-                                .filter(
-                                        mapReduce.getResolvedQuery(avars))
-                                .maxTime(MongoServiceConfiguration.get()
-                                        .getAggregationTimeLimit(), 
-                                        TimeUnit.MILLISECONDS);
-                    } catch (MongoCommandException | InvalidMetadataException ex) {
-                        ResponseHelper.endExchangeWithMessage(
-                                exchange,
-                                HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                "error executing mapReduce", ex);
-                        next(exchange);
-                        return;
-                    } catch (QueryVariableNotBoundException qvnbe) {
-                        ResponseHelper.endExchangeWithMessage(
-                                exchange,
-                                HttpStatus.SC_BAD_REQUEST,
-                                "error executing mapReduce: "
-                                + qvnbe.getMessage());
-                        next(exchange);
-                        return;
-                    }
-                    // ***** get data
-                    for (BsonDocument obj : mrOutput) {
-                        data.add(obj);
-                    }
-                    break;
-                case AGGREGATION_PIPELINE:
-                    AggregateIterable<BsonDocument> agrOutput;
-                    AggregationPipeline pipeline = (AggregationPipeline) query;
-                    try {
-                        agrOutput = dbsDAO
-                                .getCollection(
-                                        request.getDBName(),
-                                        request.getCollectionName())
-                                .aggregate(
-                                        pipeline.getResolvedStagesAsList(avars))
-                                .maxTime(MongoServiceConfiguration.get()
-                                        .getAggregationTimeLimit(),
-                                        TimeUnit.MILLISECONDS)
-                                .allowDiskUse(pipeline
-                                        .getAllowDiskUse().getValue());
-                    } catch (MongoCommandException
-                            | InvalidMetadataException ex) {
-                        ResponseHelper.endExchangeWithMessage(
-                                exchange,
-                                HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                                "error executing aggreation pipeline", ex);
-                        next(exchange);
-                        return;
-                    } catch (QueryVariableNotBoundException qvnbe) {
-                        ResponseHelper.endExchangeWithMessage(
-                                exchange,
-                                HttpStatus.SC_BAD_REQUEST,
-                                "error executing aggreation pipeline: "
-                                + qvnbe.getMessage());
-                        next(exchange);
-                        return;
-                    }
-                    // ***** get data
-                    for (BsonDocument obj : agrOutput) {
-                        data.add(obj);
-                    }
-                    break;
-                default:
-                    ResponseHelper.endExchangeWithMessage(
-                            exchange,
-                            HttpStatus.SC_INTERNAL_SERVER_ERROR, "unknown query type");
-                    next(exchange);
-                    return;
+            var results = execute(exchange, query, avars);
+
+            if (results == null) {
+                // error executing the aggregation, the exchange is closed
+                return;
+            }
+
+            if (request.getPagesize() > 0) {
+                results.batchSize(request.getPagesize());
+            }
+
+            cursor = results.iterator();
+        }
+
+        if (stream) {
+            streamResults(exchange, queryUri, cursorVars, cursor, cursorMode);
+        } else {
+            getPage(exchange, queryUri, cursorVars, cursor);
+        }
+    }
+
+    /**
+     * executes the aggregation and returns all its results, possibly from
+     * the AggregationResultCache
+     */
+    private void getAllResults(HttpServerExchange exchange,
+            AbstractAggregationOperation query,
+            BsonDocument avars) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+
+        var cache = AggregationResultCache.getInstance();
+        // before executing the aggregation, see AggregationResultCache.put()
+        long generation = cache.generation(request.getDBName(),
+                request.getCollectionName());
+
+        var data = cache.get(request.getDBName(),
+                request.getCollectionName(),
+                query,
+                avars);
+
+        if (data == null) {
+            var results = execute(exchange, query, avars);
+
+            if (results == null) {
+                // error executing the aggregation, the exchange is closed
+                return;
+            }
+
+            // ***** get data
+            data = results.into(new ArrayList<>());
+
+            cache.put(request.getDBName(),
+                    request.getCollectionName(),
+                    query,
+                    avars,
+                    data,
+                    generation);
+        }
+
+        sendRepresentation(exchange, data, null);
+    }
+
+    /**
+     * reads a page of results from the cursor, that is put back in the
+     * AggregationCursorPool if more documents follow
+     */
+    private void getPage(HttpServerExchange exchange,
+            String queryUri,
+            BsonDocument cursorVars,
+            MongoCursor<BsonDocument> cursor) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+
+        var data = new ArrayList<BsonDocument>(request.getPagesize());
+        String nextCursor = null;
+
+        try {
+            var page = new CollectionDataCursor(cursor,
+                    request.getPagesize());
+
+            while (page.hasNext()) {
+                data.add(page.next());
+            }
+
+            if (cursor.hasNext()) {
+                nextCursor = AggregationCursorPool.getInstance().put(
+                        request.getDBName(),
+                        request.getCollectionName(),
+                        queryUri,
+                        cursorVars,
+                        cursor);
+            }
+        } finally {
+            if (nextCursor == null) {
+                cursor.close();
             }
         }
 
+        if (nextCursor != null) {
+            exchange.getResponseHeaders().put(CURSOR_HEADER, nextCursor);
+        }
+
+        sendRepresentation(exchange, data, nextCursor);
+    }
+
+    private void sendRepresentation(HttpServerExchange exchange,
+            List<BsonDocument> data,
+            String nextCursor) throws Exception {
+        var response = BsonResponse.wrap(exchange);
+
         if (exchange.isComplete()) {
             // if an error occured getting data, the exchange is already closed
             return;
@@ -210,7 +306,8 @@ public class GetAggregationHandler extends PipelinedHandler {
                     .getRepresentation(
                             exchange,
                             data,
-                            data.size())
+                            data.size(),
+                            nextCursor)
                     .asBsonDocument());
 
             response.setContentType(Resource.HAL_JSON_MEDIA_TYPE);
@@ -225,4 +322,189 @@ public class GetAggregationHandler extends PipelinedHandler {
             next(exchange);
         }
     }
+
+    /**
+     * the aggregation results can be streamed if the response is the json
+     * array of the documents, i.e. with the STANDARD representation format,
+     * since no transformation of the whole response content is required, and
+     * if no response transformer or interceptor needs the content
+     *
+     * @param exchange
+     * @return true if the aggregation results can be streamed
+     */
+    private boolean isStreamable(HttpServerExchange exchange) {
+        var rf = BsonRequest.wrap(exchange).getRepresentationFormat();
+
+        return (rf == REPRESENTATION_FORMAT.STANDARD
+                || rf == REPRESENTATION_FORMAT.S)
+                && !ResponseTransformersExecutor.isResponseTransformed(exchange);
+    }
+
+    /**
+     * writes the documents to the response as they are read from the cursor,
+     * using chunked transfer encoding; with the cursor query parameter only a
+     * page is written and the token to resume the cursor is sent upfront in
+     * the Cursor-Token header, if more documents follow. The response content
+     * is left null, so that the next handlers in the pipeline pass through
+     * and ResponseSenderHandler ends the exchange
+     */
+    private void streamResults(HttpServerExchange exchange,
+            String queryUri,
+            BsonDocument cursorVars,
+            MongoCursor<BsonDocument> cursor,
+            boolean cursorMode) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+        var response = BsonResponse.wrap(exchange);
+
+        String nextCursor = null;
+        Iterator<BsonDocument> data = cursor;
+
+        try {
+            if (cursorMode) {
+                data = new CollectionDataCursor(cursor, request.getPagesize());
+
+                if (cursor.hasNext()) {
+                    nextCursor = AggregationCursorPool.newToken();
+                    exchange.getResponseHeaders().put(CURSOR_HEADER,
+                            nextCursor);
+                }
+            }
+        } catch (MongoException ex) {
+            cursor.close();
+            throw ex;
+        }
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE,
+                request.getJsonMode() == JsonMode.SHELL
+                ? Resource.JAVACRIPT_MEDIA_TYPE
+                : Resource.JSON_MEDIA_TYPE);
+
+        response.setStatusCode(HttpStatus.SC_OK);
+        exchange.setStatusCode(HttpStatus.SC_OK);
+
+        boolean putBack = false;
+
+        try (var os = exchange.getOutputStream()) {
+            int written = new AggregationResultRepresentationFactory()
+                    .writeStandardRepresentation(exchange, data, os);
+
+            LOGGER.debug("streamed {} aggregation results", written);
+
+            if (nextCursor != null && cursor.hasNext()) {
+                AggregationCursorPool.getInstance().put(
+                        request.getDBName(),
+                        request.getCollectionName(),
+                        queryUri,
+                        cursorVars,
+                        nextCursor,
+                        cursor);
+
+                putBack = true;
+            } else if (nextCursor != null) {
+                // the token has been already sent but the cursor is
+                // exhausted: it is closed, resuming it gives an empty page
+                AggregationCursorPool.getInstance().putExhausted(
+                        request.getDBName(),
+                        request.getCollectionName(),
+                        queryUri,
+                        cursorVars,
+                        nextCursor);
+            }
+        } catch (MongoException ex) {
+            // the response is already started, the status code
+            // cannot be changed anymore: close the connection
+            // so that the client gets a truncated response
+            LOGGER.error("error streaming aggregation results", ex);
+            IoUtils.safeClose(exchange.getConnection());
+        } finally {
+            if (!putBack) {
+                cursor.close();
+            }
+        }
+
+        next(exchange);
+    }
+
+    /**
+     * executes the aggregation
+     *
+     * @return the results or null if the aggregation cannot be executed; in
+     * this case the exchange is ended with the error message
+     */
+    private MongoIterable<BsonDocument> execute(HttpServerExchange exchange,
+            AbstractAggregationOperation query,
+            BsonDocument avars) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+
+        switch (query.getType()) {
+            case MAP_REDUCE:
+                MapReduce mapReduce = (MapReduce) query;
+                try {
+                    return dbsDAO
+                            .getCollection(request.getDBName(),
+                                    request.getCollectionName())
+                            .mapReduce(
+                                    mapReduce.getResolvedMap(avars),
+                                    mapReduce.getResolvedReduce(avars))
+                            .filter(
+                                    mapReduce.getResolvedQuery(avars))
+                            .maxTime(MongoServiceConfiguration.get()
+                                    .getAggregationTimeLimit(), 
+                                    TimeUnit.MILLISECONDS);
+                } catch (MongoCommandException | InvalidMetadataException ex) {
+                    ResponseHelper.endExchangeWithMessage(
+                            exchange,
+                            HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                            "error executing mapReduce", ex);
+                    next(exchange);
+                    return null;
+                } catch (QueryVariableNotBoundException qvnbe) {
+                    ResponseHelper.endExchangeWithMessage(
+                            exchange,
+                            HttpStatus.SC_BAD_REQUEST,
+                            "error executing mapReduce: "
+                            + qvnbe.getMessage());
+                    next(exchange);
+                    return null;
+                }
+            case AGGREGATION_PIPELINE:
+                AggregationPipeline pipeline = (AggregationPipeline) query;
+                try {
+                    return dbsDAO
+                            .getCollection(
+                                    request.getDBName(),
+                                    request.getCollectionName())
+                            .aggregate(
+                                    pipeline.getResolvedStagesAsList(avars))
+                            .maxTime(MongoServiceConfiguration.get()
+                                    .getAggregationTimeLimit(),
+                                    TimeUnit.MILLISECONDS)
+                            .allowDiskUse(pipeline
+                                    .getAllowDiskUse().getValue());
+                } catch (MongoCommandException
+                        | InvalidMetadataException ex) {
+                    ResponseHelper.endExchangeWithMessage(
+                            exchange,
+                            HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                            "error executing aggreation pipeline", ex);
+                    next(exchange);
+                    return null;
+                } catch (QueryVariableNotBoundException qvnbe) {
+                    ResponseHelper.endExchangeWithMessage(
+                            exchange,
+                            HttpStatus.SC_BAD_REQUEST,
+                            "error executing aggreation pipeline: "
+                            + qvnbe.getMessage());
+                    next(exchange);
+                    return null;
+                }
+            default:
+                ResponseHelper.endExchangeWithMessage(
+                        exchange,
+                        HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                        "unknown query type");
+                next(exchange);
+                return null;
+        }
+    }
 }
@@ -47,6 +47,7 @@ public class MapReduce extends AbstractAggregationOperation {
     private final String map;
     private final String reduce;
     private final BsonValue query;
+    private final AggregationTemplate queryTemplate;
 
     /**
      * @param properties the json properties object. It must include the
@@ -108,6 +109,8 @@ public class MapReduce extends AbstractAggregationOperation {
         this.map = _map.asString().getValue();
         this.reduce = _reduce.asString().getValue();
         this.query = _query;
+        this.queryTemplate = new AggregationTemplate(
+                JsonUtils.unescapeKeys(query));
     }
 
     /**
@@ -139,9 +142,7 @@ public class MapReduce extends AbstractAggregationOperation {
      */
     public BsonDocument getResolvedQuery(BsonDocument aVars)
             throws InvalidMetadataException, QueryVariableNotBoundException {
-        return bindAggregationVariables(
-                JsonUtils.unescapeKeys(query), aVars)
-                .asDocument();
+        return queryTemplate.bind(aVars).asDocument();
     }
 
     /**
@@ -24,8 +24,10 @@ import io.undertow.server.HttpServerExchange;
 import java.util.List;
 import org.bson.BsonDocument;
 import org.bson.BsonInt32;
+import org.bson.BsonInt64;
 import org.bson.BsonString;
 import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.mongodb.db.BulkBatchesOperationResult;
 import org.restheart.mongodb.db.BulkOperationResult;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
 import org.restheart.mongodb.representation.AbstractRepresentationFactory;
@@ -64,6 +66,40 @@ public class BulkResultRepresentationFactory extends AbstractRepresentationFacto
         return rep;
     }
 
+    /**
+     *
+     * @param exchange
+     * @param result
+     * @return
+     * @throws IllegalQueryParamenterException
+     */
+    public Resource getRepresentation(HttpServerExchange exchange, BulkBatchesOperationResult result)
+            throws IllegalQueryParamenterException {
+        final Resource rep = createRepresentation(exchange, null);
+
+        Resource nrep = new Resource();
+
+        nrep.addProperty("documents", new BsonInt64(result.getDocuments()));
+        nrep.addProperty("batches", new BsonInt32(result.getBatches()));
+        nrep.addProperty("inserted", new BsonInt64(result.getInserted()));
+        nrep.addProperty("deleted", new BsonInt64(result.getDeleted()));
+        nrep.addProperty("modified", new BsonInt64(result.getModified()));
+        nrep.addProperty("matched", new BsonInt64(result.getMatched()));
+        nrep.addProperty("errors", new BsonInt64(result.getErrorsCount()));
+
+        rep.addChild("rh:result", nrep);
+
+        result.getErrors().stream().forEach(error -> {
+            Resource erep = new Resource();
+
+            error.forEach((key, value) -> erep.addProperty(key, value));
+
+            rep.addChild("rh:error", erep);
+        });
+
+        return rep;
+    }
+
     /**
      *
      * @param exchange
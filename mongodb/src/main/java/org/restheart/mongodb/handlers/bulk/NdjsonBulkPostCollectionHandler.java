@@ -0,0 +1,517 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.bulk;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.bulk.BulkWriteResult;
+import io.undertow.server.HttpServerExchange;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.handlers.exchange.ExchangeKeys.DOC_ID_TYPE;
+import static org.restheart.handlers.exchange.ExchangeKeys._ID;
+import org.restheart.mongodb.MongoServiceConfiguration;
+import org.restheart.mongodb.db.BulkBatchesOperationResult;
+import org.restheart.mongodb.db.BulkOperationResult;
+import org.restheart.mongodb.db.DAOUtils;
+import org.restheart.mongodb.db.DocumentDAO;
+import org.restheart.mongodb.handlers.metadata.BeforeWriteCheckersExecutor;
+import org.restheart.mongodb.utils.ChannelReader;
+import org.restheart.mongodb.utils.JsonUtils;
+import org.restheart.mongodb.utils.ResponseHelper;
+import org.restheart.utils.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk POST of ndjson content (Content-Type application/x-ndjson), i.e. a
+ * json document per line.
+ *
+ * The content is parsed line by line and the documents are written in
+ * unordered bulk writes of bulk-batch-size documents, keeping up to
+ * bulk-max-concurrent-batches batches in flight; the request content is
+ * never held in memory as a whole. The checkers are applied to each batch.
+ *
+ * Invalid documents and failed batches don't stop the processing; the
+ * response summarizes the results and reports the errors referring to the
+ * line numbers of the documents, with status 207 Multi-Status if any error
+ * occurred.
+ */
+public class NdjsonBulkPostCollectionHandler extends PipelinedHandler {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(NdjsonBulkPostCollectionHandler.class);
+
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final DocumentDAO documentDAO;
+
+    private final BeforeWriteCheckersExecutor checkers
+            = new BeforeWriteCheckersExecutor();
+
+    /**
+     * Creates a new instance of NdjsonBulkPostCollectionHandler
+     */
+    public NdjsonBulkPostCollectionHandler() {
+        this(null, new DocumentDAO());
+    }
+
+    /**
+     * Creates a new instance of NdjsonBulkPostCollectionHandler
+     *
+     * @param next
+     */
+    public NdjsonBulkPostCollectionHandler(PipelinedHandler next) {
+        this(next, new DocumentDAO());
+    }
+
+    /**
+     * Creates a new instance of NdjsonBulkPostCollectionHandler
+     *
+     * @param next
+     * @param documentDAO
+     */
+    public NdjsonBulkPostCollectionHandler(PipelinedHandler next,
+            DocumentDAO documentDAO) {
+        super(next);
+        this.documentDAO = documentDAO;
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+        var response = BsonResponse.wrap(exchange);
+
+        if (request.isInError()) {
+            next(exchange);
+            return;
+        }
+
+        var conf = MongoServiceConfiguration.get();
+
+        var batchSize = Math.max(1, conf.getBulkBatchSize());
+
+        // the operations of a client session cannot be concurrent
+        var maxConcurrentBatches = request.getClientSession() == null
+                ? Math.max(1, conf.getBulkMaxConcurrentBatches())
+                : 1;
+
+        var ingest = new Ingest(exchange, batchSize, maxConcurrentBatches);
+
+        var originalContent = request.getContent();
+
+        try (var reader = ChannelReader.reader(exchange)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                ingest.add(line);
+            }
+
+            ingest.flush();
+        } finally {
+            ingest.drain();
+            request.setContent(originalContent);
+        }
+
+        var result = ingest.result();
+
+        response.setDbOperationResult(result);
+
+        if (result.getEtag() != null) {
+            ResponseHelper.injectEtagHeader(exchange, result.getEtag());
+        }
+
+        response.setStatusCode(result.getHttpCode());
+
+        response.setContent(new BulkResultRepresentationFactory()
+                .getRepresentation(exchange, result)
+                .asBsonDocument());
+
+        next(exchange);
+    }
+
+    /**
+     * the state of the ingestion of the ndjson content of a request
+     */
+    private class Ingest {
+        private final HttpServerExchange exchange;
+        private final BsonRequest request;
+        private final BsonResponse response;
+        private final int batchSize;
+        private final int maxConcurrentBatches;
+        private final ObjectId etag = new ObjectId();
+
+        private final ArrayDeque<Future<Batch>> inflight = new ArrayDeque<>();
+
+        private BsonArray documents;
+        private long[] lines;
+
+        private long line = 0;
+        private long read = 0;
+        private int batches = 0;
+        private long filtered = 0;
+
+        private long inserted = 0;
+        private long matched = 0;
+        private long modified = 0;
+        private long deleted = 0;
+        private long errorsCount = 0;
+        private final List<BsonDocument> errors = new ArrayList<>();
+
+        Ingest(HttpServerExchange exchange, int batchSize,
+                int maxConcurrentBatches) {
+            this.exchange = exchange;
+            this.request = BsonRequest.wrap(exchange);
+            this.response = BsonResponse.wrap(exchange);
+            this.batchSize = batchSize;
+            this.maxConcurrentBatches = maxConcurrentBatches;
+            newBatch();
+        }
+
+        private void newBatch() {
+            this.documents = new BsonArray();
+            this.lines = new long[batchSize];
+        }
+
+        void add(String json) throws Exception {
+            line++;
+
+            if (json.isBlank()) {
+                return;
+            }
+
+            read++;
+
+            BsonValue document;
+
+            try {
+                document = JsonUtils.parse(json);
+            } catch (JsonParseException | IllegalArgumentException ex) {
+                lineError(line, HttpStatus.SC_NOT_ACCEPTABLE,
+                        "Invalid JSON. " + ex.getMessage());
+                return;
+            }
+
+            if (document == null || !document.isDocument()) {
+                lineError(line, HttpStatus.SC_NOT_ACCEPTABLE,
+                        "each line must be a json object");
+                return;
+            }
+
+            var error = checkDocument(document.asDocument());
+
+            if (error != null) {
+                lineError(line, error.getInt32("httpStatus").getValue(),
+                        error.getString("message").getValue());
+                return;
+            }
+
+            BsonValue unflattened;
+
+            try {
+                unflattened = JsonUtils.unflatten(document);
+            } catch (IllegalArgumentException ex) {
+                lineError(line, HttpStatus.SC_NOT_ACCEPTABLE, ex.getMessage());
+                return;
+            }
+
+            lines[documents.size()] = line;
+            documents.add(unflattened);
+
+            if (documents.size() == batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * checks the document as BodyInjector and BulkPostCollectionHandler
+         * do for the json content
+         *
+         * @param document
+         * @return null if the document is valid, otherwise the error
+         */
+        private BsonDocument checkDocument(BsonDocument document) {
+            var _id = document.get(_ID);
+
+            if (_id != null && _id.isArray()) {
+                return error(HttpStatus.SC_NOT_ACCEPTABLE,
+                        "the type of _id in request data is not supported: "
+                        + _id.getBsonType().name());
+            }
+
+            if (_id != null && _id.isString()
+                    && BsonRequest.isReservedResourceDocument(
+                            request.getType(),
+                            _id.asString().getValue())) {
+                return error(HttpStatus.SC_FORBIDDEN,
+                        "id is reserved: " + _id.asString().getValue());
+            }
+
+            if (_id != null
+                    && !(request.getDocIdType() == DOC_ID_TYPE.OID
+                    || request.getDocIdType() == DOC_ID_TYPE.STRING_OID)) {
+                return error(HttpStatus.SC_NOT_ACCEPTABLE,
+                        "_id in content body is mandatory for documents with id type "
+                        + request.getDocIdType().name());
+            }
+
+            if (JsonUtils.containsUpdateOperators(document, true)) {
+                return error(HttpStatus.SC_BAD_REQUEST,
+                        "update operators (but $currentDate) cannot be used on POST and PUT requests");
+            }
+
+            // the _ prefix is reserved for RESTHeart-generated properties
+            var reserved = document.keySet().stream()
+                    .filter(key -> key.startsWith("_") && !key.equals(_ID))
+                    .toArray(String[]::new);
+
+            if (reserved.length > 0) {
+                for (var key : reserved) {
+                    document.remove(key);
+                }
+
+                filtered++;
+            }
+
+            return null;
+        }
+
+        void flush() throws Exception {
+            if (documents.isEmpty()) {
+                return;
+            }
+
+            var batch = new Batch(batches++, documents, lines);
+
+            newBatch();
+
+            // the checkers check the request content
+            request.setContent(batch.documents);
+
+            if (!checkers.check(exchange)) {
+                batchError(batch, HttpStatus.SC_BAD_REQUEST,
+                        "request check failed");
+                return;
+            }
+
+            while (inflight.size() >= maxConcurrentBatches) {
+                collect(inflight.poll());
+            }
+
+            var cs = request.getClientSession();
+            var dbName = request.getDBName();
+            var collName = request.getCollectionName();
+            var filter = request.getFiltersDocument();
+            var shardKeys = request.getShardKey();
+
+            inflight.add(WritersHolder.WRITERS.submit(() -> {
+                try {
+                    batch.result = documentDAO.bulkUpsertDocumentsPost(cs,
+                            dbName,
+                            collName,
+                            batch.documents,
+                            filter,
+                            shardKeys,
+                            etag);
+                } catch (MongoException me) {
+                    batch.error = me;
+                }
+
+                return batch;
+            }));
+        }
+
+        /**
+         * waits for the batches in flight
+         */
+        void drain() {
+            while (!inflight.isEmpty()) {
+                try {
+                    collect(inflight.poll());
+                } catch (Exception ex) {
+                    LOGGER.warn("Error waiting for bulk write batch", ex);
+                }
+            }
+        }
+
+        private void collect(Future<Batch> future)
+                throws InterruptedException, ExecutionException {
+            var batch = future.get();
+
+            if (batch.result != null) {
+                addResult(batch.result.getBulkResult());
+            } else if (batch.error instanceof MongoBulkWriteException) {
+                var mbwe = (MongoBulkWriteException) batch.error;
+
+                addResult(mbwe.getWriteResult());
+
+                mbwe.getWriteErrors().stream().forEach(we -> {
+                    var httpStatus = DAOUtils.isDuplicateIdError(we)
+                            ? ResponseHelper.getHttpStatusFromErrorCode(we.getCode())
+                            : HttpStatus.SC_NOT_FOUND;
+
+                    var error = error(httpStatus,
+                            ResponseHelper.getMessageFromErrorCode(we.getCode()));
+
+                    error.put("batch", new BsonInt32(batch.index));
+                    error.put("line", new BsonInt64(batch.lines[we.getIndex()]));
+                    error.put("mongodbErrorCode", new BsonInt32(we.getCode()));
+
+                    addError(error);
+                });
+            } else if (batch.error != null) {
+                LOGGER.error("Error writing bulk batch {}", batch.index,
+                        batch.error);
+
+                batchError(batch,
+                        ResponseHelper.getHttpStatusFromErrorCode(
+                                batch.error.getCode()),
+                        ResponseHelper.getMessageFromErrorCode(
+                                batch.error.getCode()));
+            }
+        }
+
+        private void addResult(BulkWriteResult wr) {
+            if (wr != null && wr.wasAcknowledged()) {
+                inserted += wr.getUpserts() == null
+                        ? 0
+                        : wr.getUpserts().size();
+                matched += wr.getMatchedCount();
+                modified += wr.getModifiedCount();
+                deleted += wr.getDeletedCount();
+            }
+        }
+
+        private BsonDocument error(int httpStatus, String message) {
+            var error = new BsonDocument();
+
+            error.put("httpStatus", new BsonInt32(httpStatus));
+            error.put("message", new BsonString(message));
+
+            return error;
+        }
+
+        private void lineError(long line, int httpStatus, String message) {
+            var error = error(httpStatus, message);
+
+            error.put("line", new BsonInt64(line));
+
+            addError(error);
+        }
+
+        private void batchError(Batch batch, int httpStatus, String message) {
+            var error = error(httpStatus, message);
+
+            error.put("batch", new BsonInt32(batch.index));
+            error.put("fromLine", new BsonInt64(batch.lines[0]));
+            error.put("toLine", new BsonInt64(
+                    batch.lines[batch.documents.size() - 1]));
+
+            addError(error);
+        }
+
+        private void addError(BsonDocument error) {
+            errorsCount++;
+
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        BulkBatchesOperationResult result() {
+            if (filtered > 0) {
+                response.addWarning("Reserved fields were filtered out from "
+                        + filtered + " documents");
+            }
+
+            return new BulkBatchesOperationResult(
+                    errorsCount == 0
+                            ? HttpStatus.SC_OK
+                            : HttpStatus.SC_MULTI_STATUS,
+                    etag,
+                    read,
+                    batches,
+                    inserted,
+                    matched,
+                    modified,
+                    deleted,
+                    errorsCount,
+                    errors);
+        }
+    }
+
+    /**
+     * the batches are written by a pool of up to bulk-max-concurrent-batches
+     * threads shared by all the requests; when all of them are busy, the
+     * batch is written by the request thread
+     */
+    private static class WritersHolder {
+        private static final ThreadPoolExecutor WRITERS
+                = new ThreadPoolExecutor(
+                        0, Math.max(1, MongoServiceConfiguration.get()
+                                .getBulkMaxConcurrentBatches()),
+                        1, TimeUnit.MINUTES,
+                        new SynchronousQueue<>(),
+                        new ThreadFactoryBuilder()
+                                .setDaemon(true)
+                                .setNameFormat("ndjson-bulk-writer-%d")
+                                .build(),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+
+        private WritersHolder() {
+        }
+    }
+
+    private static class Batch {
+        final int index;
+        final BsonArray documents;
+        final long[] lines;
+
+        BulkOperationResult result = null;
+        MongoException error = null;
+
+        Batch(int index, BsonArray documents, long[] lines) {
+            this.index = index;
+            this.documents = documents;
+            this.lines = lines;
+        }
+    }
+}
@@ -18,7 +18,10 @@
 package org.restheart.mongodb.handlers.collection;
 
 import io.undertow.server.HttpServerExchange;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
@@ -37,12 +40,14 @@ import org.restheart.mongodb.handlers.aggregation.AbstractAggregationOperation;
 import org.restheart.mongodb.handlers.document.DocumentRepresentationFactory;
 import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
 import org.restheart.mongodb.metadata.CheckerMetadata;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.plugins.checkers.JsonSchemaChecker;
 import org.restheart.mongodb.representation.AbstractRepresentationFactory;
 import org.restheart.mongodb.representation.Link;
 import org.restheart.mongodb.representation.RepUtils;
 import org.restheart.mongodb.representation.Resource;
 import org.restheart.mongodb.representation.UnsupportedDocumentIdException;
+import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.mongodb.utils.URLUtils;
 
 /**
@@ -107,7 +112,7 @@ public class CollectionRepresentationFactory
             BsonRequest request) {
         try {
             List<CheckerMetadata> checkers
-                    = CheckerMetadata.getFromJson(request.getCollectionProps());
+                    = CollectionDescriptor.of(request).getCheckers();
 
             if (checkers != null) {
                 checkers
@@ -194,13 +199,46 @@ public class CollectionRepresentationFactory
                     request.getType(),
                     request.getCollectionProps());
 
-            addPaginationLinks(exchange, size, rep);
+            if (request.isKeyset()) {
+                addKeysetPaginationLinks(exchange, embeddedData, rep);
+            } else {
+                addPaginationLinks(exchange, size, rep);
+            }
+
             addLinkTemplates(request, rep, requestPath);
         }
 
         return rep;
     }
 
+    private void addKeysetPaginationLinks(
+            final HttpServerExchange exchange,
+            final List<BsonDocument> embeddedData,
+            final Resource rep)
+            throws IllegalQueryParamenterException {
+        var request = BsonRequest.wrap(exchange);
+
+        if (request.getPagesize() > 0) {
+            String nextToken = null;
+
+            // a full page means that more documents can follow
+            if (embeddedData != null
+                    && !embeddedData.isEmpty()
+                    && embeddedData.size() >= request.getPagesize()) {
+                nextToken = KeysetPagination.nextToken(
+                        KeysetPagination.sortDocument(
+                                request.getSortByDocument()),
+                        embeddedData.get(embeddedData.size() - 1));
+            }
+
+            var links = RepUtils.getKeysetPaginationLinks(exchange, nextToken);
+
+            links.keySet().stream().forEach((k) -> {
+                rep.addLink(new Link(k, links.get(k)));
+            });
+        }
+    }
+
     private void addProperties(
             final Resource rep,
             final BsonRequest request) {
@@ -344,7 +382,7 @@ public class CollectionRepresentationFactory
             Resource rep)
             throws IllegalQueryParamenterException {
         var request = BsonRequest.wrap(exchange);
-        
+
         for (BsonDocument d : embeddedData) {
             BsonValue _id = d.get(_ID);
 
@@ -355,63 +393,130 @@ public class CollectionRepresentationFactory
                         + requestPath + "/"
                         + _id.toString());
             } else {
-                Resource nrep;
-
-                if (_id == null) {
-                    nrep = new DocumentRepresentationFactory()
-                            .getRepresentation(
-                                    requestPath + "/_null",
-                                    exchange,
-                                    d);
-                } else {
-                    nrep = new DocumentRepresentationFactory()
-                            .getRepresentation(
-                                    RepUtils.getReferenceLink(requestPath, _id),
-                                    exchange,
-                                    d);
-                }
+                rep.addChild(embeddedRel(request),
+                        embeddedRepresentation(d, requestPath, exchange));
+            }
+        }
+    }
 
-                if (null == request.getType()) {
-                    if (request.isFullHalMode()) {
-                        DocumentRepresentationFactory.addSpecialProperties(
-                                nrep,
-                                TYPE.DOCUMENT,
-                                d);
-                    }
+    /**
+     * Writes the STANDARD representation of the collection data, i.e. the
+     * json array of the documents, to the output stream. Each document is
+     * encoded and written as soon as it is read from the data iterator, so
+     * that the whole page is never held in memory.
+     *
+     * @param exchange
+     * @param data
+     * @param os
+     * @return the number of written documents
+     * @throws IOException
+     * @throws IllegalQueryParamenterException
+     */
+    public int writeStandardRepresentation(
+            HttpServerExchange exchange,
+            Iterator<BsonDocument> data,
+            OutputStream os)
+            throws IOException, IllegalQueryParamenterException {
+        var request = BsonRequest.wrap(exchange);
+        final String requestPath = buildRequestPath(exchange);
 
-                    rep.addChild(RHDOC, nrep);
-                } else {
-                    switch (request.getType()) {
-                        case FILES_BUCKET:
-                            if (request.isFullHalMode()) {
-                                DocumentRepresentationFactory.addSpecialProperties(
-                                        nrep,
-                                        TYPE.FILE,
-                                        d);
-                            }
-                            rep.addChild(RHFILE, nrep);
-                            break;
-                        case SCHEMA_STORE:
-                            if (request.isFullHalMode()) {
-                                DocumentRepresentationFactory.addSpecialProperties(
-                                        nrep,
-                                        TYPE.SCHEMA,
-                                        d);
-                            }
-                            rep.addChild(RHSCHEMA, nrep);
-                            break;
-                        default:
-                            if (request.isFullHalMode()) {
-                                DocumentRepresentationFactory.addSpecialProperties(
-                                        nrep,
-                                        TYPE.DOCUMENT,
-                                        d);
-                            }
-                            rep.addChild(RHDOC, nrep);
-                            break;
-                    }
+        int written = 0;
+
+        os.write('[');
+
+        while (data.hasNext()) {
+            BsonDocument d = data.next();
+            BsonValue _id = d.get(_ID);
+
+            // reserved resources are filtered out
+            if (_id != null
+                    && RequestContext.isReservedResourceCollection(
+                            _id.toString())) {
+                continue;
+            }
+
+            if (written > 0) {
+                os.write(',');
+            }
+
+            JsonUtils.writeJson(
+                    embeddedRepresentation(d, requestPath, exchange)
+                            .asBsonDocument(),
+                    request.getJsonMode(),
+                    os);
+
+            written++;
+        }
+
+        os.write(']');
+
+        return written;
+    }
+
+    private Resource embeddedRepresentation(
+            BsonDocument d,
+            String requestPath,
+            HttpServerExchange exchange)
+            throws IllegalQueryParamenterException {
+        var request = BsonRequest.wrap(exchange);
+        BsonValue _id = d.get(_ID);
+
+        Resource nrep;
+
+        if (_id == null) {
+            nrep = new DocumentRepresentationFactory()
+                    .getRepresentation(
+                            requestPath + "/_null",
+                            exchange,
+                            d);
+        } else {
+            nrep = new DocumentRepresentationFactory()
+                    .getRepresentation(
+                            RepUtils.getReferenceLink(requestPath, _id),
+                            exchange,
+                            d);
+        }
+
+        if (request.isFullHalMode()) {
+            final TYPE type;
+
+            if (null == request.getType()) {
+                type = TYPE.DOCUMENT;
+            } else {
+                switch (request.getType()) {
+                    case FILES_BUCKET:
+                        type = TYPE.FILE;
+                        break;
+                    case SCHEMA_STORE:
+                        type = TYPE.SCHEMA;
+                        break;
+                    default:
+                        type = TYPE.DOCUMENT;
+                        break;
                 }
             }
+
+            DocumentRepresentationFactory.addSpecialProperties(
+                    nrep,
+                    type,
+                    d);
+        }
+
+        return nrep;
+    }
+
+    private String embeddedRel(BsonRequest request) {
+        if (null == request.getType()) {
+            return RHDOC;
+        } else {
+            switch (request.getType()) {
+                case FILES_BUCKET:
+                    return RHFILE;
+                case SCHEMA_STORE:
+                    return RHSCHEMA;
+                default:
+                    return RHDOC;
+            }
         }
     }
 
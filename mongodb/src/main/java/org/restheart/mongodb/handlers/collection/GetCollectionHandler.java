@@ -21,26 +21,47 @@ import com.google.common.annotations.VisibleForTesting;
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http.HttpAttachments;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import org.bson.BsonDocument;
+import org.bson.json.JsonMode;
 import org.bson.json.JsonParseException;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.handlers.exchange.ExchangeKeys.EAGER_CURSOR_ALLOCATION_POLICY;
+import org.restheart.handlers.exchange.ExchangeKeys.REPRESENTATION_FORMAT;
+import org.restheart.handlers.exchange.ExchangeKeys.TYPE;
+import org.restheart.mongodb.db.AsyncQueries;
+import org.restheart.mongodb.db.CollectionDataCursor;
 import org.restheart.mongodb.db.Database;
 import org.restheart.mongodb.db.DatabaseImpl;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
+import org.restheart.mongodb.handlers.metadata.ResponseTransformersExecutor;
 import org.restheart.mongodb.representation.Resource;
 import org.restheart.mongodb.utils.ResponseHelper;
 import org.restheart.utils.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
 
 /**
  *
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class GetCollectionHandler extends PipelinedHandler {
+    /**
+     * the response trailer with the keyset token of the next page, when the
+     * collection data is streamed
+     */
+    public static final HttpString KEYSET_HEADER
+            = HttpString.tryFromString("Keyset-Token");
+
     private Database dbsDAO = new DatabaseImpl();
 
     private static final Logger LOGGER = LoggerFactory
@@ -92,12 +113,73 @@ public class GetCollectionHandler extends PipelinedHandler {
                         request.getDBName(),
                         request.getCollectionName());
 
-        long size = -1;
+        int page = request.getPage();
+        var eager = request.getCursorAllocationPolicy();
+        BsonDocument sortBy;
+        BsonDocument requestFilters;
+        BsonDocument filters;
+
+        try {
+            sortBy = request.getSortByDocument();
+            requestFilters = request.getFiltersDocument();
+            filters = requestFilters;
+
+            if (request.isKeyset()) {
+                // the page is selected with a range query on the sort keys,
+                // no documents are skipped and no cursor is pooled
+                sortBy = KeysetPagination.sortDocument(sortBy);
+                filters = KeysetPagination.filterDocument(filters, sortBy,
+                        request.getKeyset());
+
+                KeysetPagination.checkProjection(
+                        request.getProjectionDocument(), sortBy);
+
+                if (page > 1) {
+                    response.addWarning("page parameter ignored "
+                            + "with keyset pagination");
+                }
+
+                page = 1;
+                eager = EAGER_CURSOR_ALLOCATION_POLICY.NONE;
+            }
+        } catch (JsonParseException ex) {
+            invalidFilter(exchange, ex);
+            return;
+        } catch (IllegalQueryParamenterException ex) {
+            ResponseHelper.endExchangeWithMessage(
+                    exchange,
+                    HttpStatus.SC_BAD_REQUEST,
+                    ex.getMessage(),
+                    ex);
+            next(exchange);
+            return;
+        }
+
+        if (request.isStream()) {
+            if (isStreamable(exchange)) {
+                streamCollectionData(exchange, coll, page, sortBy, filters,
+                        eager);
+                return;
+            } else {
+                response.addWarning("stream parameter ignored, "
+                        + "it requires the STANDARD representation format, "
+                        + "pagesize > 0 and no response transformer");
+            }
+        }
+
+        CompletableFuture<Long> size = null;
 
         if (request.isCount()) {
-            size = dbsDAO
-                    .getCollectionSize(request.getClientSession(), 
-                            coll, request.getFiltersDocument());
+            var cs = request.getClientSession();
+            var countFilters = requestFilters;
+
+            // the count runs concurrently with the data query, unless in a
+            // client session, that cannot be used by concurrent threads
+            size = cs == null
+                    ? AsyncQueries.supply(() -> dbsDAO
+                            .getCollectionSize(null, coll, countFilters))
+                    : CompletableFuture.completedFuture(dbsDAO
+                            .getCollectionSize(cs, coll, countFilters));
         }
 
         // ***** get data
@@ -109,53 +191,31 @@ public class GetCollectionHandler extends PipelinedHandler {
                 data = dbsDAO.getCollectionData(
                         request.getClientSession(), 
                         coll,
-                        request.getPage(),
+                        page,
                         request.getPagesize(),
-                        request.getSortByDocument(),
-                        request.getFiltersDocument(),
+                        sortBy,
+                        filters,
                         request.getHintDocument(),
                         request.getProjectionDocument(),
-                        request.getCursorAllocationPolicy());
-            } catch (JsonParseException jpe) {
-                // the filter expression is not a valid json string
-                LOGGER.debug("invalid filter expression {}",
-                        request.getFilter(), jpe);
-                ResponseHelper.endExchangeWithMessage(
-                        exchange,
-                        HttpStatus.SC_BAD_REQUEST,
-                        "wrong request, filter expression is invalid",
-                        jpe);
-                next(exchange);
+                        eager);
+            } catch (JsonParseException | MongoException ex) {
+                cancel(size);
+                invalidFilter(exchange, ex);
                 return;
-            } catch (MongoException me) {
-                if (me.getMessage().matches(".*Can't canonicalize query.*")) {
-                    // error with the filter expression during query execution
-                    LOGGER.debug(
-                            "invalid filter expression {}",
-                            request.getFilter(),
-                            me);
-
-                    ResponseHelper.endExchangeWithMessage(
-                            exchange,
-                            HttpStatus.SC_BAD_REQUEST,
-                            "wrong request, filter expression is invalid",
-                            me);
-                    next(exchange);
-                    return;
-                } else {
-                    throw me;
-                }
             }
         }
 
         if (exchange.isComplete()) {
             // if an error occured getting data, the exchange is already closed
+            cancel(size);
             return;
         }
 
         try {
             response.setContent(new CollectionRepresentationFactory()
-                    .getRepresentation(exchange, data, size)
+                    .getRepresentation(exchange, data, size == null
+                            ? -1
+                            : AsyncQueries.get(size))
                     .asBsonDocument());
 
             response.setContentType(Resource.HAL_JSON_MEDIA_TYPE);
@@ -167,6 +227,7 @@ public class GetCollectionHandler extends PipelinedHandler {
             // call the ResponseTransformerMetadataHandler if piped in
             next(exchange);
         } catch (IllegalQueryParamenterException ex) {
+            cancel(size);
             ResponseHelper.endExchangeWithMessage(
                     exchange,
                     HttpStatus.SC_BAD_REQUEST,
@@ -175,4 +236,209 @@ public class GetCollectionHandler extends PipelinedHandler {
             next(exchange);
         }
     }
+
+    /**
+     * discards the count when the response does not include it; a count
+     * already running is not interrupted, but it is no longer awaited
+     *
+     * @param size the future count, can be null
+     */
+    private static void cancel(CompletableFuture<Long> size) {
+        if (size != null) {
+            size.cancel(false);
+        }
+    }
+
+    /**
+     * the collection data can be streamed if the response is the json array
+     * of the documents, i.e. with the STANDARD representation format, since
+     * no transformation of the whole response content is required, and if
+     * no response transformer or interceptor needs the content
+     *
+     * @param exchange
+     * @return true if the collection data can be streamed
+     */
+    private boolean isStreamable(HttpServerExchange exchange) {
+        var request = BsonRequest.wrap(exchange);
+        var rf = request.getRepresentationFormat();
+
+        return request.getType() == TYPE.COLLECTION
+                && request.getPagesize() > 0
+                && (rf == REPRESENTATION_FORMAT.STANDARD
+                || rf == REPRESENTATION_FORMAT.S)
+                && !ResponseTransformersExecutor.isResponseTransformed(exchange);
+    }
+
+    /**
+     * writes the documents to the response as they are read from the cursor,
+     * using chunked transfer encoding; the memory used does not depend on the
+     * page size. The response content is left null, so that the next handlers
+     * in the pipeline pass through and ResponseSenderHandler ends the exchange
+     *
+     * @param exchange
+     * @param coll
+     * @param page
+     * @param sortBy
+     * @param filters
+     * @param eager
+     * @throws Exception
+     */
+    private void streamCollectionData(HttpServerExchange exchange,
+            MongoCollection<BsonDocument> coll,
+            int page,
+            BsonDocument sortBy,
+            BsonDocument filters,
+            EAGER_CURSOR_ALLOCATION_POLICY eager) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+        var response = BsonResponse.wrap(exchange);
+
+        CollectionDataCursor cursor;
+
+        try {
+            cursor = dbsDAO.getCollectionDataCursor(
+                    request.getClientSession(),
+                    coll,
+                    page,
+                    request.getPagesize(),
+                    sortBy,
+                    filters,
+                    request.getHintDocument(),
+                    request.getProjectionDocument(),
+                    eager);
+        } catch (JsonParseException | MongoException ex) {
+            invalidFilter(exchange, ex);
+            return;
+        }
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE,
+                request.getJsonMode() == JsonMode.SHELL
+                ? Resource.JAVACRIPT_MEDIA_TYPE
+                : Resource.JSON_MEDIA_TYPE);
+
+        // the streamed content has no _warnings property
+        response.getWarnings().forEach(warning -> exchange
+                .getResponseHeaders().add(Headers.WARNING, "199 - \""
+                + warning.replace("\"", "\\\"") + "\""));
+
+        Iterator<BsonDocument> data = cursor;
+
+        if (request.isKeyset()) {
+            var keyset = new KeysetTracker(cursor, sortBy,
+                    request.getPagesize());
+
+            data = keyset;
+
+            exchange.getResponseHeaders().put(Headers.TRAILER,
+                    KEYSET_HEADER.toString());
+            exchange.putAttachment(HttpAttachments.RESPONSE_TRAILER_SUPPLIER,
+                    keyset::trailers);
+        }
+
+        response.setStatusCode(HttpStatus.SC_OK);
+        exchange.setStatusCode(HttpStatus.SC_OK);
+
+        ResponseHelper
+                .injectEtagHeader(exchange, request.getCollectionProps());
+
+        try (cursor; var os = exchange.getOutputStream()) {
+            int written = new CollectionRepresentationFactory()
+                    .writeStandardRepresentation(exchange, data, os);
+
+            LOGGER.debug("streamed {} documents", written);
+        } catch (IllegalQueryParamenterException | MongoException ex) {
+            // the response is already started, the status code
+            // cannot be changed anymore: close the connection
+            // so that the client gets a truncated response
+            LOGGER.error("error streaming collection data", ex);
+            IoUtils.safeClose(exchange.getConnection());
+        }
+
+        next(exchange);
+    }
+
+    /**
+     * iterates the streamed documents keeping the last one read, to send the
+     * keyset token of the next page as a trailer once the data is streamed:
+     * it follows the last streamed document also under concurrent writes
+     */
+    private static class KeysetTracker implements Iterator<BsonDocument> {
+        private final Iterator<BsonDocument> cursor;
+        private final BsonDocument sortBy;
+        private final int pagesize;
+        private BsonDocument last = null;
+        private int count = 0;
+
+        KeysetTracker(Iterator<BsonDocument> cursor,
+                BsonDocument sortBy,
+                int pagesize) {
+            this.cursor = cursor;
+            this.sortBy = sortBy;
+            this.pagesize = pagesize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public BsonDocument next() {
+            last = cursor.next();
+            count++;
+            return last;
+        }
+
+        /**
+         * @return the trailers with the keyset token of the next page, empty
+         * if the page is the last one
+         */
+        HeaderMap trailers() {
+            var ret = new HeaderMap();
+
+            // a full page means that more documents can follow
+            if (count >= pagesize) {
+                try {
+                    ret.put(KEYSET_HEADER,
+                            KeysetPagination.nextToken(sortBy, last));
+                } catch (IllegalQueryParamenterException ex) {
+                    // the data is already sent
+                    LOGGER.warn("cannot generate the keyset token", ex);
+                }
+            }
+
+            return ret;
+        }
+    }
+
+    private void invalidFilter(HttpServerExchange exchange,
+            RuntimeException ex) throws Exception {
+        var request = BsonRequest.wrap(exchange);
+
+        if (ex instanceof JsonParseException) {
+            // the filter expression is not a valid json string
+            LOGGER.debug("invalid filter expression {}",
+                    request.getFilter(), ex);
+            ResponseHelper.endExchangeWithMessage(
+                    exchange,
+                    HttpStatus.SC_BAD_REQUEST,
+                    "wrong request, filter expression is invalid",
+                    ex);
+            next(exchange);
+        } else if (ex.getMessage().matches(".*Can't canonicalize query.*")) {
+            // error with the filter expression during query execution
+            LOGGER.debug(
+                    "invalid filter expression {}",
+                    request.getFilter(),
+                    ex);
+
+            ResponseHelper.endExchangeWithMessage(
+                    exchange,
+                    HttpStatus.SC_BAD_REQUEST,
+                    "wrong request, filter expression is invalid",
+                    ex);
+            next(exchange);
+        } else {
+            throw ex;
+        }
+    }
 }
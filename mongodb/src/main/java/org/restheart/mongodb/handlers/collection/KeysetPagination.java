@@ -0,0 +1,298 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.collection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
+import org.restheart.mongodb.utils.JsonUtils;
+
+/**
+ * Helper for the keyset (aka seek) pagination of collection resources.
+ *
+ * With the keyset query parameter, the next page is not selected skipping
+ * the documents of the previous pages but with a range query on the sort
+ * keys, starting after the last document of the previous page. The sort key
+ * values of that document are encoded in an opaque token: the request
+ * <code>?keyset</code> returns the first page and
+ * <code>?keyset=&lt;token&gt;</code> the page that follows the document the
+ * token was generated from. When the data is streamed, the token of the next
+ * page is generated from the last streamed document and sent in the
+ * Keyset-Token trailer of the chunked response, announced by the Trailer
+ * response header.
+ *
+ * The _id is always added as last sort key to get a total order. The sort
+ * keys must be included in the projection (if any), must not use $meta
+ * sorting and must not be missing or null in the documents.
+ */
+public final class KeysetPagination {
+    private static final String _ID = "_id";
+
+    private KeysetPagination() {
+    }
+
+    /**
+     *
+     * @param sortBy the sort document of the request
+     * @return the sort document with the _id as last sort key
+     * @throws IllegalQueryParamenterException if a sort key is not ascending
+     * or descending
+     */
+    public static BsonDocument sortDocument(BsonDocument sortBy)
+            throws IllegalQueryParamenterException {
+        var ret = new BsonDocument();
+
+        for (var key : sortBy.keySet()) {
+            ret.put(key, new BsonInt32(direction(sortBy.get(key))));
+        }
+
+        if (!ret.containsKey(_ID)) {
+            // ties are sorted in the direction of the last sort key
+            int lastDirection = ret.isEmpty()
+                    ? -1
+                    : ret.get(lastKey(ret)).asInt32().getValue();
+
+            ret.put(_ID, new BsonInt32(lastDirection));
+        }
+
+        return ret;
+    }
+
+    /**
+     *
+     * @param projection the projection document of the request
+     * @param sort the sort document returned by sortDocument()
+     * @throws IllegalQueryParamenterException if the projection excludes a
+     * sort key
+     */
+    public static void checkProjection(BsonDocument projection,
+            BsonDocument sort)
+            throws IllegalQueryParamenterException {
+        if (projection == null || projection.isEmpty()) {
+            return;
+        }
+
+        // an inclusion projection returns only the included fields and _id
+        boolean inclusion = projection.keySet().stream()
+                .filter(key -> !_ID.equals(key))
+                .anyMatch(key -> isTrue(projection.get(key)));
+
+        for (var key : sort.keySet()) {
+            boolean excluded = projection.keySet().stream()
+                    .filter(p -> isFalse(projection.get(p)))
+                    .anyMatch(p -> coversPath(p, key));
+
+            boolean included = !inclusion
+                    || _ID.equals(key)
+                    || projection.keySet().stream()
+                            .filter(p -> isTrue(projection.get(p)))
+                            .anyMatch(p -> coversPath(p, key));
+
+            if (excluded || !included) {
+                throw new IllegalQueryParamenterException(
+                        "illegal keys paramenter, keyset pagination "
+                        + "requires the projection to include "
+                        + "the sort key " + key);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param sort the sort document returned by sortDocument()
+     * @return the projection document that includes only the sort keys
+     */
+    public static BsonDocument keysProjection(BsonDocument sort) {
+        var ret = new BsonDocument();
+
+        sort.keySet().forEach(key -> ret.put(key, new BsonInt32(1)));
+
+        return ret;
+    }
+
+    /**
+     *
+     * @param filters the filter document of the request
+     * @param sort the sort document returned by sortDocument()
+     * @param token the keyset token, null or empty for the first page
+     * @return the filter document restricted to the documents that follow
+     * the one the token was generated from
+     * @throws IllegalQueryParamenterException if the token is invalid or does
+     * not match the sort keys
+     */
+    public static BsonDocument filterDocument(BsonDocument filters,
+            BsonDocument sort,
+            String token)
+            throws IllegalQueryParamenterException {
+        if (token == null || token.isEmpty()) {
+            return filters;
+        }
+
+        var values = decode(token);
+
+        if (!new ArrayList<>(values.keySet())
+                .equals(new ArrayList<>(sort.keySet()))) {
+            throw new IllegalQueryParamenterException(
+                    "illegal keyset parameter, "
+                    + "it does not match the sort keys");
+        }
+
+        if (values.values().stream().anyMatch(BsonValue::isNull)) {
+            throw new IllegalQueryParamenterException(
+                    "illegal keyset parameter, "
+                    + "it contains null sort key values");
+        }
+
+        // (k1 > v1) or (k1 = v1 and k2 > v2) or ...
+        var or = new BsonArray();
+        List<String> previous = new ArrayList<>();
+
+        for (var key : sort.keySet()) {
+            var cond = new BsonDocument();
+
+            previous.forEach(p -> cond.put(p,
+                    new BsonDocument("$eq", values.get(p))));
+
+            cond.put(key, new BsonDocument(
+                    sort.get(key).asInt32().getValue() > 0 ? "$gt" : "$lt",
+                    values.get(key)));
+
+            or.add(cond);
+            previous.add(key);
+        }
+
+        var range = new BsonDocument("$or", or);
+
+        if (filters == null || filters.isEmpty()) {
+            return range;
+        } else {
+            var and = new BsonArray();
+            and.add(filters);
+            and.add(range);
+            return new BsonDocument("$and", and);
+        }
+    }
+
+    /**
+     *
+     * @param sort the sort document returned by sortDocument()
+     * @param last the last document of the page
+     * @return the keyset token to get the next page
+     * @throws IllegalQueryParamenterException if a sort key is missing or
+     * null in the document, since the following documents cannot be selected
+     * with a range query
+     */
+    public static String nextToken(BsonDocument sort, BsonDocument last)
+            throws IllegalQueryParamenterException {
+        var values = new BsonDocument();
+
+        for (var key : sort.keySet()) {
+            var value = valueOf(last, key);
+
+            if (value == null || value.isNull()) {
+                throw new IllegalQueryParamenterException(
+                        "illegal sort paramenter, keyset pagination "
+                        + "requires the sort key " + key
+                        + " to be not null in all documents");
+            }
+
+            values.put(key, value);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                JsonUtils.toJson(values, JsonMode.EXTENDED)
+                        .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BsonDocument decode(String token)
+            throws IllegalQueryParamenterException {
+        try {
+            return BsonDocument.parse(new String(
+                    Base64.getUrlDecoder().decode(token),
+                    StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | JsonParseException ex) {
+            throw new IllegalQueryParamenterException(
+                    "illegal keyset parameter, it is not a valid token", ex);
+        }
+    }
+
+    private static int direction(BsonValue value)
+            throws IllegalQueryParamenterException {
+        if (value.isNumber()) {
+            int dir = value.asNumber().intValue();
+
+            if (dir != 0) {
+                return dir > 0 ? 1 : -1;
+            }
+        }
+
+        throw new IllegalQueryParamenterException(
+                "illegal sort paramenter, keyset pagination "
+                + "requires ascending or descending sort keys");
+    }
+
+    private static String lastKey(BsonDocument doc) {
+        String ret = null;
+
+        for (var key : doc.keySet()) {
+            ret = key;
+        }
+
+        return ret;
+    }
+
+    private static BsonValue valueOf(BsonDocument doc, String path) {
+        BsonValue ret = doc;
+
+        for (var key : path.split("\\.")) {
+            if (ret == null || !ret.isDocument()) {
+                return null;
+            }
+
+            ret = ret.asDocument().get(key);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return true if the projection of the path p includes or excludes the
+     * path key
+     */
+    private static boolean coversPath(String p, String key) {
+        return key.equals(p) || key.startsWith(p + ".");
+    }
+
+    private static boolean isTrue(BsonValue value) {
+        return (value.isBoolean() && value.asBoolean().getValue())
+                || (value.isNumber() && value.asNumber().doubleValue() != 0);
+    }
+
+    private static boolean isFalse(BsonValue value) {
+        return (value.isBoolean() && !value.asBoolean().getValue())
+                || (value.isNumber() && value.asNumber().doubleValue() == 0);
+    }
+}
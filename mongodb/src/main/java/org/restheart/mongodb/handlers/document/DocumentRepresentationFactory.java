@@ -13,6 +13,7 @@ import static org.restheart.handlers.exchange.ExchangeKeys.BINARY_CONTENT;
 import org.restheart.handlers.exchange.ExchangeKeys.TYPE;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
 import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.metadata.Relationship;
 import org.restheart.mongodb.representation.Link;
 import org.restheart.mongodb.representation.RepUtils;
@@ -73,7 +74,7 @@ public class DocumentRepresentationFactory {
         List<Relationship> rels = null;
 
         try {
-            rels = Relationship.getFromJson(request.getCollectionProps());
+            rels = CollectionDescriptor.of(request).getRelationships();
         } catch (InvalidMetadataException ex) {
             rep.addWarning("collection " + request.getDBName()
                     + "/" + request.getCollectionName()
@@ -0,0 +1,146 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.files;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a file, as requested with the Range header (RFC 7233).
+ */
+class ByteRange {
+    /**
+     * requests with more ranges are served with the whole file; many small
+     * ranges cost more than sending the content at once
+     */
+    static final int MAX_RANGES = 16;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * parses the value of the Range header against the length of the file
+     *
+     * @param header the Range header value
+     * @param length the length of the file
+     * @return the satisfiable ranges, empty if none is satisfiable, or null if
+     * the header is missing, invalid, not in bytes or has more than MAX_RANGES
+     * ranges; in this case the header must be ignored
+     */
+    static List<ByteRange> parse(String header, long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        var specs = header.substring(BYTES_UNIT.length()).split(",");
+
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        var ranges = new ArrayList<ByteRange>(specs.length);
+
+        for (var _spec : specs) {
+            var spec = _spec.trim();
+            var dash = spec.indexOf('-');
+
+            if (dash < 0) {
+                return null;
+            }
+
+            long first;
+            long last;
+
+            try {
+                if (dash == 0) {
+                    // suffix range, the last n bytes
+                    var suffix = Long.parseLong(spec.substring(1));
+
+                    if (suffix < 0) {
+                        return null;
+                    } else if (suffix == 0 || length == 0) {
+                        continue;
+                    }
+
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1
+                            ? Long.MAX_VALUE
+                            : Long.parseLong(spec.substring(dash + 1));
+
+                    if (first < 0 || last < first) {
+                        return null;
+                    } else if (first >= length) {
+                        continue;
+                    }
+
+                    last = Math.min(last, length - 1);
+                }
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+
+            ranges.add(new ByteRange(first, last));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * @return the first byte of the range
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the last byte of the range, inclusive
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes of the range
+     */
+    long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param fileLength
+     * @return the value of the Content-Range header for this range
+     */
+    String contentRange(long fileLength) {
+        return "bytes " + start + "-" + end + "/" + fileLength;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
@@ -17,18 +17,30 @@
  */
 package org.restheart.mongodb.handlers.files;
 
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Sorts.ascending;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonDocument;
 import org.bson.BsonObjectId;
 import org.bson.types.ObjectId;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.mongodb.db.GridFsFileCache;
 import org.restheart.mongodb.db.MongoDBClientSingleton;
 import org.restheart.mongodb.utils.RequestHelper;
 import org.restheart.mongodb.utils.ResponseHelper;
@@ -54,10 +66,20 @@ public class GetFileBinaryHandler extends PipelinedHandler {
     public static final String CONTENT_TRANSFER_ENCODING_BINARY
             = "binary";
 
+    /**
+     *
+     */
+    public static final String MULTIPART_BYTERANGES
+            = "multipart/byteranges";
+
+    private static final String BYTES = "bytes";
+
+    private static final int MAX_CHUNKS_BATCH_SIZE = 16;
+
     private static final Logger LOGGER
             = LoggerFactory.getLogger(GetFileBinaryHandler.class);
 
-    static String extractBucketName(final String collectionName) {
+    public static String extractBucketName(final String collectionName) {
         return collectionName.split("\\.")[0];
     }
 
@@ -96,19 +118,40 @@ public class GetFileBinaryHandler extends PipelinedHandler {
         LOGGER.trace("GET " + exchange.getRequestURL());
         final String bucket = extractBucketName(request.getCollectionName());
 
-        GridFSBucket gridFSBucket = GridFSBuckets.create(
-                MongoDBClientSingleton.getInstance().getClient()
-                        .getDatabase(request.getDBName()),
-                bucket);
+        var cache = GridFsFileCache.getInstance();
+        var db = MongoDBClientSingleton.getInstance().getClient()
+                .getDatabase(request.getDBName());
 
-        GridFSFile dbsfile = gridFSBucket
-                .find(eq("_id", request.getDocumentId()))
-                .limit(1).iterator().tryNext();
+        var cached = cache.get(request.getDBName(), bucket,
+                request.getDocumentId());
+
+        GridFSBucket gridFSBucket = null;
+        GridFSFile dbsfile;
+
+        if (cached != null) {
+            dbsfile = cached.getFile();
+        } else {
+            gridFSBucket = GridFSBuckets.create(db, bucket);
+
+            dbsfile = gridFSBucket
+                    .find(eq("_id", request.getDocumentId()))
+                    .limit(1).iterator().tryNext();
+        }
 
         if (dbsfile == null) {
+            cache.invalidate(request.getDBName(), bucket,
+                    request.getDocumentId());
             fileNotFound(request, exchange);
         } else if (!checkEtag(exchange, dbsfile)) {
-            sendBinaryContent(response, gridFSBucket, dbsfile, exchange);
+            if (cached == null) {
+                cached = cache.load(request.getDBName(), bucket, dbsfile,
+                        gridFSBucket);
+            }
+
+            sendBinaryContent(response, gridFSBucket,
+                    db.getCollection(bucket + ".chunks", BsonDocument.class),
+                    cached,
+                    dbsfile, exchange);
         }
 
         next(exchange);
@@ -159,6 +202,8 @@ public class GetFileBinaryHandler extends PipelinedHandler {
     private void sendBinaryContent(
             final BsonResponse request,
             final GridFSBucket gridFSBucket,
+            final MongoCollection<BsonDocument> bucket,
+            final GridFsFileCache.Entry cached,
             final GridFSFile file,
             final HttpServerExchange exchange)
             throws IOException {
@@ -179,10 +224,6 @@ public class GetFileBinaryHandler extends PipelinedHandler {
                     APPLICATION_OCTET_STREAM);
         }
 
-        exchange.getResponseHeaders().put(
-                Headers.CONTENT_LENGTH,
-                file.getLength());
-
         exchange.getResponseHeaders().put(
                 Headers.CONTENT_DISPOSITION,
                 String.format("inline; filename=\"%s\"",
@@ -192,13 +233,220 @@ public class GetFileBinaryHandler extends PipelinedHandler {
                 Headers.CONTENT_TRANSFER_ENCODING,
                 CONTENT_TRANSFER_ENCODING_BINARY);
 
+        exchange.getResponseHeaders().put(
+                Headers.ACCEPT_RANGES,
+                BYTES);
+
         ResponseHelper.injectEtagHeader(exchange, file.getMetadata());
 
-        request.setStatusCode(HttpStatus.SC_OK);
+        var ranges = checkIfRange(exchange, file)
+                ? ByteRange.parse(exchange.getRequestHeaders()
+                        .getFirst(Headers.RANGE), file.getLength())
+                : null;
+
+        if (ranges == null) {
+            exchange.getResponseHeaders().put(
+                    Headers.CONTENT_LENGTH,
+                    file.getLength());
+
+            request.setStatusCode(HttpStatus.SC_OK);
+
+            if (cached != null) {
+                sendCached(cached, file, 0, file.getLength(),
+                        exchange.getOutputStream());
+            } else {
+                gridFSBucket.downloadToStream(
+                        file.getId(),
+                        exchange.getOutputStream());
+            }
+        } else if (ranges.isEmpty()) {
+            exchange.getResponseHeaders().put(
+                    Headers.CONTENT_RANGE,
+                    "bytes */" + file.getLength());
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, 0);
+            request.setStatusCode(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        } else if (ranges.size() == 1) {
+            var range = ranges.get(0);
+
+            exchange.getResponseHeaders().put(
+                    Headers.CONTENT_RANGE,
+                    range.contentRange(file.getLength()));
+            exchange.getResponseHeaders().put(
+                    Headers.CONTENT_LENGTH,
+                    range.length());
+
+            request.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+            // the headers are sent as soon as the content is written
+            exchange.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+
+            sendRange(bucket, cached, file, range, exchange.getOutputStream());
+        } else {
+            sendMultipartRanges(request, bucket, cached, file, ranges,
+                    exchange);
+        }
+    }
+
+    /**
+     * The Range header must be ignored if the If-Range header is present and
+     * does not match the current _etag of the file; dates are not supported
+     * and always cause the whole file to be sent.
+     *
+     * @return true if the Range header can be honored
+     */
+    private boolean checkIfRange(HttpServerExchange exchange, GridFSFile file) {
+        var ifRange = exchange.getRequestHeaders().getFirst(Headers.IF_RANGE);
+
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (file.getMetadata() == null
+                || !(file.getMetadata().get("_etag") instanceof ObjectId)) {
+            return false;
+        }
+
+        // weak etags (W/"...") are not allowed in If-Range
+        var etag = ifRange.trim();
+
+        if (etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            etag = etag.substring(1, etag.length() - 1);
+        }
+
+        return etag.equals(file.getMetadata().get("_etag").toString());
+    }
+
+    private void sendMultipartRanges(
+            final BsonResponse response,
+            final MongoCollection<BsonDocument> bucket,
+            final GridFsFileCache.Entry cached,
+            final GridFSFile file,
+            final List<ByteRange> ranges,
+            final HttpServerExchange exchange)
+            throws IOException {
+        var boundary = new ObjectId().toHexString();
+        var contentType = exchange.getResponseHeaders()
+                .getFirst(Headers.CONTENT_TYPE);
+
+        var headers = new ArrayList<byte[]>(ranges.size());
+        var closing = ("\r\n--" + boundary + "--\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        long length = closing.length;
+
+        for (var range : ranges) {
+            var header = ("\r\n--" + boundary + "\r\n"
+                    + Headers.CONTENT_TYPE_STRING + ": " + contentType + "\r\n"
+                    + Headers.CONTENT_RANGE_STRING + ": "
+                    + range.contentRange(file.getLength()) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+
+            headers.add(header);
+            length += header.length + range.length();
+        }
+
+        exchange.getResponseHeaders().put(
+                Headers.CONTENT_TYPE,
+                MULTIPART_BYTERANGES + "; boundary=" + boundary);
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, length);
+
+        response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+        exchange.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+
+        var out = exchange.getOutputStream();
+
+        for (int idx = 0; idx < ranges.size(); idx++) {
+            out.write(headers.get(idx));
+            sendRange(bucket, cached, file, ranges.get(idx), out);
+        }
+
+        out.write(closing);
+    }
+
+    /**
+     * writes length bytes of the cached content of the file, starting at
+     * start, blocking until they are written
+     */
+    private static void sendCached(
+            final GridFsFileCache.Entry cached,
+            final GridFSFile file,
+            final long start,
+            final long length,
+            final OutputStream out)
+            throws IOException {
+        try (var channel = cached.open()) {
+            var target = Channels.newChannel(out);
+            long position = start;
+            long remaining = length;
+
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+
+                if (sent <= 0) {
+                    throw new IOException("Cached content of file "
+                            + file.getId() + " is truncated");
+                }
 
-        gridFSBucket.downloadToStream(
-                file.getId(),
-                exchange.getOutputStream());
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * writes the bytes of the range reading only the chunks containing them,
+     * or from the cached content of the file
+     */
+    private void sendRange(
+            final MongoCollection<BsonDocument> bucket,
+            final GridFsFileCache.Entry cached,
+            final GridFSFile file,
+            final ByteRange range,
+            final OutputStream out)
+            throws IOException {
+        if (cached != null) {
+            sendCached(cached, file, range.getStart(), range.length(), out);
+            return;
+        }
+
+        final int chunkSize = file.getChunkSize();
+        final long firstChunk = range.getStart() / chunkSize;
+        final long lastChunk = range.getEnd() / chunkSize;
+
+        var chunks = bucket.find(and(
+                eq("files_id", file.getId()),
+                gte("n", firstChunk),
+                lte("n", lastChunk)))
+                .sort(ascending("n"))
+                .batchSize((int) Math.min(lastChunk - firstChunk + 1,
+                        MAX_CHUNKS_BATCH_SIZE));
+
+        long expected = firstChunk;
+
+        try (var cursor = chunks.iterator()) {
+            while (cursor.hasNext()) {
+                var chunk = cursor.next();
+                var n = chunk.get("n").asNumber().longValue();
+
+                if (n != expected) {
+                    throw new IOException("Missing chunk " + expected
+                            + " of file " + file.getId());
+                }
+
+                var data = chunk.getBinary("data").getData();
+                long chunkStart = n * chunkSize;
+
+                int from = (int) Math.max(0, range.getStart() - chunkStart);
+                int to = (int) Math.min(data.length,
+                        range.getEnd() - chunkStart + 1);
+
+                out.write(data, from, to - from);
+                expected++;
+            }
+        }
+
+        if (expected != lastChunk + 1) {
+            throw new IOException("Missing chunk " + expected
+                    + " of file " + file.getId());
+        }
     }
 
     private String extractFilename(final GridFSFile dbsfile) {
@@ -105,7 +105,14 @@ public class PostBucketHandler extends PipelinedHandler {
         OperationResult result;
 
         try {
-            if (request.getFilePath() != null) {
+            if (request.getFileInputStream() != null) {
+                result = gridFsDAO
+                        .createFile(dbsDAO,
+                                request.getDBName(),
+                                request.getCollectionName(),
+                                metadata,
+                                request.getFileInputStream());
+            } else if (request.getFilePath() != null) {
                 result = gridFsDAO
                         .createFile(dbsDAO,
                                 request.getDBName(),
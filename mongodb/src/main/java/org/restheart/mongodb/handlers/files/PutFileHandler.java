@@ -102,7 +102,17 @@ public class PutFileHandler extends PipelinedHandler {
         OperationResult result;
 
         try {
-            if (request.getFilePath() != null) {
+            if (request.getFileInputStream() != null) {
+                result = gridFsDAO
+                        .upsertFile(dbsDAO,
+                                request.getDBName(),
+                                request.getCollectionName(),
+                                metadata,
+                                request.getFileInputStream(),
+                                id,
+                                request.getETag(),
+                                request.isETagCheckRequired());
+            } else if (request.getFilePath() != null) {
                 result = gridFsDAO
                         .upsertFile(dbsDAO,
                                 request.getDBName(),
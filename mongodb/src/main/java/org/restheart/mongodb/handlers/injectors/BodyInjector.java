@@ -18,18 +18,23 @@
 package org.restheart.mongodb.handlers.injectors;
 
 import io.undertow.server.HttpServerExchange;
-import io.undertow.server.handlers.form.FormData;
-import io.undertow.server.handlers.form.FormDataParser;
-import io.undertow.server.handlers.form.FormParserFactory;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
 import java.util.Iterator;
 import org.apache.tika.Tika;
+import org.bson.BSONException;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
 import org.bson.BsonString;
@@ -50,7 +55,9 @@ import static org.restheart.handlers.exchange.ExchangeKeys._ID;
 import org.restheart.mongodb.representation.Resource;
 import org.restheart.mongodb.utils.ChannelReader;
 import org.restheart.mongodb.utils.JsonUtils;
+import org.restheart.mongodb.utils.MultipartStream;
 import org.restheart.mongodb.utils.ResponseHelper;
+import org.restheart.utils.BuffersUtils;
 import org.restheart.utils.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +81,22 @@ public class BodyInjector extends PipelinedHandler {
             + Resource.APP_FORM_URLENCODED_TYPE
             + " or " + Resource.MULTIPART_FORM_DATA_TYPE;
 
+    private static final String ERROR_NO_FILE
+            = "This request does not contain any binary file";
+
+    /**
+     * the number of bytes of the file read ahead to detect its media type
+     */
+    private static final int PEEK_SIZE = 64 * 1024;
+
+    // thread safe
+    private static final Tika TIKA = new Tika();
+
+    private static final String ERROR_INVALID_CONTENTTYPE_NDJSON = "Content-Type "
+            + Resource.NDJSON_MEDIA_TYPE
+            + " is only supported for POST to collection resources "
+            + "(bulk post)";
+
     private static boolean isHalOrJson(final HeaderValues contentTypes) {
         return (contentTypes == null
                 || contentTypes.isEmpty())
@@ -81,6 +104,26 @@ public class BodyInjector extends PipelinedHandler {
                 || ct.startsWith(Resource.JSON_MEDIA_TYPE)));
     }
 
+    private static boolean isNdjson(final HeaderValues contentTypes) {
+        return contentTypes != null
+                && contentTypes.stream().anyMatch(ct -> ct.startsWith(Resource.NDJSON_MEDIA_TYPE));
+    }
+
+    /**
+     *
+     * @param exchange
+     * @return true if the request content is ndjson, i.e. a json document
+     * per line, that is not injected but read while processing the request
+     */
+    public static boolean isNdjson(final HttpServerExchange exchange) {
+        return isNdjson(exchange.getRequestHeaders().get(Headers.CONTENT_TYPE));
+    }
+
+    private static boolean isMultipart(final HeaderValues contentTypes) {
+        return contentTypes.stream().anyMatch(ct
+                -> ct.startsWith(Resource.MULTIPART_FORM_DATA_TYPE));
+    }
+
     private static boolean isFormOrMultipart(final HeaderValues contentTypes) {
         return contentTypes != null
                 && !contentTypes.isEmpty()
@@ -185,6 +228,19 @@ public class BodyInjector extends PipelinedHandler {
         });
     }
 
+    private static void injectContentType(
+            final BsonDocument content,
+            final byte[] prefix,
+            final String filename) {
+        if (content.get(CONTENT_TYPE) == null) {
+            final String contentType = detectMediaType(prefix, filename);
+            if (contentType != null) {
+                content.append(CONTENT_TYPE,
+                        new BsonString(contentType));
+            }
+        }
+    }
+
     private static void injectContentTypeFromFile(
             final BsonDocument content,
             final File file)
@@ -199,48 +255,52 @@ public class BodyInjector extends PipelinedHandler {
     }
 
     /**
-     * Search the request for a field named 'metadata' (or 'properties') which
+     * Search the form for a field named 'metadata' (or 'properties') which
      * must contain valid JSON
      *
-     * @param formData
-     * @return the parsed BsonDocument from the form data or an empty
-     * BsonDocument
+     * @param form
+     * @return the parsed BsonDocument from the form or an empty BsonDocument
      */
     protected static BsonDocument extractMetadata(
-            final FormData formData)
+            final MultipartStream form)
             throws JsonParseException {
-        BsonDocument metadata = new BsonDocument();
-
-        final String metadataString;
-
-        metadataString = formData.getFirst(FILE_METADATA) != null
-                ? formData.getFirst(FILE_METADATA).getValue()
-                : formData.getFirst(PROPERTIES) != null
-                ? formData.getFirst(PROPERTIES).getValue()
-                : null;
-
-        if (metadataString != null) {
-            metadata = BsonDocument.parse(metadataString);
-        }
+        final String metadataString = form.getField(FILE_METADATA) != null
+                ? form.getField(FILE_METADATA)
+                : form.getField(PROPERTIES);
 
-        return metadata;
+        return metadataString != null
+                ? BsonDocument.parse(metadataString)
+                : new BsonDocument();
     }
 
     /**
-     * Find the name of the first file field in this request
+     * Stores the file to a temporary file, deleted when the exchange completes
      *
-     * @param formData
-     * @return the first file field name or null
+     * @param exchange
+     * @param form
+     * @return the path of the temporary file
+     * @throws IOException
      */
-    private static String extractFileField(final FormData formData) {
-        String fileField = null;
-        for (String f : formData) {
-            if (formData.getFirst(f) != null && formData.getFirst(f).isFileItem()) {
-                fileField = f;
-                break;
+    private static Path spool(
+            final HttpServerExchange exchange,
+            final MultipartStream form)
+            throws IOException {
+        final Path path = Files.createTempFile("restheart-upload-", null);
+
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ioe) {
+                LOGGER.warn("Error deleting temporary file {}", path, ioe);
+            } finally {
+                nextListener.proceed();
             }
-        }
-        return fileField;
+        });
+
+        Files.copy(form.getFileInputStream(), path,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        return path;
     }
 
     /**
@@ -251,10 +311,35 @@ public class BodyInjector extends PipelinedHandler {
      * @throws IOException
      */
     public static String detectMediaType(File file) throws IOException {
-        return new Tika().detect(file);
+        return TIKA.detect(file);
     }
 
-    private final FormParserFactory formParserFactory;
+    /**
+     * Detect the file's mediatype from its first bytes
+     *
+     * @param prefix the first bytes of the file
+     * @param filename the name of the file, can be null
+     * @return the content-type as a String
+     */
+    public static String detectMediaType(byte[] prefix, String filename) {
+        return TIKA.detect(prefix, filename);
+    }
+
+    /**
+     * @param reader a reader that supports mark()
+     * @return true if the reader has no content to read
+     * @throws IOException
+     */
+    private static boolean isEmpty(Reader reader) throws IOException {
+        reader.mark(1);
+
+        if (reader.read() == -1) {
+            return true;
+        } else {
+            reader.reset();
+            return false;
+        }
+    }
 
     /**
      * Creates a new instance of BodyInjectorHandler
@@ -271,7 +356,6 @@ public class BodyInjector extends PipelinedHandler {
      */
     public BodyInjector(PipelinedHandler next) {
         super(next);
-        this.formParserFactory = FormParserFactory.builder().build();
     }
 
     /**
@@ -309,24 +393,49 @@ public class BodyInjector extends PipelinedHandler {
                 next(exchange);
                 return;
             }
-            FormDataParser parser = this.formParserFactory.createParser(exchange);
-
-            if (parser == null) {
-                String errMsg = "There is no form parser registered "
-                        + "for the request content type";
-
+            if (!isMultipart(contentType)) {
                 ResponseHelper.endExchangeWithMessage(
                         exchange,
                         HttpStatus.SC_NOT_ACCEPTABLE,
-                        errMsg);
+                        ERROR_NO_FILE);
                 next(exchange);
                 return;
             }
 
-            FormData formData;
+            final MultipartStream form;
+            final byte[] peek;
+            InputStream fileInputStream = null;
+            Path path = null;
 
             try {
-                formData = parser.parseBlocking();
+                var bar = ByteArrayRequest.wrap(exchange);
+
+                form = new MultipartStream(bar.isContentAvailable()
+                        ? BuffersUtils.toInputStream(bar.getRawContent())
+                        : exchange.getInputStream(),
+                        contentType.getFirst(),
+                        exchange.getConnection().getByteBufferPool());
+
+                // the fields sent before the file are read, the file is left
+                // in the request to be streamed to GridFS
+                var hasFile = form.readUpToFile(PEEK_SIZE);
+
+                peek = form.peek();
+
+                if (hasFile
+                        && form.getField(FILE_METADATA) == null
+                        && form.getField(PROPERTIES) == null) {
+                    // the metadata, if any, follows the file
+                    if (form.isFileEnded()) {
+                        fileInputStream = new ByteArrayInputStream(peek);
+                    } else {
+                        path = spool(exchange, form);
+                    }
+
+                    form.readToEnd();
+                } else {
+                    fileInputStream = form.getFileInputStream();
+                }
             } catch (IOException ioe) {
                 String errMsg = "Error parsing the multipart form: "
                         + "data could not be read";
@@ -341,7 +450,7 @@ public class BodyInjector extends PipelinedHandler {
             }
 
             try {
-                content = extractMetadata(formData);
+                content = extractMetadata(form);
             } catch (JsonParseException | IllegalArgumentException ex) {
                 String errMsg = "Invalid data: "
                         + "'properties' field is not a valid JSON";
@@ -355,48 +464,63 @@ public class BodyInjector extends PipelinedHandler {
                 return;
             }
 
-            final String fileField = extractFileField(formData);
-
-            if (fileField == null) {
-                String errMsg = "This request does not contain any binary file";
-
+            if (form.getFileField() == null) {
                 ResponseHelper.endExchangeWithMessage(
                         exchange,
                         HttpStatus.SC_NOT_ACCEPTABLE,
-                        errMsg);
+                        ERROR_NO_FILE);
                 next(exchange);
                 return;
             }
 
-            final Path path = formData.getFirst(fileField).getFileItem().getFile();
+            if (path != null) {
+                request.setFilePath(path);
 
-            request.setFilePath(path);
+                injectContentTypeFromFile(content.asDocument(), path.toFile());
+            } else {
+                request.setFileInputStream(fileInputStream);
+
+                injectContentType(content.asDocument(),
+                        peek,
+                        form.getFileName());
+            }
+        } else if (isNdjson(contentType)) {
+            if (!(request.isPost() && request.isCollection())) {
+                ResponseHelper.endExchangeWithMessage(
+                        exchange,
+                        HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE,
+                        ERROR_INVALID_CONTENTTYPE_NDJSON);
+                next(exchange);
+                return;
+            }
 
-            injectContentTypeFromFile(content.asDocument(), path.toFile());
+            // the documents are read and written in batches
+            // by NdjsonBulkPostCollectionHandler
+            content = null;
         } else {
             if (isHalOrJson(contentType)) {
-                final String contentString;
+                final Reader contentReader;
                 
                 var bar = ByteArrayRequest.wrap(exchange);
                 
                 if (bar.isContentAvailable()) {
                     // if content has been already injected by core's 
                     // RequestContentInjector
-                    // get it from BsonRequest.readContent()
-                    contentString = new String(bar.readContent(), 
-                            StandardCharsets.UTF_8);
+                    // read it from the request buffers, without copying it
+                    contentReader = new BufferedReader(new InputStreamReader(
+                            BuffersUtils.toInputStream(bar.getRawContent()),
+                            StandardCharsets.UTF_8));
                 } else {
                     // otherwise use ChannelReader
-                    contentString = ChannelReader
-                            .read(exchange.getRequestChannel());
+                    contentReader = ChannelReader
+                            .reader(exchange.getRequestChannel());
                 }
                
                 // parse the json content
-                if (contentString != null
-                        && !contentString.isEmpty()) { // check content type
+                if (!isEmpty(contentReader)) { // check content type
 
                     try {
-                        content = JsonUtils.parse(contentString);
+                        content = JsonUtils.parse(contentReader);
 
                         if (content != null
                                 && !content.isDocument()
@@ -406,7 +530,7 @@ public class BodyInjector extends PipelinedHandler {
                                     + "or an array"
                                     + ", got " + content.getBsonType().name());
                         }
-                    } catch (JsonParseException | IllegalArgumentException ex) {
+                    } catch (JsonParseException | BSONException | IllegalArgumentException ex) {
                         ResponseHelper.endExchangeWithMessage(
                                 exchange,
                                 HttpStatus.SC_NOT_ACCEPTABLE,
@@ -17,6 +17,7 @@
  */
 package org.restheart.mongodb.handlers.injectors;
 
+import com.codahale.metrics.Gauge;
 import io.undertow.server.HttpServerExchange;
 import java.util.Arrays;
 import java.util.Deque;
@@ -27,6 +28,7 @@ import org.bson.json.JsonParseException;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.handlers.exchange.ParsedQueryCache;
 import static org.restheart.handlers.exchange.ExchangeKeys.AGGREGATION_VARIABLES_QPARAM_KEY;
 import org.restheart.handlers.exchange.ExchangeKeys.DOC_ID_TYPE;
 import static org.restheart.handlers.exchange.ExchangeKeys.DOC_ID_TYPE_QPARAM_KEY;
@@ -47,6 +49,7 @@ import static org.restheart.handlers.exchange.ExchangeKeys.SORT_QPARAM_KEY;
 import org.restheart.handlers.exchange.ExchangeKeys.TYPE;
 import org.restheart.mongodb.MongoServiceConfiguration;
 import org.restheart.mongodb.handlers.aggregation.AggregationPipeline;
+import org.restheart.mongodb.handlers.metrics.SharedMetricRegistryProxy;
 import org.restheart.mongodb.representation.UnsupportedDocumentIdException;
 import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.mongodb.utils.ResponseHelper;
@@ -71,6 +74,21 @@ public class BsonRequestInitializer extends PipelinedHandler {
             .get()
             .getMaxPagesize();
 
+    static {
+        var registry = new SharedMetricRegistryProxy().registry();
+        var cache = ParsedQueryCache.getInstance();
+
+        registry.gauge("QUERY_CACHE.HITS",
+                () -> (Gauge<Long>) cache::hits);
+        registry.gauge("QUERY_CACHE.MISSES",
+                () -> (Gauge<Long>) cache::misses);
+        registry.gauge("QUERY_CACHE.HIT_RATE", () -> (Gauge<Double>) () -> {
+            long hits = cache.hits();
+            long total = hits + cache.misses();
+            return total == 0 ? 0d : (double) hits / total;
+        });
+    }
+
     private final boolean mongoPipeline;
 
     private final String requestUri;
@@ -368,7 +386,7 @@ public class BsonRequestInitializer extends PipelinedHandler {
                 }
 
                 try {
-                    BsonValue _keys = JsonUtils.parse(f);
+                    BsonValue _keys = parse(f);
 
                     if (!_keys.isDocument()) {
                         ResponseHelper.endExchangeWithMessage(
@@ -410,7 +428,7 @@ public class BsonRequestInitializer extends PipelinedHandler {
                 }
 
                 try {
-                    BsonValue _filter = JsonUtils.parse(f);
+                    BsonValue _filter = parse(f);
 
                     if (!_filter.isDocument()) {
                         ResponseHelper.endExchangeWithMessage(
@@ -536,7 +554,7 @@ public class BsonRequestInitializer extends PipelinedHandler {
                     ResponseHelper.endExchangeWithMessage(
                             exchange,
                             HttpStatus.SC_BAD_REQUEST,
-                            "illegal eager paramenter (must be LINEAR, RANDOM or NONE)");
+                            "illegal eager paramenter (must be LINEAR, RANDOM, ADAPTIVE or NONE)");
                     try {
                         next(exchange);
                     } catch (Exception e) {
@@ -712,5 +730,20 @@ public class BsonRequestInitializer extends PipelinedHandler {
         next(exchange);
     }
 
-    
+    /**
+     * parses the json objects via the ParsedQueryCache, so that the getters
+     * of BsonRequest don't parse them again
+     *
+     * @param json
+     * @return the parsed json
+     * @throws JsonParseException
+     */
+    private static BsonValue parse(String json) throws JsonParseException {
+        try {
+            return ParsedQueryCache.getInstance().getDocument(json);
+        } catch (RuntimeException ex) {
+            // not a json object, parse it to report the error
+            return JsonUtils.parse(json);
+        }
+    }
 }
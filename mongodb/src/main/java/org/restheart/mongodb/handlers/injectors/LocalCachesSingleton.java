@@ -26,6 +26,7 @@ import org.restheart.cache.LoadingCache;
 import org.restheart.mongodb.MongoServiceConfiguration;
 import org.restheart.mongodb.db.Database;
 import org.restheart.mongodb.db.DatabaseImpl;
+import org.restheart.mongodb.metadata.CollectionDescriptorsCacheSingleton;
 
 /**
  *
@@ -176,6 +177,29 @@ public class LocalCachesSingleton {
         }
     }
 
+    /**
+     *
+     * @param dbName
+     * @return true if the properties of the db are cached, i.e.
+     * getDBProperties() does not query the db
+     */
+    public boolean isDBPropertiesCached(String dbName) {
+        return enabled && dbPropsCache.get(dbName) != null;
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @return true if the properties of the collection are cached, i.e.
+     * getCollectionProperties() does not query the db
+     */
+    public boolean isCollectionPropertiesCached(String dbName,
+            String collName) {
+        return enabled && collectionPropsCache
+                .get(dbName + SEPARATOR + collName) != null;
+    }
+
     /**
      *
      * @param dbName
@@ -185,6 +209,8 @@ public class LocalCachesSingleton {
             dbPropsCache.invalidate(dbName);
             collectionPropsCache.asMap().keySet().stream().filter(k -> k.startsWith(dbName + SEPARATOR)).forEach(k -> collectionPropsCache.invalidate(k));
         }
+
+        CollectionDescriptorsCacheSingleton.getInstance().invalidateDb(dbName);
     }
 
     /**
@@ -196,6 +222,21 @@ public class LocalCachesSingleton {
         if (enabled && collectionPropsCache != null) {
             collectionPropsCache.invalidate(dbName + SEPARATOR + collName);
         }
+
+        CollectionDescriptorsCacheSingleton.getInstance()
+                .invalidateCollection(dbName, collName);
+    }
+
+    /**
+     * invalidates all the cached entries
+     */
+    public void invalidateAll() {
+        if (enabled && dbPropsCache != null) {
+            dbPropsCache.invalidateAll();
+            collectionPropsCache.invalidateAll();
+        }
+
+        CollectionDescriptorsCacheSingleton.getInstance().invalidateAll();
     }
 
     private static class LocalCachesSingletonHolder {
@@ -0,0 +1,213 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.injectors;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.or;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import java.util.List;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import static org.restheart.handlers.exchange.ExchangeKeys.COLL_META_DOCID_PREFIX;
+import static org.restheart.handlers.exchange.ExchangeKeys.DB_META_DOCID;
+import static org.restheart.handlers.exchange.ExchangeKeys.META_COLLNAME;
+import org.restheart.mongodb.db.NamespaceCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the changes of the db and collection properties with a cluster
+ * wide change stream and invalidates the entries of LocalCachesSingleton,
+ * so that a change made via any node is reflected by all of them. Dropped
+ * collections are also removed from the NamespaceCatalog.
+ *
+ * Whenever the change stream is opened without a resume token, changes
+ * might have been missed and all the cached entries are invalidated. Errors
+ * are retried with an increasing delay.
+ *
+ * Requires MongoDB 4.0 or later running as a replica set; otherwise, or if
+ * the user cannot watch the changes, watching stops and the cached entries
+ * are only updated when they expire.
+ */
+public class LocalCachesWatcher implements Runnable {
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(LocalCachesWatcher.class);
+
+    private static final long RETRY_DELAY = 5_000;
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1_000;
+
+    /**
+     * error codes meaning that the server does not support change streams,
+     * e.g. a standalone server, or that the user cannot open them
+     */
+    private static final Set<Integer> UNSUPPORTED_ERROR_CODES = Set.of(
+            13, // Unauthorized
+            115, // CommandNotSupported
+            40324, // Unrecognized pipeline stage name
+            40573); // $changeStream is only supported on replica sets
+
+    private static final List<Bson> PIPELINE = List.of(match(or(
+            eq("ns.coll", META_COLLNAME),
+            eq("operationType", OperationType.DROP.getValue()),
+            eq("operationType", OperationType.DROP_DATABASE.getValue()))));
+
+    /**
+     * starts watching the changes in a daemon thread
+     *
+     * @param client
+     */
+    public static void start(MongoClient client) {
+        var thread = new Thread(new LocalCachesWatcher(client),
+                "local-caches-watcher");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private final MongoClient client;
+    private BsonDocument resumeToken = null;
+    private long retryDelay = RETRY_DELAY;
+
+    private LocalCachesWatcher(MongoClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("Watching the changes of the db and collection properties");
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                watch();
+            } catch (MongoCommandException mce) {
+                if (UNSUPPORTED_ERROR_CODES.contains(mce.getErrorCode())) {
+                    LOGGER.warn("Cannot watch the changes of the db "
+                            + "and collection properties: {}. "
+                            + "The local caches are updated only when "
+                            + "their entries expire", mce.getErrorMessage());
+                    return;
+                }
+
+                // the change stream cannot be resumed, the caches are
+                // invalidated when it is opened again
+                LOGGER.warn("Error watching the changes of the db "
+                        + "and collection properties, "
+                        + "retrying in {} msecs", retryDelay, mce);
+
+                resumeToken = null;
+            } catch (MongoException me) {
+                LOGGER.warn("Error watching the changes of the db "
+                        + "and collection properties, "
+                        + "retrying in {} msecs", retryDelay, me);
+            }
+
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        }
+    }
+
+    private void watch() {
+        var changes = client.watch(PIPELINE, BsonDocument.class);
+
+        if (resumeToken != null) {
+            changes = changes.resumeAfter(resumeToken);
+        }
+
+        try (var cursor = changes.cursor()) {
+            // the change stream is open, errors are retried from scratch
+            retryDelay = RETRY_DELAY;
+
+            if (resumeToken == null) {
+                // the changes occurred before the change stream was opened
+                // are unknown
+                invalidateAll();
+            }
+
+            while (cursor.hasNext()) {
+                var change = cursor.next();
+
+                invalidate(change);
+
+                resumeToken = change.getResumeToken();
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        LOGGER.debug("Invalidating the local caches");
+
+        LocalCachesSingleton.getInstance().invalidateAll();
+        NamespaceCatalog.getInstance().invalidateAll();
+    }
+
+    private void invalidate(ChangeStreamDocument<BsonDocument> change) {
+        var caches = LocalCachesSingleton.getInstance();
+        var dbName = change.getDatabaseName();
+
+        if (dbName == null) {
+            return;
+        }
+
+        if (change.getOperationType() == OperationType.DROP_DATABASE) {
+            NamespaceCatalog.getInstance().invalidate(dbName);
+        } else if (change.getOperationType() == OperationType.DROP
+                && change.getNamespace() != null) {
+            NamespaceCatalog.getInstance().collectionDropped(dbName,
+                    change.getNamespace().getCollectionName());
+
+            if (!META_COLLNAME.equals(change.getNamespace().getCollectionName())) {
+                return;
+            }
+        }
+
+        BsonValue _id = change.getDocumentKey() == null
+                ? null
+                : change.getDocumentKey().get("_id");
+
+        if (_id != null
+                && _id.isString()
+                && _id.asString().getValue().startsWith(COLL_META_DOCID_PREFIX)) {
+            var collName = _id.asString().getValue()
+                    .substring(COLL_META_DOCID_PREFIX.length());
+
+            LOGGER.debug("Properties of collection {}/{} changed",
+                    dbName, collName);
+
+            caches.invalidateCollection(dbName, collName);
+        } else if (_id == null
+                || (_id.isString()
+                && DB_META_DOCID.equals(_id.asString().getValue()))) {
+            // db properties changed, _properties collection or db dropped
+            LOGGER.debug("Properties of db {} changed", dbName);
+
+            caches.invalidateDb(dbName);
+        }
+    }
+}
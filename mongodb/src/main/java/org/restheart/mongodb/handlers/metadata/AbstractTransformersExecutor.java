@@ -25,6 +25,7 @@ import org.bson.BsonValue;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.RequestContext;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.metadata.TransformerMetadata;
 import org.restheart.plugins.PluginsRegistry;
 import org.restheart.plugins.mongodb.GlobalTransformer;
@@ -99,8 +100,7 @@ public abstract class AbstractTransformersExecutor extends PipelinedHandler {
         var request = BsonRequest.wrap(exchange);
 
         List<TransformerMetadata> collRts
-                = TransformerMetadata
-                        .getFromJson(request.getCollectionProps());
+                = CollectionDescriptor.of(request).getTransformers();
 
         applyTransformLogic(exchange, collRts);
     }
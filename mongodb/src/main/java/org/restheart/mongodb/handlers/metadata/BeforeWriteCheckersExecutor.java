@@ -18,6 +18,7 @@
 package org.restheart.mongodb.handlers.metadata;
 
 import io.undertow.server.HttpServerExchange;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
@@ -29,6 +30,7 @@ import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
 import org.restheart.handlers.exchange.RequestContext;
 import org.restheart.mongodb.metadata.CheckerMetadata;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.plugins.checkers.CheckersUtils;
 import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.mongodb.utils.ResponseHelper;
@@ -98,10 +100,7 @@ public class BeforeWriteCheckersExecutor extends PipelinedHandler
     @Override
     public void handleRequest(HttpServerExchange exchange)
             throws Exception {
-        if ((doesCheckersApply(exchange)
-                && !applyCheckers(exchange))
-                || (doesGlobalCheckersApply()
-                && !applyGlobalCheckers(exchange))) {
+        if (!check(exchange)) {
             ResponseHelper.endExchangeWithMessage(
                     exchange,
                     HttpStatus.SC_BAD_REQUEST,
@@ -111,6 +110,21 @@ public class BeforeWriteCheckersExecutor extends PipelinedHandler
         next(exchange);
     }
 
+    /**
+     * applies the checkers and the global checkers to the request
+     *
+     * @param exchange
+     * @return true if the request content passes the checks
+     * @throws InvalidMetadataException
+     */
+    public boolean check(HttpServerExchange exchange)
+            throws InvalidMetadataException {
+        return !((doesCheckersApply(exchange)
+                && !applyCheckers(exchange))
+                || (doesGlobalCheckersApply()
+                && !applyGlobalCheckers(exchange)));
+    }
+
     /**
      *
      * @param exchange
@@ -122,8 +136,9 @@ public class BeforeWriteCheckersExecutor extends PipelinedHandler
         var request = BsonRequest.wrap(exchange);
         var response = BsonResponse.wrap(exchange);
 
-        List<CheckerMetadata> requestCheckers = CheckerMetadata.getFromJson(
-                request.getCollectionProps());
+        List<CheckerMetadata> requestCheckers = CollectionDescriptor
+                .of(request)
+                .getCheckers();
 
         return requestCheckers != null
                 && requestCheckers.stream().allMatch(checkerMetadata -> {
@@ -252,22 +267,26 @@ public class BeforeWriteCheckersExecutor extends PipelinedHandler
 
                 BsonArray arrayContent = _data.asArray();
 
-                return arrayContent.stream().allMatch(obj -> {
+                var documents = new ArrayList<BsonDocument>(
+                        arrayContent.size());
+
+                arrayContent.forEach(obj -> {
                     if (obj.isDocument()) {
-                        return checker.check(
-                                exchange,
-                                context,
-                                obj.asDocument(),
-                                args,
-                                confArgs);
+                        documents.add(obj.asDocument());
                     } else {
                         LOGGER.warn(
                                 "element of content array "
                                 + "is not an object");
-                        return true;
                     }
                 });
 
+                return checker.checkAll(
+                        exchange,
+                        context,
+                        documents,
+                        args,
+                        confArgs);
+
             } else {
                 LOGGER.warn(
                         "content is not an object or an array");
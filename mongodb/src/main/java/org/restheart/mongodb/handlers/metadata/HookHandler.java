@@ -23,6 +23,7 @@ import java.util.NoSuchElementException;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
 import org.restheart.handlers.exchange.RequestContext;
+import org.restheart.mongodb.metadata.CollectionDescriptor;
 import org.restheart.mongodb.metadata.HookMetadata;
 import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.plugins.InjectPluginsRegistry;
@@ -80,8 +81,7 @@ public class HookHandler implements Interceptor {
             List<HookMetadata> mdHooks = null;
 
             try {
-                mdHooks = HookMetadata.getFromJson(
-                        request.getCollectionProps());
+                mdHooks = CollectionDescriptor.of(request).getHooks();
             } catch (InvalidMetadataException ime) {
                 response.addWarning(ime.getMessage());
             }
@@ -23,10 +23,13 @@ import java.util.NoSuchElementException;
 import org.restheart.handlers.exchange.RequestContext;
 import org.restheart.mongodb.metadata.TransformerMetadata;
 import org.restheart.mongodb.utils.JsonUtils;
+import org.restheart.plugins.InterceptPoint;
+import org.restheart.plugins.PluginRecord;
 import org.restheart.plugins.RegisterPlugin;
 import org.restheart.plugins.mongodb.GlobalTransformer;
 import org.restheart.plugins.mongodb.Transformer.PHASE;
 import org.restheart.plugins.mongodb.Transformer.SCOPE;
+import org.restheart.utils.PluginUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +49,48 @@ public class ResponseTransformersExecutor
     static final Logger LOGGER
             = LoggerFactory.getLogger(ResponseTransformersExecutor.class);
 
+    private static final ResponseTransformersExecutor CHECKER
+            = new ResponseTransformersExecutor();
+
+    /**
+     * the response content can be written directly to the response, bypassing
+     * BsonResponse.setContent(), only if nothing modifies it afterwards: i.e.
+     * no global or collection/db response transformer applies and no response
+     * interceptor requires the content
+     *
+     * interceptors that don't require the content are executed anyway by
+     * the response conduit and don't prevent streaming
+     *
+     * @param exchange
+     * @return true if the response content of the exchange is going to be
+     * transformed
+     */
+    public static boolean isResponseTransformed(HttpServerExchange exchange) {
+        var context = RequestContext.wrap(exchange);
+
+        if (CHECKER.doesCollTransformerAppy(context)
+                || CHECKER.doesDBTransformerAppy(context)) {
+            return true;
+        }
+
+        if (pluginsRegistry == null) {
+            return false;
+        }
+
+        return pluginsRegistry.getGlobalTransformers().stream()
+                .anyMatch(gt -> CHECKER
+                .doesGlobalTransformerAppy(gt, exchange, context))
+                || pluginsRegistry.getInterceptors().stream()
+                        .filter(PluginRecord::isEnabled)
+                        .map(PluginRecord::getInstance)
+                        .filter(i -> PluginUtils.interceptPoint(i)
+                        == InterceptPoint.RESPONSE
+                        || PluginUtils.interceptPoint(i)
+                        == InterceptPoint.RESPONSE_ASYNC)
+                        .filter(PluginUtils::requiresContent)
+                        .anyMatch(i -> i.resolve(exchange));
+    }
+
     @Override
     boolean doesGlobalTransformerAppy(GlobalTransformer gt,
             HttpServerExchange exchange,
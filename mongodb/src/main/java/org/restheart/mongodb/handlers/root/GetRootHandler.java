@@ -22,12 +22,14 @@ import io.undertow.server.HttpServerExchange;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.bson.BsonDocument;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
 import org.restheart.handlers.exchange.RequestContext;
+import org.restheart.mongodb.db.AsyncQueries;
 import org.restheart.mongodb.db.Database;
 import org.restheart.mongodb.db.DatabaseImpl;
 import org.restheart.mongodb.handlers.injectors.LocalCachesSingleton;
@@ -112,19 +114,30 @@ public class GetRootHandler extends PipelinedHandler {
                         : (request.getPage() - 1) * request.getPagesize()
                         + request.getPagesize());
 
-                dbs.stream().map((db) -> {
+                var cs = request.getClientSession();
+
+                Function<String, BsonDocument> dbProps = db -> {
                     if (LocalCachesSingleton.isEnabled()) {
                         return LocalCachesSingleton.getInstance()
                                 .getDBProperties(db);
                     } else {
-                        return dbsDAO.getDatabaseProperties(
-                                request.getClientSession(),
-                                db);
+                        return dbsDAO.getDatabaseProperties(cs, db);
                     }
+                };
+
+                // the properties of the dbs are read concurrently, unless
+                // in a client session, that cannot be used by concurrent
+                // threads, or cached
+                if (cs == null) {
+                    data.addAll(AsyncQueries.map(dbs, dbProps, db
+                            -> LocalCachesSingleton.isEnabled()
+                            && LocalCachesSingleton.getInstance()
+                                    .isDBPropertiesCached(db)));
+                } else {
+                    dbs.stream().map(dbProps).forEach((item) -> {
+                        data.add(item);
+                    });
                 }
-                ).forEach((item) -> {
-                    data.add(item);
-                });
             }
         }
 
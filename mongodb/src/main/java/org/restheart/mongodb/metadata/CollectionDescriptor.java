@@ -0,0 +1,180 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.metadata;
+
+import java.util.List;
+import java.util.Objects;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.mongodb.handlers.aggregation.AbstractAggregationOperation;
+import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+
+/**
+ * The metadata of a collection (hooks, checkers, transformers, aggregations
+ * and relationships) parsed once from its properties.
+ *
+ * The descriptors are cached by CollectionDescriptorsCacheSingleton and
+ * reused as long as the collection properties don't change, i.e. they are
+ * the same object, have the same _etag or, lacking it, are equal.
+ *
+ * Invalid metadata is reported by the getters throwing the
+ * InvalidMetadataException raised parsing it; if the collection has no
+ * properties, the getters return null.
+ */
+public class CollectionDescriptor {
+    private static final String _ETAG = "_etag";
+
+    /**
+     *
+     * @param request
+     * @return the descriptor of the collection of the request
+     */
+    public static CollectionDescriptor of(BsonRequest request) {
+        return CollectionDescriptorsCacheSingleton.getInstance()
+                .get(
+                        request.getDBName(),
+                        request.getCollectionName(),
+                        request.getCollectionProps());
+    }
+
+    private final BsonDocument props;
+    private final BsonValue etag;
+
+    private final Parsed<List<HookMetadata>> hooks;
+    private final Parsed<List<CheckerMetadata>> checkers;
+    private final Parsed<List<TransformerMetadata>> transformers;
+    private final Parsed<List<AbstractAggregationOperation>> aggregations;
+    private final Parsed<List<Relationship>> relationships;
+
+    /**
+     *
+     * @param props the collection properties
+     */
+    public CollectionDescriptor(BsonDocument props) {
+        this.props = props;
+        this.etag = props == null ? null : props.get(_ETAG);
+
+        this.hooks = parse(HookMetadata::getFromJson);
+        this.checkers = parse(CheckerMetadata::getFromJson);
+        this.transformers = parse(TransformerMetadata::getFromJson);
+        this.aggregations = parse(AbstractAggregationOperation::getFromJson);
+        this.relationships = parse(Relationship::getFromJson);
+    }
+
+    /**
+     *
+     * @param collProps
+     * @return true if this descriptor has been built from collProps
+     */
+    public boolean isFor(BsonDocument collProps) {
+        if (props == collProps) {
+            return true;
+        }
+
+        if (props == null || collProps == null) {
+            return false;
+        }
+
+        return etag != null
+                ? Objects.equals(etag, collProps.get(_ETAG))
+                : props.equals(collProps);
+    }
+
+    /**
+     * @return the hooks
+     * @throws InvalidMetadataException
+     */
+    public List<HookMetadata> getHooks() throws InvalidMetadataException {
+        return hooks.get();
+    }
+
+    /**
+     * @return the checkers
+     * @throws InvalidMetadataException
+     */
+    public List<CheckerMetadata> getCheckers() throws InvalidMetadataException {
+        return checkers.get();
+    }
+
+    /**
+     * @return the transformers
+     * @throws InvalidMetadataException
+     */
+    public List<TransformerMetadata> getTransformers()
+            throws InvalidMetadataException {
+        return transformers.get();
+    }
+
+    /**
+     * @return the aggregations
+     * @throws InvalidMetadataException
+     */
+    public List<AbstractAggregationOperation> getAggregations()
+            throws InvalidMetadataException {
+        return aggregations.get();
+    }
+
+    /**
+     * @return the relationships
+     * @throws InvalidMetadataException
+     */
+    public List<Relationship> getRelationships()
+            throws InvalidMetadataException {
+        return relationships.get();
+    }
+
+    private <T> Parsed<List<T>> parse(Parser<T> parser) {
+        if (props == null) {
+            return new Parsed<>(null, null);
+        }
+
+        try {
+            var parsed = parser.parse(props);
+
+            return new Parsed<>(parsed == null
+                    ? null
+                    : List.copyOf(parsed), null);
+        } catch (InvalidMetadataException ime) {
+            return new Parsed<>(null, ime);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Parser<T> {
+        List<T> parse(BsonDocument props) throws InvalidMetadataException;
+    }
+
+    private static class Parsed<T> {
+        private final T value;
+        private final InvalidMetadataException error;
+
+        Parsed(T value, InvalidMetadataException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        T get() throws InvalidMetadataException {
+            if (error != null) {
+                throw error;
+            }
+
+            return value;
+        }
+    }
+}
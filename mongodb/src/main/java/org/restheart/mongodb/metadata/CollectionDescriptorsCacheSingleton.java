@@ -0,0 +1,119 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.metadata;
+
+import java.util.Optional;
+import org.bson.BsonDocument;
+import org.restheart.cache.Cache;
+import org.restheart.cache.CacheFactory;
+
+/**
+ * Caches the CollectionDescriptors by collection.
+ *
+ * A cached descriptor is used only if it has been built from the current
+ * collection properties, so the cache does not need to be invalidated when
+ * they change; invalidating it just frees the memory.
+ */
+public class CollectionDescriptorsCacheSingleton {
+
+    private static final String SEPARATOR = "_@_@_";
+    private static final long MAX_CACHE_SIZE = 1_000;
+    private static final long TTL = 10 * 60 * 1_000;
+
+    /**
+     *
+     * @return
+     */
+    public static CollectionDescriptorsCacheSingleton getInstance() {
+        return CollectionDescriptorsCacheSingletonHolder.INSTANCE;
+    }
+
+    private final Cache<String, CollectionDescriptor> cache;
+
+    private CollectionDescriptorsCacheSingleton() {
+        this.cache = CacheFactory.createLocalCache(MAX_CACHE_SIZE,
+                Cache.EXPIRE_POLICY.AFTER_READ,
+                TTL);
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     * @param collProps the current collection properties
+     * @return the descriptor of the collection metadata
+     */
+    public CollectionDescriptor get(String dbName,
+            String collName,
+            BsonDocument collProps) {
+        if (collProps == null) {
+            return new CollectionDescriptor(null);
+        }
+
+        String key = dbName + SEPARATOR + collName;
+
+        Optional<CollectionDescriptor> _descriptor = cache.get(key);
+
+        if (_descriptor != null
+                && _descriptor.isPresent()
+                && _descriptor.get().isFor(collProps)) {
+            return _descriptor.get();
+        }
+
+        var descriptor = new CollectionDescriptor(collProps);
+
+        cache.put(key, descriptor);
+
+        return descriptor;
+    }
+
+    /**
+     *
+     * @param dbName
+     */
+    public void invalidateDb(String dbName) {
+        cache.asMap().keySet().stream()
+                .filter(k -> k.startsWith(dbName + SEPARATOR))
+                .forEach(k -> cache.invalidate(k));
+    }
+
+    /**
+     *
+     * @param dbName
+     * @param collName
+     */
+    public void invalidateCollection(String dbName, String collName) {
+        cache.invalidate(dbName + SEPARATOR + collName);
+    }
+
+    /**
+     * invalidates all the cached descriptors
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static class CollectionDescriptorsCacheSingletonHolder {
+
+        private static final CollectionDescriptorsCacheSingleton INSTANCE
+                = new CollectionDescriptorsCacheSingleton();
+
+        private CollectionDescriptorsCacheSingletonHolder() {
+        }
+    }
+}
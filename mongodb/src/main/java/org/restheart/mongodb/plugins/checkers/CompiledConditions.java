@@ -0,0 +1,743 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.checkers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonJavaScript;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonValue;
+import org.bson.types.ObjectId;
+import org.restheart.mongodb.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The conditions of a JsonPathConditionsChecker compiled once into an
+ * executable rule set: the regexes are precompiled, the paths are tokenized,
+ * the types are resolved to an enum and the ancestors of each path are known
+ * in advance, so that checking a document does not parse the conditions again.
+ *
+ * The outcome and the warnings are the same of the conditions interpreted
+ * at every check, as JsonPathConditionsChecker did before; the interpreter
+ * is kept in the test sources to verify it.
+ */
+class CompiledConditions {
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(CompiledConditions.class);
+
+    private final Rule[] rules;
+
+    /**
+     *
+     * @param conditions the args of the checker
+     */
+    CompiledConditions(BsonArray conditions) {
+        var _rules = new ArrayList<Rule>();
+
+        // conditions that are not objects or without the path are ignored
+        for (BsonValue condition : conditions) {
+            if (condition.isDocument()) {
+                BsonValue path = condition.asDocument().get("path");
+
+                if (path != null && path.isString()) {
+                    _rules.add(new Rule(condition.asDocument(),
+                            path.asString().getValue()));
+                }
+            }
+        }
+
+        this.rules = _rules.toArray(new Rule[_rules.size()]);
+
+        for (Rule rule : rules) {
+            var ancestors = new ArrayList<Integer>();
+
+            for (int idx = 0; idx < rules.length; idx++) {
+                if ((rules[idx].nullable || rules[idx].optional)
+                        && isAncestorPath(rules[idx].path, rule.path)) {
+                    ancestors.add(idx);
+                }
+            }
+
+            rule.ancestors = ancestors.stream()
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+
+    /**
+     *
+     * @param json
+     * @param warnings receives the warnings for the failed conditions
+     * @return true if json satisfies all the conditions
+     */
+    boolean check(BsonDocument json, Consumer<String> warnings) {
+        var props = new Props[rules.length];
+        var nullPaths = new boolean[rules.length];
+
+        // first find the nullable and optional paths that resolve to null
+        for (int idx = 0; idx < rules.length; idx++) {
+            var rule = rules[idx];
+
+            if (rule.nullable || rule.optional) {
+                props[idx] = Props.resolve(json, rule.tokens);
+                nullPaths[idx] = rule.isNullPath(props[idx]);
+            }
+        }
+
+        // then check the conditions not having a null ancestor path
+        for (int idx = 0; idx < rules.length; idx++) {
+            var rule = rules[idx];
+
+            if (hasNullAncestor(rule, nullPaths)) {
+                continue;
+            }
+
+            if (props[idx] == null) {
+                props[idx] = Props.resolve(json, rule.tokens);
+            }
+
+            if (!rule.check(props[idx], warnings)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of rules
+     */
+    int size() {
+        return rules.length;
+    }
+
+    private static boolean hasNullAncestor(Rule rule, boolean[] nullPaths) {
+        for (int ancestor : rule.ancestors) {
+            if (nullPaths[ancestor]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isAncestorPath(String left, String right) {
+        try {
+            return JsonUtils.isAncestorPath(left, right);
+        } catch (IllegalArgumentException iae) {
+            // a wrong path fails the conditions that use it
+            return false;
+        }
+    }
+
+    static String getRootPropsString(List<Optional<BsonValue>> props) {
+        if (props == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        props.stream().forEach((_prop) -> {
+            if (_prop == null) {
+                sb.append("<property not existing>");
+            } else if (_prop.isPresent()) {
+                BsonValue prop = _prop.get();
+
+                if (prop.isArray()) {
+                    BsonArray array = prop.asArray();
+
+                    sb.append("[");
+
+                    array.stream().forEach((item) -> {
+                        if (item.isDocument()) {
+                            sb.append("{obj}");
+                        } else if (item.isArray()) {
+                            sb.append("[array]");
+                        } else if (item.isString()) {
+                            sb.append("'");
+                            sb.append(item.asString().getValue());
+                            sb.append("'");
+                        } else {
+                            sb.append(JsonUtils.toJson(prop));
+                        }
+
+                        sb.append(", ");
+                    });
+
+                    // remove last comma
+                    if (sb.length() > 1) {
+                        sb.deleteCharAt(sb.length() - 1);
+                        sb.deleteCharAt(sb.length() - 1);
+                    }
+
+                    sb.append("]");
+                } else if (prop.isDocument()) {
+                    BsonDocument obj = prop.asDocument();
+
+                    sb.append(obj.keySet().toString());
+                } else if (prop.isString()) {
+                    sb.append("'");
+                    sb.append(prop.asString().getValue());
+                    sb.append("'");
+                } else {
+                    sb.append(prop.toString());
+                }
+            } else {
+                sb.append("null");
+            }
+
+            sb.append(", ");
+        });
+
+        // remove last comma
+        if (sb.length() > 1) {
+            sb.deleteCharAt(sb.length() - 1);
+            sb.deleteCharAt(sb.length() - 1);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * the values selected by the path of a rule in a document, or the error
+     * resolving it
+     */
+    private static class Props {
+        private final List<Optional<BsonValue>> values;
+        private final IllegalArgumentException error;
+
+        private Props(List<Optional<BsonValue>> values,
+                IllegalArgumentException error) {
+            this.values = values;
+            this.error = error;
+        }
+
+        static Props resolve(BsonDocument json, String[] tokens) {
+            try {
+                return new Props(JsonUtils.getPropsFromPath(json, tokens),
+                        null);
+            } catch (IllegalArgumentException ex) {
+                return new Props(null, ex);
+            }
+        }
+    }
+
+    /**
+     * the BSON types of the type condition, see JsonUtils.checkType()
+     */
+    enum Type {
+        NULL, NOTNULL, OBJECT, ARRAY, STRING, NUMBER, BOOLEAN, OBJECTID,
+        OBJECTIDSTRING, DATE, TIMESTAMP, MAXKEY, MINKEY, SYMBOL, CODE, UNKNOWN;
+
+        static Type of(String type) {
+            switch (type.toLowerCase().trim()) {
+                case "null":
+                    return NULL;
+                case "notnull":
+                    return NOTNULL;
+                case "object":
+                    return OBJECT;
+                case "array":
+                    return ARRAY;
+                case "string":
+                    return STRING;
+                case "number":
+                    return NUMBER;
+                case "boolean":
+                    return BOOLEAN;
+                case "objectid":
+                    return OBJECTID;
+                case "objectidstring":
+                    return OBJECTIDSTRING;
+                case "date":
+                    return DATE;
+                case "timestamp":
+                    return TIMESTAMP;
+                case "maxkey":
+                    return MAXKEY;
+                case "minkey":
+                    return MINKEY;
+                case "symbol":
+                    return SYMBOL;
+                case "code":
+                    return CODE;
+                default:
+                    return UNKNOWN;
+            }
+        }
+
+        boolean matches(Optional<BsonValue> o) {
+            if (!o.isPresent()) {
+                return this == NULL;
+            }
+
+            var value = o.get();
+
+            switch (this) {
+                case NULL:
+                    return false;
+                case NOTNULL:
+                    return true;
+                case OBJECT:
+                    return value.isDocument();
+                case ARRAY:
+                    return value.isArray();
+                case STRING:
+                    return value.isString();
+                case NUMBER:
+                    return value.isNumber();
+                case BOOLEAN:
+                    return value.isBoolean();
+                case OBJECTID:
+                    return value.isObjectId();
+                case OBJECTIDSTRING:
+                    return value.isString()
+                            && ObjectId.isValid(value.asString().getValue());
+                case DATE:
+                    return value.isDateTime();
+                case TIMESTAMP:
+                    return value.isTimestamp();
+                case MAXKEY:
+                    return value instanceof BsonMaxKey;
+                case MINKEY:
+                    return value instanceof BsonMinKey;
+                case SYMBOL:
+                    return value.isSymbol();
+                case CODE:
+                    return value instanceof BsonJavaScript;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class Rule {
+        private final BsonDocument condition;
+        private final String path;
+        private final String[] tokens;
+        private final String typeName;
+        private final Type type;
+        private final Set<Integer> counts;
+        private final Set<String> mandatoryFields;
+        private final Set<String> optionalFields;
+        private final Set<String> allFields;
+        private final String regex;
+        private final Pattern pattern;
+        private final PatternSyntaxException patternError;
+        private final boolean optional;
+        private final boolean nullable;
+
+        /**
+         * the indexes of the nullable and optional rules whose path is an
+         * ancestor of (or equal to) the path of this rule
+         */
+        private int[] ancestors;
+
+        Rule(BsonDocument condition, String path) {
+            this.condition = condition;
+            this.path = path;
+            this.tokens = JsonUtils.tokenizePath(path);
+
+            BsonValue _type = condition.get("type");
+            this.typeName = _type != null && _type.isString()
+                    ? _type.asString().getValue()
+                    : null;
+            this.type = typeName == null ? null : Type.of(typeName);
+
+            var _counts = new HashSet<Integer>();
+            BsonValue _count = condition.get("count");
+            if (_count != null) {
+                if (_count.isInt32()) {
+                    _counts.add(_count.asInt32().getValue());
+                } else if (_count.isArray()) {
+                    _count.asArray().forEach(countElement -> {
+                        if (countElement.isInt32()) {
+                            _counts.add(countElement.asInt32().getValue());
+                        }
+                    });
+                }
+            }
+            this.counts = Collections.unmodifiableSet(_counts);
+
+            this.mandatoryFields = stringSet(condition.get("mandatoryFields"));
+            this.optionalFields = stringSet(condition.get("optionalFields"));
+
+            if (mandatoryFields != null || optionalFields != null) {
+                var _allFields = new HashSet<String>();
+                if (mandatoryFields != null) {
+                    _allFields.addAll(mandatoryFields);
+                }
+                if (optionalFields != null) {
+                    _allFields.addAll(optionalFields);
+                }
+                this.allFields = Collections.unmodifiableSet(_allFields);
+            } else {
+                this.allFields = null;
+            }
+
+            BsonValue _regex = condition.get("regex");
+            this.regex = _regex != null && _regex.isString()
+                    ? _regex.asString().getValue()
+                    : null;
+
+            Pattern _pattern = null;
+            PatternSyntaxException _patternError = null;
+
+            if (regex != null) {
+                try {
+                    _pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+                } catch (PatternSyntaxException pse) {
+                    // thrown when checking, as the regex were compiled there
+                    _patternError = pse;
+                }
+            }
+
+            this.pattern = _pattern;
+            this.patternError = _patternError;
+
+            BsonValue _optional = condition.get("optional");
+            this.optional = _optional != null && _optional.isBoolean()
+                    && _optional.asBoolean().getValue();
+
+            BsonValue _nullable = condition.get("nullable");
+            this.nullable = _nullable != null && _nullable.isBoolean()
+                    && _nullable.asBoolean().getValue();
+        }
+
+        private static Set<String> stringSet(BsonValue value) {
+            if (value == null) {
+                return null;
+            }
+
+            var ret = new HashSet<String>();
+
+            if (value.isArray()) {
+                value.asArray().forEach(element -> {
+                    if (element.isString()) {
+                        ret.add(element.asString().getValue());
+                    }
+                });
+            }
+
+            return Collections.unmodifiableSet(ret);
+        }
+
+        /**
+         *
+         * @param props
+         * @return true if the path of this nullable or optional rule resolves
+         * to null, so that the rules on its descendant paths are skipped
+         */
+        boolean isNullPath(Props props) {
+            if (props.error != null) {
+                return true;
+            }
+
+            var values = props.values;
+
+            if (nullable && values != null && values.stream()
+                    .allMatch(prop -> prop != null && !prop.isPresent())) {
+                LOGGER.debug("ignoring null path {}", path);
+                return true;
+            }
+
+            return optional && (values == null || values.stream()
+                    .allMatch(prop -> prop == null));
+        }
+
+        boolean check(Props props, Consumer<String> warnings) {
+            if (counts.isEmpty() && type == null && regex == null) {
+                warnings.accept("condition does not have any of "
+                        + "'count', 'type' and 'regex' properties, "
+                        + "specify at least one: " + condition);
+                return true;
+            }
+
+            return (counts.isEmpty() || checkCount(props, warnings))
+                    && (type == null || checkType(props, warnings))
+                    && (regex == null || checkRegex(props, warnings));
+        }
+
+        private boolean checkCount(Props props, Consumer<String> warnings) {
+            // props is null when path does not exist. count is false
+            if (props.error != null || props.values == null) {
+                return false;
+            }
+
+            int count = props.values.size();
+
+            boolean ret = counts.contains(count);
+            LOGGER.debug("checkCount({}, {}) -> {}", path, counts, ret);
+            if (ret == false) {
+                warnings.accept("checkCount condition failed: path: "
+                        + path
+                        + ", expected: "
+                        + counts
+                        + ", got: "
+                        + count);
+            }
+            return ret;
+        }
+
+        private boolean checkType(Props props, Consumer<String> warnings) {
+            if (props.error != null) {
+                LOGGER.debug("checkType({}, {}, {}, {}) -> {} -> false",
+                        path,
+                        typeName,
+                        mandatoryFields,
+                        optionalFields,
+                        props.error.getMessage());
+
+                warnings.accept(
+                        "checkType condition failed: path: "
+                        + path
+                        + ", expected type: "
+                        + typeName + ", error: "
+                        + props.error.getMessage());
+                return false;
+            }
+
+            var values = props.values;
+            boolean ret;
+            boolean failedFieldsCheck = false;
+
+            // values is null when path does not exist.
+            if (values == null) {
+                ret = optional;
+            } else {
+                ret = true;
+
+                for (Optional<BsonValue> prop : values) {
+                    if (!matchesType(prop)) {
+                        ret = false;
+                        break;
+                    }
+                }
+
+                // check object fields
+                if (ret && "object".equals(typeName) && allFields != null) {
+                    for (Optional<BsonValue> prop : values) {
+                        if (!matchesFields(prop)) {
+                            ret = false;
+                            failedFieldsCheck = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (ret) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace(
+                            "checkType({}, {}, {}, {}) -> {} -> {}",
+                            path,
+                            typeName,
+                            mandatoryFields,
+                            optionalFields,
+                            getRootPropsString(values),
+                            ret);
+                }
+            } else {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(
+                            "checkType({}, {}, {}, {}) -> {} -> {}",
+                            path,
+                            typeName,
+                            mandatoryFields,
+                            optionalFields,
+                            getRootPropsString(values),
+                            ret);
+                }
+
+                String errorMessage;
+                if (!failedFieldsCheck) {
+                    errorMessage = "checkType condition failed: path: " + path
+                            + ", expected type: " + typeName
+                            + ", got: " + (values == null
+                                    ? "null"
+                                    : JsonPathConditionsChecker
+                                            .avoidEscapedChars(
+                                                    getRootPropsString(values)));
+                } else {
+                    errorMessage = "checkType condition failed: path: " + path
+                            + ", mandatory fields: " + mandatoryFields
+                            + ", optional fields: " + optionalFields
+                            + ", got: " + JsonPathConditionsChecker
+                                    .avoidEscapedChars(
+                                            getRootPropsString(values));
+                }
+
+                warnings.accept(errorMessage);
+            }
+
+            return ret;
+        }
+
+        private boolean matchesType(Optional<BsonValue> prop) {
+            if (prop == null) {
+                return optional;
+            }
+
+            if (prop.isPresent()) {
+                if ("array".equals(typeName) && prop.get().isDocument()) {
+                    // this might be the case of PATCHING an element array using the dot notation
+                    // e.g. object.array.2
+                    // if so, the array comes as an BsonDocument with all numberic keys
+                    // in any case, it might also be the object { "object": { "array": {"2": xxx }}}
+                    return prop.get()
+                            .asDocument()
+                            .keySet()
+                            .stream()
+                            .allMatch((String k) -> {
+                                try {
+                                    Integer.parseInt(k);
+                                    return true;
+                                } catch (NumberFormatException nfe) {
+                                    return false;
+                                }
+                            }) || type.matches(prop);
+                } else {
+                    return type.matches(prop);
+                }
+            } else {
+                return nullable;
+            }
+        }
+
+        private boolean matchesFields(Optional<BsonValue> prop) {
+            if (prop == null) {
+                return optional;
+            }
+
+            if (prop.isPresent()) {
+                var keys = prop.get().asDocument().keySet();
+
+                if (mandatoryFields != null) {
+                    return keys.containsAll(mandatoryFields)
+                            && allFields.containsAll(keys);
+                } else {
+                    return allFields.containsAll(keys);
+                }
+            } else {
+                return nullable;
+            }
+        }
+
+        private boolean checkRegex(Props props, Consumer<String> warnings) {
+            if (props.error != null) {
+                LOGGER.debug(
+                        "checkRegex({}, {}) -> {}",
+                        path,
+                        regex,
+                        props.error.getMessage());
+
+                warnings.accept(
+                        "checkRegex condition failed: path: "
+                        + path
+                        + ", regex: "
+                        + regex
+                        + ", got: "
+                        + props.error.getMessage());
+
+                return false;
+            }
+
+            var values = props.values;
+            boolean ret;
+
+            // values is null when path does not exist.
+            if (values == null) {
+                ret = optional;
+            } else {
+                if (patternError != null) {
+                    throw patternError;
+                }
+
+                ret = true;
+
+                for (Optional<BsonValue> prop : values) {
+                    if (!matchesRegex(prop)) {
+                        ret = false;
+                        break;
+                    }
+                }
+            }
+
+            if (ret) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace(
+                            "checkRegex({}, {}) -> {} -> {}",
+                            path,
+                            regex,
+                            getRootPropsString(values),
+                            ret);
+                }
+            } else {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(
+                            "checkRegex({}, {}) -> {} -> {}",
+                            path,
+                            regex,
+                            getRootPropsString(values),
+                            ret);
+                }
+
+                String errorMessage = "checkRegex condition failed: path: "
+                        + path
+                        + ", regex: " + regex
+                        + ", got: " + (values == null
+                                ? "null"
+                                : JsonPathConditionsChecker.avoidEscapedChars(
+                                        getRootPropsString(values)));
+
+                warnings.accept(errorMessage);
+            }
+
+            return ret;
+        }
+
+        private boolean matchesRegex(Optional<BsonValue> prop) {
+            if (prop == null) {
+                return optional;
+            }
+
+            if (prop.isPresent()) {
+                if (prop.get().isString()) {
+                    return pattern.matcher(prop.get().asString().getValue())
+                            .find();
+                } else {
+                    return pattern.matcher(JsonUtils.toJson(prop.get()))
+                            .find();
+                }
+            } else {
+                return nullable;
+            }
+        }
+    }
+}
@@ -18,11 +18,19 @@
 package org.restheart.mongodb.plugins.checkers;
 
 import io.undertow.server.HttpServerExchange;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.everit.json.schema.Schema;
 import org.everit.json.schema.ValidationException;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import static org.restheart.handlers.exchange.ExchangeKeys._SCHEMAS;
@@ -63,6 +71,31 @@ public class JsonSchemaChecker implements Checker {
     static final Logger LOGGER
             = LoggerFactory.getLogger(JsonSchemaChecker.class);
 
+    /**
+     * bulk requests with at least this number of documents are validated in
+     * parallel
+     */
+    static final int PARALLEL_THRESHOLD = 64;
+
+    /**
+     * the maximum number of failing documents of a bulk request reported in
+     * the response warnings
+     */
+    static final int MAX_REPORTED_FAILURES = 100;
+
+    private static final int PARALLELISM = Runtime.getRuntime()
+            .availableProcessors();
+
+    private static final AtomicInteger THREADS_COUNT = new AtomicInteger();
+
+    private static final ExecutorService VALIDATORS = Executors
+            .newFixedThreadPool(PARALLELISM, r -> {
+                var t = new Thread(r, "json-schema-validator-"
+                        + THREADS_COUNT.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
     /**
      *
      * @param exchange
@@ -77,6 +110,78 @@ public class JsonSchemaChecker implements Checker {
             RequestContext context,
             BsonDocument contentToCheck,
             BsonValue args) {
+        var schema = getSchema(exchange, context, args);
+
+        if (schema == null) {
+            return false;
+        }
+
+        var warnings = new ArrayList<String>();
+
+        var valid = validate(schema, contentToCheck, warnings);
+
+        warnings.forEach(context::addWarning);
+
+        return valid;
+    }
+
+    /**
+     * Validates the documents of bulk requests, in parallel if they are at
+     * least PARALLEL_THRESHOLD; all the failing documents are reported, up to
+     * MAX_REPORTED_FAILURES.
+     *
+     * @param exchange
+     * @param context
+     * @param contentsToCheck
+     * @param args
+     * @param confArgs
+     * @return
+     */
+    @Override
+    public boolean checkAll(
+            HttpServerExchange exchange,
+            RequestContext context,
+            List<BsonDocument> contentsToCheck,
+            BsonValue args,
+            BsonValue confArgs) {
+        var schema = getSchema(exchange, context, args);
+
+        if (schema == null) {
+            return false;
+        }
+
+        List<Failure> failures;
+
+        try {
+            failures = validateAll(schema, contentsToCheck);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            context.addWarning("validation interrupted");
+            return false;
+        }
+
+        failures.stream()
+                .limit(MAX_REPORTED_FAILURES)
+                .forEach(f -> f.warnings.forEach(w -> context.addWarning(
+                "document " + f.index + ": " + w)));
+
+        if (failures.size() > MAX_REPORTED_FAILURES) {
+            context.addWarning((failures.size() - MAX_REPORTED_FAILURES)
+                    + " more documents failed validation");
+        }
+
+        return failures.isEmpty();
+    }
+
+    /**
+     *
+     * @return the schema to check the request against, or null if the check
+     * must fail
+     */
+    private Schema getSchema(
+            HttpServerExchange exchange,
+            RequestContext context,
+            BsonValue args) {
         Objects.requireNonNull(args, "missing metadata property 'args'");
 
         // cannot PUT an array
@@ -85,7 +190,7 @@ public class JsonSchemaChecker implements Checker {
                     exchange,
                     HttpStatus.SC_NOT_ACCEPTABLE,
                     "args must be a json object");
-            return false;
+            return null;
         }
 
         BsonDocument _args = args.asDocument();
@@ -125,7 +230,7 @@ public class JsonSchemaChecker implements Checker {
                     .get(schemaStoreDb, schemaId);
         } catch (JsonSchemaNotFoundException ex) {
             context.addWarning(ex.getMessage());
-            return false;
+            return null;
         }
 
         if (Objects.isNull(theschema)) {
@@ -136,22 +241,86 @@ public class JsonSchemaChecker implements Checker {
                     + "/" + schemaId.toString() + " not found");
         }
 
-        String _data = contentToCheck == null
-                ? "{}"
-                : contentToCheck.toJson();
+        return theschema;
+    }
+
+    /**
+     *
+     * @param schema
+     * @param documents
+     * @return the failures, ordered by document index
+     * @throws InterruptedException
+     */
+    static List<Failure> validateAll(Schema schema,
+            List<BsonDocument> documents) throws InterruptedException {
+        if (documents.size() < PARALLEL_THRESHOLD || PARALLELISM < 2) {
+            return validate(schema, documents, 0, documents.size());
+        }
+
+        int sliceSize = (documents.size() + PARALLELISM - 1) / PARALLELISM;
+
+        var slices = new ArrayList<Future<List<Failure>>>(PARALLELISM);
+
+        for (int from = 0; from < documents.size(); from += sliceSize) {
+            final int _from = from;
+            final int _to = Math.min(from + sliceSize, documents.size());
+
+            slices.add(VALIDATORS.submit(()
+                    -> validate(schema, documents, _from, _to)));
+        }
+
+        var failures = new ArrayList<Failure>();
+
+        try {
+            for (var slice : slices) {
+                failures.addAll(slice.get());
+            }
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            } else {
+                throw new IllegalStateException(ee.getCause());
+            }
+        } finally {
+            slices.forEach(slice -> slice.cancel(true));
+        }
+
+        return failures;
+    }
+
+    private static List<Failure> validate(Schema schema,
+            List<BsonDocument> documents,
+            int from,
+            int to) {
+        var failures = new ArrayList<Failure>();
+
+        for (int idx = from; idx < to; idx++) {
+            var warnings = new ArrayList<String>();
+
+            if (!validate(schema, documents.get(idx), warnings)) {
+                failures.add(new Failure(idx, warnings));
+            }
+        }
+
+        return failures;
+    }
 
+    private static boolean validate(Schema schema,
+            BsonDocument contentToCheck,
+            List<String> warnings) {
         try {
-            theschema.validate(
-                    new JSONObject(_data));
+            schema.validate(contentToCheck == null
+                    ? new JSONObject()
+                    : toJSON(contentToCheck));
         } catch (JSONException je) {
-            context.addWarning(je.getMessage());
+            warnings.add(je.getMessage());
 
             return false;
         } catch (ValidationException ve) {
-            context.addWarning(ve.getMessage());
+            warnings.add(ve.getMessage());
             ve.getCausingExceptions().stream()
                     .map(ValidationException::getMessage)
-                    .forEach(context::addWarning);
+                    .forEach(warnings::add);
 
             return false;
         }
@@ -159,6 +328,80 @@ public class JsonSchemaChecker implements Checker {
         return true;
     }
 
+    /**
+     * Converts the BsonValue to the org.json object that parsing its json
+     * representation (as produced by BsonDocument.toJson()) would return,
+     * without going through the json string.
+     *
+     * @param value
+     * @return the org.json representation of value
+     */
+    static Object toJSON(BsonValue value) {
+        switch (value.getBsonType()) {
+            case DOCUMENT:
+                var doc = value.asDocument();
+                var obj = new JSONObject();
+
+                doc.forEach((k, v) -> obj.put(k, toJSON(v)));
+
+                return obj;
+            case ARRAY:
+                var array = new JSONArray();
+
+                value.asArray().forEach(e -> array.put(toJSON(e)));
+
+                return array;
+            case STRING:
+                return value.asString().getValue();
+            case INT32:
+                return value.asInt32().getValue();
+            case INT64:
+                return new JSONObject().put("$numberLong",
+                        Long.toString(value.asInt64().getValue()));
+            case DOUBLE:
+                var d = value.asDouble().getValue();
+
+                // NaN and Infinity are not json numbers
+                return Double.isFinite(d) ? (Object) d : Double.toString(d);
+            case BOOLEAN:
+                return value.asBoolean().getValue();
+            case NULL:
+                return JSONObject.NULL;
+            case OBJECT_ID:
+                return new JSONObject().put("$oid",
+                        value.asObjectId().getValue().toHexString());
+            case DATE_TIME:
+                return new JSONObject().put("$date",
+                        number(value.asDateTime().getValue()));
+            case DECIMAL128:
+                return new JSONObject().put("$numberDecimal",
+                        value.asDecimal128().getValue().toString());
+            default:
+                // other types are rare, use their json representation
+                return new JSONObject(new BsonDocument("v", value).toJson())
+                        .get("v");
+        }
+    }
+
+    /**
+     * @return n as org.json parses it
+     */
+    private static Object number(long n) {
+        return n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE
+                ? (Object) (int) n
+                : (Object) n;
+    }
+
+    static class Failure {
+        final int index;
+        final List<String> warnings;
+
+        Failure(int index, List<String> warnings) {
+            this.index = index;
+            this.warnings = warnings;
+        }
+    }
+
     @Override
     public PHASE getPhase(RequestContext context) {
         if (context.isPatch()
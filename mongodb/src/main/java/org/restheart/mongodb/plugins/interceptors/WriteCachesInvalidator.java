@@ -0,0 +1,153 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.interceptors;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.handlers.exchange.ExchangeKeys.TYPE;
+import org.restheart.mongodb.db.CollectionSizeCache;
+import org.restheart.mongodb.db.GridFsFileCache;
+import org.restheart.mongodb.handlers.aggregation.AggregationResultCache;
+import org.restheart.mongodb.handlers.files.GetFileBinaryHandler;
+import static org.restheart.plugins.InterceptPoint.RESPONSE;
+import org.restheart.plugins.Interceptor;
+import org.restheart.plugins.RegisterPlugin;
+
+/**
+ * Invalidates the data cached from the collections modified by a successful
+ * write request: the aggregation results, the collection counts and the
+ * GridFS files.
+ *
+ * The written collection is the one of the request, unless a service
+ * declares it with written(), as CsvLoader does. Deleting a db invalidates
+ * the data cached from all its collections.
+ *
+ * It is executed before the response is sent, so that a client reading
+ * after a write gets fresh data.
+ */
+@RegisterPlugin(name = "writeCachesInvalidator",
+        description = "invalidates the data cached from the written collections",
+        interceptPoint = RESPONSE)
+public class WriteCachesInvalidator implements Interceptor {
+    private static final AttachmentKey<String[]> WRITTEN_KEY
+            = AttachmentKey.create(String[].class);
+
+    /**
+     * declares the collection written by a request whose path does not
+     * identify it; its cached data is invalidated whatever the response
+     * status, since the write has already happened
+     *
+     * @param exchange
+     * @param dbName
+     * @param collName
+     */
+    public static void written(HttpServerExchange exchange,
+            String dbName,
+            String collName) {
+        exchange.putAttachment(WRITTEN_KEY, new String[]{dbName, collName});
+    }
+
+    @Override
+    public void handle(HttpServerExchange exchange) throws Exception {
+        var written = exchange.getAttachment(WRITTEN_KEY);
+
+        if (written != null) {
+            invalidate(written[0], written[1]);
+            return;
+        }
+
+        var request = BsonRequest.wrap(exchange);
+        var dbName = request.getDBName();
+
+        switch (request.getType()) {
+            case DB:
+                AggregationResultCache.getInstance().invalidateDb(dbName);
+                CollectionSizeCache.getInstance().invalidateDb(dbName);
+                break;
+            case FILES_BUCKET:
+                invalidate(dbName, request.getCollectionName());
+
+                if (request.isDelete()) {
+                    GridFsFileCache.getInstance().invalidateBucket(dbName,
+                            GetFileBinaryHandler.extractBucketName(
+                                    request.getCollectionName()));
+                }
+                break;
+            case FILE:
+                invalidate(dbName, request.getCollectionName());
+
+                GridFsFileCache.getInstance().invalidate(dbName,
+                        GetFileBinaryHandler.extractBucketName(
+                                request.getCollectionName()),
+                        request.getDocumentId());
+                break;
+            default:
+                invalidate(dbName, request.getCollectionName());
+        }
+    }
+
+    private void invalidate(String dbName, String collName) {
+        AggregationResultCache.getInstance().invalidate(dbName, collName);
+        CollectionSizeCache.getInstance().invalidate(dbName, collName);
+    }
+
+    /**
+     * resolves the requests that declared a written collection and the
+     * successful write requests to a db (delete only), a collection, its
+     * documents or a GridFS bucket and its files
+     *
+     * @param exchange
+     * @return true if the request has modified the data of a collection
+     */
+    @Override
+    public boolean resolve(HttpServerExchange exchange) {
+        if (exchange.getAttachment(WRITTEN_KEY) != null) {
+            return true;
+        }
+
+        var status = exchange.getStatusCode();
+
+        if (status < 200 || status > 299) {
+            return false;
+        }
+
+        if (!BsonRequest.isInitialized(exchange)) {
+            return false;
+        }
+
+        var request = BsonRequest.wrap(exchange);
+
+        if (!(request.isPost()
+                || request.isPut()
+                || request.isPatch()
+                || request.isDelete())) {
+            return false;
+        }
+
+        var type = request.getType();
+
+        return (type == TYPE.DB && request.isDelete())
+                || (type == TYPE.COLLECTION
+                && (request.isPost() || request.isDelete()))
+                || type == TYPE.DOCUMENT
+                || type == TYPE.BULK_DOCUMENTS
+                || type == TYPE.FILES_BUCKET
+                || type == TYPE.FILE;
+    }
+}
@@ -18,17 +18,19 @@
 package org.restheart.mongodb.plugins.services;
 
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.codahale.metrics.Meter;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
-import java.util.Scanner;
 import org.bson.BsonDocument;
 import org.bson.BsonObjectId;
 import org.bson.BsonString;
@@ -37,9 +39,13 @@ import org.bson.json.JsonParseException;
 import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
 import org.restheart.handlers.exchange.RequestContext;
+import org.restheart.mongodb.MongoServiceConfiguration;
 import org.restheart.mongodb.db.MongoDBClientSingleton;
+import org.restheart.mongodb.handlers.metrics.SharedMetricRegistryProxy;
+import org.restheart.mongodb.plugins.interceptors.WriteCachesInvalidator;
 import org.restheart.mongodb.representation.Resource;
 import org.restheart.mongodb.utils.ChannelReader;
+import org.restheart.mongodb.utils.CsvTokenizer;
 import org.restheart.mongodb.utils.JsonUtils;
 import org.restheart.mongodb.utils.ResponseHelper;
 import org.restheart.plugins.InjectPluginsRegistry;
@@ -53,6 +59,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * service to upload a csv file in a collection<br>
+ * the csv (RFC 4180) is read while parsing it and the rows are written in
+ * bulk writes of bulk-batch-size documents; the number of imported rows is
+ * available as the CSV_LOADER.ROWS meter. The batches written before a
+ * parsing error are not rolled back: the error response reports the failing
+ * record and the number of rows imported before it<br>
  * query parameters:<br>
  * - db=&lt;db_name&gt; *required<br>
  * - coll=&lt;collection_name&gt; *required<br>
@@ -110,11 +121,20 @@ public class CsvLoader implements Service {
 
     private static final String ERROR_WRONG_METHOD = "Only POST method is supported";
 
-    private static final String ERROR_PARSING_DATA = "Error parsing CSV, see logs for more information";
+    private static final String ERROR_READING_DATA = "Error reading CSV, see logs for more information";
 
-    private final static FindOneAndUpdateOptions FAU_NO_UPSERT_OPS = new FindOneAndUpdateOptions().upsert(false);
+    private static final String ERROR_PARSING_DATA = "Error parsing CSV at record %d: %s. "
+            + "The %d rows before it have been imported";
 
-    private final static FindOneAndUpdateOptions FAU_WITH_UPSERT_OPS = new FindOneAndUpdateOptions().upsert(true);
+    private final static UpdateOptions U_NO_UPSERT_OPS = new UpdateOptions().upsert(false);
+
+    private final static UpdateOptions U_WITH_UPSERT_OPS = new UpdateOptions().upsert(true);
+
+    private static final int PROGRESS_LOG_BATCHES = 100;
+
+    private static final Meter ROWS = new SharedMetricRegistryProxy()
+            .registry()
+            .meter("CSV_LOADER.ROWS");
 
     /**
      *
@@ -144,56 +164,28 @@ public class CsvLoader implements Service {
                                     ERROR_NO_ID);
                             respBodySet = true;
                         } else {
-                            try {
-                                final String content = ChannelReader.read(exchange.getRequestChannel());
-
-                                List<BsonDocument> documents = parseCsv(exchange, params, content);
-
-                                if (documents != null && documents.size() > 0) {
-                                    MongoCollection<BsonDocument> mcoll = MongoDBClientSingleton.getInstance().getClient()
-                                            .getDatabase(params.db).getCollection(params.coll, BsonDocument.class);
-
-                                    if (params.update && !params.upsert) {
-                                        documents.stream().forEach(document -> {
-                                            BsonDocument updateQuery = new BsonDocument("_id", document.remove("_id"));
-
-                                            // for upate import, take _filter property into account
-                                            // for instance, a filter allows to use $ positional array operator
-                                            BsonValue _filter = document.remove(FILTER_PROPERTY);
-
-                                            if (_filter != null && _filter.isDocument()) {
-                                                updateQuery.putAll(_filter.asDocument());
-                                            }
-                                            if (params.upsert) {
-                                                mcoll.findOneAndUpdate(updateQuery, new BsonDocument("$set", document),
-                                                        FAU_WITH_UPSERT_OPS);
-                                            } else {
-
-                                                mcoll.findOneAndUpdate(updateQuery, new BsonDocument("$set", document),
-                                                        FAU_NO_UPSERT_OPS);
-                                            }
-                                        });
-                                    } else if (params.update && params.upsert) {
-                                        documents.stream().forEach(document -> {
-                                            BsonDocument updateQuery = new BsonDocument("_id", document.remove("_id"));
-
-                                            mcoll.findOneAndUpdate(updateQuery, new BsonDocument("$set", document),
-                                                    FAU_WITH_UPSERT_OPS);
-                                        });
-                                    } else {
-                                        mcoll.insertMany(documents);
-                                    }
-                                    response.setStatusCode(HttpStatus.SC_OK);
-                                } else {
-                                    response.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
-                                }
-                            } catch (IOException ex) {
+                            try (var reader = ChannelReader.reader(exchange)) {
+                                long imported = load(exchange, params,
+                                        new CsvTokenizer(reader, params.sep));
+
+                                response.setStatusCode(imported > 0
+                                        ? HttpStatus.SC_OK
+                                        : HttpStatus.SC_NOT_MODIFIED);
+                            } catch (CsvParsingException ex) {
                                 LOGGER.debug("error parsing CSV data", ex);
                                 ResponseHelper.endExchangeWithMessage(exchange,
                                         HttpStatus.SC_BAD_REQUEST,
-                                        ERROR_PARSING_DATA);
+                                        String.format(ERROR_PARSING_DATA,
+                                                ex.record,
+                                                ex.getMessage(),
+                                                ex.imported));
+                                respBodySet = true;
+                            } catch (IOException ex) {
+                                LOGGER.debug("error reading CSV data", ex);
+                                ResponseHelper.endExchangeWithMessage(exchange,
+                                        HttpStatus.SC_BAD_REQUEST,
+                                        ERROR_READING_DATA);
                                 respBodySet = true;
-
                             }
                         }
                     } catch (IllegalArgumentException iae) {
@@ -224,66 +216,175 @@ public class CsvLoader implements Service {
         }
     }
 
-    private List<BsonDocument> parseCsv(HttpServerExchange exchange,
+    /**
+     * reads the csv records and writes them in bulk writes of bulk-batch-size
+     * documents
+     *
+     * @return the number of imported rows
+     * @throws CsvParsingException if the input cannot be read or parsed; the
+     * batches written before the error are not rolled back
+     */
+    private long load(HttpServerExchange exchange,
             CsvRequestParams params,
-            String rawContent) throws IOException {
-        List<BsonDocument> listOfBsonDocuments = new ArrayList<>();
+            CsvTokenizer tokenizer) throws CsvParsingException {
+        MongoCollection<BsonDocument> mcoll = MongoDBClientSingleton
+                .getInstance().getClient()
+                .getDatabase(params.db)
+                .getCollection(params.coll, BsonDocument.class);
+
+        int batchSize = Math.max(1, MongoServiceConfiguration.get()
+                .getBulkBatchSize());
+
+        List<WriteModel<BsonDocument>> batch = new ArrayList<>(batchSize);
 
-        boolean isHeader = true;
+        // the rows written before an error are not rolled back
+        WriteCachesInvalidator.written(exchange, params.db, params.coll);
+
+        long start = System.currentTimeMillis();
+        long imported = 0;
+        int batches = 0;
 
         List<String> cols = null;
+        List<String> vals;
 
-        try (Scanner scanner = new Scanner(rawContent)) {
-            while (scanner.hasNext()) {
-                String line = scanner.nextLine();
+        while ((vals = next(tokenizer, imported)) != null) {
+            if (cols == null) {
+                cols = vals;
+                continue;
+            }
 
-                // split on the separator only if that comma has zero,
-                // or an even number of quotes ahead of it.
-                List<String> vals = Arrays.asList(line.split(params.sep + "(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1));
+            // skip empty lines
+            if (vals.size() == 1
+                    && vals.get(0).isEmpty()
+                    && !tokenizer.isQuoted(0)) {
+                continue;
+            }
 
-                if (isHeader) {
-                    cols = vals;
-                } else {
-                    BsonDocument doc = new BsonDocument("_etag", new BsonObjectId());
+            batch.add(writeModel(params,
+                    document(exchange, params, tokenizer, cols, vals)));
 
-                    int unnamedProps = 0;
+            if (batch.size() == batchSize) {
+                imported += write(mcoll, batch);
+                batches++;
 
-                    for (int idx = 0; idx < vals.size(); idx++) {
-                        if (idx == params.idIdx) {
-                            doc.append("_id", getBsonValue(vals.get(params.idIdx)));
-                        } else {
-                            String propname;
+                if (batches % PROGRESS_LOG_BATCHES == 0) {
+                    LOGGER.info("csv import into {}/{}: {} rows, {} rows/sec",
+                            params.db, params.coll, imported,
+                            throughput(imported, start));
+                }
+            }
+        }
 
-                            if (cols == null || cols.size() <= idx) {
-                                propname = "unnamed_" + unnamedProps;
-                                unnamedProps++;
-                            } else {
-                                propname = cols.get(idx);
-                            }
+        imported += write(mcoll, batch);
 
-                            doc.append(propname, getBsonValue(vals.get(idx)));
-                        }
-                    }
+        LOGGER.debug("csv import into {}/{} completed: {} rows, {} rows/sec",
+                params.db, params.coll, imported,
+                throughput(imported, start));
 
-                    // add props specified via keys and values qparams
-                    addProps(params, doc);
+        return imported;
+    }
 
-                    // apply transformer if defined
-                    if (params.transformer != null) {
-                        params.transformer.transform(exchange,
-                                RequestContext.wrap(exchange),
-                                doc,
-                                null);
-                    }
+    private static List<String> next(CsvTokenizer tokenizer, long imported)
+            throws CsvParsingException {
+        try {
+            return tokenizer.next();
+        } catch (IOException ex) {
+            throw new CsvParsingException(ex, tokenizer.getRecords() + 1,
+                    imported);
+        }
+    }
+
+    private long write(MongoCollection<BsonDocument> mcoll,
+            List<WriteModel<BsonDocument>> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        mcoll.bulkWrite(batch);
+
+        int written = batch.size();
+
+        ROWS.mark(written);
+        batch.clear();
 
-                    listOfBsonDocuments.add(doc);
+        return written;
+    }
+
+    private static long throughput(long rows, long start) {
+        long elapsed = System.currentTimeMillis() - start;
+
+        return elapsed > 0 ? rows * 1000 / elapsed : rows;
+    }
+
+    private BsonDocument document(HttpServerExchange exchange,
+            CsvRequestParams params,
+            CsvTokenizer tokenizer,
+            List<String> cols,
+            List<String> vals) {
+        BsonDocument doc = new BsonDocument("_etag", new BsonObjectId());
+
+        int unnamedProps = 0;
+
+        for (int idx = 0; idx < vals.size(); idx++) {
+            BsonValue value = tokenizer.isQuoted(idx)
+                    ? new BsonString(vals.get(idx))
+                    : getBsonValue(vals.get(idx));
+
+            if (idx == params.idIdx) {
+                doc.append("_id", value);
+            } else {
+                String propname;
+
+                if (cols == null || cols.size() <= idx) {
+                    propname = "unnamed_" + unnamedProps;
+                    unnamedProps++;
+                } else {
+                    propname = cols.get(idx);
                 }
 
-                isHeader = false;
+                doc.append(propname, value);
             }
         }
 
-        return listOfBsonDocuments;
+        // add props specified via keys and values qparams
+        addProps(params, doc);
+
+        // apply transformer if defined
+        if (params.transformer != null) {
+            params.transformer.transform(exchange,
+                    RequestContext.wrap(exchange),
+                    doc,
+                    null);
+        }
+
+        return doc;
+    }
+
+    private WriteModel<BsonDocument> writeModel(CsvRequestParams params,
+            BsonDocument document) {
+        if (params.update && !params.upsert) {
+            BsonDocument updateQuery = new BsonDocument("_id", document.remove("_id"));
+
+            // for upate import, take _filter property into account
+            // for instance, a filter allows to use $ positional array operator
+            BsonValue _filter = document.remove(FILTER_PROPERTY);
+
+            if (_filter != null && _filter.isDocument()) {
+                updateQuery.putAll(_filter.asDocument());
+            }
+
+            return new UpdateOneModel<>(updateQuery,
+                    new BsonDocument("$set", document),
+                    U_NO_UPSERT_OPS);
+        } else if (params.update && params.upsert) {
+            BsonDocument updateQuery = new BsonDocument("_id", document.remove("_id"));
+
+            return new UpdateOneModel<>(updateQuery,
+                    new BsonDocument("$set", document),
+                    U_WITH_UPSERT_OPS);
+        } else {
+            return new InsertOneModel<>(document);
+        }
     }
 
     private void addProps(CsvRequestParams params, BsonDocument doc) {
@@ -305,6 +406,23 @@ public class CsvLoader implements Service {
         }
     }
 
+    /**
+     * an error reading or parsing the csv, with the number of the failing
+     * record (the header is record 1) and of the rows imported before it
+     */
+    private static class CsvParsingException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long record;
+        private final long imported;
+
+        CsvParsingException(IOException cause, long record, long imported) {
+            super(cause.getMessage(), cause);
+            this.record = record;
+            this.imported = imported;
+        }
+    }
+
     private boolean doesApply(BsonRequest request) {
         return request.isPost();
     }
@@ -331,7 +449,7 @@ class CsvRequestParams {
     public final int idIdx;
     public final String db;
     public final String coll;
-    public final String sep;
+    public final char sep;
     public final Transformer transformer;
     public final boolean update;
     public final boolean upsert;
@@ -362,7 +480,13 @@ class CsvRequestParams {
             throw new IllegalArgumentException("db qparam is mandatory");
         }
 
-        sep = _sep != null ? _sep.size() > 0 ? _sep.getFirst() : "" : ",";
+        String __sep = _sep != null ? _sep.size() > 0 ? _sep.getFirst() : "" : ",";
+
+        if (__sep.length() != 1) {
+            throw new IllegalArgumentException("sep qparam must be a single character");
+        }
+
+        sep = __sep.charAt(0);
         String _idIdx = _id != null ? _id.size() > 0 ? _id.getFirst() : "-1" : "-1";
 
         try {
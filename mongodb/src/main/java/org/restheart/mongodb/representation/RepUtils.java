@@ -18,8 +18,10 @@
 package org.restheart.mongodb.representation;
 
 import io.undertow.server.HttpServerExchange;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 import org.bson.BsonBoolean;
 import org.bson.BsonDateTime;
 import org.bson.BsonDouble;
@@ -39,6 +41,8 @@ import org.restheart.handlers.exchange.BsonRequest;
 import org.restheart.handlers.exchange.BsonResponse;
 import org.restheart.handlers.exchange.ExchangeKeys.DOC_ID_TYPE;
 import static org.restheart.handlers.exchange.ExchangeKeys.DOC_ID_TYPE_QPARAM_KEY;
+import static org.restheart.handlers.exchange.ExchangeKeys.KEYSET_QPARAM_KEY;
+import static org.restheart.handlers.exchange.ExchangeKeys.PAGE_QPARAM_KEY;
 import static org.restheart.mongodb.db.DAOUtils.LOGGER;
 import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
 import org.restheart.mongodb.utils.URLUtils;
@@ -141,6 +145,46 @@ public class RepUtils {
         return links;
     }
     
+    /**
+     * the paging links of keyset pagination: first and, if there can be more
+     * documents, next (no previous and last links are possible)
+     *
+     * @param exchange
+     * @param nextToken the keyset token of the next page, null if the
+     * current page is the last one
+     * @return
+     */
+    public static TreeMap<String, String> getKeysetPaginationLinks(
+            HttpServerExchange exchange,
+            String nextToken) {
+        String requestPath = URLUtils.removeTrailingSlashes(exchange.getRequestPath());
+        String queryString = URLUtils.decodeQueryString(exchange.getQueryString());
+
+        // the page and keyset parameters are replaced
+        String otherParams = queryString == null
+                ? ""
+                : Arrays.stream(queryString.split("&"))
+                        .filter(p -> !p.isEmpty())
+                        .filter(p -> {
+                            String name = p.split("=", 2)[0];
+                            return !PAGE_QPARAM_KEY.equals(name)
+                                    && !KEYSET_QPARAM_KEY.equals(name);
+                        })
+                        .map(p -> "&" + p)
+                        .collect(Collectors.joining());
+
+        TreeMap<String, String> links = new TreeMap<>();
+
+        links.put("first", requestPath + "?" + KEYSET_QPARAM_KEY + otherParams);
+
+        if (nextToken != null) {
+            links.put("next", requestPath + "?" + KEYSET_QPARAM_KEY + "="
+                    + nextToken + otherParams);
+        }
+
+        return links;
+    }
+
     /**
      *
      * @param response
@@ -43,6 +43,11 @@ public class Resource {
      */
     public static final String JSON_MEDIA_TYPE = "application/json";
 
+    /**
+     * newline delimited json, one json document per line
+     */
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
     /**
      *
      */
@@ -17,13 +17,19 @@
  */
 package org.restheart.mongodb.utils;
 
+import io.undertow.server.HttpServerExchange;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import org.restheart.handlers.exchange.ByteArrayRequest;
+import org.restheart.utils.BuffersUtils;
 import org.xnio.channels.Channels;
 import org.xnio.channels.StreamSourceChannel;
+import org.xnio.streams.ChannelInputStream;
 
 /**
  *
@@ -54,6 +60,35 @@ public class ChannelReader {
         return new String(os.toByteArray(), CHARSET);
     }
 
+    /**
+     *
+     * @param channel
+     * @return a Reader that reads the channel blocking, decoding it as UTF-8
+     */
+    public static BufferedReader reader(StreamSourceChannel channel) {
+        return new BufferedReader(new InputStreamReader(
+                new ChannelInputStream(channel), CHARSET));
+    }
+
+    /**
+     *
+     * @param exchange
+     * @return a Reader of the request content, decoding it as UTF-8; the
+     * content is read from the request channel unless it has been already
+     * injected by core's RequestContentInjector
+     */
+    public static BufferedReader reader(HttpServerExchange exchange) {
+        var bar = ByteArrayRequest.wrap(exchange);
+
+        if (bar.isContentAvailable()) {
+            return new BufferedReader(new InputStreamReader(
+                    BuffersUtils.toInputStream(bar.getRawContent()),
+                    CHARSET));
+        } else {
+            return reader(exchange.getRequestChannel());
+        }
+    }
+
     private ChannelReader() {
     }
 }
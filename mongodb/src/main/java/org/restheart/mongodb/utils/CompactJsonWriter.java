@@ -0,0 +1,155 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A Writer that removes the whitespaces which are insignificant to
+ * JavaScript from the json written by org.bson.json.JsonWriter as it goes
+ * through, i.e. it minifies the json in the same single pass that generates
+ * it.
+ *
+ * It follows the rules of Minify: strings and regular expression literals
+ * are copied as they are and a space is only kept between two alphanumeric
+ * characters (e.g. in shell mode <code>new Date(1)</code>).
+ *
+ * Not thread safe.
+ */
+class CompactJsonWriter extends Writer {
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+
+    private boolean discarding = false;
+    private boolean pendingSpace = false;
+    private boolean escaped = false;
+    private boolean inRegex = false;
+    private int stringOpener = -1;
+    private int last = -1;
+
+    /**
+     *
+     * @param out the Writer the minified json is written to
+     */
+    CompactJsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * while discarding, the written chars are dropped; this allows to remove
+     * the wrapping document that JsonWriter requires to write arrays and
+     * values
+     *
+     * @param discarding
+     */
+    void setDiscarding(boolean discarding) {
+        this.discarding = discarding;
+        this.pendingSpace = false;
+        this.last = -1;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (discarding) {
+            return;
+        }
+
+        if (stringOpener >= 0 || inRegex) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == stringOpener) {
+                stringOpener = -1;
+            } else if (inRegex && c == '/') {
+                inRegex = false;
+            }
+        } else if (c <= ' ') {
+            pendingSpace = true;
+            return;
+        } else {
+            if (pendingSpace) {
+                pendingSpace = false;
+
+                if (isAlphanum(last) && isAlphanum(c)) {
+                    buffered(' ');
+                }
+            }
+
+            if (c == '"' || c == '\'') {
+                stringOpener = c;
+            } else if (c == '/'
+                    && (last == '(' || last == ',' || last == '=' || last == ':')) {
+                inRegex = true;
+            }
+        }
+
+        buffered((char) c);
+        last = c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int idx = off; idx < off + len; idx++) {
+            write(cbuf[idx]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int idx = off; idx < off + len; idx++) {
+            write(str.charAt(idx));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void buffered(char c) throws IOException {
+        if (pos == BUFFER_SIZE) {
+            flushBuffer();
+        }
+
+        buffer[pos++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private static boolean isAlphanum(int c) {
+        return ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z')
+                || c == '_' || c == '$' || c == '\\' || c > 126);
+    }
+}
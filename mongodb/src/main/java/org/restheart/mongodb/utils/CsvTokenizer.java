@@ -0,0 +1,160 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A streaming RFC 4180 csv tokenizer.
+ *
+ * It reads the records one at a time from the reader; fields can be quoted
+ * with double quotes, in which case they can contain the separator, line
+ * breaks and escaped double quotes (""). Records are terminated by LF or
+ * CRLF.
+ */
+public class CsvTokenizer {
+    private static final int NONE = -2;
+
+    private final Reader reader;
+    private final char sep;
+
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int len = 0;
+    private int pushback = NONE;
+
+    private final StringBuilder field = new StringBuilder();
+    private final BitSet quoted = new BitSet();
+    private long records = 0;
+
+    /**
+     *
+     * @param reader
+     * @param sep the fields separator
+     */
+    public CsvTokenizer(Reader reader, char sep) {
+        this.reader = reader;
+        this.sep = sep;
+    }
+
+    /**
+     * @return the values of the next record or null at the end of the input
+     * @throws IOException if the input cannot be read or a quoted field is not
+     * terminated
+     */
+    public List<String> next() throws IOException {
+        int c = read();
+
+        if (c == -1) {
+            return null;
+        }
+
+        var values = new ArrayList<String>();
+        quoted.clear();
+
+        while (true) {
+            field.setLength(0);
+
+            if (c == '"') {
+                quoted.set(values.size());
+
+                while (true) {
+                    c = read();
+
+                    if (c == -1) {
+                        throw new IOException("unterminated quoted field "
+                                + "in record " + (records + 1));
+                    } else if (c == '"') {
+                        c = read();
+
+                        if (c == '"') {
+                            field.append('"');
+                        } else {
+                            // c is the char after the closing quote
+                            break;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                }
+            }
+
+            // unquoted field or chars following the closing quote
+            while (c != sep && c != '\n' && c != '\r' && c != -1) {
+                field.append((char) c);
+                c = read();
+            }
+
+            values.add(field.toString());
+
+            if (c == sep) {
+                c = read();
+            } else {
+                if (c == '\r') {
+                    c = read();
+
+                    if (c != '\n') {
+                        pushback = c;
+                    }
+                }
+
+                records++;
+                return values;
+            }
+        }
+    }
+
+    /**
+     * @param idx
+     * @return true if the field idx of the last record was quoted
+     */
+    public boolean isQuoted(int idx) {
+        return quoted.get(idx);
+    }
+
+    /**
+     * @return the number of records read
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    private int read() throws IOException {
+        if (pushback != NONE) {
+            int c = pushback;
+            pushback = NONE;
+            return c;
+        }
+
+        if (pos == len) {
+            len = reader.read(buf, 0, buf.length);
+            pos = 0;
+
+            if (len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+
+        return buf[pos++];
+    }
+}
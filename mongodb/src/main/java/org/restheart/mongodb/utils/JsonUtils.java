@@ -18,9 +18,19 @@
 package org.restheart.mongodb.utils;
 
 import com.mongodb.MongoClient;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -36,13 +46,17 @@ import org.bson.BsonString;
 import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.codecs.BsonArrayCodec;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.BsonValueCodec;
 import org.bson.codecs.BsonValueCodecProvider;
 import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.json.Converter;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonParseException;
 import org.bson.json.JsonReader;
+import org.bson.json.JsonWriter;
 import org.bson.json.JsonWriterSettings;
 import org.bson.json.StrictJsonWriter;
 import org.bson.types.ObjectId;
@@ -61,6 +75,38 @@ public class JsonUtils {
             CodecRegistries.fromProviders(
                     new BsonValueCodecProvider()));
 
+    private static final BsonValueCodec BSON_VALUE_CODEC = new BsonValueCodec();
+
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC
+            = new BsonDocumentCodec();
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext
+            .builder()
+            .build();
+
+    private static final JsonWriterSettings DEFAULT_JSON_WRITER_SETTINGS
+            = JsonWriterSettings.builder()
+                    .indent(false)
+                    .dateTimeConverter(new Converter<Long>() {
+                        @Override
+                        public void convert(Long t, StrictJsonWriter writer) {
+                            writer.writeRaw("{\"$date\": " + t + " }");
+                        }
+                    })
+                    .build();
+
+    private static final Map<JsonMode, JsonWriterSettings> JSON_WRITER_SETTINGS
+            = new EnumMap<>(JsonMode.class);
+
+    static {
+        for (JsonMode mode : JsonMode.values()) {
+            JSON_WRITER_SETTINGS.put(mode, JsonWriterSettings.builder()
+                    .outputMode(mode)
+                    .indent(false)
+                    .build());
+        }
+    }
+
     private static final String ESCAPED_DOLLAR = "_$";
     private static final String ESCAPED_DOT = "::";
     private static final String DOLLAR = "$";
@@ -230,8 +276,33 @@ public class JsonUtils {
             BsonValue root,
             String path)
             throws IllegalArgumentException {
-        String pathTokens[] = path.split(Pattern.quote("."));
+        return getPropsFromPath(root, tokenizePath(path));
+    }
 
+    /**
+     * splits a json path expression in its tokens, so that it can be resolved
+     * against many documents with getPropsFromPath(BsonValue, String[])
+     * without splitting it again
+     *
+     * @param path the json path expression
+     * @return the tokens of the path
+     */
+    public static String[] tokenizePath(String path) {
+        return path.split(Pattern.quote("."));
+    }
+
+    /**
+     *
+     * @param root the Bson to extract properties from
+     * @param pathTokens the tokens of the path of the properties to extract,
+     * as returned by tokenizePath()
+     * @return the List of Optional&lt;Object&gt;s extracted from root ojbect
+     * and identified by the path or null if path does not exist
+     */
+    public static List<Optional<BsonValue>> getPropsFromPath(
+            BsonValue root,
+            String[] pathTokens)
+            throws IllegalArgumentException {
         if (pathTokens == null
                 || pathTokens.length == 0
                 || !pathTokens[0].equals(DOLLAR)) {
@@ -241,30 +312,37 @@ public class JsonUtils {
             throw new IllegalArgumentException(
                     "wrong json. it must be an object");
         } else {
-            return _getPropsFromPath(root, pathTokens, pathTokens.length);
+            return _getPropsFromPath(root, pathTokens, 0);
         }
     }
 
+    /**
+     * resolves the path tokens starting at offset; the tokens are not copied
+     * at each level, the remaining ones are only materialized for the error
+     * messages
+     */
     private static List<Optional<BsonValue>> _getPropsFromPath(
             BsonValue json,
             String[] pathTokens,
-            int totalTokensLength)
+            int offset)
             throws IllegalArgumentException {
         if (pathTokens == null) {
             throw new IllegalArgumentException("pathTokens argument cannot be null");
         }
 
+        int remaining = pathTokens.length - offset;
+
         String pathToken;
 
-        if (pathTokens.length > 0) {
+        if (remaining > 0) {
             if (json == null) {
                 return null;
             } else {
-                pathToken = pathTokens[0];
+                pathToken = pathTokens[offset];
 
                 if ("".equals(pathToken)) {
                     throw new IllegalArgumentException("wrong path "
-                            + Arrays.toString(pathTokens)
+                            + Arrays.toString(subpath(pathTokens, offset))
                             + " path tokens cannot be empty strings");
                 }
             }
@@ -285,36 +363,33 @@ public class JsonUtils {
             case DOLLAR:
                 if (!(json.isDocument())) {
                     throw new IllegalArgumentException("wrong path "
-                            + Arrays.toString(pathTokens)
+                            + Arrays.toString(subpath(pathTokens, offset))
                             + " at token "
                             + pathToken
                             + "; it should be an object but found "
                             + json.toString());
                 }
 
-                if (pathTokens.length != totalTokensLength) {
+                if (offset != 0) {
                     throw new IllegalArgumentException("wrong path "
-                            + Arrays.toString(pathTokens)
+                            + Arrays.toString(subpath(pathTokens, offset))
                             + " at token "
                             + pathToken
                             + "; $ can only start the expression");
                 }
 
-                return _getPropsFromPath(
-                        json,
-                        subpath(pathTokens),
-                        totalTokensLength);
+                return _getPropsFromPath(json, pathTokens, offset + 1);
             case "*":
                 if (!(json.isDocument())) {
                     return null;
                 } else {
                     ArrayList<Optional<BsonValue>> ret = new ArrayList<>();
 
-                    for (String key : json.asDocument().keySet()) {
-                        nested = _getPropsFromPath(json.asDocument().get(key), subpath(pathTokens), totalTokensLength);
+                    for (BsonValue value : json.asDocument().values()) {
+                        nested = _getPropsFromPath(value, pathTokens, offset + 1);
 
-                        // only add null if subpath(pathTokens) was the last token
-                        if (nested == null && pathTokens.length == 2) {
+                        // only add null if the next token was the last one
+                        if (nested == null && remaining == 2) {
                             ret.add(null);
                         } else if (nested != null) {
                             ret.addAll(nested);
@@ -344,14 +419,14 @@ public class JsonUtils {
                         if (allNumbericKeys) {
                             ArrayList<Optional<BsonValue>> ret = new ArrayList<>();
 
-                            for (String key : json.asDocument().keySet()) {
+                            for (BsonValue value : json.asDocument().values()) {
                                 nested = _getPropsFromPath(
-                                        json.asDocument().get(key),
-                                        subpath(pathTokens),
-                                        totalTokensLength);
+                                        value,
+                                        pathTokens,
+                                        offset + 1);
 
-                                // only add null if subpath(pathTokens) was the last token
-                                if (nested == null && pathTokens.length == 2) {
+                                // only add null if the next token was the last one
+                                if (nested == null && remaining == 2) {
                                     ret.add(null);
                                 } else if (nested != null) {
                                     ret.addAll(nested);
@@ -366,19 +441,17 @@ public class JsonUtils {
                 } else {
                     ArrayList<Optional<BsonValue>> ret = new ArrayList<>();
 
-                    if (!json.asArray().isEmpty()) {
-                        for (int index = 0; index < json.asArray().size(); index++) {
-                            nested = _getPropsFromPath(
-                                    json.asArray().get(index),
-                                    subpath(pathTokens),
-                                    totalTokensLength);
-
-                            // only add null if subpath(pathTokens) was the last token
-                            if (nested == null && pathTokens.length == 2) {
-                                ret.add(null);
-                            } else if (nested != null) {
-                                ret.addAll(nested);
-                            }
+                    for (BsonValue element : json.asArray()) {
+                        nested = _getPropsFromPath(
+                                element,
+                                pathTokens,
+                                offset + 1);
+
+                        // only add null if the next token was the last one
+                        if (nested == null && remaining == 2) {
+                            ret.add(null);
+                        } else if (nested != null) {
+                            ret.addAll(nested);
                         }
                     }
 
@@ -387,16 +460,18 @@ public class JsonUtils {
             default:
                 if (json.isArray()) {
                     throw new IllegalArgumentException("wrong path "
-                            + pathFromTokens(pathTokens)
+                            + pathFromTokens(subpath(pathTokens, offset))
                             + " at token "
                             + pathToken
                             + "; it should be '[*]'");
                 } else if (json.isDocument()) {
-                    if (json.asDocument().containsKey(pathToken)) {
+                    BsonValue value = json.asDocument().get(pathToken);
+
+                    if (value != null) {
                         return _getPropsFromPath(
-                                json.asDocument().get(pathToken),
-                                subpath(pathTokens),
-                                totalTokensLength);
+                                value,
+                                pathTokens,
+                                offset + 1);
                     } else {
                         return null;
                     }
@@ -505,14 +580,8 @@ public class JsonUtils {
         return ret;
     }
 
-    private static String[] subpath(String[] pathTokens) {
-        ArrayList<String> subpath = new ArrayList<>();
-
-        for (int cont = 1; cont < pathTokens.length; cont++) {
-            subpath.add(pathTokens[cont]);
-        }
-
-        return subpath.toArray(new String[subpath.size()]);
+    private static String[] subpath(String[] pathTokens, int offset) {
+        return Arrays.copyOfRange(pathTokens, offset, pathTokens.length);
     }
 
     /**
@@ -658,6 +727,34 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * parses the json read from the reader without reading it into a String.
+     *
+     * The json is wrapped into a document {'x': json } that is decoded
+     * while reading, so that objects, arrays and values (including the extended
+     * json ones like {"$oid": "xxxxxxxx" }) are parsed in a single pass.
+     *
+     * @param reader
+     * @return the BsonValue parsed from the reader
+     * @throws JsonParseException
+     */
+    public static BsonValue parse(Reader reader)
+            throws JsonParseException {
+        if (reader == null) {
+            return null;
+        }
+
+        var wrapped = new SequenceReader(
+                new StringReader("{\"x\":"),
+                reader,
+                new StringReader("}"));
+
+        return BSON_DOCUMENT_CODEC
+                .decode(new JsonReader(wrapped),
+                        DecoderContext.builder().build())
+                .get("x");
+    }
+
     private static BsonValue getBsonValue(String json) {
         String _json = "{'x':"
                 .concat(json)
@@ -690,49 +787,63 @@ public class JsonUtils {
             return null;
         }
 
-        var settings = mode != null
-                ? JsonWriterSettings.builder()
-                        .outputMode(mode)
-                        .indent(false)
-                        .build()
-                : JsonWriterSettings.builder()
-                        .indent(false)
-                        .dateTimeConverter(new Converter<Long>() {
-                            @Override
-                            public void convert(Long t, StrictJsonWriter writer) {
-                                writer.writeRaw("{\"$date\": " + t + " }");
-                            }
-                        })
-                        .build();
-
-        if (bson.isDocument()) {
-            return minify(bson.asDocument().toJson(settings));
-        } else if (bson.isArray()) {
-            BsonArray _array = bson.asArray();
-
-            BsonDocument wrappedArray = new BsonDocument("wrapped", _array);
+        var sw = new StringWriter();
 
-            String json = wrappedArray.toJson(settings);
+        try {
+            writeJson(bson, mode, sw);
+        } catch (IOException ioe) {
+            // cannot happen writing to a StringWriter
+            throw new UncheckedIOException(ioe);
+        }
 
-            json = json.substring(0, json.length() - 1); // removes closing }
-            json = json.replaceFirst("\\{", "");
-            json = json.replaceFirst("\"wrapped\"", "");
-            json = json.replaceFirst(":", "");
+        return sw.toString();
+    }
 
-            return minify(json);
-        } else {
-            BsonDocument doc = new BsonDocument("x", bson);
+    /**
+     * writes the minified json representation of the bson value to the
+     * output stream encoded in UTF-8. The json is generated and minified in a
+     * single pass, without creating intermediate strings.
+     *
+     * @param bson
+     * @param mode
+     * @param os
+     * @throws IOException
+     */
+    public static void writeJson(BsonValue bson, JsonMode mode,
+            OutputStream os) throws IOException {
+        if (bson == null) {
+            return;
+        }
 
-            String ret = doc.toJson(settings);
+        var osw = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+        writeJson(bson, mode, osw);
+        osw.flush();
+    }
 
-            ret = ret.replaceFirst("\\{", "");
-            ret = ret.replaceFirst("\"x\"", "");
-            ret = ret.replaceFirst(":", "");
-            int index = ret.lastIndexOf('}');
-            ret = ret.substring(0, index);
+    private static void writeJson(BsonValue bson, JsonMode mode, Writer out)
+            throws IOException {
+        var cw = new CompactJsonWriter(out);
+        var writer = new JsonWriter(cw, mode != null
+                ? JSON_WRITER_SETTINGS.get(mode)
+                : DEFAULT_JSON_WRITER_SETTINGS);
 
-            return minify(ret);
+        if (bson.isDocument()) {
+            BSON_VALUE_CODEC.encode(writer, bson, ENCODER_CONTEXT);
+        } else {
+            // JsonWriter can only start with a document
+            // arrays and values are wrapped and the wrapper is discarded
+            cw.setDiscarding(true);
+            writer.writeStartDocument();
+            writer.writeName("w");
+            cw.setDiscarding(false);
+            BSON_VALUE_CODEC.encode(writer, bson, ENCODER_CONTEXT);
+            writer.flush();
+            cw.setDiscarding(true);
+            writer.writeEndDocument();
         }
+
+        writer.flush();
+        cw.flush();
     }
 
     /**
@@ -904,4 +1015,57 @@ public class JsonUtils {
             set.append(newPrefix, value);
         }
     }
+
+    /**
+     * a Reader that reads the readers one after the other
+     */
+    private static class SequenceReader extends Reader {
+        private final Reader[] readers;
+        private int idx = 0;
+
+        SequenceReader(Reader... readers) {
+            this.readers = readers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (idx < readers.length) {
+                int c = readers[idx].read();
+
+                if (c != -1) {
+                    return c;
+                }
+
+                idx++;
+            }
+
+            return -1;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (idx < readers.length) {
+                int read = readers[idx].read(cbuf, off, len);
+
+                if (read > 0) {
+                    return read;
+                }
+
+                idx++;
+            }
+
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (var reader : readers) {
+                reader.close();
+            }
+        }
+    }
 }
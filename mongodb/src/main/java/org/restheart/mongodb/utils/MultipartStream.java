@@ -0,0 +1,321 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.utils;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.MultipartParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a multipart/form-data request while it is received, exposing the
+ * first file part as an InputStream.
+ *
+ * The form is read up to the beginning of the first file part with
+ * readUpToFile(); the fields that precede it are then available with
+ * getField(). The content of the file is read with getFileInputStream(), and
+ * only the data read from the request and not yet consumed is kept in
+ * memory, so that it can be piped to its destination without spooling it to
+ * disk. The fields that follow the file are available after the file has
+ * been read.
+ */
+public class MultipartStream {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream source;
+    private final MultipartParser.ParseState parser;
+    private final Charset charset;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final Map<String, String> fields = new HashMap<>();
+
+    private String fileField = null;
+    private String fileName = null;
+    private String fileContentType = null;
+    private final PartInputStream fileInputStream = new PartInputStream();
+
+    // the part being read
+    private String partName = null;
+    private ByteArrayOutputStream partValue = null;
+    private boolean inFile = false;
+    private boolean fileEnded = false;
+
+    private boolean eof = false;
+
+    /**
+     *
+     * @param source the request content
+     * @param contentType the value of the Content-Type header
+     * @param bufferPool
+     * @throws IOException if the Content-Type does not specify the boundary
+     */
+    public MultipartStream(InputStream source,
+            String contentType,
+            ByteBufferPool bufferPool) throws IOException {
+        var boundary = contentType == null
+                ? null
+                : Headers.extractQuotedValueFromHeader(contentType, "boundary");
+
+        if (boundary == null) {
+            throw new IOException("Missing multipart boundary");
+        }
+
+        var _charset = Headers.extractQuotedValueFromHeader(contentType,
+                "charset");
+
+        this.source = source;
+        this.charset = _charset == null
+                ? StandardCharsets.UTF_8
+                : Charset.forName(_charset);
+        this.parser = MultipartParser.beginParse(bufferPool,
+                new PartHandler(),
+                boundary.getBytes(StandardCharsets.US_ASCII),
+                this.charset.name());
+    }
+
+    /**
+     * reads the form up to the first peekSize bytes of the first file part
+     *
+     * @param peekSize
+     * @return true if the form contains a file
+     * @throws IOException
+     */
+    public boolean readUpToFile(int peekSize) throws IOException {
+        while (!eof && (fileField == null
+                || (!fileEnded && fileInputStream.available() < peekSize))) {
+            feed();
+        }
+
+        return fileField != null;
+    }
+
+    /**
+     * reads the rest of the form, discarding the content of the file not yet
+     * read
+     *
+     * @throws IOException
+     */
+    public void readToEnd() throws IOException {
+        while (!eof) {
+            fileInputStream.clear();
+            feed();
+        }
+
+        fileInputStream.clear();
+    }
+
+    /**
+     * @return the first bytes of the file read so far and not yet consumed
+     */
+    public byte[] peek() {
+        return fileInputStream.peek();
+    }
+
+    /**
+     *
+     * @param name
+     * @return the value of the field, or null if the field has not been read
+     */
+    public String getField(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * @return the name of the field of the first file part
+     */
+    public String getFileField() {
+        return fileField;
+    }
+
+    /**
+     * @return the file name of the first file part
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the Content-Type of the first file part
+     */
+    public String getFileContentType() {
+        return fileContentType;
+    }
+
+    /**
+     * @return true if the whole file has been received
+     */
+    public boolean isFileEnded() {
+        return fileEnded;
+    }
+
+    /**
+     * @return the stream of the content of the first file part
+     */
+    public InputStream getFileInputStream() {
+        return fileInputStream;
+    }
+
+    private void feed() throws IOException {
+        int read = source.read(buffer);
+
+        if (read < 0) {
+            eof = true;
+
+            if (!parser.isComplete()) {
+                throw new IOException("Unexpected end of multipart data");
+            }
+        } else if (read > 0 && !parser.isComplete()) {
+            parser.parse(ByteBuffer.wrap(buffer, 0, read));
+        }
+    }
+
+    private class PartHandler implements MultipartParser.PartHandler {
+        @Override
+        public void beginPart(HeaderMap headers) {
+            var disposition = headers.getFirst(Headers.CONTENT_DISPOSITION);
+
+            partName = disposition == null
+                    ? null
+                    : Headers.extractQuotedValueFromHeader(disposition, "name");
+
+            var filename = disposition == null
+                    ? null
+                    : Headers.extractQuotedValueFromHeaderWithEncoding(
+                            disposition, "filename");
+
+            if (filename == null) {
+                partValue = new ByteArrayOutputStream();
+            } else if (fileField == null) {
+                fileField = partName;
+                fileName = filename;
+                fileContentType = headers.getFirst(Headers.CONTENT_TYPE);
+                inFile = true;
+            }
+            // other files are discarded
+        }
+
+        @Override
+        public void data(ByteBuffer data) throws IOException {
+            if (inFile) {
+                fileInputStream.append(data);
+            } else if (partValue != null) {
+                while (data.hasRemaining()) {
+                    partValue.write(data.get());
+                }
+            }
+        }
+
+        @Override
+        public void endPart() {
+            if (inFile) {
+                inFile = false;
+                fileEnded = true;
+            } else if (partValue != null && partName != null) {
+                fields.putIfAbsent(partName,
+                        new String(partValue.toByteArray(), charset));
+            }
+
+            partName = null;
+            partValue = null;
+        }
+    }
+
+    /**
+     * the content of the file read from the request and not yet consumed
+     */
+    private class PartInputStream extends InputStream {
+        private byte[] data = new byte[BUFFER_SIZE];
+        private int start = 0;
+        private int end = 0;
+
+        void append(ByteBuffer src) {
+            int len = src.remaining();
+
+            if (end + len > data.length) {
+                // compact, then grow if needed
+                System.arraycopy(data, start, data, 0, end - start);
+                end -= start;
+                start = 0;
+
+                if (end + len > data.length) {
+                    data = Arrays.copyOf(data,
+                            Math.max(data.length * 2, end + len));
+                }
+            }
+
+            src.get(data, end, len);
+            end += len;
+        }
+
+        byte[] peek() {
+            return Arrays.copyOfRange(data, start, end);
+        }
+
+        void clear() {
+            start = 0;
+            end = 0;
+        }
+
+        @Override
+        public int available() {
+            return end - start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (start == end && !fileEnded) {
+                if (eof) {
+                    throw new IOException("Unexpected end of multipart data");
+                }
+
+                feed();
+            }
+
+            if (start == end) {
+                return -1;
+            }
+
+            int n = Math.min(len, end - start);
+
+            System.arraycopy(data, start, b, off, n);
+            start += n;
+
+            return n;
+        }
+    }
+}
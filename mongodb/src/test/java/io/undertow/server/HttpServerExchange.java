@@ -17,8 +17,10 @@
  */
 package io.undertow.server;
 
+import io.undertow.connector.PooledByteBuffer;
 import io.undertow.security.api.SecurityContext;
 import io.undertow.util.AbstractAttachable;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HttpString;
 import java.io.ByteArrayInputStream;
@@ -38,12 +40,18 @@ import java.util.TreeMap;
  */
 public class HttpServerExchange extends AbstractAttachable {
 
+    // as in the original class, where the request content is buffered
+    private static final AttachmentKey<PooledByteBuffer[]> BUFFERED_REQUEST_DATA
+            = AttachmentKey.create(PooledByteBuffer[].class);
+
     private int statusCode = 0;
     private String queryString;
     private String requestPath;
     private String relativePath;
     private HttpString requestMethod;
     private Map<String, Deque<String>> queryParameters;
+    private final HeaderMap requestHeaders = new HeaderMap();
+    private final HeaderMap responseHeaders = new HeaderMap();
 
     /**
      *
@@ -172,7 +180,15 @@ public class HttpServerExchange extends AbstractAttachable {
      * @return
      */
     public HeaderMap getRequestHeaders() {
-        return null;
+        return requestHeaders;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public HeaderMap getResponseHeaders() {
+        return responseHeaders;
     }
 
     /**
@@ -0,0 +1,110 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.MongoException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AsyncQueriesTest {
+
+    /**
+     *
+     */
+    @Test
+    public void testConcurrentQueries() {
+        var first = AsyncQueries.supply(() -> "first");
+        var second = AsyncQueries.supply(() -> 2);
+
+        assertEquals("first", AsyncQueries.get(first));
+        assertEquals(2, (int) AsyncQueries.get(second));
+    }
+
+    /**
+     *
+     */
+    @Test(expected = MongoException.class)
+    public void testErrorIsRethrown() {
+        AsyncQueries.get(AsyncQueries.supply(() -> {
+            throw new MongoException("query failed");
+        }));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testMapKeepsOrder() {
+        var items = IntStream.range(0, 100)
+                .boxed()
+                .collect(Collectors.toList());
+
+        var results = AsyncQueries.map(items, i -> {
+            try {
+                Thread.sleep(i % 7);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            return "item" + i;
+        });
+
+        assertEquals(items.stream()
+                .map(i -> "item" + i)
+                .collect(Collectors.toList()), results);
+
+        assertEquals(List.of(), AsyncQueries.map(List.of(), i -> i));
+        assertEquals(List.of("a"), AsyncQueries.map(List.of("a"), i -> i));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testMapLocalItems() {
+        var caller = Thread.currentThread();
+        var items = IntStream.range(0, 10)
+                .boxed()
+                .collect(Collectors.toList());
+
+        // the even items are local and run in the calling thread
+        var results = AsyncQueries.map(items,
+                i -> i % 2 != 0 || Thread.currentThread() == caller,
+                i -> i % 2 == 0);
+
+        assertEquals(Collections.nCopies(10, true), results);
+    }
+
+    /**
+     *
+     */
+    @Test(expected = MongoException.class)
+    public void testMapErrorIsRethrown() {
+        AsyncQueries.map(List.of(1, 2, 3), i -> {
+            if (i == 2) {
+                throw new MongoException("query failed");
+            }
+
+            return i;
+        });
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonDocument;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CollectionSizeCacheTest {
+    private static final String DB = "test-size-cache";
+
+    /**
+     *
+     */
+    @Test
+    public void testCachedByCollectionAndFilter() {
+        var counts = new AtomicInteger();
+        var cache = new CollectionSizeCache(60_000, (coll, filters)
+                -> (long) counts.incrementAndGet());
+
+        var coll = coll("coll");
+        var filter = BsonDocument.parse("{'a':1}");
+
+        assertEquals(1, cache.get(coll, filter));
+        assertEquals(1, cache.get(coll, BsonDocument.parse("{'a':1}")));
+        assertEquals(2, cache.get(coll, BsonDocument.parse("{'a':2}")));
+        assertEquals(3, cache.get(coll("other"), filter));
+        assertEquals(4, cache.get(coll, new BsonDocument()));
+        assertEquals(4, counts.get());
+
+        // the cached key is not affected by changes of the filter
+        filter.put("b", new BsonDocument());
+        assertEquals(5, cache.get(coll, filter));
+        assertEquals(1, cache.get(coll, BsonDocument.parse("{'a':1}")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testInvalidate() {
+        var counts = new AtomicInteger();
+        var cache = new CollectionSizeCache(60_000, (coll, filters)
+                -> (long) counts.incrementAndGet());
+
+        var coll = coll("coll");
+        var other = coll("other");
+        var filter = new BsonDocument();
+
+        cache.get(coll, filter);
+        cache.get(other, filter);
+
+        cache.invalidate(DB, "coll");
+
+        assertEquals(3, cache.get(coll, filter));
+        assertEquals(2, cache.get(other, filter));
+
+        cache.invalidateDb(DB);
+
+        assertEquals(4, cache.get(coll, filter));
+        assertEquals(5, cache.get(other, filter));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testDisabled() {
+        var counts = new AtomicInteger();
+        var cache = new CollectionSizeCache(0, (coll, filters)
+                -> (long) counts.incrementAndGet());
+
+        var coll = coll("coll");
+
+        assertEquals(1, cache.get(coll, new BsonDocument()));
+        assertEquals(2, cache.get(coll, new BsonDocument()));
+
+        cache.invalidate(DB, "coll");
+    }
+
+    /**
+     *
+     */
+    @Test(expected = MongoException.class)
+    public void testCountErrorIsRethrown() {
+        var cache = new CollectionSizeCache(60_000, (coll, filters) -> {
+            throw new MongoException("Can't canonicalize query");
+        });
+
+        cache.get(coll("coll"), BsonDocument.parse("{'$x':1}"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCollection<BsonDocument> coll(String name) {
+        MongoCollection<BsonDocument> coll = mock(MongoCollection.class);
+
+        when(coll.getNamespace()).thenReturn(new MongoNamespace(DB, name));
+
+        return coll;
+    }
+}
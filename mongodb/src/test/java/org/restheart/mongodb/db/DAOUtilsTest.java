@@ -5,7 +5,11 @@
  */
 package org.restheart.mongodb.db;
 
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
 import org.bson.BsonString;
 import static org.junit.Assert.*;
 import org.junit.Rule;
@@ -72,4 +76,38 @@ public class DAOUtilsTest {
         assertEquals(DAOUtils.validContent(dbo), dbo);
     }
 
+    /**
+     *
+     */
+    @Test
+    public void testIsDuplicateIdError() {
+        assertTrue(DAOUtils.isDuplicateIdError(commandError(11000,
+                "{'keyPattern':{'_id':1},'keyValue':{'_id':'a'}}")));
+        assertFalse(DAOUtils.isDuplicateIdError(commandError(11000,
+                "{'keyPattern':{'email':1},'keyValue':{'email':'a'}}")));
+        assertFalse(DAOUtils.isDuplicateIdError(commandError(11000,
+                "{'keyPattern':{'_id':1,'email':1}}")));
+        // before MongoDB 4.2 the key pattern is not reported
+        assertTrue(DAOUtils.isDuplicateIdError(commandError(11000, "{}")));
+        assertFalse(DAOUtils.isDuplicateIdError(commandError(2, "{}")));
+
+        assertTrue(DAOUtils.isDuplicateIdError(new WriteError(11000,
+                "error", BsonDocument.parse("{'keyPattern':{'_id':1}}"))));
+        assertFalse(DAOUtils.isDuplicateIdError(new WriteError(11000,
+                "error", BsonDocument.parse("{'keyPattern':{'email':1}}"))));
+        assertTrue(DAOUtils.isDuplicateIdError(new WriteError(11000,
+                "error", new BsonDocument())));
+        assertFalse(DAOUtils.isDuplicateIdError(new WriteError(2,
+                "error", new BsonDocument())));
+    }
+
+    private static MongoCommandException commandError(int code,
+            String response) {
+        var doc = BsonDocument.parse(response);
+        doc.put("ok", new BsonInt32(0));
+        doc.put("code", new BsonInt32(code));
+        doc.put("errmsg", new BsonString("error " + code));
+
+        return new MongoCommandException(doc, new ServerAddress());
+    }
 }
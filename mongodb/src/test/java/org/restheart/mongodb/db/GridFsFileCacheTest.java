@@ -0,0 +1,184 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Date;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GridFsFileCacheTest {
+
+    /**
+     *
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GridFSFile file(String id, int length, ObjectId etag) {
+        return new GridFSFile(new BsonString(id), id, length, 255,
+                new Date(), null, new Document("_etag", etag));
+    }
+
+    private static GridFsFileCache.Download content(int length) {
+        return out -> out.write(new byte[length]);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoadAndGet() throws Exception {
+        var cache = new GridFsFileCache(folder.getRoot().toPath(), 1000, 100, 60000);
+        var file = file("a", 10, new ObjectId());
+
+        assertNull(cache.get("db", "fs", file.getId()));
+
+        var entry = cache.load("db", "fs", file, content(10));
+
+        assertNotNull(entry);
+        assertSame(entry, cache.get("db", "fs", file.getId()));
+        assertEquals(10, cache.size());
+
+        try (var channel = entry.open()) {
+            assertEquals(10, channel.read(ByteBuffer.allocate(100)));
+        }
+
+        // too big
+        assertNull(cache.load("db", "fs", file("b", 101, null), content(101)));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChangedEtag() throws Exception {
+        var cache = new GridFsFileCache(folder.getRoot().toPath(), 1000, 100, 0);
+        var file = file("a", 10, new ObjectId());
+
+        var entry = cache.load("db", "fs", file, content(10));
+
+        // ttl is 0, the entry must be checked against fs.files
+        assertNull(cache.get("db", "fs", file.getId()));
+        assertSame(entry, cache.load("db", "fs", file, content(10)));
+
+        var changed = cache.load("db", "fs", file("a", 10, new ObjectId()), content(10));
+
+        assertNotSame(entry, changed);
+        assertFalse(Files.exists(entry.getPath()));
+        assertEquals(10, cache.size());
+    }
+
+    /**
+     * a file without _etag replaced by one with the same length
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChangedUploadDate() throws Exception {
+        var cache = new GridFsFileCache(folder.getRoot().toPath(), 1000, 100, 0);
+        var file = new GridFSFile(new BsonString("a"), "a", 10, 255,
+                new Date(1000), null, null);
+
+        var entry = cache.load("db", "fs", file, content(10));
+
+        assertSame(entry, cache.load("db", "fs", new GridFSFile(
+                new BsonString("a"), "a", 10, 255, new Date(1000), null, null),
+                content(10)));
+
+        var changed = cache.load("db", "fs", new GridFSFile(
+                new BsonString("a"), "a", 10, 255, new Date(2000), null, null),
+                content(10));
+
+        assertNotSame(entry, changed);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        var cache = new GridFsFileCache(folder.getRoot().toPath(), 100, 50, 60000);
+
+        var a = cache.load("db", "fs", file("a", 40, null), content(40));
+        cache.load("db", "fs", file("b", 40, null), content(40));
+
+        // a is now the most recently used
+        cache.get("db", "fs", new BsonString("a"));
+
+        cache.load("db", "fs", file("c", 40, null), content(40));
+
+        assertNotNull(cache.get("db", "fs", new BsonString("a")));
+        assertNull(cache.get("db", "fs", new BsonString("b")));
+        assertNotNull(cache.get("db", "fs", new BsonString("c")));
+        assertEquals(80, cache.size());
+
+        cache.invalidate("db", "fs", new BsonString("a"));
+
+        assertFalse(Files.exists(a.getPath()));
+        assertEquals(40, cache.size());
+
+        cache.invalidateBucket("db", "fs");
+
+        assertEquals(0, cache.size());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidatedWhileDownloading() throws Exception {
+        var cache = new GridFsFileCache(folder.getRoot().toPath(), 1000, 100, 60000);
+
+        // an invalidation of another bucket does not discard the download
+        var other = cache.load("db", "fs", file("a", 10, null), out -> {
+            cache.invalidate("db", "other", new BsonString("a"));
+            out.write(new byte[10]);
+        });
+
+        assertNotNull(other);
+        assertSame(other, cache.get("db", "fs", new BsonString("a")));
+
+        // an invalidation of the same bucket does
+        var same = cache.load("db", "fs", file("b", 10, null), out -> {
+            cache.invalidate("db", "fs", new BsonString("c"));
+            out.write(new byte[10]);
+        });
+
+        assertNull(same);
+        assertNull(cache.get("db", "fs", new BsonString("b")));
+        assertEquals(10, cache.size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class SkipsHistogramTest {
+
+    /**
+     *
+     */
+    @Test
+    public void testEmpty() {
+        var h = new SkipsHistogram(1000, 60000, 64, 0);
+
+        assertTrue(h.allocation(10, 0).isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testAllocationIsProportional() {
+        var h = new SkipsHistogram(1000, 60000, 64, 0);
+
+        for (int cont = 0; cont < 30; cont++) {
+            h.record(50000, 0);
+        }
+
+        for (int cont = 0; cont < 10; cont++) {
+            h.record(20100, 0);
+        }
+
+        // same slice, the cursors are positioned at the smallest skips
+        for (int cont = 0; cont < 10; cont++) {
+            h.record(20500, 0);
+        }
+
+        var allocation = h.allocation(10, 0);
+
+        assertEquals(List.of(50000, 20100), new ArrayList<>(allocation.keySet()));
+        assertEquals(6, (int) allocation.get(50000));
+        assertEquals(4, (int) allocation.get(20100));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testDecay() {
+        var h = new SkipsHistogram(1000, 1000, 64, 0);
+
+        for (int cont = 0; cont < 8; cont++) {
+            h.record(10000, 0);
+        }
+
+        // after 3 half lives the weight of 8 is 1
+        h.record(90000, 3000);
+
+        var allocation = h.allocation(10, 3000);
+
+        assertEquals(5, (int) allocation.get(10000));
+        assertEquals(5, (int) allocation.get(90000));
+
+        // after a long time the weights are dropped
+        assertTrue(h.allocation(10, 60000).isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testMaxSlices() {
+        var h = new SkipsHistogram(1000, 60000, 2, 0);
+
+        h.record(10000, 0);
+        h.record(10000, 0);
+        h.record(20000, 0);
+        h.record(20000, 0);
+        h.record(30000, 0);
+
+        var allocation = h.allocation(10, 0);
+
+        assertEquals(2, allocation.size());
+        assertTrue(allocation.containsKey(10000));
+        assertTrue(allocation.containsKey(20000));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.mongodb.representation.Resource;
+
+/**
+ * Tests the dispatching of the POST requests to a collection.
+ */
+public class NormalOrBulkDispatcherHandlerTest {
+    private PipelinedHandler normal;
+    private PipelinedHandler bulk;
+    private PipelinedHandler ndjson;
+
+    /**
+     *
+     */
+    @Before
+    public void setUp() {
+        normal = mock(PipelinedHandler.class);
+        bulk = mock(PipelinedHandler.class);
+        ndjson = mock(PipelinedHandler.class);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNdjson() throws Exception {
+        var exchange = exchange(Resource.NDJSON_MEDIA_TYPE + "; charset=utf-8");
+
+        new NormalOrBulkDispatcherHandler(normal, bulk, ndjson)
+                .handleRequest(exchange);
+
+        verify(ndjson).handleRequest(exchange);
+        verify(bulk, never()).handleRequest(exchange);
+        verify(normal, never()).handleRequest(exchange);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNdjsonWithoutHandler() throws Exception {
+        var exchange = exchange(Resource.NDJSON_MEDIA_TYPE);
+
+        new NormalOrBulkDispatcherHandler(normal, bulk)
+                .handleRequest(exchange);
+
+        verify(normal).handleRequest(exchange);
+        verify(bulk, never()).handleRequest(exchange);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testJson() throws Exception {
+        var document = exchange(Resource.JSON_MEDIA_TYPE);
+        BsonRequest.wrap(document).setContent(new BsonDocument());
+
+        var array = exchange(Resource.JSON_MEDIA_TYPE);
+        BsonRequest.wrap(array).setContent(new BsonArray());
+
+        var handler = new NormalOrBulkDispatcherHandler(normal, bulk, ndjson);
+
+        handler.handleRequest(document);
+        handler.handleRequest(array);
+
+        verify(normal).handleRequest(document);
+        verify(bulk).handleRequest(array);
+        verify(ndjson, never()).handleRequest(document);
+        verify(ndjson, never()).handleRequest(array);
+    }
+
+    private static HttpServerExchange exchange(String contentType) {
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath("/db/coll");
+        exchange.setRequestMethod(new HttpString("POST"));
+        exchange.getRequestHeaders().put(Headers.CONTENT_TYPE, contentType);
+        BsonRequest.init(exchange, "/", "*");
+        return exchange;
+    }
+}
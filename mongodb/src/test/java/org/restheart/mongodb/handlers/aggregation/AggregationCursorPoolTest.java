@@ -0,0 +1,152 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class AggregationCursorPoolTest {
+    private static final String DB = "test-aggregation-cursors";
+    private static final BsonDocument VARS = new BsonDocument("n",
+            new BsonInt32(1));
+
+    /**
+     *
+     */
+    @Test
+    public void testPutAndTake() {
+        var pool = new AggregationCursorPool(10, 60_000);
+        var cursor = cursor();
+
+        var token = pool.put(DB, "coll", "agg", VARS, cursor);
+
+        assertEquals(1, pool.size());
+        assertSame(cursor, pool.take(DB, "coll", "agg", VARS, token).get());
+        assertEquals(0, pool.size());
+
+        // a cursor can be taken only once
+        assertNull(pool.take(DB, "coll", "agg", VARS, token));
+
+        // the taken cursor is not closed
+        verify(cursor, never()).close();
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testTakeFromOtherAggregation() {
+        var pool = new AggregationCursorPool(10, 60_000);
+        var cursor = cursor();
+
+        var token = pool.put(DB, "coll", "agg", VARS, cursor);
+
+        assertNull(pool.take(DB, "coll", "other", VARS, token));
+        assertNull(pool.take(DB, "other", "agg", VARS, token));
+        assertNull(pool.take(DB, "coll", "agg", VARS, "unknown"));
+        assertNull(pool.take(DB, "coll", "agg", VARS, null));
+
+        // the variables must match
+        assertNull(pool.take(DB, "coll", "agg", new BsonDocument(), token));
+        assertNull(pool.take(DB, "coll", "agg", null, token));
+
+        assertSame(cursor, pool.take(DB, "coll", "agg", VARS, token).get());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testTokens() {
+        var pool = new AggregationCursorPool(10, 60_000);
+
+        var first = pool.put(DB, "coll", "agg", VARS, cursor());
+        var second = pool.put(DB, "coll", "agg", VARS, cursor());
+
+        assertNotEquals(first, second);
+        assertEquals(2, pool.size());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testEvictedCursorsAreClosed() {
+        var pool = new AggregationCursorPool(1, 60_000);
+        var first = cursor();
+        var second = cursor();
+
+        var token = pool.put(DB, "coll", "agg", VARS, first);
+        pool.put(DB, "coll", "agg", VARS, second);
+
+        verify(first).close();
+        verify(second, never()).close();
+        assertNull(pool.take(DB, "coll", "agg", VARS, token));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpiredCursorsAreClosed() throws Exception {
+        var pool = new AggregationCursorPool(10, 10);
+        var cursor = cursor();
+
+        var token = pool.put(DB, "coll", "agg", VARS, cursor);
+
+        Thread.sleep(50);
+
+        assertEquals(0, pool.size());
+        assertNull(pool.take(DB, "coll", "agg", VARS, token));
+        verify(cursor).close();
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testExhaustedCursor() {
+        var pool = new AggregationCursorPool(10, 60_000);
+        var token = AggregationCursorPool.newToken();
+
+        pool.putExhausted(DB, "coll", "agg", VARS, token);
+
+        var exhausted = pool.take(DB, "coll", "agg", VARS, token);
+
+        assertNotNull(exhausted);
+        assertFalse(exhausted.isPresent());
+        assertNull(pool.take(DB, "coll", "agg", VARS, token));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<BsonDocument> cursor() {
+        return mock(MongoCursor.class);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AggregationResultCacheTest {
+    private static final String DB = "test-aggregation-cache";
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetAndPut() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("getAndPut", 60_000);
+        var avars = avars(1);
+
+        assertNull(cache.get(DB, "coll", aggregation, avars));
+
+        cache.put(DB, "coll", aggregation, avars, data(3),
+                cache.generation(DB, "coll"));
+
+        var cached = cache.get(DB, "coll", aggregation, avars);
+
+        assertEquals(data(3), cached);
+
+        // the returned documents are copies
+        cached.get(0).put("x", new BsonInt32(1));
+        assertEquals(data(3), cache.get(DB, "coll", aggregation, avars));
+
+        // different page
+        assertNull(cache.get(DB, "coll", aggregation, avars(2)));
+
+        assertEquals(2, cache.hits(DB, "coll", "getAndPut"));
+        assertEquals(2, cache.misses(DB, "coll", "getAndPut"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNotCachedWithoutTtl() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("noTtl", 0);
+
+        cache.put(DB, "coll", aggregation, avars(1), data(1),
+                cache.generation(DB, "coll"));
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(1)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.misses(DB, "coll", "noTtl"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("invalidate", 60_000);
+
+        cache.put(DB, "coll", aggregation, avars(1), data(1),
+                cache.generation(DB, "coll"));
+        cache.put(DB, "other", aggregation, avars(1), data(1),
+                cache.generation(DB, "other"));
+
+        cache.invalidate(DB, "coll");
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(1)));
+        assertEquals(data(1), cache.get(DB, "other", aggregation, avars(1)));
+
+        cache.invalidateDb(DB);
+
+        assertNull(cache.get(DB, "other", aggregation, avars(1)));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * results of an aggregation executed while the collection was written
+     * are not cached
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidatedWhileExecuting() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("race", 60_000);
+
+        long generation = cache.generation(DB, "coll");
+
+        cache.invalidate(DB, "coll");
+
+        cache.put(DB, "coll", aggregation, avars(1), data(1), generation);
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(1)));
+    }
+
+    /**
+     * results are cached if other collections are written while executing
+     * the aggregation, but not if its db is invalidated
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOtherCollectionWrittenWhileExecuting() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("other", 60_000);
+
+        long generation = cache.generation(DB, "coll");
+
+        cache.invalidate(DB, "other");
+        cache.invalidate("otherdb", "coll");
+
+        cache.put(DB, "coll", aggregation, avars(1), data(1), generation);
+
+        assertNotNull(cache.get(DB, "coll", aggregation, avars(1)));
+
+        generation = cache.generation(DB, "coll");
+
+        cache.invalidateDb(DB);
+
+        cache.put(DB, "coll", aggregation, avars(2), data(1), generation);
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(2)));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMetadataChanged() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+
+        cache.put(DB, "coll", aggregation("changed", 60_000), avars(1),
+                data(1), cache.generation(DB, "coll"));
+
+        assertNull(cache.get(DB, "coll", aggregation("changed", 60_000),
+                avars(1)));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        var cache = new AggregationResultCache(1024 * 1024);
+        var aggregation = aggregation("expiration", 1);
+
+        cache.put(DB, "coll", aggregation, avars(1), data(1),
+                cache.generation(DB, "coll"));
+
+        Thread.sleep(10);
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(1)));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        var cache = new AggregationResultCache(4 * 1024);
+        var aggregation = aggregation("eviction", 60_000);
+
+        for (int page = 1; page <= 10; page++) {
+            cache.put(DB, "coll", aggregation, avars(page), data(4),
+                    cache.generation(DB, "coll"));
+
+            assertTrue(cache.size() <= 4 * 1024);
+        }
+
+        // the most recent results are kept, the eldest evicted
+        assertEquals(data(4), cache.get(DB, "coll", aggregation, avars(10)));
+        assertNull(cache.get(DB, "coll", aggregation, avars(1)));
+
+        // too big to be cached
+        cache.put(DB, "coll", aggregation, avars(11), data(1000),
+                cache.generation(DB, "coll"));
+
+        assertNull(cache.get(DB, "coll", aggregation, avars(11)));
+    }
+
+    private static AbstractAggregationOperation aggregation(String uri,
+            long cacheTtl) throws Exception {
+        return new AggregationPipeline(BsonDocument.parse("{'uri':'" + uri
+                + "','type':'pipeline','stages':[{'_$match':{}}],"
+                + "'cacheTtl':" + cacheTtl + "}"));
+    }
+
+    private static BsonDocument avars(int page) {
+        return new BsonDocument("@page", new BsonInt32(page))
+                .append("@pagesize", new BsonInt32(100));
+    }
+
+    private static List<BsonDocument> data(int count) {
+        var ret = new ArrayList<BsonDocument>();
+
+        for (int idx = 0; idx < count; idx++) {
+            ret.add(new BsonDocument("_id", new BsonInt32(idx))
+                    .append("name", new BsonString("document " + idx)));
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.aggregation;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+import org.restheart.mongodb.utils.JsonUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AggregationTemplateTest {
+    private static final String STAGES = "["
+            + "{'_$match':{'name':{'_$exists':true},'age':{'_$gt':{'_$var':'minAge'}}}},"
+            + "{'_$group':{'_id':'$name','avg_age':{'_$avg':'$age'}}},"
+            + "{'_$sort':{'avg_age':-1}},"
+            + "{'_$skip':{'_$var':'@skip'}},"
+            + "{'_$limit':{'_$var':'@limit'}},"
+            + "{'_$project':{'tags':['a',{'_$var':'tag'},['b']]}}"
+            + "]";
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBind() throws Exception {
+        var template = template(STAGES);
+        var bound = template.bind(avars()).asArray();
+
+        assertFalse(template.isConstant());
+        assertEquals(BsonArray.parse("["
+                + "{'$match':{'name':{'$exists':true},'age':{'$gt':18}}},"
+                + "{'$group':{'_id':'$name','avg_age':{'$avg':'$age'}}},"
+                + "{'$sort':{'avg_age':-1}},"
+                + "{'$skip':20},"
+                + "{'$limit':10},"
+                + "{'$project':{'tags':['a','x',['b']]}}"
+                + "]"), bound);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConstantSubtreesAreShared() throws Exception {
+        var template = template(STAGES);
+
+        var first = template.bind(avars()).asArray();
+        var second = template.bind(avars()).asArray();
+
+        // the stages without variables are shared and immutable
+        assertSame(first.get(1), second.get(1));
+        assertSame(first.get(2), second.get(2));
+        assertTrue(first.get(1) instanceof RawBsonDocument);
+
+        // the $match stage is copied, its constant name condition is shared
+        assertNotSame(first.get(0), second.get(0));
+        assertSame(first.get(0).asDocument().getDocument("$match").get("name"),
+                second.get(0).asDocument().getDocument("$match").get("name"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConstant() throws Exception {
+        var template = template("[{'_$match':{'a':1}}]");
+
+        assertTrue(template.isConstant());
+        assertSame(template.bind(null), template.bind(avars()));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = QueryVariableNotBoundException.class)
+    public void testNotBound() throws Exception {
+        template(STAGES).bind(new BsonDocument("minAge", new BsonInt32(1)));
+    }
+
+    /**
+     * a wrong variable name fails binding, not compiling
+     *
+     * @throws Exception
+     */
+    @Test(expected = InvalidMetadataException.class)
+    public void testWrongVariableName() throws Exception {
+        var template = template("[{'_$limit':{'_$var':1}}]");
+
+        template.bind(avars());
+    }
+
+    private static AggregationTemplate template(String stages) {
+        return new AggregationTemplate(
+                JsonUtils.unescapeKeys(BsonArray.parse(stages)));
+    }
+
+    private static BsonDocument avars() {
+        return BsonDocument.parse("{'minAge':18,'tag':'x',"
+                + "'@skip':20,'@limit':10}");
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.bulk;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.types.ObjectId;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.handlers.exchange.BsonResponse;
+import org.restheart.handlers.exchange.ByteArrayRequest;
+import org.restheart.mongodb.MongoServiceConfiguration;
+import static org.restheart.mongodb.MongoServiceConfigurationKeys.BULK_BATCH_SIZE_KEY;
+import static org.restheart.mongodb.MongoServiceConfigurationKeys.BULK_MAX_CONCURRENT_BATCHES_KEY;
+import org.restheart.mongodb.db.BulkBatchesOperationResult;
+import org.restheart.mongodb.db.BulkOperationResult;
+import org.restheart.mongodb.db.DocumentDAO;
+import org.restheart.mongodb.handlers.metadata.BeforeWriteCheckersExecutor;
+import org.restheart.plugins.PluginsRegistry;
+import org.restheart.utils.HttpStatus;
+
+/**
+ * Tests the ndjson bulk POST with a mocked DocumentDAO and batches of two
+ * documents written one at a time.
+ */
+public class NdjsonBulkPostCollectionHandlerTest {
+    private DocumentDAO dao;
+    private NdjsonBulkPostCollectionHandler handler;
+
+    /**
+     *
+     */
+    @BeforeClass
+    public static void setUpClass() {
+        MongoServiceConfiguration.init(Map.of(
+                BULK_BATCH_SIZE_KEY, 2,
+                BULK_MAX_CONCURRENT_BATCHES_KEY, 1));
+
+        new BeforeWriteCheckersExecutor()
+                .setPluginsRegistry(mock(PluginsRegistry.class));
+    }
+
+    /**
+     *
+     */
+    @Before
+    public void setUp() {
+        dao = mock(DocumentDAO.class);
+        handler = new NdjsonBulkPostCollectionHandler(null, dao);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatches() throws Exception {
+        var written = new ArrayList<BsonArray>();
+
+        when(dao.bulkUpsertDocumentsPost(any(), eq("db"), eq("coll"),
+                any(BsonArray.class), any(), any(), any(ObjectId.class)))
+                .thenAnswer(i -> {
+                    BsonArray documents = i.getArgument(3);
+                    written.add(documents);
+                    return inserted(documents.size());
+                });
+
+        var exchange = exchange("{'a':1}\n"
+                + "{'a':2}\n"
+                + "\n"
+                + "{'a':3}\n"
+                + "{'a':4}\n"
+                + "{'a':5}");
+
+        handler.handleRequest(exchange);
+
+        var result = result(exchange);
+
+        assertEquals(HttpStatus.SC_OK,
+                BsonResponse.wrap(exchange).getStatusCode());
+        assertEquals(5, result.getDocuments());
+        assertEquals(3, result.getBatches());
+        assertEquals(5, result.getInserted());
+        assertEquals(0, result.getErrorsCount());
+
+        assertEquals(3, written.size());
+        assertEquals(2, written.get(0).size());
+        assertEquals(2, written.get(1).size());
+        assertEquals(1, written.get(2).size());
+        assertEquals(new BsonInt32(3), written.get(1).get(0)
+                .asDocument().get("a"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPartialFailure() throws Exception {
+        when(dao.bulkUpsertDocumentsPost(any(), eq("db"), eq("coll"),
+                any(BsonArray.class), any(), any(), any(ObjectId.class)))
+                .thenAnswer(i -> {
+                    BsonArray documents = i.getArgument(3);
+
+                    if (documents.get(0).asDocument().containsKey("fail")) {
+                        throw new MongoBulkWriteException(
+                                BulkWriteResult.acknowledged(0, 0, 0, 0,
+                                        upserts(1)),
+                                List.of(new BulkWriteError(11000,
+                                        "E11000 duplicate key error "
+                                        + "collection: db.coll index: "
+                                        + "_id_ dup key: { _id: \"x\" }",
+                                        new BsonDocument(), 1)),
+                                null,
+                                new ServerAddress());
+                    }
+
+                    return inserted(documents.size());
+                });
+
+        var exchange = exchange("{'a':1}\n"
+                + "not json\n"
+                + "{'a':2}\n"
+                + "{'fail':true}\n"
+                + "{'_id':'x'}");
+
+        handler.handleRequest(exchange);
+
+        var result = result(exchange);
+
+        assertEquals(HttpStatus.SC_MULTI_STATUS,
+                BsonResponse.wrap(exchange).getStatusCode());
+        assertEquals(HttpStatus.SC_MULTI_STATUS, result.getHttpCode());
+        assertEquals(5, result.getDocuments());
+        assertEquals(2, result.getBatches());
+        assertEquals(3, result.getInserted());
+        assertEquals(2, result.getErrorsCount());
+
+        var invalid = result.getErrors().get(0);
+
+        assertEquals(2, invalid.getInt64("line").getValue());
+        assertEquals(HttpStatus.SC_NOT_ACCEPTABLE,
+                invalid.getInt32("httpStatus").getValue());
+
+        var duplicate = result.getErrors().get(1);
+
+        assertEquals(5, duplicate.getInt64("line").getValue());
+        assertEquals(1, duplicate.getInt32("batch").getValue());
+        assertEquals(11000, duplicate.getInt32("mongodbErrorCode").getValue());
+        assertEquals(HttpStatus.SC_CONFLICT,
+                duplicate.getInt32("httpStatus").getValue());
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReservedDocumentId() throws Exception {
+        var exchange = exchange("{'_id':'_reserved'}\n"
+                + "{'_id':'_aggrs'}");
+
+        handler.handleRequest(exchange);
+
+        var result = result(exchange);
+
+        verify(dao, never()).bulkUpsertDocumentsPost(any(), any(), any(),
+                any(BsonArray.class), any(), any(), any(ObjectId.class));
+
+        assertEquals(HttpStatus.SC_MULTI_STATUS,
+                BsonResponse.wrap(exchange).getStatusCode());
+        assertEquals(2, result.getDocuments());
+        assertEquals(0, result.getBatches());
+        assertEquals(2, result.getErrorsCount());
+
+        for (var error : result.getErrors()) {
+            assertEquals(HttpStatus.SC_FORBIDDEN,
+                    error.getInt32("httpStatus").getValue());
+        }
+
+        assertEquals(new BsonString("id is reserved: _aggrs"),
+                result.getErrors().get(1).get("message"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNotReservedDocumentId() throws Exception {
+        when(dao.bulkUpsertDocumentsPost(any(), eq("db"), eq("coll"),
+                any(BsonArray.class), any(), any(), any(ObjectId.class)))
+                .thenAnswer(i -> inserted(((BsonArray) i.getArgument(3))
+                        .size()));
+
+        var exchange = exchange("{'_id':'_size'}");
+
+        handler.handleRequest(exchange);
+
+        verify(dao, times(1)).bulkUpsertDocumentsPost(any(), any(), any(),
+                any(BsonArray.class), any(), any(), any(ObjectId.class));
+
+        assertEquals(HttpStatus.SC_OK,
+                BsonResponse.wrap(exchange).getStatusCode());
+    }
+
+    private static BulkBatchesOperationResult result(
+            HttpServerExchange exchange) {
+        return (BulkBatchesOperationResult) BsonResponse.wrap(exchange)
+                .getDbOperationResult();
+    }
+
+    private static BulkOperationResult inserted(int count) {
+        return new BulkOperationResult(HttpStatus.SC_OK, null,
+                BulkWriteResult.acknowledged(0, 0, 0, 0, upserts(count)));
+    }
+
+    private static List<BulkWriteUpsert> upserts(int count) {
+        var upserts = new ArrayList<BulkWriteUpsert>();
+
+        for (int idx = 0; idx < count; idx++) {
+            upserts.add(new BulkWriteUpsert(idx,
+                    new org.bson.BsonObjectId()));
+        }
+
+        return Collections.unmodifiableList(upserts);
+    }
+
+    private static HttpServerExchange exchange(String ndjson) {
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath("/db/coll");
+        exchange.setRequestMethod(new HttpString("POST"));
+        BsonRequest.init(exchange, "/", "*");
+
+        PooledByteBuffer buffer = new DefaultByteBufferPool(false, 1024)
+                .allocate();
+        buffer.getBuffer()
+                .put(ndjson.replace('\'', '"')
+                        .getBytes(StandardCharsets.UTF_8))
+                .flip();
+
+        ByteArrayRequest.wrap(exchange)
+                .setRawContent(new PooledByteBuffer[]{buffer});
+
+        return exchange;
+    }
+}
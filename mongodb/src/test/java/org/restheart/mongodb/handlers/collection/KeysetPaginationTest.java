@@ -0,0 +1,173 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.collection;
+
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.restheart.mongodb.handlers.IllegalQueryParamenterException;
+
+public class KeysetPaginationTest {
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSortDocument() throws Exception {
+        assertEquals(BsonDocument.parse("{'_id':-1}"),
+                KeysetPagination.sortDocument(new BsonDocument()));
+
+        assertEquals(BsonDocument.parse("{'a':1,'b':-1,'_id':-1}"),
+                KeysetPagination.sortDocument(
+                        BsonDocument.parse("{'a':11,'b':-1}")));
+
+        assertEquals(BsonDocument.parse("{'_id':1,'a':1}"),
+                KeysetPagination.sortDocument(
+                        BsonDocument.parse("{'_id':1,'a':1}")));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalQueryParamenterException.class)
+    public void testSortDocumentWithMeta() throws Exception {
+        KeysetPagination.sortDocument(
+                BsonDocument.parse("{'score':{'$meta':'textScore'}}"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFirstPage() throws Exception {
+        var filters = BsonDocument.parse("{'a':1}");
+        var sort = KeysetPagination.sortDocument(new BsonDocument());
+
+        assertSame(filters, KeysetPagination.filterDocument(filters, sort, ""));
+        assertSame(filters, KeysetPagination.filterDocument(filters, sort, null));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNextPageFilter() throws Exception {
+        var id = new ObjectId();
+        var sort = KeysetPagination.sortDocument(
+                BsonDocument.parse("{'n.x':1}"));
+
+        var last = BsonDocument.parse("{'_id':{'$oid':'" + id.toHexString()
+                + "'},'n':{'x':{'$numberLong':'5'}}}");
+
+        var token = KeysetPagination.nextToken(sort, last);
+
+        var expected = BsonDocument.parse("{'$and':[{'a':1},{'$or':["
+                + "{'n.x':{'$gt':{'$numberLong':'5'}}},"
+                + "{'n.x':{'$eq':{'$numberLong':'5'}},"
+                + "'_id':{'$gt':{'$oid':'" + id.toHexString() + "'}}}"
+                + "]}]}");
+
+        assertEquals(expected, KeysetPagination.filterDocument(
+                BsonDocument.parse("{'a':1}"), sort, token));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalQueryParamenterException.class)
+    public void testMissingSortKey() throws Exception {
+        var sort = KeysetPagination.sortDocument(
+                BsonDocument.parse("{'a':-1}"));
+
+        KeysetPagination.nextToken(sort, BsonDocument.parse("{'_id':1}"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalQueryParamenterException.class)
+    public void testNullSortKey() throws Exception {
+        var sort = KeysetPagination.sortDocument(
+                BsonDocument.parse("{'a':-1}"));
+
+        KeysetPagination.nextToken(sort,
+                BsonDocument.parse("{'_id':1,'a':null}"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testProjection() throws Exception {
+        var sort = KeysetPagination.sortDocument(
+                BsonDocument.parse("{'a.b':1}"));
+
+        KeysetPagination.checkProjection(null, sort);
+        KeysetPagination.checkProjection(new BsonDocument(), sort);
+        KeysetPagination.checkProjection(BsonDocument.parse("{'a':1}"), sort);
+        KeysetPagination.checkProjection(BsonDocument.parse("{'a.b':1}"), sort);
+        KeysetPagination.checkProjection(BsonDocument.parse("{'c':0}"), sort);
+
+        for (var projection : new String[]{"{'c':1}", "{'a':0}",
+            "{'a.b':false}", "{'a':1,'_id':0}"}) {
+            try {
+                KeysetPagination.checkProjection(
+                        BsonDocument.parse(projection), sort);
+                fail("projection " + projection + " excludes a sort key");
+            } catch (IllegalQueryParamenterException iqpe) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalQueryParamenterException.class)
+    public void testTokenNotMatchingSort() throws Exception {
+        var token = KeysetPagination.nextToken(
+                KeysetPagination.sortDocument(BsonDocument.parse("{'a':1}")),
+                BsonDocument.parse("{'_id':1,'a':2}"));
+
+        KeysetPagination.filterDocument(new BsonDocument(),
+                KeysetPagination.sortDocument(BsonDocument.parse("{'b':1}")),
+                token);
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalQueryParamenterException.class)
+    public void testInvalidToken() throws Exception {
+        KeysetPagination.filterDocument(new BsonDocument(),
+                KeysetPagination.sortDocument(new BsonDocument()),
+                "not a token!");
+    }
+}
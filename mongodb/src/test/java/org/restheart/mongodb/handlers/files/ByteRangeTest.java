@@ -0,0 +1,88 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.handlers.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    /**
+     *
+     */
+    @Test
+    public void testSingleRange() {
+        var ranges = ByteRange.parse("bytes=0-499", 1000);
+
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(499, ranges.get(0).getEnd());
+        assertEquals(500, ranges.get(0).length());
+        assertEquals("bytes 0-499/1000", ranges.get(0).contentRange(1000));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testOpenAndSuffixRanges() {
+        var ranges = ByteRange.parse("bytes=900-, -100, 990-5000", 1000);
+
+        assertEquals(3, ranges.size());
+        assertEquals("900-999", ranges.get(0).toString());
+        assertEquals("900-999", ranges.get(1).toString());
+        assertEquals("990-999", ranges.get(2).toString());
+
+        assertEquals("0-999", ByteRange.parse("bytes=-5000", 1000)
+                .get(0).toString());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+        assertEquals(1, ByteRange.parse("bytes=1000-,0-0", 1000).size());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testInvalidIsIgnored() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-1", 1000));
+        assertNull(ByteRange.parse("bytes=1", 1000));
+        assertNull(ByteRange.parse("bytes=-", 1000));
+
+        var tooMany = new StringBuilder("bytes=0-0");
+
+        for (int cont = 1; cont <= ByteRange.MAX_RANGES; cont++) {
+            tooMany.append(",").append(cont).append("-").append(cont);
+        }
+
+        assertNull(ByteRange.parse(tooMany.toString(), 1000));
+    }
+}
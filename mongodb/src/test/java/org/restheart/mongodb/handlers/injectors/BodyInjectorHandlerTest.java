@@ -17,12 +17,16 @@
  */
 package org.restheart.mongodb.handlers.injectors;
 
-import io.undertow.server.handlers.form.FormData;
+import io.undertow.server.DefaultByteBufferPool;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import org.bson.BsonDocument;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import org.restheart.mongodb.handlers.PipedHttpHandler;
+import org.restheart.mongodb.utils.MultipartStream;
 
 /**
  *
@@ -37,23 +41,39 @@ public class BodyInjectorHandlerTest {
     }
 
     /**
-     * If formData contains a PROPERTIES part, then must be valid JSON
+     * If the form contains a PROPERTIES part, then must be valid JSON
      * @throws SecurityException
      * @throws NoSuchFieldException
      * @throws IllegalAccessException
      * @throws IllegalArgumentException
+     * @throws IOException
      */
     @Test
     @SuppressWarnings("deprecation")
-    public void test_extractProperties() throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
+    public void test_extractProperties() throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException, IOException {
         final String jsonString
                 = "{\"key1\": \"value1\", \"key2\": \"value2\"}";
-        FormData formData = new FormData(1);
         Field field = PipedHttpHandler.class.getDeclaredField("PROPERTIES");
         field.setAccessible(true);
 
-        formData.add(field.get(null).toString(), jsonString);
-        BsonDocument result = BodyInjector.extractMetadata(formData);
+        final String body = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\""
+                + field.get(null).toString() + "\"\r\n\r\n"
+                + jsonString + "\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"f.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "content\r\n"
+                + "--XyZ--\r\n";
+
+        MultipartStream form = new MultipartStream(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+                "multipart/form-data; boundary=XyZ",
+                new DefaultByteBufferPool(false, 1024));
+
+        form.readUpToFile(0);
+
+        BsonDocument result = BodyInjector.extractMetadata(form);
         BsonDocument expected = BsonDocument.parse(jsonString);
         assertEquals(expected, result);
     }
@@ -0,0 +1,98 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.metadata;
+
+import org.bson.BsonDocument;
+import org.restheart.mongodb.handlers.metadata.InvalidMetadataException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CollectionDescriptorTest {
+
+    private static final String PROPS = "{'_etag':{'$oid':'5d0b3e7dc4d3b8b5c0a8e6a1'},"
+            + "'checkers':[{'name':'checkContent','args':{'$.n':{'type':'number'}}}],"
+            + "'rels':[{'rel':'parent','type':'MANY_TO_ONE','role':'OWNING','target-coll':'coll','ref-field':'parent'}],"
+            + "'aggrs':[{'type':'pipeline','uri':'ap','stages':[{'$match':{'n':1}}]}]}";
+
+    @Test
+    public void testParse() throws InvalidMetadataException {
+        var d = new CollectionDescriptor(BsonDocument.parse(PROPS));
+
+        assertEquals(1, d.getCheckers().size());
+        assertEquals("checkContent", d.getCheckers().get(0).getName());
+        assertEquals(1, d.getRelationships().size());
+        assertEquals(1, d.getAggregations().size());
+        assertEquals("ap", d.getAggregations().get(0).getUri());
+    }
+
+    @Test(expected = InvalidMetadataException.class)
+    public void testMissingHooks() throws InvalidMetadataException {
+        new CollectionDescriptor(BsonDocument.parse(PROPS)).getHooks();
+    }
+
+    @Test
+    public void testNullProps() throws InvalidMetadataException {
+        var d = new CollectionDescriptor(null);
+
+        assertNull(d.getHooks());
+        assertNull(d.getCheckers());
+        assertNull(d.getTransformers());
+        assertNull(d.getAggregations());
+        assertNull(d.getRelationships());
+    }
+
+    @Test
+    public void testIsFor() {
+        var props = BsonDocument.parse(PROPS);
+        var d = new CollectionDescriptor(props);
+
+        assertTrue(d.isFor(props));
+        assertTrue(d.isFor(BsonDocument.parse(PROPS)));
+        assertFalse(d.isFor(BsonDocument.parse("{'_etag':{'$oid':'5d0b3e7dc4d3b8b5c0a8e6a2'}}")));
+        assertFalse(d.isFor(null));
+
+        var noEtag = new CollectionDescriptor(BsonDocument.parse("{'a':1}"));
+
+        assertTrue(noEtag.isFor(BsonDocument.parse("{'a':1}")));
+        assertFalse(noEtag.isFor(BsonDocument.parse("{'a':2}")));
+    }
+
+    @Test
+    public void testCache() {
+        var cache = CollectionDescriptorsCacheSingleton.getInstance();
+
+        var first = cache.get("db", "coll", BsonDocument.parse(PROPS));
+
+        assertSame(first, cache.get("db", "coll", BsonDocument.parse(PROPS)));
+
+        var changed = cache.get("db", "coll",
+                BsonDocument.parse("{'_etag':{'$oid':'5d0b3e7dc4d3b8b5c0a8e6a2'}}"));
+
+        assertNotSame(first, changed);
+
+        cache.invalidateCollection("db", "coll");
+
+        assertNotSame(changed, cache.get("db", "coll",
+                BsonDocument.parse("{'_etag':{'$oid':'5d0b3e7dc4d3b8b5c0a8e6a2'}}")));
+    }
+}
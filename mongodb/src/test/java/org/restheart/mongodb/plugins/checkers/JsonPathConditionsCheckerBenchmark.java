@@ -0,0 +1,119 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.checkers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Methods;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.restheart.handlers.exchange.RequestContext;
+
+/**
+ * Compares the per document cost of the JsonPathConditionsChecker conditions
+ * interpreted at every check with the compiled ones.
+ *
+ * It is not executed by the test phase; run it with:
+ *
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.restheart.mongodb.plugins.checkers.JsonPathConditionsCheckerBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("deprecation")
+public class JsonPathConditionsCheckerBenchmark {
+    private final JsonPathConditionsChecker checker
+            = new JsonPathConditionsChecker();
+
+    private final InterpretedConditions interpreter
+            = new InterpretedConditions();
+
+    private BsonArray conditions;
+    private BsonDocument doc;
+    private RequestContext context;
+
+    @Setup
+    public void setup() {
+        conditions = BsonArray.parse("["
+                + "{'path':'$','type':'object',"
+                + "'mandatoryFields':['_id','name','password','roles'],"
+                + "'optionalFields':['details','_etag']},"
+                + "{'path':'$._id','type':'string',"
+                + "'regex':'^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\\\.[A-Z]{2,6}$'},"
+                + "{'path':'$.password','type':'string'},"
+                + "{'path':'$.roles','type':'array'},"
+                + "{'path':'$.roles.[*]','type':'string','nullable':true},"
+                + "{'path':'$.name','type':'string'},"
+                + "{'path':'$.details','type':'object',"
+                + "'mandatoryFields':['country','city','address'],"
+                + "'optional':true},"
+                + "{'path':'$.details.country','type':'string','nullable':true},"
+                + "{'path':'$.details.city','type':'string','nullable':true},"
+                + "{'path':'$.details.address','type':'string','nullable':true}"
+                + "]");
+
+        doc = BsonDocument.parse("{'_id':'user@example.com',"
+                + "'name':'User','password':'secret',"
+                + "'roles':['admin','user'],"
+                + "'details':{'country':'Italy','city':'Rome',"
+                + "'address':'Via Roma 1'}}");
+
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath("/db/coll");
+        exchange.setRequestMethod(Methods.POST);
+
+        context = new RequestContext(exchange, "/", "*");
+    }
+
+    @Benchmark
+    public boolean interpreted() {
+        return interpreter.applyConditions(
+                interpreter.filterMissingOptionalAndNullNullableConditions(
+                        conditions, doc),
+                doc,
+                context);
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        return checker.check(null, context, doc, conditions);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonPathConditionsCheckerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
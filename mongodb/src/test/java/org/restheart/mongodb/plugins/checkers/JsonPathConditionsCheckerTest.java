@@ -0,0 +1,150 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.checkers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Methods;
+import java.util.List;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.restheart.handlers.exchange.RequestContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class JsonPathConditionsCheckerTest {
+    private static final String CONDITIONS = "["
+            + "{'path':'$','type':'object',"
+            + "'mandatoryFields':['_id','name','roles'],"
+            + "'optionalFields':['details','tags','n','_etag']},"
+            + "{'path':'$._id','type':'string',"
+            + "'regex':'^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\\\.[A-Z]{2,6}$'},"
+            + "{'path':'$.name','type':'string'},"
+            + "{'path':'$.roles','type':'array','count':1},"
+            + "{'path':'$.roles.[*]','type':'string','nullable':true},"
+            + "{'path':'$.details','type':'object',"
+            + "'mandatoryFields':['city'],'optional':true},"
+            + "{'path':'$.details.city','type':'string','nullable':true},"
+            + "{'path':'$.tags','count':[0,2],'optional':true},"
+            + "{'path':'$.tags.[*]','regex':'^a','optional':true},"
+            + "{'path':'$.n','type':'Number','optional':true},"
+            + "{'path':'$.details.*','type':'notnull','optional':true},"
+            + "{'path':'$.name','nullable':true},"
+            + "'notAnObject',"
+            + "{'type':'string'}"
+            + "]";
+
+    private static final List<String> DOCS = List.of(
+            "{'_id':'a@b.com','name':'a','roles':['x']}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'details':null}",
+            "{'_id':'a@b.com','name':'a','roles':[null]}",
+            "{'_id':'a@b.com','name':'a','roles':['x','y']}",
+            "{'_id':'not an email','name':'a','roles':['x']}",
+            "{'_id':'a@b.com','name':1,'roles':['x']}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'other':1}",
+            "{'_id':'a@b.com','roles':['x']}",
+            "{'_id':'a@b.com','name':'a','roles':{'0':'x'}}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'details':{'city':'r'}}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'details':{'city':null}}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'details':{'x':1}}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'details':1}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'tags':[]}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'tags':['ab','Ac']}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'tags':['ab','b']}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'tags':['ab']}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'n':1.5}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'n':'1'}",
+            "{'_id':'a@b.com','name':'a','roles':['x'],'tags':{'a':1}}");
+
+    /**
+     *
+     */
+    @Test
+    public void testCompiledConditionsMatchInterpretedOnes() {
+        var checker = new JsonPathConditionsChecker();
+        var interpreter = new InterpretedConditions();
+        var conditions = BsonArray.parse(CONDITIONS);
+
+        for (var json : DOCS) {
+            var doc = BsonDocument.parse(json);
+
+            var interpretedContext = context();
+            var interpreted = interpreter.applyConditions(
+                    interpreter.filterMissingOptionalAndNullNullableConditions(
+                            conditions, doc),
+                    doc,
+                    interpretedContext);
+
+            var compiledContext = context();
+            var compiled = checker.check(null, compiledContext, doc,
+                    conditions);
+
+            assertEquals(json, interpreted, compiled);
+            assertEquals(json, interpretedContext.getWarnings(),
+                    compiledContext.getWarnings());
+        }
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testCheckAll() {
+        var checker = new JsonPathConditionsChecker();
+        var conditions = BsonArray.parse(CONDITIONS);
+
+        var valid = List.of(BsonDocument.parse(DOCS.get(0)),
+                BsonDocument.parse(DOCS.get(9)));
+
+        assertTrue(checker.checkAll(null, context(), valid, conditions, null));
+
+        var invalid = List.of(BsonDocument.parse(DOCS.get(0)),
+                BsonDocument.parse(DOCS.get(4)));
+
+        var context = context();
+
+        assertFalse(checker.checkAll(null, context, invalid, conditions, null));
+        assertFalse(context.getWarnings().isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testConditionsAreCompiledOnce() {
+        var first = JsonPathConditionsChecker.compile(
+                BsonArray.parse(CONDITIONS));
+        var second = JsonPathConditionsChecker.compile(
+                BsonArray.parse(CONDITIONS));
+
+        assertSame(first, second);
+        // conditions that are not objects or without path are ignored
+        assertEquals(12, first.size());
+    }
+
+    private static RequestContext context() {
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath("/db/coll");
+        exchange.setRequestMethod(Methods.POST);
+
+        return new RequestContext(exchange, "/", "*");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.checkers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.types.Decimal128;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonSchemaCheckerTest {
+
+    /**
+     *
+     */
+    @Test
+    public void testToJSON() {
+        var doc = new BsonDocument("s", new BsonString("a\"b"))
+                .append("i", new BsonInt32(-7))
+                .append("l", new BsonInt64(Long.MAX_VALUE))
+                .append("d", new BsonDouble(1.5))
+                .append("nan", new BsonDouble(Double.NaN))
+                .append("inf", new BsonDouble(Double.NEGATIVE_INFINITY))
+                .append("b", BsonBoolean.TRUE)
+                .append("n", BsonNull.VALUE)
+                .append("o", new BsonObjectId())
+                .append("date", new BsonDateTime(1234567))
+                .append("farDate", new BsonDateTime(-5000000000000L))
+                .append("dec", new BsonDecimal128(Decimal128.parse("1.5")))
+                .append("ts", new BsonTimestamp(5, 6))
+                .append("bin", new BsonBinary(new byte[]{1, 2}))
+                .append("a", new BsonArray(List.of(new BsonInt32(1),
+                        new BsonDocument("x", new BsonString("y")))));
+
+        var expected = new JSONObject(doc.toJson());
+
+        assertTrue(expected.similar(JsonSchemaChecker.toJSON(doc)));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testValidateAll() throws Exception {
+        var schema = SchemaLoader.load(new JSONObject(
+                "{'type':'object','properties':{'n':{'type':'integer'}},"
+                + "'required':['n']}"));
+
+        var documents = new ArrayList<BsonDocument>();
+
+        for (int idx = 0; idx < JsonSchemaChecker.PARALLEL_THRESHOLD * 4; idx++) {
+            documents.add(idx == 3 || idx == 150
+                    ? new BsonDocument("n", new BsonString("x"))
+                    : new BsonDocument("n", new BsonInt32(idx)));
+        }
+
+        var failures = JsonSchemaChecker.validateAll(schema, documents);
+
+        assertEquals(List.of(3, 150), failures.stream()
+                .map(f -> f.index)
+                .collect(Collectors.toList()));
+        assertFalse(failures.get(0).warnings.isEmpty());
+
+        assertTrue(JsonSchemaChecker.validateAll(schema,
+                documents.subList(4, 10)).isEmpty());
+    }
+}
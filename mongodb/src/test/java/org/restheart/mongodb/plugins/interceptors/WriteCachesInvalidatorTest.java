@@ -0,0 +1,127 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.plugins.interceptors;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.restheart.handlers.exchange.BsonRequest;
+import org.restheart.utils.HttpStatus;
+
+/**
+ * Tests which requests invalidate the data cached from the written
+ * collections.
+ */
+public class WriteCachesInvalidatorTest {
+    private final WriteCachesInvalidator invalidator
+            = new WriteCachesInvalidator();
+
+    /**
+     *
+     */
+    @Test
+    public void testDocumentsWrites() {
+        assertTrue(invalidator.resolve(exchange("/db/coll", "POST")));
+        assertTrue(invalidator.resolve(exchange("/db/coll/doc", "PUT")));
+        assertTrue(invalidator.resolve(exchange("/db/coll/doc", "PATCH")));
+        assertTrue(invalidator.resolve(exchange("/db/coll/doc", "DELETE")));
+        assertTrue(invalidator.resolve(exchange("/db/coll/*", "PATCH")));
+        assertTrue(invalidator.resolve(exchange("/db/coll/*", "DELETE")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testDbAndCollectionWrites() {
+        assertTrue(invalidator.resolve(exchange("/db", "DELETE")));
+        assertTrue(invalidator.resolve(exchange("/db/coll", "DELETE")));
+        assertFalse(invalidator.resolve(exchange("/db", "PUT")));
+        assertFalse(invalidator.resolve(exchange("/db", "PATCH")));
+        assertFalse(invalidator.resolve(exchange("/db/coll", "PUT")));
+        assertFalse(invalidator.resolve(exchange("/db/coll", "PATCH")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testFilesWrites() {
+        assertTrue(invalidator.resolve(exchange("/db/bucket.files", "POST")));
+        assertTrue(invalidator.resolve(exchange("/db/bucket.files", "DELETE")));
+        assertTrue(invalidator.resolve(exchange("/db/bucket.files/f", "PUT")));
+        assertTrue(invalidator.resolve(exchange("/db/bucket.files/f", "PATCH")));
+        assertTrue(invalidator.resolve(exchange("/db/bucket.files/f", "DELETE")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testReads() {
+        assertFalse(invalidator.resolve(exchange("/db/coll", "GET")));
+        assertFalse(invalidator.resolve(exchange("/db/coll/doc", "GET")));
+        assertFalse(invalidator.resolve(exchange("/db/coll/_size", "GET")));
+        assertFalse(invalidator.resolve(exchange("/db/bucket.files/f/binary",
+                "GET")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testFailedWrites() {
+        var conflict = exchange("/db/coll/doc", "PUT");
+        conflict.setStatusCode(HttpStatus.SC_CONFLICT);
+
+        assertFalse(invalidator.resolve(conflict));
+
+        var error = exchange("/db/coll", "POST");
+        error.setStatusCode(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+
+        assertFalse(invalidator.resolve(error));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testDeclaredWrites() {
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath("/csv");
+        exchange.setRequestMethod(new HttpString("POST"));
+
+        assertFalse(invalidator.resolve(exchange));
+
+        WriteCachesInvalidator.written(exchange, "db", "coll");
+        exchange.setStatusCode(HttpStatus.SC_BAD_REQUEST);
+
+        assertTrue(invalidator.resolve(exchange));
+    }
+
+    private HttpServerExchange exchange(String requestPath, String method) {
+        var exchange = new HttpServerExchange();
+        exchange.setRequestPath(requestPath);
+        exchange.setRequestMethod(new HttpString(method));
+        exchange.setStatusCode(HttpStatus.SC_OK);
+        BsonRequest.init(exchange, "/", "*");
+        return exchange;
+    }
+}
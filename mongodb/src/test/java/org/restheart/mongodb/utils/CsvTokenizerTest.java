@@ -0,0 +1,81 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CsvTokenizerTest {
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testRecords() throws IOException {
+        var t = new CsvTokenizer(new StringReader("a,b,c\r\n1,,3\n"), ',');
+
+        assertEquals(List.of("a", "b", "c"), t.next());
+        assertEquals(List.of("1", "", "3"), t.next());
+        assertNull(t.next());
+        assertEquals(2, t.getRecords());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testQuotedFields() throws IOException {
+        var t = new CsvTokenizer(new StringReader(
+                "\"a,b\";\"say \"\"hi\"\"\";\"multi\nline\";x"), ';');
+
+        assertEquals(List.of("a,b", "say \"hi\"", "multi\nline", "x"), t.next());
+        assertTrue(t.isQuoted(0));
+        assertTrue(t.isQuoted(2));
+        assertFalse(t.isQuoted(3));
+        assertNull(t.next());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testTrailingSeparator() throws IOException {
+        var t = new CsvTokenizer(new StringReader("1,2,\n"), ',');
+
+        assertEquals(List.of("1", "2", ""), t.next());
+        assertNull(t.next());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test(expected = IOException.class)
+    public void testUnterminatedQuote() throws IOException {
+        new CsvTokenizer(new StringReader("\"abc,1\n"), ',').next();
+    }
+}
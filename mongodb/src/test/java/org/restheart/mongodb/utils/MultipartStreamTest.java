@@ -0,0 +1,168 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.mongodb.utils;
+
+import io.undertow.server.DefaultByteBufferPool;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MultipartStreamTest {
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=XyZ";
+
+    private static final DefaultByteBufferPool POOL
+            = new DefaultByteBufferPool(false, 1024);
+
+    private static byte[] form(byte[] file, boolean metadataFirst) {
+        var metadata = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"properties\"\r\n\r\n"
+                + "{\"a\":1}\r\n";
+
+        var fileHeader = "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"f.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+
+        var out = new ByteArrayOutputStream();
+
+        out.writeBytes((metadataFirst ? metadata : "").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(fileHeader.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(file);
+        out.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+        out.writeBytes((metadataFirst ? "" : metadata).getBytes(StandardCharsets.UTF_8));
+        out.writeBytes("--XyZ--\r\n".getBytes(StandardCharsets.UTF_8));
+
+        return out.toByteArray();
+    }
+
+    private static byte[] file(int size) {
+        var file = new byte[size];
+
+        for (int cont = 0; cont < size; cont++) {
+            file[cont] = (byte) (cont % 251);
+        }
+
+        return file;
+    }
+
+    /**
+     * a source that returns few bytes at each read
+     */
+    private static InputStream trickle(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMetadataBeforeFile() throws Exception {
+        var file = file(100_000);
+        var form = new MultipartStream(trickle(form(file, true)),
+                CONTENT_TYPE, POOL);
+
+        assertTrue(form.readUpToFile(10));
+        assertEquals("{\"a\":1}", form.getField("properties"));
+        assertEquals("file", form.getFileField());
+        assertEquals("f.bin", form.getFileName());
+        assertEquals("application/octet-stream", form.getFileContentType());
+        assertFalse(form.isFileEnded());
+        assertArrayEquals(Arrays.copyOf(file, form.peek().length), form.peek());
+
+        assertArrayEquals(file, form.getFileInputStream().readAllBytes());
+        assertTrue(form.isFileEnded());
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMetadataAfterFile() throws Exception {
+        var file = file(50_000);
+        var form = new MultipartStream(new ByteArrayInputStream(form(file, false)),
+                CONTENT_TYPE, POOL);
+
+        assertTrue(form.readUpToFile(10));
+        assertNull(form.getField("properties"));
+
+        assertArrayEquals(file, form.getFileInputStream().readAllBytes());
+
+        form.readToEnd();
+
+        assertEquals("{\"a\":1}", form.getField("properties"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNoFile() throws Exception {
+        var data = ("--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"properties\"\r\n\r\n"
+                + "{}\r\n--XyZ--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        var form = new MultipartStream(new ByteArrayInputStream(data),
+                CONTENT_TYPE, POOL);
+
+        assertFalse(form.readUpToFile(10));
+        assertEquals("{}", form.getField("properties"));
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        var data = form(file(1000), true);
+
+        var form = new MultipartStream(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length - 100)),
+                CONTENT_TYPE, POOL);
+
+        form.readUpToFile(10);
+        form.getFileInputStream().readAllBytes();
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    @Test(expected = IOException.class)
+    public void testMissingBoundary() throws Exception {
+        new MultipartStream(new ByteArrayInputStream(new byte[0]),
+                "multipart/form-data", POOL);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * RESTHeart - the Web API for MongoDB
+ * Copyright (C) SoftInstigate Srl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.restheart.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.restheart.mongodb.utils.JsonUtils;
+import org.restheart.mongodb.utils.Minify;
+
+/**
+ * Compares the legacy BsonDocument.toJson() + Minify serialization with the
+ * single pass JsonUtils.toJson() and JsonUtils.writeJson().
+ *
+ * It is not executed by the test phase; run it with:
+ *
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.restheart.utils.JsonUtilsBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonUtilsBenchmark {
+    @Param({"1", "100"})
+    public int docs;
+
+    private BsonArray data;
+
+    private static final JsonWriterSettings LEGACY_SETTINGS = JsonWriterSettings
+            .builder()
+            .outputMode(JsonMode.RELAXED)
+            .indent(false)
+            .build();
+
+    @Setup
+    public void setup() {
+        data = new BsonArray();
+
+        for (int idx = 0; idx < docs; idx++) {
+            data.add(new BsonDocument()
+                    .append("_id", new BsonObjectId(new ObjectId()))
+                    .append("title", new BsonString("document number " + idx))
+                    .append("n", new BsonInt32(idx))
+                    .append("score", new BsonDouble(idx * 0.5))
+                    .append("date", new BsonDateTime(1577836800000L + idx))
+                    .append("tags", new BsonArray())
+                    .append("nested", new BsonDocument("a",
+                            new BsonDocument("b", new BsonString("c")))));
+        }
+    }
+
+    @Benchmark
+    public String legacyToJsonAndMinify() {
+        var doc = new BsonDocument("_embedded", data);
+        return new Minify().minify(doc.toJson(LEGACY_SETTINGS));
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JsonUtils.toJson(new BsonDocument("_embedded", data),
+                JsonMode.RELAXED);
+    }
+
+    @Benchmark
+    public int writeJson() throws IOException {
+        var os = new ByteArrayOutputStream();
+        JsonUtils.writeJson(new BsonDocument("_embedded", data),
+                JsonMode.RELAXED, os);
+        return os.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonUtilsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -17,14 +17,29 @@
  */
 package org.restheart.utils;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
 import org.bson.BsonDocument;
 import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
 import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
 import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -680,6 +695,59 @@ public class JsonUtilsTest {
         Assert.assertEquals(JsonUtils.minify(arrayOfObjs), actual);
     }
 
+    /**
+     *
+     */
+    @Test
+    public void testToJsonMatchesMinifiedDriverJson() {
+        BsonDocument doc = new BsonDocument()
+                .append("_id", new BsonObjectId(new ObjectId()))
+                .append("string", new BsonString("a \"quoted\" string with  spaces, : and {braces}"))
+                .append("int", new BsonInt32(1))
+                .append("long", new BsonInt64(Long.MAX_VALUE))
+                .append("double", new BsonDouble(3.1415))
+                .append("decimal", new BsonDecimal128(Decimal128.parse("1.5")))
+                .append("bool", BsonBoolean.TRUE)
+                .append("null", BsonNull.VALUE)
+                .append("date", new BsonDateTime(1577836800000L))
+                .append("regex", new BsonRegularExpression("^a b/c", "i"))
+                .append("timestamp", new BsonTimestamp(1, 2))
+                .append("array", new BsonArray(Arrays.asList(
+                        new BsonInt32(1),
+                        new BsonString("two"),
+                        new BsonDocument("three", new BsonInt32(3)))))
+                .append("nested", new BsonDocument("a",
+                        new BsonDocument("b", new BsonArray())));
+
+        for (JsonMode mode : JsonMode.values()) {
+            JsonWriterSettings settings = JsonWriterSettings.builder()
+                    .outputMode(mode)
+                    .indent(false)
+                    .build();
+
+            Assert.assertEquals(mode.name(),
+                    JsonUtils.minify(doc.toJson(settings)),
+                    JsonUtils.toJson(doc, mode));
+
+            String wrapped = new BsonDocument("x", doc.get("array"))
+                    .toJson(settings);
+
+            Assert.assertEquals(mode.name(),
+                    JsonUtils.minify(wrapped.substring(wrapped.indexOf(':') + 1,
+                            wrapped.length() - 1)),
+                    JsonUtils.toJson(doc.get("array"), mode));
+        }
+
+        Assert.assertEquals("1", JsonUtils.toJson(new BsonInt32(1)));
+        Assert.assertEquals("\"a b\"", JsonUtils.toJson(new BsonString("a b")));
+        Assert.assertEquals("[]", JsonUtils.toJson(new BsonArray()));
+        Assert.assertEquals("{\"$date\":1}", JsonUtils.toJson(new BsonDateTime(1)));
+
+        // Minify decodes with the platform charset, check unicode explicitly
+        Assert.assertEquals("\"citt\u00e0 \u00e8\"",
+                JsonUtils.toJson(new BsonString("citt\u00e0 \u00e8")));
+    }
+
     private boolean eq(List<Optional<BsonValue>> left, List<Optional<BsonValue>> right) {
         if (left == null && right != null) {
             return false;
@@ -897,4 +965,31 @@ public class JsonUtilsTest {
                 JsonUtils.parse(
                         "{'n':{'$numberDouble':'11111111158873916063432424232349289023842309842039587209357329578573489573958734985753498573495743957349839'}}")));
     }
+
+    /**
+     *
+     */
+    @Test
+    public void testParseReader() {
+        var values = new String[]{
+            "{'a':1,'b':{'c':[1,2]}}",
+            " [{'a':1},{'b':2}] ",
+            "{'$oid':'5d0b8d2d2e2b5c3e9c0c7b1a'}",
+            "'a string'",
+            "3"
+        };
+
+        for (var json : values) {
+            Assert.assertEquals(JsonUtils.parse(json),
+                    JsonUtils.parse(new StringReader(json)));
+        }
+    }
+
+    /**
+     *
+     */
+    @Test(expected = JsonParseException.class)
+    public void testParseReaderInvalid() {
+        JsonUtils.parse(new StringReader("{'a':"));
+    }
 }